@@ -23,6 +23,8 @@ import interactivespaces.util.data.json.StandardJsonBuilder; // Added by Abhay
 
 import java.util.Map;
 
+import com.endpoint.lg.support.message.MessageDecoder;
+
 /**
  * A Street View POV, representing Maps API
  * <code>google.maps.StreetViewPov</code>.
@@ -40,6 +42,16 @@ public class StreetviewPov {
    */
   public static final String FIELD_PITCH = "pitch";
 
+  /**
+   * Decodes povs, for typed message handlers.
+   */
+  public static final MessageDecoder<StreetviewPov> DECODER = new MessageDecoder<StreetviewPov>() {
+    @Override
+    public StreetviewPov decode(JsonNavigator json) {
+      return new StreetviewPov(json);
+    }
+  };
+
   /**
    * Heading, in degrees.
    */
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Axis state shared between one writer thread and any number of reader
+ * threads.
+ * 
+ * <p>
+ * The evdev reader thread keeps its own <code>InputAbsState</code> and calls
+ * {@link #publish(InputAbsState)}, typically once per frame. Consumers such as
+ * a navigation tick or a websocket broadcaster call
+ * {@link #snapshot(InputAbsState)} to copy a consistent set of values into
+ * their own state. Neither side takes a lock: publication is guarded by a
+ * sequence counter which is odd while a write is in progress, and a reader
+ * which overlaps a write simply retries.
+ * 
+ * <p>
+ * Only one thread may publish.
+ */
+public class ConcurrentInputAbsState {
+  /**
+   * Reads to attempt before yielding while a write is in progress.
+   */
+  private static final int SPINS_BEFORE_YIELD = 64;
+
+  private final int numAxes;
+  private final AtomicIntegerArray values;
+
+  /**
+   * Even when the values are stable, odd while they are being written.
+   */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /**
+   * Per-reader space for a snapshot which may be retried.
+   */
+  private final ThreadLocal<int[]> scratch = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[numAxes];
+    }
+  };
+
+  /**
+   * Creates a shared state for EV_ABS axes.
+   */
+  public ConcurrentInputAbsState() {
+    this(InputAbsState.NUM_AXES);
+  }
+
+  /**
+   * Creates a shared state for the given number of axes, such as
+   * <code>InputRelState.NUM_AXES</code>.
+   * 
+   * @param numAxes
+   *          the number of axes
+   */
+  public ConcurrentInputAbsState(int numAxes) {
+    this.numAxes = numAxes;
+    values = new AtomicIntegerArray(numAxes);
+  }
+
+  /**
+   * Publishes all axes of the writer's state. Called only by the writer
+   * thread. If the two have different numbers of axes, only the axes both
+   * have are published and the rest keep their values.
+   * 
+   * @param source
+   *          the writer's state
+   */
+  public void publish(InputAbsState source) {
+    int count = Math.min(numAxes, source.getNumAxes());
+
+    sequence.incrementAndGet();
+
+    // ordered stores can't be seen before the odd sequence, and the next
+    // volatile increment can't be seen before them
+    for (int i = 0; i < count; i++) {
+      values.lazySet(i, source.getValue(i));
+    }
+
+    sequence.incrementAndGet();
+  }
+
+  /**
+   * Publishes a single axis. Called only by the writer thread.
+   * 
+   * @param axis
+   *          axis code
+   * @param value
+   *          axis value
+   */
+  public void setValue(int axis, int value) {
+    sequence.incrementAndGet();
+    values.lazySet(axis, value);
+    sequence.incrementAndGet();
+  }
+
+  /**
+   * Returns the latest published value of one axis.
+   * 
+   * @param axis
+   *          axis code
+   * @return axis value
+   */
+  public int getValue(int axis) {
+    return values.get(axis);
+  }
+
+  /**
+   * Returns a number which increases with every publication, so readers can
+   * skip a snapshot when nothing has been published since the last one.
+   * 
+   * @return the publication version
+   */
+  public long getVersion() {
+    return sequence.get() >>> 1;
+  }
+
+  /**
+   * Copies a consistent set of all axes. Never blocks the writer.
+   * 
+   * @param dest
+   *          destination of at least <code>numAxes</code> values
+   * @return the version of the copied values
+   */
+  public long snapshot(int[] dest) {
+    int spins = 0;
+
+    while (true) {
+      long before = sequence.get();
+
+      if ((before & 1) == 0) {
+        for (int i = 0; i < numAxes; i++) {
+          dest[i] = values.get(i);
+        }
+
+        if (sequence.get() == before) {
+          return before >>> 1;
+        }
+      }
+
+      if (++spins == SPINS_BEFORE_YIELD) {
+        spins = 0;
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Copies a consistent set of all axes into a reader's state. Axes which
+   * differ from the reader's state are marked changed, following the usual
+   * dirty/clean contract. If the two have different numbers of axes, only the
+   * axes both have are copied.
+   * 
+   * @param dest
+   *          the reader's state
+   * @return true if any axis changed
+   */
+  public boolean snapshot(InputAbsState dest) {
+    int[] copy = scratch.get();
+    boolean changed = false;
+
+    snapshot(copy);
+
+    int count = Math.min(numAxes, dest.getNumAxes());
+    for (int i = 0; i < count; i++) {
+      changed |= dest.setValue(i, copy[i]);
+    }
+
+    return changed;
+  }
+}
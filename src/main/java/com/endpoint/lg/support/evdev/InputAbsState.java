@@ -24,6 +24,11 @@ import interactivespaces.util.data.json.StandardJsonBuilder; // Added by Abhay
 /**
  * Model for the current EV_ABS state of an input device.
  * 
+ * <p>
+ * Alongside the axis values, bitmasks of non-zero axes and of axes changed
+ * since the last {@link #clean()} are maintained on every update, so
+ * serialization and <code>isNonZero()</code> only visit active axes.
+ * 
  * @author Matt Vollrath <matt@endpoint.com>
  */
 public class InputAbsState {
@@ -37,11 +42,43 @@ public class InputAbsState {
    */
   public static final int NUM_AXES = InputEventCodes.ABS_CNT;
 
+  /**
+   * The largest number of axes which can be tracked in the bitmasks.
+   */
+  public static final int MAX_AXES = 64;
+
+  /**
+   * Serialized keys for each axis code, so they are not built per message.
+   */
+  private static final String[] AXIS_KEYS = new String[MAX_AXES];
+
+  static {
+    for (int i = 0; i < MAX_AXES; i++) {
+      AXIS_KEYS[i] = Integer.toString(i);
+    }
+  }
+
   protected int values[];
   protected boolean dirty;
 
+  /**
+   * Bit <code>n</code> is set if axis <code>n</code> is not zero.
+   */
+  protected long nonZeroMask;
+
+  /**
+   * Bit <code>n</code> is set if axis <code>n</code> changed since the last
+   * clean.
+   */
+  protected long changedMask;
+
   protected void initAxes(int numAxes) {
+    if (numAxes > MAX_AXES) {
+      throw new IllegalArgumentException(String.format("Too many axes: %d", numAxes));
+    }
+
     values = new int[numAxes];
+    nonZeroMask = 0;
     clean();
   }
 
@@ -70,6 +107,15 @@ public class InputAbsState {
     deserialize(json);
   }
 
+  /**
+   * Returns the number of axes.
+   * 
+   * @return the axis count
+   */
+  public int getNumAxes() {
+    return values.length;
+  }
+
   /**
    * Returns the value for the given axis.
    * 
@@ -94,6 +140,15 @@ public class InputAbsState {
     if (getValue(axis) != value) {
       values[axis] = value;
       dirty = true;
+
+      long bit = 1L << axis;
+      changedMask |= bit;
+      if (value != 0) {
+        nonZeroMask |= bit;
+      } else {
+        nonZeroMask &= ~bit;
+      }
+
       return true;
     }
 
@@ -123,20 +178,106 @@ public class InputAbsState {
   public JsonBuilder getJsonBuilder() {
     JsonBuilder json = new StandardJsonBuilder(); // Changed by Abhay
 
-    for (Integer i = 0; i < values.length; i++) {
-      if (getValue(i) != 0) {
-        json.put(i.toString(), getValue(i));
-      }
-    }
+    serialize(json);
 
     return json;
   }
 
+  /**
+   * Serialize the axes which changed since the last clean, including those
+   * which returned to zero. Applying the delta to a copy of the state as of
+   * the last clean reproduces the current state.
+   * 
+   * @return json representation of the changed axes
+   */
+  public JsonBuilder getDeltaJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    serializeDelta(json);
+
+    return json;
+  }
+
+  /**
+   * Write the non-zero axes into an existing builder, at its current
+   * position.
+   * 
+   * @param json
+   *          the builder to write to
+   */
+  public void serialize(JsonBuilder json) {
+    putAxes(json, nonZeroMask);
+  }
+
+  /**
+   * Write the axes changed since the last clean into an existing builder, at
+   * its current position.
+   * 
+   * @param json
+   *          the builder to write to
+   */
+  public void serializeDelta(JsonBuilder json) {
+    putAxes(json, changedMask);
+  }
+
+  /**
+   * Writes each axis in the mask.
+   */
+  private void putAxes(JsonBuilder json, long mask) {
+    while (mask != 0) {
+      int axis = Long.numberOfTrailingZeros(mask);
+      json.put(AXIS_KEYS[axis], values[axis]);
+      mask &= mask - 1;
+    }
+  }
+
+  /**
+   * Applies a serialized delta or full state on top of the current state.
+   * 
+   * @param json
+   *          message with axis values
+   */
+  public void merge(JsonNavigator json) {
+    deserialize(json);
+  }
+
+  /**
+   * Returns the mask of axes which are not zero.
+   * 
+   * @return bit <code>n</code> set for each non-zero axis <code>n</code>
+   */
+  public long getNonZeroMask() {
+    return nonZeroMask;
+  }
+
+  /**
+   * Returns the mask of axes which changed since the last clean.
+   * 
+   * @return bit <code>n</code> set for each changed axis <code>n</code>
+   */
+  public long getChangedMask() {
+    return changedMask;
+  }
+
+  /**
+   * Copies another state into this one, including its dirtiness and masks.
+   * 
+   * @param other
+   *          a state with the same number of axes
+   */
+  public void copyFrom(InputAbsState other) {
+    System.arraycopy(other.values, 0, values, 0, values.length);
+    dirty = other.dirty;
+    nonZeroMask = other.nonZeroMask;
+    changedMask = other.changedMask;
+  }
+
   /**
    * Clear the state's dirtiness.
    */
   public void clean() {
     dirty = false;
+    changedMask = 0;
   }
 
   /**
@@ -151,6 +292,7 @@ public class InputAbsState {
    */
   public void zero() {
     java.util.Arrays.fill(values, 0);
+    nonZeroMask = 0;
     clean();
   }
 
@@ -158,11 +300,6 @@ public class InputAbsState {
    * Check for non-zero axes.
    */
   public boolean isNonZero() {
-    for (int i = 0; i < values.length; i++) {
-      if (getValue(i) != 0)
-        return true;
-    }
-
-    return false;
+    return nonZeroMask != 0;
   }
 }
@@ -35,6 +35,16 @@ public class InputEvent {
    */
   public static final int EVENT_SZ = 24;
 
+  /**
+   * Byte offset of a raw event struct's <code>time.tv_sec</code> attribute.
+   */
+  public static final int OFFSET_TIME_SEC = 0;
+
+  /**
+   * Byte offset of a raw event struct's <code>time.tv_usec</code> attribute.
+   */
+  public static final int OFFSET_TIME_USEC = 8;
+
   /**
    * Byte offset of a raw event struct's <code>type</code> attribute.
    */
@@ -82,6 +92,12 @@ public class InputEvent {
    */
   protected int value;
 
+  /**
+   * The kernel timestamp of the event, in microseconds since the epoch. Zero
+   * if the event did not come from a device.
+   */
+  protected long time;
+
   public int getType() {
     return type;
   }
@@ -103,6 +119,13 @@ public class InputEvent {
     this.value = value;
   }
 
+  public long getTime() {
+    return time;
+  }
+  public void setTime(long time) {
+    this.time = time;
+  }
+
   /**
    * Constructs an <code>InputEvent</code> with the provided values.
    * 
@@ -119,6 +142,24 @@ public class InputEvent {
     this.value = value;
   }
 
+  /**
+   * Constructs an <code>InputEvent</code> with the provided values and
+   * timestamp.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   * @param time
+   *          event timestamp, in microseconds since the epoch
+   */
+  public InputEvent(int type, int code, int value, long time) {
+    this(type, code, value);
+    this.time = time;
+  }
+
   /**
    * Constructs an <code>InputEvent</code> from a <code>ByteBuffer</code>.
    * 
@@ -129,6 +170,20 @@ public class InputEvent {
     type = sliceToShort(buffer, OFFSET_TYPE);
     code = sliceToShort(buffer, OFFSET_CODE);
     value = sliceToInt(buffer, OFFSET_VALUE);
+    time = toMicros(sliceToLong(buffer, OFFSET_TIME_SEC), sliceToLong(buffer, OFFSET_TIME_USEC));
+  }
+
+  /**
+   * Combines the fields of a <code>timeval</code> into a single timestamp.
+   * 
+   * @param sec
+   *          seconds since the epoch
+   * @param usec
+   *          microseconds within the second
+   * @return microseconds since the epoch
+   */
+  public static long toMicros(long sec, long usec) {
+    return sec * 1000000L + usec;
   }
 
   /**
@@ -167,6 +222,18 @@ public class InputEvent {
     return json;
   }
 
+  /**
+   * Describes the event by name where possible, for logging.
+   */
+  @Override
+  public String toString() {
+    String typeName = InputEventNames.getTypeName(type);
+    String codeName = InputEventNames.getCodeName(type, code);
+
+    return String.format("%s %s %d", typeName != null ? typeName : Integer.toString(type),
+        codeName != null ? codeName : Integer.toString(code), value);
+  }
+
   /**
    * Grabs an <code>int</code> out of a <code>ByteBuffer</code>. Flips
    * endian-ness for compatibility.
@@ -182,6 +249,20 @@ public class InputEvent {
         | (buffer.get(start + 2) & 0xFF) << 16 | (buffer.get(start + 3) & 0xFF) << 24);
   }
 
+  /**
+   * Grabs a <code>long</code> out of a <code>ByteBuffer</code>. Flips
+   * endian-ness for compatibility.
+   * 
+   * @param raw
+   *          a ByteBuffer
+   * @param start
+   *          the starting index of the desired long
+   * @return a long pulled from the buffer
+   */
+  private static long sliceToLong(ByteBuffer buffer, int start) {
+    return (sliceToInt(buffer, start) & 0xFFFFFFFFL) | ((long) sliceToInt(buffer, start + 4)) << 32;
+  }
+
   /**
    * Grabs a <code>short</code> out of a <code>ByteBuffer</code>. Flips
    * endian-ness for compatibility.
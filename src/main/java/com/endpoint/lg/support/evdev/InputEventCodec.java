@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A compact binary alternative to the JSON serialization of the evdev types,
+ * for links which carry hundreds of messages per second.
+ * 
+ * <p>
+ * Events are fixed-width little-endian records: <code>type</code> and
+ * <code>code</code> as unsigned 16-bit values and <code>value</code> as a
+ * signed 32-bit value, optionally preceded by the 64-bit timestamp.
+ * 
+ * <p>
+ * Axis states are sparse: a varint bitmask of the axes present, followed by a
+ * zigzag varint for each axis value in code order. Full states include the
+ * non-zero axes and deltas include the axes changed since the last clean, as
+ * in the JSON forms. Key states are a varint count followed by the
+ * varint-encoded differences between successive pressed codes.
+ * 
+ * <p>
+ * Encoders write at the buffer's position and advance it; decoders read at
+ * the position and advance it. A buffer without enough room or data raises
+ * the usual <code>BufferOverflowException</code> or
+ * <code>BufferUnderflowException</code>.
+ */
+public class InputEventCodec {
+  /**
+   * Size of an encoded event.
+   */
+  public static final int EVENT_SZ = 8;
+
+  /**
+   * Size of an encoded event with its timestamp.
+   */
+  public static final int TIMED_EVENT_SZ = 16;
+
+  /**
+   * Largest size of an encoded axis state.
+   */
+  public static final int MAX_AXES_SZ = 10 + InputAbsState.MAX_AXES * 5;
+
+  /**
+   * Largest size of an encoded key state.
+   */
+  public static final int MAX_KEYS_SZ = 2 + InputKeyState.NUM_KEYS * 2;
+
+  private InputEventCodec() {
+  }
+
+  /**
+   * Writes an event.
+   * 
+   * @param buffer
+   *          destination
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   */
+  public static void encodeEvent(ByteBuffer buffer, int type, int code, int value) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      buffer.putShort((short) type).putShort((short) code).putInt(value);
+    } finally {
+      buffer.order(order);
+    }
+  }
+
+  /**
+   * Writes an event without its timestamp.
+   * 
+   * @param buffer
+   *          destination
+   * @param event
+   *          the event
+   */
+  public static void encodeEvent(ByteBuffer buffer, InputEvent event) {
+    encodeEvent(buffer, event.getType(), event.getCode(), event.getValue());
+  }
+
+  /**
+   * Writes an event with its timestamp.
+   * 
+   * @param buffer
+   *          destination
+   * @param event
+   *          the event
+   */
+  public static void encodeTimedEvent(ByteBuffer buffer, InputEvent event) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      buffer.putLong(event.getTime());
+    } finally {
+      buffer.order(order);
+    }
+
+    encodeEvent(buffer, event);
+  }
+
+  /**
+   * Reads an event written by {@link #encodeEvent}.
+   * 
+   * @param buffer
+   *          source
+   * @return the event
+   */
+  public static InputEvent decodeEvent(ByteBuffer buffer) {
+    return decodeEvent(buffer, 0);
+  }
+
+  /**
+   * Reads an event written by {@link #encodeTimedEvent}.
+   * 
+   * @param buffer
+   *          source
+   * @return the event
+   */
+  public static InputEvent decodeTimedEvent(ByteBuffer buffer) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    long time;
+    try {
+      time = buffer.getLong();
+    } finally {
+      buffer.order(order);
+    }
+
+    return decodeEvent(buffer, time);
+  }
+
+  /**
+   * Reads an event record.
+   */
+  private static InputEvent decodeEvent(ByteBuffer buffer, long time) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      int type = buffer.getShort() & 0xFFFF;
+      int code = buffer.getShort() & 0xFFFF;
+
+      return new InputEvent(type, code, buffer.getInt(), time);
+    } finally {
+      buffer.order(order);
+    }
+  }
+
+  /**
+   * Reads an event record into a sink, without creating an event.
+   * 
+   * @param buffer
+   *          source
+   * @param sink
+   *          receiver for the event
+   */
+  public static void decodeEvent(ByteBuffer buffer, InputEventSink sink) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      int type = buffer.getShort() & 0xFFFF;
+      int code = buffer.getShort() & 0xFFFF;
+      sink.handleEvent(0, type, code, buffer.getInt());
+    } finally {
+      buffer.order(order);
+    }
+  }
+
+  /**
+   * Writes the non-zero axes of a state.
+   * 
+   * @param buffer
+   *          destination
+   * @param state
+   *          the axis state
+   */
+  public static void encodeAxes(ByteBuffer buffer, InputAbsState state) {
+    putAxes(buffer, state, state.getNonZeroMask());
+  }
+
+  /**
+   * Writes the axes of a state which changed since the last clean.
+   * 
+   * @param buffer
+   *          destination
+   * @param state
+   *          the axis state
+   */
+  public static void encodeAxesDelta(ByteBuffer buffer, InputAbsState state) {
+    putAxes(buffer, state, state.getChangedMask());
+  }
+
+  /**
+   * Writes the axes in the mask.
+   */
+  private static void putAxes(ByteBuffer buffer, InputAbsState state, long mask) {
+    putVarLong(buffer, mask);
+
+    while (mask != 0) {
+      int axis = Long.numberOfTrailingZeros(mask);
+      putVarInt(buffer, zigzag(state.values[axis]));
+      mask &= mask - 1;
+    }
+  }
+
+  /**
+   * Applies an encoded full state or delta to a state.
+   * 
+   * @param buffer
+   *          source
+   * @param state
+   *          the state to update
+   */
+  public static void decodeAxes(ByteBuffer buffer, InputAbsState state) {
+    long mask = getVarLong(buffer);
+
+    if (64 - Long.numberOfLeadingZeros(mask) > state.values.length) {
+      throw new IllegalArgumentException(String.format("Axis mask %x out of range", mask));
+    }
+
+    while (mask != 0) {
+      int axis = Long.numberOfTrailingZeros(mask);
+      state.setValue(axis, unzigzag(getVarInt(buffer)));
+      mask &= mask - 1;
+    }
+  }
+
+  /**
+   * Writes the pressed keys of a state.
+   * 
+   * @param buffer
+   *          destination
+   * @param state
+   *          the key state
+   */
+  public static void encodeKeys(ByteBuffer buffer, InputKeyState state) {
+    putVarInt(buffer, state.getPressedCount());
+
+    int previous = 0;
+    for (int i = 0; i < InputKeyState.NUM_WORDS; i++) {
+      long word = state.pressed[i];
+      while (word != 0) {
+        int code = i * 64 + Long.numberOfTrailingZeros(word);
+        putVarInt(buffer, code - previous);
+        previous = code;
+        word &= word - 1;
+      }
+    }
+  }
+
+  /**
+   * Reads pressed keys into a state. Keys which are not listed are released.
+   * 
+   * @param buffer
+   *          source
+   * @param state
+   *          the state to update
+   */
+  public static void decodeKeys(ByteBuffer buffer, InputKeyState state) {
+    long[] pressed = new long[InputKeyState.NUM_WORDS];
+
+    int count = getVarInt(buffer);
+    int code = 0;
+    for (int i = 0; i < count; i++) {
+      code += getVarInt(buffer);
+      if (code >= InputKeyState.NUM_KEYS) {
+        throw new IllegalArgumentException(String.format("Key code %d out of range", code));
+      }
+      pressed[code >>> 6] |= 1L << code;
+    }
+
+    for (int i = 0; i < InputKeyState.NUM_WORDS; i++) {
+      long diff = pressed[i] ^ state.pressed[i];
+      while (diff != 0) {
+        int bit = Long.numberOfTrailingZeros(diff);
+        state.setPressed(i * 64 + bit, (pressed[i] & (1L << bit)) != 0);
+        diff &= diff - 1;
+      }
+    }
+  }
+
+  /**
+   * Maps signed values to unsigned so small magnitudes encode small.
+   */
+  static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  /**
+   * Reverses {@link #zigzag(int)}.
+   */
+  static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Writes an unsigned varint, seven bits per byte, least significant first.
+   */
+  static void putVarInt(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Writes an unsigned 64-bit varint.
+   */
+  static void putVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Reads an unsigned varint.
+   */
+  static int getVarInt(ByteBuffer buffer) {
+    int value = 0;
+
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Reads an unsigned 64-bit varint.
+   */
+  static long getVarLong(ByteBuffer buffer) {
+    long value = 0;
+
+    for (int shift = 0; shift < 70; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+
+    throw new IllegalArgumentException("Malformed varint");
+  }
+}
@@ -36,6 +36,8 @@ public class InputEventCodes {
   public static final int SYN_CONFIG = 1;
   public static final int SYN_MT_REPORT = 2;
   public static final int SYN_DROPPED = 3;
+  public static final int SYN_MAX = 0xf;
+  public static final int SYN_CNT = (SYN_MAX + 1);
 
   /*
    * Keys and buttons
@@ -719,6 +721,8 @@ public class InputEventCodes {
                                                       */
   public static final int ABS_MT_PRESSURE = 0x3a; /* Pressure on contact area */
   public static final int ABS_MT_DISTANCE = 0x3b; /* Contact hover distance */
+  public static final int ABS_MT_TOOL_X = 0x3c; /* Center X tool position */
+  public static final int ABS_MT_TOOL_Y = 0x3d; /* Center Y tool position */
 
   public static final int ABS_MAX = 0x3f;
   public static final int ABS_CNT = (ABS_MAX + 1);
@@ -849,4 +853,10 @@ public class InputEventCodes {
   public static final int FF_STATUS_STOPPED = 0x00;
   public static final int FF_STATUS_PLAYING = 0x01;
   public static final int FF_STATUS_MAX = 0x01;
+
+  /*
+   * Force feedback effect types
+   */
+  public static final int FF_MAX = 0x7f;
+  public static final int FF_CNT = (FF_MAX + 1);
 }
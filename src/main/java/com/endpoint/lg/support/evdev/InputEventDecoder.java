@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes a buffer of raw evdev structs, as returned by a single read() on an
+ * input device, without creating an object per event.
+ * 
+ * <p>
+ * The size of <code>struct input_event</code> depends on the size of the
+ * kernel's <code>struct timeval</code>: 24 bytes on 64-bit systems and 16
+ * bytes on 32-bit systems. The layout is selected when the decoder is
+ * constructed.
+ * 
+ * <p>
+ * Decoding consumes whole structs from the buffer's position up to its limit
+ * and leaves any trailing partial struct in place, so the buffer can be
+ * compacted and refilled by the caller.
+ */
+public class InputEventDecoder {
+  /**
+   * The size of a raw event struct with a 64-bit <code>timeval</code>.
+   */
+  public static final int EVENT_SZ_64 = InputEvent.EVENT_SZ;
+
+  /**
+   * The size of a raw event struct with a 32-bit <code>timeval</code>.
+   */
+  public static final int EVENT_SZ_32 = 16;
+
+  /**
+   * Size of the raw struct this decoder reads.
+   */
+  private final int eventSize;
+
+  /**
+   * Byte offset of the <code>time.tv_usec</code> attribute in the raw struct.
+   */
+  private final int offsetUsec;
+
+  /**
+   * Byte offset of the <code>type</code> attribute in the raw struct.
+   */
+  private final int offsetType;
+
+  /**
+   * Byte offset of the <code>code</code> attribute in the raw struct.
+   */
+  private final int offsetCode;
+
+  /**
+   * Byte offset of the <code>value</code> attribute in the raw struct.
+   */
+  private final int offsetValue;
+
+  /**
+   * Creates a decoder for the 64-bit struct layout.
+   */
+  public InputEventDecoder() {
+    this(EVENT_SZ_64);
+  }
+
+  /**
+   * Creates a decoder for the given struct size.
+   * 
+   * @param eventSize
+   *          either <code>EVENT_SZ_64</code> or <code>EVENT_SZ_32</code>
+   */
+  public InputEventDecoder(int eventSize) {
+    if (eventSize != EVENT_SZ_64 && eventSize != EVENT_SZ_32) {
+      throw new IllegalArgumentException(String.format("Unsupported event size %d", eventSize));
+    }
+
+    this.eventSize = eventSize;
+
+    // type, code and value always follow the timeval
+    int timevalSize = eventSize - 8;
+    offsetUsec = timevalSize / 2;
+    offsetType = timevalSize;
+    offsetCode = timevalSize + 2;
+    offsetValue = timevalSize + 4;
+  }
+
+  /**
+   * Returns the size of the raw struct this decoder reads.
+   * 
+   * @return struct size in bytes
+   */
+  public int getEventSize() {
+    return eventSize;
+  }
+
+  /**
+   * Returns the number of whole events remaining in the buffer.
+   * 
+   * @param buffer
+   *          a buffer of raw events
+   * @return the number of complete structs between position and limit
+   */
+  public int available(ByteBuffer buffer) {
+    return buffer.remaining() / eventSize;
+  }
+
+  /**
+   * Decodes all complete events in the buffer into the sink. If the sink
+   * throws, the buffer is left positioned at the event which failed.
+   * 
+   * @param buffer
+   *          a buffer of raw events, positioned at the first struct
+   * @param sink
+   *          receiver for the decoded events
+   * @return the number of events decoded
+   */
+  public int decode(ByteBuffer buffer, InputEventSink sink) {
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int count = 0;
+    int pos = buffer.position();
+    int end = pos + available(buffer) * eventSize;
+
+    try {
+      for (; pos < end; pos += eventSize, count++) {
+        sink.handleEvent(getTime(buffer, pos), buffer.getShort(pos + offsetType) & 0xFFFF,
+            buffer.getShort(pos + offsetCode) & 0xFFFF, buffer.getInt(pos + offsetValue));
+      }
+    } finally {
+      buffer.position(pos);
+      buffer.order(order);
+    }
+
+    return count;
+  }
+
+  /**
+   * Reads the timestamp of the struct at the given position, from a buffer
+   * already in little-endian order.
+   */
+  private long getTime(ByteBuffer buffer, int pos) {
+    if (eventSize == EVENT_SZ_64) {
+      return InputEvent.toMicros(buffer.getLong(pos), buffer.getLong(pos + offsetUsec));
+    } else {
+      return InputEvent.toMicros(buffer.getInt(pos), buffer.getInt(pos + offsetUsec));
+    }
+  }
+
+  /**
+   * Decodes complete events from the buffer into primitive arrays, starting at
+   * index zero. Decoding stops when the buffer or the arrays are exhausted.
+   * 
+   * @param buffer
+   *          a buffer of raw events, positioned at the first struct
+   * @param types
+   *          destination for event types
+   * @param codes
+   *          destination for event codes
+   * @param values
+   *          destination for event values
+   * @return the number of events decoded
+   */
+  public int decode(ByteBuffer buffer, int[] types, int[] codes, int[] values) {
+    return decode(buffer, null, types, codes, values);
+  }
+
+  /**
+   * Decodes complete events from the buffer into primitive arrays, starting at
+   * index zero. Decoding stops when the buffer or the arrays are exhausted.
+   * 
+   * @param buffer
+   *          a buffer of raw events, positioned at the first struct
+   * @param times
+   *          destination for event timestamps, or null to skip them
+   * @param types
+   *          destination for event types
+   * @param codes
+   *          destination for event codes
+   * @param values
+   *          destination for event values
+   * @return the number of events decoded
+   */
+  public int decode(ByteBuffer buffer, long[] times, int[] types, int[] codes, int[] values) {
+    int count = Math.min(available(buffer), Math.min(types.length,
+        Math.min(codes.length, values.length)));
+    if (times != null) {
+      count = Math.min(count, times.length);
+    }
+
+    ByteOrder order = buffer.order();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    int pos = buffer.position();
+    for (int i = 0; i < count; i++, pos += eventSize) {
+      if (times != null) {
+        times[i] = getTime(buffer, pos);
+      }
+      types[i] = buffer.getShort(pos + offsetType) & 0xFFFF;
+      codes[i] = buffer.getShort(pos + offsetCode) & 0xFFFF;
+      values[i] = buffer.getInt(pos + offsetValue);
+    }
+
+    buffer.position(pos);
+    buffer.order(order);
+
+    return count;
+  }
+}
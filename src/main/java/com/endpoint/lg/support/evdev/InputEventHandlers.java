@@ -17,9 +17,13 @@
 
 package com.endpoint.lg.support.evdev;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A collection of {@link InputEventHandler} instances keyed by their event type
@@ -55,11 +59,42 @@ import java.util.Map;
  * 
  * <p>
  * Handlers registered with the special ALL_CODES code will be called before a
- * more specific code handler.
+ * more specific code handler. Any number of handlers may be registered for the
+ * same type and code; they are called in the order they were registered.
+ * 
+ * <p>
+ * Handlers are kept in a table indexed by type and code, sized from
+ * {@link InputEventTypes#getCodeCount(int)}, so dispatch does no boxing or
+ * hashing. The table is copied on registration, which may happen on any
+ * thread while events are being handled.
+ * 
+ * <p>
+ * As an {@link InputEventSink}, the handlers can be fed directly by an
+ * {@link InputEventDecoder}; an <code>InputEvent</code> is only created for
+ * events of a type with registered handlers.
+ * 
+ * <p>
+ * A bitmask of the types with registered handlers is checked before any
+ * other work, so events of unwanted types such as <code>EV_MSC</code> cost a
+ * few instructions.
+ * 
+ * <p>
+ * Events of chosen types may be routed to an {@link Executor} with
+ * {@link #setExecutor(int, Executor)}, so slow handlers do not stall the
+ * reader thread. Routed events are copied and held until the frame's
+ * <code>SYN_REPORT</code>, then each executor gets one task with its share of
+ * the frame, in order, so a frame is never split or seen half updated. Route
+ * <code>EV_SYN</code> to the same executor to have its handlers run after
+ * the routed events of each frame. Ordering is only kept within each
+ * executor, and within the caller's thread: inline types may be handled
+ * before routed events of the same frame. Use a single threaded executor to
+ * keep frames in order. Events must be fed from one thread at a time, and
+ * sources which do not send <code>SYN_REPORT</code> must call
+ * {@link #flush()}.
  * 
  * @author Matt Vollrath <matt@endpoint.com>
  */
-public class InputEventHandlers {
+public class InputEventHandlers implements InputEventSink {
   /**
    * A special code value indicating that this handler should be used for all
    * events of this type.
@@ -67,9 +102,120 @@ public class InputEventHandlers {
   public static final int ALL_CODES = -1;
 
   /**
-   * The data structure organizing handlers by type and code.
+   * Handlers organized by type, then by code + 1. The first slot of each type
+   * holds the <code>ALL_CODES</code> handlers. Rows and slots are never
+   * modified once published.
+   */
+  private volatile InputEventHandler[][][] handlers = new InputEventHandler[InputEventTypes.EV_CNT][][];
+
+  /**
+   * Bit <code>n</code> is set if any handler is registered for type
+   * <code>n</code>.
+   */
+  private volatile int typeMask;
+
+  /**
+   * Executors for routed types, indexed by type. Never modified once
+   * published.
+   */
+  private volatile Executor[] executors = new Executor[InputEventTypes.EV_CNT];
+
+  /**
+   * Routed events of the current frame, by executor, in arrival order. Only
+   * touched by the thread feeding events.
+   */
+  private final Map<Executor, List<InputEvent>> pending = Maps.newIdentityHashMap();
+
+  /**
+   * Optional latency instrumentation.
+   */
+  private volatile InputLatencyMonitor latencyMonitor;
+
+  /**
+   * Sets the monitor which records dispatch latency for every handled event.
+   * 
+   * @param latencyMonitor
+   *          the monitor, or null to disable instrumentation
+   */
+  public void setLatencyMonitor(InputLatencyMonitor latencyMonitor) {
+    this.latencyMonitor = latencyMonitor;
+  }
+
+  /**
+   * Returns the latency monitor.
+   * 
+   * @return the monitor, or null if instrumentation is disabled
+   */
+  public InputLatencyMonitor getLatencyMonitor() {
+    return latencyMonitor;
+  }
+
+  /**
+   * Routes events of a type to an executor. Handlers for the type are then
+   * called on the executor's threads instead of the caller's, a frame at a
+   * time.
+   * 
+   * @param type
+   *          the <code>InputEvent</code> type to route
+   * @param executor
+   *          the executor, or null to handle the type on the caller's thread
+   */
+  public synchronized void setExecutor(int type, Executor executor) {
+    checkRange(type, ALL_CODES);
+
+    Executor[] updated = executors.clone();
+    updated[type] = executor;
+    executors = updated;
+  }
+
+  /**
+   * Returns the executor for a type.
+   * 
+   * @param type
+   *          the <code>InputEvent</code> type
+   * @return the executor, or null if the type is handled on the caller's
+   *         thread
    */
-  private final Map<Integer, Map<Integer, InputEventHandler>> handlers = Maps.newHashMap();
+  public Executor getExecutor(int type) {
+    checkRange(type, ALL_CODES);
+
+    return executors[type];
+  }
+
+  /**
+   * Checks whether any handler is registered for a type. Events of other types
+   * are dropped without dispatch.
+   * 
+   * @param type
+   *          the <code>InputEvent</code> type
+   * @return true if events of the type will be dispatched
+   */
+  public boolean isHandled(int type) {
+    return (type & ~31) == 0 && (typeMask & (1 << type)) != 0;
+  }
+
+  /**
+   * Returns the mask of handled types, for filtering events before decoding.
+   * 
+   * @return bit <code>n</code> set for each handled type <code>n</code>
+   */
+  public int getTypeMask() {
+    return typeMask;
+  }
+
+  /**
+   * Checks that a type and code fit in the dispatch table.
+   */
+  private static void checkRange(int type, int code) {
+    if (type < 0 || type >= InputEventTypes.EV_CNT) {
+      throw new IllegalArgumentException(String.format("Invalid event type %d", type));
+    }
+
+    if (code < ALL_CODES || code >= InputEventTypes.getCodeCount(type)) {
+      throw new IllegalArgumentException(String.format("Invalid code %d for event type %d", code,
+          type));
+    }
+  }
 
   /**
    * Registers a handler.
@@ -81,47 +227,222 @@ public class InputEventHandlers {
    * @param handler
    *          the handler
    */
-  public void registerHandler(int type, int code, InputEventHandler handler) {
-    Map<Integer, InputEventHandler> codeHandlers = handlers.get(type);
-    if (codeHandlers == null) {
-      codeHandlers = Maps.newHashMap();
-      handlers.put(type, codeHandlers);
+  public synchronized void registerHandler(int type, int code, InputEventHandler handler) {
+    checkRange(type, code);
+
+    InputEventHandler[][] row = handlers[type];
+    if (row == null) {
+      row = new InputEventHandler[InputEventTypes.getCodeCount(type) + 1][];
+    } else {
+      row = row.clone();
+    }
+
+    InputEventHandler[] slot = row[code + 1];
+    if (slot == null) {
+      slot = new InputEventHandler[] { handler };
+    } else {
+      slot = Arrays.copyOf(slot, slot.length + 1);
+      slot[slot.length - 1] = handler;
     }
+    row[code + 1] = slot;
 
-    codeHandlers.put(code, handler);
+    publish(type, row);
   }
 
   /**
-   * Helper for finding a handler for the given <code>InputEvent</code> type and
-   * code.
+   * Removes a handler.
+   * 
+   * @param type
+   *          the <code>InputEvent</code> type it was registered for
+   * @param code
+   *          the <code>InputEvent</code> code it was registered for
+   * @param handler
+   *          the handler
+   * @return true if the handler was registered
    */
-  private InputEventHandler fetchHandler(int type, int code) {
-    InputEventHandler handler = null;
+  public synchronized boolean unregisterHandler(int type, int code, InputEventHandler handler) {
+    checkRange(type, code);
 
-    Map<Integer, InputEventHandler> codeHandlers = handlers.get(type);
-    if (codeHandlers != null) {
-      handler = codeHandlers.get(code);
+    InputEventHandler[][] row = handlers[type];
+    if (row == null || row[code + 1] == null) {
+      return false;
     }
 
-    return handler;
+    InputEventHandler[] slot = row[code + 1];
+    for (int i = 0; i < slot.length; i++) {
+      if (slot[i] == handler) {
+        InputEventHandler[] newSlot = null;
+
+        if (slot.length > 1) {
+          newSlot = new InputEventHandler[slot.length - 1];
+          System.arraycopy(slot, 0, newSlot, 0, i);
+          System.arraycopy(slot, i + 1, newSlot, i, slot.length - i - 1);
+        }
+
+        row = row.clone();
+        row[code + 1] = newSlot;
+        publish(type, row);
+
+        return true;
+      }
+    }
+
+    return false;
   }
 
   /**
-   * Handles an <code>InputEvent</code>.
+   * Replaces a row of the dispatch table. Must be called while synchronized.
+   */
+  private void publish(int type, InputEventHandler[][] row) {
+    boolean empty = true;
+    for (int i = 0; i < row.length && empty; i++) {
+      empty = row[i] == null;
+    }
+
+    InputEventHandler[][][] table = handlers.clone();
+    table[type] = empty ? null : row;
+    handlers = table;
+
+    if (empty) {
+      typeMask &= ~(1 << type);
+    } else {
+      typeMask |= 1 << type;
+    }
+  }
+
+  /**
+   * Calls each handler in a slot.
+   */
+  private static void dispatch(InputEventHandler[] slot, InputEvent event) {
+    if (slot != null) {
+      for (int i = 0; i < slot.length; i++) {
+        slot[i].handleEvent(event);
+      }
+    }
+  }
+
+  /**
+   * Handles an <code>InputEvent</code>. Events of routed types are copied, so
+   * the caller may reuse the event.
    * 
    * @param event
    *          the event which came in
    */
   public void handleEvent(InputEvent event) {
-    InputEventHandler handler;
+    handleEvent(event, false);
+  }
 
-    // handle ALL_CODES handlers first
-    handler = fetchHandler(event.getType(), ALL_CODES);
-    if (handler != null)
-      handler.handleEvent(event);
+  /**
+   * Handles a decoded event. An <code>InputEvent</code> is only created if
+   * the type is handled.
+   * 
+   * @param time
+   *          kernel timestamp, in microseconds since the epoch
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   */
+  @Override
+  public void handleEvent(long time, int type, int code, int value) {
+    if (!isHandled(type)) {
+      if (type == InputEventTypes.EV_SYN && code == InputEventCodes.SYN_REPORT) {
+        flush();
+      }
+      return;
+    }
+
+    handleEvent(new InputEvent(type, code, value, time), true);
+  }
+
+  /**
+   * Dispatches or routes an event, and ends the frame on a
+   * <code>SYN_REPORT</code>.
+   * 
+   * @param owned
+   *          true if the event was created here and need not be copied
+   */
+  private void handleEvent(InputEvent event, boolean owned) {
+    int type = event.getType();
+    boolean report =
+        type == InputEventTypes.EV_SYN && event.getCode() == InputEventCodes.SYN_REPORT;
+
+    if (isHandled(type)) {
+      Executor executor = executors[type];
+      if (executor != null) {
+        if (!owned) {
+          event = new InputEvent(type, event.getCode(), event.getValue(), event.getTime());
+        }
+
+        List<InputEvent> frame = pending.get(executor);
+        if (frame == null) {
+          frame = Lists.newArrayList();
+          pending.put(executor, frame);
+        }
+        frame.add(event);
+      } else {
+        dispatch(event);
+      }
+    }
+
+    if (report) {
+      flush();
+    }
+  }
+
+  /**
+   * Hands the routed events held for the current frame to their executors.
+   * Called on every <code>SYN_REPORT</code>; call it directly for sources
+   * which do not send them.
+   */
+  public void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    try {
+      for (Map.Entry<Executor, List<InputEvent>> entry : pending.entrySet()) {
+        final List<InputEvent> frame = entry.getValue();
+
+        entry.getKey().execute(new Runnable() {
+          @Override
+          public void run() {
+            for (int i = 0; i < frame.size(); i++) {
+              dispatch(frame.get(i));
+            }
+          }
+        });
+      }
+    } finally {
+      pending.clear();
+    }
+  }
+
+  /**
+   * Calls the handlers for an event.
+   */
+  private void dispatch(InputEvent event) {
+    InputLatencyMonitor monitor = latencyMonitor;
+    long start = 0;
+    if (monitor != null)
+      start = monitor.beginDispatch(event.getType(), event.getCode(), event.getTime());
+
+    int type = event.getType();
+    int code = event.getCode();
+
+    InputEventHandler[][] row = handlers[type];
+
+    if (row != null) {
+      // handle ALL_CODES handlers first
+      dispatch(row[0], event);
+
+      if (code >= 0 && code + 1 < row.length)
+        dispatch(row[code + 1], event);
+    }
 
-    handler = fetchHandler(event.getType(), event.getCode());
-    if (handler != null)
-      handler.handleEvent(event);
+    if (monitor != null)
+      monitor.endDispatch(event.getType(), event.getCode(), start);
   }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * Symbolic names for event types and codes, for logging, metrics labels and
+ * tooling.
+ * 
+ * <p>
+ * The tables are built once, when the class is loaded, from the constants in
+ * {@link InputEventTypes} and {@link InputEventCodes}, and lookups are array
+ * indexing or a single map lookup. Range markers such as <code>KEY_MAX</code>
+ * and <code>KEY_CNT</code> are not names. Where several names share a code,
+ * the one returned does not depend on declaration order: the names of button
+ * groups such as <code>BTN_MOUSE</code> give way to the button they start,
+ * such as <code>BTN_LEFT</code>, other known aliases such as
+ * <code>SW_RADIO</code> give way to the kernel's own name, and any remaining
+ * tie goes to the name which sorts first. Any of the names can be looked up.
+ */
+public class InputEventNames {
+  /**
+   * Code name prefixes, and the type each belongs to.
+   */
+  private static final String[] PREFIXES = { "SYN_", "KEY_", "BTN_", "REL_", "ABS_", "MSC_",
+      "SW_", "LED_", "SND_", "REP_", "FF_" };
+  private static final int[] PREFIX_TYPES = { InputEventTypes.EV_SYN, InputEventTypes.EV_KEY,
+      InputEventTypes.EV_KEY, InputEventTypes.EV_REL, InputEventTypes.EV_ABS,
+      InputEventTypes.EV_MSC, InputEventTypes.EV_SW, InputEventTypes.EV_LED,
+      InputEventTypes.EV_SND, InputEventTypes.EV_REP, InputEventTypes.EV_FF };
+
+  /**
+   * Names which are never returned while a code has another name: the starts
+   * of button groups, then aliases kept by the kernel for compatibility.
+   */
+  private static final String[] ALIAS_NAMES = { "BTN_MISC", "BTN_MOUSE", "BTN_JOYSTICK",
+      "BTN_GAMEPAD", "BTN_DIGI", "BTN_WHEEL", "BTN_TRIGGER_HAPPY", "KEY_HANGUEL",
+      "KEY_SCREENLOCK", "SW_RADIO" };
+
+  /**
+   * Type names, indexed by type.
+   */
+  private static final String[] TYPE_NAMES = new String[InputEventTypes.EV_CNT];
+
+  /**
+   * Code names, indexed by type, then code.
+   */
+  private static final String[][] CODE_NAMES = new String[InputEventTypes.EV_CNT][];
+
+  /**
+   * Types by name.
+   */
+  private static final Map<String, Integer> TYPES = Maps.newHashMap();
+
+  /**
+   * Codes by name.
+   */
+  private static final Map<String, Integer> CODES = Maps.newHashMap();
+
+  /**
+   * The type of each name in <code>CODES</code>.
+   */
+  private static final Map<String, Integer> CODE_TYPES = Maps.newHashMap();
+
+  static {
+    for (int type = 0; type < InputEventTypes.EV_CNT; type++) {
+      CODE_NAMES[type] = new String[InputEventTypes.getCodeCount(type)];
+    }
+
+    try {
+      for (Field field : InputEventTypes.class.getDeclaredFields()) {
+        String name = field.getName();
+        if (isConstant(field) && name.startsWith("EV_") && !isRangeMarker(name)) {
+          int type = field.getInt(null);
+          TYPES.put(name, type);
+          TYPE_NAMES[type] = prefer(TYPE_NAMES[type], name);
+        }
+      }
+
+      for (Field field : InputEventCodes.class.getDeclaredFields()) {
+        String name = field.getName();
+        if (!isConstant(field) || isRangeMarker(name) || name.startsWith("FF_STATUS_")) {
+          continue;
+        }
+
+        int type = getPrefixType(name);
+        if (type < 0) {
+          continue;
+        }
+
+        int code = field.getInt(null);
+        CODES.put(name, code);
+        CODE_TYPES.put(name, type);
+
+        if (code >= 0 && code < CODE_NAMES[type].length) {
+          CODE_NAMES[type][code] = prefer(CODE_NAMES[type][code], name);
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private InputEventNames() {
+  }
+
+  /**
+   * Returns true for public static final int fields.
+   */
+  private static boolean isConstant(Field field) {
+    int modifiers = field.getModifiers();
+    return Modifier.isPublic(modifiers) && Modifier.isStatic(modifiers)
+        && Modifier.isFinal(modifiers) && field.getType() == int.class;
+  }
+
+  /**
+   * Returns true for names which mark a range rather than name a code.
+   */
+  private static boolean isRangeMarker(String name) {
+    return name.endsWith("_MAX") || name.endsWith("_CNT") || name.endsWith("_MIN_INTERESTING");
+  }
+
+  /**
+   * Returns true for names which give way to any other name of their code.
+   */
+  private static boolean isAlias(String name) {
+    for (String alias : ALIAS_NAMES) {
+      if (alias.equals(name)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Chooses which of two names of the same value is returned for it.
+   * 
+   * @param current
+   *          the name chosen so far, or null
+   * @param candidate
+   *          another name
+   * @return the preferred name
+   */
+  private static String prefer(String current, String candidate) {
+    if (current == null) {
+      return candidate;
+    }
+    if (isAlias(current) != isAlias(candidate)) {
+      return isAlias(current) ? candidate : current;
+    }
+
+    return candidate.compareTo(current) < 0 ? candidate : current;
+  }
+
+  /**
+   * Returns the type a code name belongs to, or -1.
+   */
+  private static int getPrefixType(String name) {
+    for (int i = 0; i < PREFIXES.length; i++) {
+      if (name.startsWith(PREFIXES[i])) {
+        return PREFIX_TYPES[i];
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the name of an event type.
+   * 
+   * @param type
+   *          event type
+   * @return the name, such as <code>"EV_REL"</code>, or null if unknown
+   */
+  public static String getTypeName(int type) {
+    if (type < 0 || type >= TYPE_NAMES.length) {
+      return null;
+    }
+
+    return TYPE_NAMES[type];
+  }
+
+  /**
+   * Returns the name of an event code.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @return the name, such as <code>"REL_X"</code>, or null if unknown
+   */
+  public static String getCodeName(int type, int code) {
+    if (type < 0 || type >= CODE_NAMES.length || code < 0 || code >= CODE_NAMES[type].length) {
+      return null;
+    }
+
+    return CODE_NAMES[type][code];
+  }
+
+  /**
+   * Looks up an event type by name.
+   * 
+   * @param name
+   *          type name, such as <code>"EV_REL"</code>
+   * @return the type, or -1 if unknown
+   */
+  public static int getType(String name) {
+    Integer type = TYPES.get(name);
+    return type != null ? type : -1;
+  }
+
+  /**
+   * Looks up an event code by name.
+   * 
+   * @param name
+   *          code name, such as <code>"REL_X"</code>
+   * @return the code, or -1 if unknown
+   */
+  public static int getCode(String name) {
+    Integer code = CODES.get(name);
+    return code != null ? code : -1;
+  }
+
+  /**
+   * Looks up the event type of a code name.
+   * 
+   * @param name
+   *          code name, such as <code>"REL_X"</code>
+   * @return the type, such as <code>EV_REL</code>, or -1 if unknown
+   */
+  public static int getCodeType(String name) {
+    Integer type = CODE_TYPES.get(name);
+    return type != null ? type : -1;
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records input events to a memory-mapped, append-only log, for replay with
+ * {@link InputEventReplayer}.
+ * 
+ * <p>
+ * The log is a fixed header followed by raw 64-bit layout
+ * <code>struct input_event</code> records, exactly as read from a device,
+ * including the kernel timestamp. Appending is a copy into mapped memory; the
+ * file grows in chunks of {@link #CHUNK_SZ} bytes and is trimmed to its
+ * contents on {@link #close()}. The committed length is kept in the header
+ * after every record, so a log left by a crashed process is still readable.
+ * 
+ * <p>
+ * Opening an existing log appends to it.
+ */
+public class InputEventRecorder implements InputEventSink, InputEventHandler, Closeable {
+  /**
+   * Identifies an input event log: "EVLG".
+   */
+  public static final int MAGIC = 0x45564c47;
+
+  /**
+   * The log format version.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Byte offset of the magic number in the header.
+   */
+  public static final int OFFSET_MAGIC = 0;
+
+  /**
+   * Byte offset of the format version in the header.
+   */
+  public static final int OFFSET_VERSION = 4;
+
+  /**
+   * Byte offset of the record size in the header.
+   */
+  public static final int OFFSET_EVENT_SZ = 8;
+
+  /**
+   * Byte offset of the committed record bytes in the header.
+   */
+  public static final int OFFSET_LENGTH = 16;
+
+  /**
+   * Size of the header.
+   */
+  public static final int HEADER_SZ = 24;
+
+  /**
+   * Size of each mapped region of the log.
+   */
+  public static final int CHUNK_SZ = 1 << 20;
+
+  /**
+   * Size of each record.
+   */
+  private static final int EVENT_SZ = InputEventDecoder.EVENT_SZ_64;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  /**
+   * The mapped header.
+   */
+  private final MappedByteBuffer header;
+
+  /**
+   * The mapped region currently being written.
+   */
+  private MappedByteBuffer chunk;
+
+  /**
+   * File offset of the current region.
+   */
+  private long chunkOffset;
+
+  /**
+   * Committed record bytes.
+   */
+  private long length;
+
+  /**
+   * Opens a log for recording, creating it if necessary.
+   * 
+   * @param path
+   *          the log file
+   * @throws IOException
+   *           if the file cannot be mapped or is not an input event log
+   */
+  public InputEventRecorder(File path) throws IOException {
+    file = new RandomAccessFile(path, "rw");
+    channel = file.getChannel();
+
+    try {
+      boolean existing = file.length() > 0;
+
+      header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SZ);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (existing) {
+        InputEventReplayer.checkHeader(header, path);
+        length = header.getLong(OFFSET_LENGTH);
+      } else {
+        header.putInt(OFFSET_MAGIC, MAGIC);
+        header.putInt(OFFSET_VERSION, VERSION);
+        header.putInt(OFFSET_EVENT_SZ, EVENT_SZ);
+        header.putLong(OFFSET_LENGTH, 0);
+      }
+
+      map();
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Maps the region which holds the end of the log.
+   */
+  private void map() throws IOException {
+    chunkOffset = HEADER_SZ + length;
+    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, CHUNK_SZ);
+    chunk.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Makes room for at least one more record.
+   */
+  private void ensureCapacity() {
+    if (chunk == null) {
+      throw new IllegalStateException("Recorder is closed");
+    }
+
+    if (HEADER_SZ + length + EVENT_SZ > chunkOffset + CHUNK_SZ) {
+      try {
+        map();
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not extend input event log", e);
+      }
+    }
+  }
+
+  /**
+   * Commits a record written at the end of the log.
+   */
+  private void commit() {
+    length += EVENT_SZ;
+    header.putLong(OFFSET_LENGTH, length);
+  }
+
+  /**
+   * Appends an event.
+   * 
+   * @param time
+   *          timestamp, in microseconds since the epoch
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   */
+  @Override
+  public synchronized void handleEvent(long time, int type, int code, int value) {
+    ensureCapacity();
+
+    int pos = (int) (HEADER_SZ + length - chunkOffset);
+    chunk.putLong(pos + InputEvent.OFFSET_TIME_SEC, time / 1000000);
+    chunk.putLong(pos + InputEvent.OFFSET_TIME_USEC, time % 1000000);
+    chunk.putShort(pos + InputEvent.OFFSET_TYPE, (short) type);
+    chunk.putShort(pos + InputEvent.OFFSET_CODE, (short) code);
+    chunk.putInt(pos + InputEvent.OFFSET_VALUE, value);
+
+    commit();
+  }
+
+  /**
+   * Appends an event.
+   * 
+   * @param event
+   *          the event
+   */
+  @Override
+  public void handleEvent(InputEvent event) {
+    handleEvent(event.getTime(), event.getType(), event.getCode(), event.getValue());
+  }
+
+  /**
+   * Appends the whole raw 64-bit structs between the buffer's position and
+   * limit, as read from a device. The buffer is not modified, so it may be
+   * decoded afterwards.
+   * 
+   * @param raw
+   *          a buffer of raw events
+   * @return the number of events recorded
+   */
+  public synchronized int record(ByteBuffer raw) {
+    int count = raw.remaining() / EVENT_SZ;
+    int pos = raw.position();
+
+    for (int i = 0; i < count; i++, pos += EVENT_SZ) {
+      ensureCapacity();
+
+      ByteBuffer src = raw.duplicate();
+      src.limit(pos + EVENT_SZ).position(pos);
+
+      chunk.position((int) (HEADER_SZ + length - chunkOffset));
+      chunk.put(src);
+
+      commit();
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the number of events in the log.
+   * 
+   * @return the event count
+   */
+  public synchronized long getEventCount() {
+    return length / EVENT_SZ;
+  }
+
+  /**
+   * Writes recorded events through to the storage device.
+   */
+  public synchronized void flush() {
+    if (chunk != null) {
+      chunk.force();
+      header.force();
+    }
+  }
+
+  /**
+   * Flushes the log and trims it to its contents.
+   * 
+   * @throws IOException
+   *           if the file could not be trimmed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (chunk == null) {
+      return;
+    }
+
+    flush();
+    chunk = null;
+
+    try {
+      file.setLength(HEADER_SZ + length);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a log written by {@link InputEventRecorder} into an
+ * {@link InputEventSink}, such as {@link InputEventHandlers}, for
+ * deterministic load tests of an input pipeline without a device attached.
+ * 
+ * <p>
+ * Events can be replayed at their original pace, scaled by a speed factor, or
+ * as fast as possible. Events are decoded straight from the mapped log with
+ * an {@link InputEventDecoder}.
+ */
+public class InputEventReplayer implements Closeable {
+  /**
+   * Speed factor for replaying without delays.
+   */
+  public static final double AS_FAST_AS_POSSIBLE = 0;
+
+  private final RandomAccessFile file;
+
+  /**
+   * The mapped records.
+   */
+  private final ByteBuffer records;
+
+  private final InputEventDecoder decoder;
+
+  /**
+   * If true, events are stamped with the time they are replayed.
+   */
+  private boolean restamp;
+
+  /**
+   * Opens a log for replay.
+   * 
+   * @param path
+   *          the log file
+   * @throws IOException
+   *           if the file cannot be mapped or is not an input event log
+   */
+  public InputEventReplayer(File path) throws IOException {
+    file = new RandomAccessFile(path, "r");
+
+    try {
+      FileChannel channel = file.getChannel();
+
+      if (channel.size() < InputEventRecorder.HEADER_SZ) {
+        throw new IOException(String.format("%s is not an input event log", path));
+      }
+
+      ByteBuffer header =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, InputEventRecorder.HEADER_SZ);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      checkHeader(header, path);
+
+      decoder = new InputEventDecoder(header.getInt(InputEventRecorder.OFFSET_EVENT_SZ));
+
+      long length =
+          Math.min(header.getLong(InputEventRecorder.OFFSET_LENGTH), channel.size()
+              - InputEventRecorder.HEADER_SZ);
+      length -= length % decoder.getEventSize();
+
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException(String.format("%s is too large to replay", path));
+      }
+
+      records = channel.map(FileChannel.MapMode.READ_ONLY, InputEventRecorder.HEADER_SZ, length);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    } catch (IllegalArgumentException e) {
+      file.close();
+      throw new IOException(String.format("%s has an invalid header", path), e);
+    }
+  }
+
+  /**
+   * Validates a log header.
+   * 
+   * @param header
+   *          the header, in little-endian order
+   * @param path
+   *          the log file, for error messages
+   * @throws IOException
+   *           if the header is not an input event log of a known version
+   */
+  static void checkHeader(ByteBuffer header, File path) throws IOException {
+    if (header.getInt(InputEventRecorder.OFFSET_MAGIC) != InputEventRecorder.MAGIC) {
+      throw new IOException(String.format("%s is not an input event log", path));
+    }
+
+    int version = header.getInt(InputEventRecorder.OFFSET_VERSION);
+    if (version != InputEventRecorder.VERSION) {
+      throw new IOException(String.format("%s has unsupported version %d", path, version));
+    }
+  }
+
+  /**
+   * Sets whether replayed events are stamped with the current time instead of
+   * their recorded time, so latency measurements are meaningful.
+   * 
+   * @param restamp
+   *          true to restamp events
+   */
+  public void setRestamp(boolean restamp) {
+    this.restamp = restamp;
+  }
+
+  /**
+   * Returns the number of events in the log.
+   * 
+   * @return the event count
+   */
+  public int getEventCount() {
+    return records.capacity() / decoder.getEventSize();
+  }
+
+  /**
+   * Returns the time between the first and last events of the log.
+   * 
+   * @return duration in microseconds
+   */
+  public long getDuration() {
+    int count = getEventCount();
+    if (count < 2) {
+      return 0;
+    }
+
+    return getTime(count - 1) - getTime(0);
+  }
+
+  /**
+   * Returns the recorded timestamp of an event.
+   */
+  private long getTime(int index) {
+    long[] time = new long[1];
+    ByteBuffer record = records.duplicate();
+    record.position(index * decoder.getEventSize());
+
+    decoder.decode(record, time, new int[1], new int[1], new int[1]);
+
+    return time[0];
+  }
+
+  /**
+   * Replays the whole log as fast as possible.
+   * 
+   * @param sink
+   *          receiver for the events
+   * @return the number of events replayed
+   */
+  public int replay(InputEventSink sink) {
+    ByteBuffer buffer = records.duplicate();
+
+    if (restamp) {
+      return decoder.decode(buffer, new RestampingSink(sink));
+    }
+
+    return decoder.decode(buffer, sink);
+  }
+
+  /**
+   * Replays the whole log, waiting between events so that they are delivered
+   * at the recorded pace divided by the speed factor.
+   * 
+   * @param sink
+   *          receiver for the events
+   * @param speed
+   *          speed factor; 1 is the original pace, 2 is twice as fast, and
+   *          {@link #AS_FAST_AS_POSSIBLE} disables waiting
+   * @return the number of events replayed
+   * @throws InterruptedException
+   *           if the thread is interrupted while waiting
+   */
+  public int replay(InputEventSink sink, double speed) throws InterruptedException {
+    if (speed <= AS_FAST_AS_POSSIBLE) {
+      return replay(sink);
+    }
+
+    if (restamp) {
+      sink = new RestampingSink(sink);
+    }
+
+    int eventSize = decoder.getEventSize();
+    int count = getEventCount();
+    long firstTime = count > 0 ? getTime(0) : 0;
+    long start = System.nanoTime();
+
+    long[] time = new long[1];
+    int[] type = new int[1];
+    int[] code = new int[1];
+    int[] value = new int[1];
+
+    ByteBuffer buffer = records.duplicate();
+    for (int i = 0; i < count; i++) {
+      buffer.limit((i + 1) * eventSize);
+      decoder.decode(buffer, time, type, code, value);
+
+      long due = start + (long) ((time[0] - firstTime) * 1000 / speed);
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } else if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+
+      sink.handleEvent(time[0], type[0], code[0], value[0]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Closes the log.
+   * 
+   * @throws IOException
+   *           if the file could not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /**
+   * Replaces event timestamps with the current time, read from the monotonic
+   * clock and aligned to the wall clock once.
+   */
+  private static class RestampingSink implements InputEventSink {
+    private final InputEventSink sink;
+    private final long offset;
+
+    public RestampingSink(InputEventSink sink) {
+      this.sink = sink;
+      offset = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+    }
+
+    @Override
+    public void handleEvent(long time, int type, int code, int value) {
+      sink.handleEvent(System.nanoTime() / 1000 + offset, type, code, value);
+    }
+  }
+}
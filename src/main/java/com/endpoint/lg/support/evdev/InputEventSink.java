@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+/**
+ * A receiver for decoded input events which does not require an
+ * <code>InputEvent</code> instance per event.
+ * 
+ * @see InputEventDecoder
+ */
+public interface InputEventSink {
+  /**
+   * Handle a decoded input event.
+   * 
+   * @param time
+   *          kernel timestamp, in microseconds since the epoch
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   */
+  public void handleEvent(long time, int type, int code, int value);
+}
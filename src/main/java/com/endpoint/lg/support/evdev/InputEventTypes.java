@@ -42,4 +42,38 @@ public class InputEventTypes {
   public static final int EV_FF_STATUS = 0x17;
   public static final int EV_MAX = 0x1f;
   public static final int EV_CNT = (EV_MAX + 1);
+
+  /**
+   * Returns the number of codes defined for an event type, suitable for sizing
+   * per-code tables. Types without a code range in input.h use
+   * <code>FF_CNT</code>.
+   * 
+   * @param type
+   *          event type
+   * @return the number of possible codes for the type
+   */
+  public static int getCodeCount(int type) {
+    switch (type) {
+      case EV_SYN:
+        return InputEventCodes.SYN_CNT;
+      case EV_KEY:
+        return InputEventCodes.KEY_CNT;
+      case EV_REL:
+        return InputEventCodes.REL_CNT;
+      case EV_ABS:
+        return InputEventCodes.ABS_CNT;
+      case EV_MSC:
+        return InputEventCodes.MSC_CNT;
+      case EV_SW:
+        return InputEventCodes.SW_CNT;
+      case EV_LED:
+        return InputEventCodes.LED_CNT;
+      case EV_SND:
+        return InputEventCodes.SND_CNT;
+      case EV_REP:
+        return InputEventCodes.REP_CNT;
+      default:
+        return InputEventCodes.FF_CNT;
+    }
+  }
 }
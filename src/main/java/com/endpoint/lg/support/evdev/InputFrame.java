@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+/**
+ * All input reported by a device between two <code>SYN_REPORT</code> events.
+ * 
+ * <p>
+ * EV_ABS values and EV_KEY states are latched across frames, so they always hold the
+ * latest state of the device. EV_REL values are the deltas accumulated within
+ * this frame only. Bitmasks record which axes and keys changed in this frame.
+ * 
+ * @see InputFrameAssembler
+ */
+public class InputFrame {
+  protected long time;
+
+  protected final InputAbsState absState = new InputAbsState();
+  protected final InputRelState relState = new InputRelState();
+  protected final InputKeyState keyState = new InputKeyState();
+
+  /**
+   * Returns the kernel timestamp of the <code>SYN_REPORT</code> which ended
+   * the frame.
+   * 
+   * @return microseconds since the epoch
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Returns the latched EV_ABS state.
+   * 
+   * @return absolute axis values
+   */
+  public InputAbsState getAbsState() {
+    return absState;
+  }
+
+  /**
+   * Returns the EV_REL deltas for this frame.
+   * 
+   * @return relative axis values
+   */
+  public InputRelState getRelState() {
+    return relState;
+  }
+
+  /**
+   * Returns the latched EV_KEY state. Its changed keys are those which changed
+   * in this frame.
+   * 
+   * @return held keys
+   */
+  public InputKeyState getKeyState() {
+    return keyState;
+  }
+
+  /**
+   * Returns a bitmask of the EV_ABS axes which changed in this frame. Bit
+   * <code>n</code> is set if axis <code>n</code> changed.
+   * 
+   * @return changed absolute axes
+   */
+  public long getAbsChangedMask() {
+    return absState.getChangedMask();
+  }
+
+  /**
+   * Returns a bitmask of the EV_REL axes which moved in this frame.
+   * 
+   * @return changed relative axes
+   */
+  public long getRelChangedMask() {
+    return relState.getChangedMask();
+  }
+
+  /**
+   * Checks whether an EV_ABS axis changed in this frame.
+   * 
+   * @param axis
+   *          axis code
+   * @return true if the axis changed
+   */
+  public boolean isAbsChanged(int axis) {
+    return (absState.getChangedMask() & (1L << axis)) != 0;
+  }
+
+  /**
+   * Checks whether an EV_REL axis moved in this frame.
+   * 
+   * @param axis
+   *          axis code
+   * @return true if the axis moved
+   */
+  public boolean isRelChanged(int axis) {
+    return (relState.getChangedMask() & (1L << axis)) != 0;
+  }
+
+  /**
+   * Checks whether a key changed in this frame.
+   * 
+   * @param code
+   *          key code
+   * @return true if the key changed
+   */
+  public boolean isKeyChanged(int code) {
+    return keyState.isChanged(code);
+  }
+
+  /**
+   * Checks whether any key changed in this frame.
+   * 
+   * @return true if a key changed
+   */
+  public boolean isAnyKeyChanged() {
+    return keyState.isDirty();
+  }
+
+  /**
+   * Checks whether anything changed in this frame.
+   * 
+   * @return true if no axis or key changed
+   */
+  public boolean isEmpty() {
+    return !absState.isDirty() && !relState.isDirty() && !keyState.isDirty();
+  }
+
+  /**
+   * Applies an EV_ABS value.
+   */
+  void setAbs(int axis, int value) {
+    absState.setValue(axis, value);
+  }
+
+  /**
+   * Accumulates an EV_REL delta.
+   */
+  void addRel(int axis, int value) {
+    relState.setValue(axis, relState.getValue(axis) + value);
+  }
+
+  /**
+   * Applies an EV_KEY value.
+   */
+  void setKey(int code, int value) {
+    keyState.setValue(code, value);
+  }
+
+  /**
+   * Prepares for the next frame: clears the change masks and the relative
+   * deltas, keeping latched values.
+   */
+  void reset() {
+    absState.clean();
+    keyState.clean();
+    relState.zero();
+  }
+
+  /**
+   * Copies another frame into this one.
+   * 
+   * @param other
+   *          the frame to copy
+   */
+  public void copyFrom(InputFrame other) {
+    time = other.time;
+
+    absState.copyFrom(other.absState);
+    relState.copyFrom(other.relState);
+    keyState.copyFrom(other.keyState);
+  }
+
+  /**
+   * Creates a copy of this frame which can be kept after the frame is reused.
+   * 
+   * @return a new frame with the same contents
+   */
+  public InputFrame copy() {
+    InputFrame copy = new InputFrame();
+    copy.copyFrom(this);
+    return copy;
+  }
+}
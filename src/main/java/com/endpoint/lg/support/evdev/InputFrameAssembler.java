@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import java.util.Arrays;
+
+/**
+ * Collects EV_ABS, EV_REL and EV_KEY events into one <code>InputFrame</code>
+ * per <code>SYN_REPORT</code>, so handlers see each kernel frame as a single
+ * consistent update instead of one update per axis.
+ * 
+ * <p>
+ * The assembler can be fed either <code>InputEvent</code>s, for example by
+ * registering it for every type with {@link InputEventHandlers}, or raw events
+ * from an {@link InputEventDecoder}. A single frame instance is reused, so no
+ * allocation happens per event or per frame. Frames with no changes are not
+ * delivered.
+ * 
+ * <p>
+ * After a <code>SYN_DROPPED</code>, events are discarded until the next
+ * <code>SYN_REPORT</code>, as described in the kernel's
+ * <code>event-codes.txt</code>.
+ * 
+ * <p>
+ * The assembler is not thread safe; feed it from a single reader thread.
+ */
+public class InputFrameAssembler implements InputEventHandler, InputEventSink {
+  private static final InputFrameHandler[] NO_HANDLERS = new InputFrameHandler[0];
+
+  /**
+   * The frame being assembled.
+   */
+  private final InputFrame frame = new InputFrame();
+
+  /**
+   * Handlers, replaced on registration.
+   */
+  private volatile InputFrameHandler[] handlers = NO_HANDLERS;
+
+  /**
+   * True while discarding events after a <code>SYN_DROPPED</code>.
+   */
+  private boolean dropping;
+
+  /**
+   * Registers a handler for complete frames.
+   * 
+   * @param handler
+   *          the handler
+   */
+  public synchronized void registerHandler(InputFrameHandler handler) {
+    InputFrameHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+    newHandlers[handlers.length] = handler;
+    handlers = newHandlers;
+  }
+
+  /**
+   * Handles an <code>InputEvent</code>.
+   * 
+   * @param event
+   *          the event which came in
+   */
+  @Override
+  public void handleEvent(InputEvent event) {
+    handleEvent(event.getTime(), event.getType(), event.getCode(), event.getValue());
+  }
+
+  /**
+   * Handles a raw event.
+   * 
+   * @param time
+   *          kernel timestamp, in microseconds since the epoch
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param value
+   *          event value
+   */
+  @Override
+  public void handleEvent(long time, int type, int code, int value) {
+    if (type == InputEventTypes.EV_SYN) {
+      if (code == InputEventCodes.SYN_REPORT) {
+        dropping = false;
+        endFrame(time);
+      } else if (code == InputEventCodes.SYN_DROPPED) {
+        dropping = true;
+      }
+      return;
+    }
+
+    if (dropping) {
+      return;
+    }
+
+    switch (type) {
+      case InputEventTypes.EV_ABS:
+        if (code >= 0 && code < InputAbsState.NUM_AXES)
+          frame.setAbs(code, value);
+        break;
+      case InputEventTypes.EV_REL:
+        if (code >= 0 && code < InputRelState.NUM_AXES)
+          frame.addRel(code, value);
+        break;
+      case InputEventTypes.EV_KEY:
+        if (code >= 0 && code < InputEventCodes.KEY_CNT)
+          frame.setKey(code, value);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Delivers the current frame, if anything changed, and starts the next.
+   */
+  private void endFrame(long time) {
+    if (frame.isEmpty()) {
+      return;
+    }
+
+    frame.time = time;
+
+    InputFrameHandler[] current = handlers;
+    try {
+      for (int i = 0; i < current.length; i++) {
+        current[i].handleFrame(frame);
+      }
+    } finally {
+      frame.reset();
+    }
+  }
+
+  /**
+   * Returns the frame being assembled. Latched values reflect all events
+   * handled so far.
+   * 
+   * @return the current frame
+   */
+  public InputFrame getFrame() {
+    return frame;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces <code>InputFrame</code>s from a fast device down to the rate its
+ * consumers can use, for example 1000 Hz SpaceNav reports down to 60 Hz
+ * broadcasts.
+ * 
+ * <p>
+ * REL deltas are summed and ABS values are latched between emitted frames, so
+ * the total displacement delivered is exactly what the device reported. A
+ * frame with key changes is emitted immediately along with everything
+ * pending, so no press or release is lost.
+ * 
+ * <p>
+ * Frames are emitted when one arrives at least an interval after the last
+ * emitted frame, and on {@link #tick()}, which flushes whatever is pending.
+ * Call <code>tick()</code> from a vsync-like source, or use
+ * {@link #schedule(ScheduledExecutorService)} to tick at the interval, so the
+ * last movement before the device goes quiet is not held back.
+ * 
+ * <pre>
+ * <code>
+ * InputFrameThrottler throttler = new InputFrameThrottler(16667);
+ * assembler.registerHandler(throttler);
+ * throttler.registerHandler(broadcaster);
+ * throttler.schedule(executor);
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * Handlers are called with a lock held, on the thread which delivered the
+ * frame or called <code>tick()</code>; the emitted frame is reused.
+ */
+public class InputFrameThrottler implements InputFrameHandler {
+  public static final String FIELD_FRAMES_IN = "framesIn";
+  public static final String FIELD_FRAMES_OUT = "framesOut";
+  public static final String FIELD_COALESCING_RATIO = "coalescingRatio";
+
+  private static final InputFrameHandler[] NO_HANDLERS = new InputFrameHandler[0];
+
+  /**
+   * The frame being accumulated.
+   */
+  private final InputFrame pending = new InputFrame();
+
+  /**
+   * Handlers, replaced on registration.
+   */
+  private volatile InputFrameHandler[] handlers = NO_HANDLERS;
+
+  /**
+   * Smallest time between emitted frames, in nanoseconds, or zero to emit
+   * only on ticks and key changes.
+   */
+  private final long interval;
+
+  /**
+   * When the last frame was emitted, by <code>System.nanoTime()</code>.
+   */
+  private long lastEmitted;
+
+  private long framesIn;
+  private long framesOut;
+
+  /**
+   * Creates a throttler.
+   * 
+   * @param interval
+   *          smallest time between emitted frames, in microseconds, or zero to
+   *          emit only on {@link #tick()} and key changes
+   */
+  public InputFrameThrottler(long interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException(String.format("Invalid interval %d", interval));
+    }
+
+    this.interval = TimeUnit.MICROSECONDS.toNanos(interval);
+    lastEmitted = System.nanoTime() - this.interval;
+  }
+
+  /**
+   * Registers a handler for throttled frames.
+   * 
+   * @param handler
+   *          the handler
+   */
+  public synchronized void registerHandler(InputFrameHandler handler) {
+    InputFrameHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+    newHandlers[handlers.length] = handler;
+    handlers = newHandlers;
+  }
+
+  /**
+   * Accumulates a frame, emitting if the interval has passed or keys changed.
+   * 
+   * @param frame
+   *          a frame from the device
+   */
+  @Override
+  public synchronized void handleFrame(InputFrame frame) {
+    framesIn++;
+    pending.time = frame.time;
+
+    long mask = frame.getAbsChangedMask();
+    while (mask != 0) {
+      int axis = Long.numberOfTrailingZeros(mask);
+      pending.setAbs(axis, frame.absState.getValue(axis));
+      mask &= mask - 1;
+    }
+
+    mask = frame.getRelChangedMask();
+    while (mask != 0) {
+      int axis = Long.numberOfTrailingZeros(mask);
+      pending.addRel(axis, frame.relState.getValue(axis));
+      mask &= mask - 1;
+    }
+
+    pending.keyState.copyFrom(frame.keyState);
+
+    if (pending.isAnyKeyChanged()
+        || (interval > 0 && System.nanoTime() - lastEmitted >= interval)) {
+      emit();
+    }
+  }
+
+  /**
+   * Emits everything pending, if anything.
+   * 
+   * @return true if a frame was emitted
+   */
+  public synchronized boolean tick() {
+    return emit();
+  }
+
+  /**
+   * Ticks at the interval on an executor.
+   * 
+   * @param executor
+   *          the executor
+   * @return the scheduled ticks, which may be cancelled
+   */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService executor) {
+    if (interval == 0) {
+      throw new IllegalStateException("No interval to schedule ticks at");
+    }
+
+    return executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        tick();
+      }
+    }, interval, interval, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Delivers the pending frame and starts the next. Must be called while
+   * synchronized.
+   */
+  private boolean emit() {
+    if (pending.isEmpty()) {
+      return false;
+    }
+
+    framesOut++;
+    lastEmitted = System.nanoTime();
+
+    InputFrameHandler[] current = handlers;
+    try {
+      for (int i = 0; i < current.length; i++) {
+        current[i].handleFrame(pending);
+      }
+    } finally {
+      pending.reset();
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the number of frames accumulated.
+   * 
+   * @return frames received
+   */
+  public synchronized long getFramesIn() {
+    return framesIn;
+  }
+
+  /**
+   * Returns the number of frames emitted.
+   * 
+   * @return frames delivered to handlers
+   */
+  public synchronized long getFramesOut() {
+    return framesOut;
+  }
+
+  /**
+   * Returns the average number of device frames coalesced into each emitted
+   * frame.
+   * 
+   * @return frames in per frame out, or zero before the first emitted frame
+   */
+  public synchronized double getCoalescingRatio() {
+    return framesOut > 0 ? (double) framesIn / framesOut : 0;
+  }
+
+  /**
+   * Clears the frame counters.
+   */
+  public synchronized void resetCounters() {
+    framesIn = 0;
+    framesOut = 0;
+  }
+
+  /**
+   * Serialize the frame counters and coalescing ratio.
+   * 
+   * @return json representation of the counters
+   */
+  public synchronized JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    json.put(FIELD_FRAMES_IN, framesIn);
+    json.put(FIELD_FRAMES_OUT, framesOut);
+    json.put(FIELD_COALESCING_RATIO, getCoalescingRatio());
+
+    return json;
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.JsonNavigator;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Model for the current EV_KEY state of an input device: which keys and
+ * buttons are held.
+ * 
+ * <p>
+ * Key state is kept in a bitset of <code>long</code> words, one bit per key
+ * code, alongside a second bitset of keys which changed since the last
+ * {@link #clean()}. The dirty/clean contract matches {@link InputAbsState}.
+ */
+public class InputKeyState {
+  /**
+   * Only update the state when events of this type are submitted.
+   */
+  public static final int TYPE = InputEventTypes.EV_KEY;
+
+  /**
+   * The number of keys for this type.
+   */
+  public static final int NUM_KEYS = InputEventCodes.KEY_CNT;
+
+  /**
+   * The number of <code>long</code> words in a key bitset.
+   */
+  public static final int NUM_WORDS = (NUM_KEYS + 63) / 64;
+
+  /**
+   * Serialized field listing pressed key codes.
+   */
+  public static final String FIELD_PRESSED = "pressed";
+
+  protected final long pressed[] = new long[NUM_WORDS];
+  protected final long changed[] = new long[NUM_WORDS];
+  protected boolean dirty;
+
+  /**
+   * Creates an InputKeyState with no keys pressed.
+   */
+  public InputKeyState() {
+  }
+
+  /**
+   * Creates an InputKeyState from a serialized state.
+   * 
+   * @param json
+   *          message with a list of pressed codes
+   */
+  public InputKeyState(JsonNavigator json) {
+    json.down(FIELD_PRESSED);
+
+    for (int i = 0; i < json.getSize(); i++) {
+      setPressed(json.getInteger(i), true);
+    }
+
+    json.up();
+  }
+
+  /**
+   * Creates a bitset mask for a chord of keys, for use with
+   * {@link #isChordPressed(long[])}.
+   * 
+   * @param codes
+   *          key codes in the chord
+   * @return a mask with the bit for each code set
+   */
+  public static long[] chord(int... codes) {
+    long[] mask = new long[NUM_WORDS];
+
+    for (int code : codes) {
+      mask[code >>> 6] |= 1L << code;
+    }
+
+    return mask;
+  }
+
+  /**
+   * Checks whether a key is pressed.
+   * 
+   * @param code
+   *          key code
+   * @return true if the key is held
+   */
+  public boolean isPressed(int code) {
+    return (pressed[code >>> 6] & (1L << code)) != 0;
+  }
+
+  /**
+   * Sets the pressed state of a key.
+   * 
+   * @param code
+   *          key code
+   * @param down
+   *          true if the key is held
+   * @return true if the state changed
+   */
+  public boolean setPressed(int code, boolean down) {
+    if (isPressed(code) == down) {
+      return false;
+    }
+
+    pressed[code >>> 6] ^= 1L << code;
+    changed[code >>> 6] |= 1L << code;
+    dirty = true;
+
+    return true;
+  }
+
+  /**
+   * Sets a key from an event value. Autorepeat (2) counts as pressed.
+   * 
+   * @param code
+   *          key code
+   * @param value
+   *          event value
+   * @return true if the state changed
+   */
+  public boolean setValue(int code, int value) {
+    return setPressed(code, value != 0);
+  }
+
+  /**
+   * Update this state from an incoming event.
+   * 
+   * @param event
+   *          an input event
+   * @return true if the state changed
+   */
+  public boolean update(InputEvent event) {
+    if (event.getType() == TYPE && event.getCode() >= 0 && event.getCode() < NUM_KEYS) {
+      return setValue(event.getCode(), event.getValue());
+    }
+
+    return false;
+  }
+
+  /**
+   * Checks whether all keys in a chord are held. Other keys may also be held.
+   * 
+   * @param chord
+   *          a mask from {@link #chord(int...)}
+   * @return true if every key in the chord is pressed
+   */
+  public boolean isChordPressed(long[] chord) {
+    for (int i = 0; i < NUM_WORDS; i++) {
+      if ((pressed[i] & chord[i]) != chord[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Checks whether exactly the keys in a chord are held.
+   * 
+   * @param chord
+   *          a mask from {@link #chord(int...)}
+   * @return true if the chord keys, and no others, are pressed
+   */
+  public boolean isChordExact(long[] chord) {
+    return Arrays.equals(pressed, chord);
+  }
+
+  /**
+   * Checks whether a key changed since the last clean.
+   * 
+   * @param code
+   *          key code
+   * @return true if the key was pressed or released
+   */
+  public boolean isChanged(int code) {
+    return (changed[code >>> 6] & (1L << code)) != 0;
+  }
+
+  /**
+   * Copies the mask of keys changed since the last clean.
+   * 
+   * @param mask
+   *          destination of at least <code>NUM_WORDS</code> words
+   */
+  public void getChangedMask(long[] mask) {
+    System.arraycopy(changed, 0, mask, 0, NUM_WORDS);
+  }
+
+  /**
+   * Returns the number of keys held.
+   * 
+   * @return pressed key count
+   */
+  public int getPressedCount() {
+    int count = 0;
+
+    for (int i = 0; i < NUM_WORDS; i++) {
+      count += Long.bitCount(pressed[i]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Serialize the state. Only pressed keys are listed.
+   * 
+   * @return json representation of the key state
+   */
+  public JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    json.newArray(FIELD_PRESSED);
+
+    for (int i = 0; i < NUM_WORDS; i++) {
+      long word = pressed[i];
+      while (word != 0) {
+        int bit = Long.numberOfTrailingZeros(word);
+        json.put(i * 64 + bit);
+        word &= word - 1;
+      }
+    }
+
+    json.up();
+
+    return json;
+  }
+
+  /**
+   * Copies another state into this one, including its dirtiness.
+   * 
+   * @param other
+   *          the state to copy
+   */
+  public void copyFrom(InputKeyState other) {
+    System.arraycopy(other.pressed, 0, pressed, 0, NUM_WORDS);
+    System.arraycopy(other.changed, 0, changed, 0, NUM_WORDS);
+    dirty = other.dirty;
+  }
+
+  /**
+   * Clear the state's dirtiness and changed keys.
+   */
+  public void clean() {
+    Arrays.fill(changed, 0);
+    dirty = false;
+  }
+
+  /**
+   * Check for dirt.
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Release all keys.
+   */
+  public void zero() {
+    Arrays.fill(pressed, 0);
+    clean();
+  }
+
+  /**
+   * Check for pressed keys.
+   */
+  public boolean isNonZero() {
+    for (int i = 0; i < NUM_WORDS; i++) {
+      if (pressed[i] != 0)
+        return true;
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import com.endpoint.lg.support.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records input latency per event type and code, in microseconds.
+ * 
+ * <p>
+ * Two stages are measured for every dispatched event:
+ * <ul>
+ * <li><b>kernel to dispatch</b>: from the kernel timestamp of the event until
+ * {@link InputEventHandlers} starts handling it</li>
+ * <li><b>dispatch to return</b>: from the start of handling until all
+ * handlers have returned</li>
+ * </ul>
+ * 
+ * <p>
+ * Kernel timestamps are wall clock time, so the monotonic clock is offset
+ * against the wall clock when the monitor is created, to the nearest
+ * millisecond. Call {@link #calibrate()}, which briefly blocks, for a sub
+ * millisecond offset, and periodically if the system clock is being slewed.
+ * 
+ * <p>
+ * Histograms are created lazily for each type and code the first time an
+ * event is seen, and may be read from any thread.
+ * 
+ * @see InputEventHandlers#setLatencyMonitor(InputLatencyMonitor)
+ */
+public class InputLatencyMonitor {
+  /**
+   * Snapshot field for the kernel to dispatch histogram.
+   */
+  public static final String FIELD_KERNEL_TO_DISPATCH = "kernelToDispatch";
+
+  /**
+   * Snapshot field for the dispatch to return histogram.
+   */
+  public static final String FIELD_DISPATCH_TO_RETURN = "dispatchToReturn";
+
+  /**
+   * Index of the first code slot for each type.
+   */
+  private static final int[] TYPE_OFFSETS = new int[InputEventTypes.EV_CNT + 1];
+
+  static {
+    for (int type = 0; type < InputEventTypes.EV_CNT; type++) {
+      TYPE_OFFSETS[type + 1] = TYPE_OFFSETS[type] + InputEventTypes.getCodeCount(type);
+    }
+  }
+
+  private final AtomicReferenceArray<LatencyHistogram> kernelToDispatch;
+  private final AtomicReferenceArray<LatencyHistogram> dispatchToReturn;
+
+  /**
+   * Difference between the wall clock and <code>System.nanoTime()</code>, in
+   * microseconds.
+   */
+  private volatile long clockOffset;
+
+  /**
+   * Creates a monitor.
+   */
+  public InputLatencyMonitor() {
+    int slots = TYPE_OFFSETS[InputEventTypes.EV_CNT];
+    kernelToDispatch = new AtomicReferenceArray<LatencyHistogram>(slots);
+    dispatchToReturn = new AtomicReferenceArray<LatencyHistogram>(slots);
+
+    clockOffset = System.currentTimeMillis() * 1000L - System.nanoTime() / 1000L;
+  }
+
+  /**
+   * Calibrates the monotonic clock against the wall clock. Waits for the wall
+   * clock to tick over, so this may block for up to a millisecond.
+   */
+  public void calibrate() {
+    long millis = System.currentTimeMillis();
+    long nanos;
+
+    while (System.currentTimeMillis() == millis) {
+      // spin until the edge of the next millisecond
+    }
+    nanos = System.nanoTime();
+
+    clockOffset = (millis + 1) * 1000L - nanos / 1000L;
+  }
+
+  /**
+   * Returns the current wall clock time with microsecond resolution.
+   * 
+   * @return microseconds since the epoch
+   */
+  public long currentTimeMicros() {
+    return System.nanoTime() / 1000L + clockOffset;
+  }
+
+  /**
+   * Finds the table slot for a type and code, or -1 if it is out of range.
+   */
+  private static int slot(int type, int code) {
+    if (type < 0 || type >= InputEventTypes.EV_CNT || code < 0) {
+      return -1;
+    }
+
+    int slot = TYPE_OFFSETS[type] + code;
+
+    return slot < TYPE_OFFSETS[type + 1] ? slot : -1;
+  }
+
+  /**
+   * Fetches a histogram from a table, creating it if needed.
+   */
+  private static LatencyHistogram fetch(AtomicReferenceArray<LatencyHistogram> table, int slot) {
+    LatencyHistogram histogram = table.get(slot);
+
+    if (histogram == null) {
+      table.compareAndSet(slot, null, new LatencyHistogram());
+      histogram = table.get(slot);
+    }
+
+    return histogram;
+  }
+
+  /**
+   * Records the start of dispatching an event.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param time
+   *          kernel timestamp of the event, or zero if unknown
+   * @return a token to be passed to {@link #endDispatch}
+   */
+  public long beginDispatch(int type, int code, long time) {
+    int slot = slot(type, code);
+
+    if (slot >= 0 && time != 0) {
+      fetch(kernelToDispatch, slot).record(currentTimeMicros() - time);
+    }
+
+    return System.nanoTime();
+  }
+
+  /**
+   * Records the end of dispatching an event.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @param start
+   *          the token returned by {@link #beginDispatch}
+   */
+  public void endDispatch(int type, int code, long start) {
+    int slot = slot(type, code);
+
+    if (slot >= 0) {
+      fetch(dispatchToReturn, slot).record((System.nanoTime() - start) / 1000L);
+    }
+  }
+
+  /**
+   * Returns the kernel to dispatch histogram for a type and code.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @return the histogram, or null if no such event has been dispatched
+   */
+  public LatencyHistogram getKernelToDispatch(int type, int code) {
+    int slot = slot(type, code);
+
+    return slot >= 0 ? kernelToDispatch.get(slot) : null;
+  }
+
+  /**
+   * Returns the dispatch to return histogram for a type and code.
+   * 
+   * @param type
+   *          event type
+   * @param code
+   *          event code
+   * @return the histogram, or null if no such event has been dispatched
+   */
+  public LatencyHistogram getDispatchToReturn(int type, int code) {
+    int slot = slot(type, code);
+
+    return slot >= 0 ? dispatchToReturn.get(slot) : null;
+  }
+
+  /**
+   * Clears all recorded latencies.
+   */
+  public void reset() {
+    for (int i = 0; i < kernelToDispatch.length(); i++) {
+      LatencyHistogram histogram = kernelToDispatch.get(i);
+      if (histogram != null) {
+        histogram.reset();
+      }
+
+      histogram = dispatchToReturn.get(i);
+      if (histogram != null) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /**
+   * Serialize a snapshot of all histograms, keyed by
+   * <code>"type:code"</code>.
+   * 
+   * @return json representation of the recorded latencies
+   */
+  public JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    for (int type = 0; type < InputEventTypes.EV_CNT; type++) {
+      for (int slot = TYPE_OFFSETS[type]; slot < TYPE_OFFSETS[type + 1]; slot++) {
+        LatencyHistogram kernel = kernelToDispatch.get(slot);
+        LatencyHistogram handler = dispatchToReturn.get(slot);
+
+        if (kernel == null && handler == null) {
+          continue;
+        }
+
+        json.newObject(String.format("%d:%d", type, slot - TYPE_OFFSETS[type]));
+        if (kernel != null) {
+          json.put(FIELD_KERNEL_TO_DISPATCH, kernel.getJsonBuilder().build());
+        }
+        if (handler != null) {
+          json.put(FIELD_DISPATCH_TO_RETURN, handler.getJsonBuilder().build());
+        }
+        json.up();
+      }
+    }
+
+    return json;
+  }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.JsonNavigator;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Model for the EV_ABS state of a multi-touch device using the slot-based
+ * protocol (type B).
+ * 
+ * <p>
+ * Per-contact axes (<code>ABS_MT_POSITION_X</code> and the like) are kept per
+ * slot in fixed-capacity arrays, selected by the last
+ * <code>ABS_MT_SLOT</code> event. Contacts begin and end with
+ * <code>ABS_MT_TRACKING_ID</code>. All other axes, such as the single-touch
+ * <code>ABS_X</code> emulation, are kept as in {@link InputAbsState}.
+ * 
+ * <p>
+ * Between calls to {@link #clean()}, usually once per SYN_REPORT frame, slot
+ * bitmasks record which contacts began, ended or changed, so a frame's
+ * touches can be handled or sent as a delta without scanning every slot.
+ * 
+ * <p>
+ * Touches serialize as a flat array of
+ * <code>[trackingId, x, y, trackingId, x, y, ...]</code>, and deltas add an
+ * array of the tracking IDs which ended.
+ */
+public class InputMultitouchState extends InputAbsState {
+  public static final String FIELD_TOUCHES = "touches";
+  public static final String FIELD_ENDED = "ended";
+
+  /**
+   * The default number of slots.
+   */
+  public static final int DEFAULT_SLOTS = 16;
+
+  /**
+   * The largest number of slots which can be tracked in the bitmasks.
+   */
+  public static final int MAX_SLOTS = 64;
+
+  /**
+   * The tracking ID of an empty slot.
+   */
+  public static final int NO_TRACKING_ID = -1;
+
+  /**
+   * The first per-contact axis.
+   */
+  public static final int MT_FIRST = InputEventCodes.ABS_MT_TOUCH_MAJOR;
+
+  /**
+   * The last per-contact axis.
+   */
+  public static final int MT_LAST = InputEventCodes.ABS_MT_TOOL_Y;
+
+  /**
+   * The number of per-contact axes.
+   */
+  public static final int NUM_MT_AXES = MT_LAST - MT_FIRST + 1;
+
+  /**
+   * Number of slots.
+   */
+  protected final int numSlots;
+
+  /**
+   * Per-contact axis values, <code>NUM_MT_AXES</code> per slot.
+   */
+  protected final int slotValues[];
+
+  /**
+   * Tracking ID of each slot, or <code>NO_TRACKING_ID</code>.
+   */
+  protected final int trackingIds[];
+
+  /**
+   * Tracking ID of the contact which last ended in each slot.
+   */
+  protected final int lastEndedIds[];
+
+  /**
+   * Tracking IDs of every contact which ended since the last clean, in the
+   * order they ended.
+   */
+  protected int endedIds[];
+
+  /**
+   * Number of entries in <code>endedIds</code>.
+   */
+  protected int numEnded;
+
+  /**
+   * The slot being modified.
+   */
+  protected int currentSlot;
+
+  /**
+   * Bit <code>n</code> is set if slot <code>n</code> has a contact.
+   */
+  protected long activeMask;
+
+  /**
+   * Slots where a contact began since the last clean.
+   */
+  protected long beganMask;
+
+  /**
+   * Slots where a contact ended since the last clean.
+   */
+  protected long endedMask;
+
+  /**
+   * Slots with a per-contact axis changed since the last clean.
+   */
+  protected long slotChangedMask;
+
+  /**
+   * Creates a multi-touch state with the default number of slots.
+   */
+  public InputMultitouchState() {
+    this(DEFAULT_SLOTS);
+  }
+
+  /**
+   * Creates a multi-touch state.
+   * 
+   * @param numSlots
+   *          the number of slots, as reported by the device's
+   *          <code>ABS_MT_SLOT</code> maximum plus one
+   */
+  public InputMultitouchState(int numSlots) {
+    if (numSlots < 1 || numSlots > MAX_SLOTS) {
+      throw new IllegalArgumentException(String.format("Invalid number of slots: %d", numSlots));
+    }
+
+    this.numSlots = numSlots;
+    slotValues = new int[numSlots * NUM_MT_AXES];
+    trackingIds = new int[numSlots];
+    lastEndedIds = new int[numSlots];
+    endedIds = new int[numSlots];
+
+    Arrays.fill(trackingIds, NO_TRACKING_ID);
+    Arrays.fill(lastEndedIds, NO_TRACKING_ID);
+  }
+
+  /**
+   * Returns true if the axis is kept per slot.
+   */
+  private static boolean isSlotAxis(int axis) {
+    return axis >= MT_FIRST && axis <= MT_LAST;
+  }
+
+  /**
+   * Returns the value for the given axis. Per-contact axes are read from the
+   * current slot.
+   * 
+   * @param axis
+   *          axis code
+   * @return axis value
+   */
+  @Override
+  public int getValue(int axis) {
+    if (axis == InputEventCodes.ABS_MT_SLOT) {
+      return currentSlot;
+    }
+
+    if (isSlotAxis(axis)) {
+      return currentSlot < numSlots ? getSlotValue(currentSlot, axis) : 0;
+    }
+
+    return super.getValue(axis);
+  }
+
+  /**
+   * Sets a value for an axis. <code>ABS_MT_SLOT</code> selects the slot for
+   * following per-contact axes, and values for slots beyond the capacity are
+   * ignored.
+   * 
+   * @param axis
+   *          axis code
+   * @param value
+   *          axis value
+   * @return true if the value changed
+   */
+  @Override
+  public boolean setValue(int axis, int value) {
+    if (axis == InputEventCodes.ABS_MT_SLOT) {
+      currentSlot = value;
+      return false;
+    }
+
+    if (!isSlotAxis(axis)) {
+      return super.setValue(axis, value);
+    }
+
+    if (currentSlot < 0 || currentSlot >= numSlots) {
+      return false;
+    }
+
+    if (axis == InputEventCodes.ABS_MT_TRACKING_ID) {
+      return setTrackingId(currentSlot, value);
+    }
+
+    int index = currentSlot * NUM_MT_AXES + axis - MT_FIRST;
+    if (slotValues[index] == value) {
+      return false;
+    }
+
+    slotValues[index] = value;
+    slotChangedMask |= 1L << currentSlot;
+    dirty = true;
+
+    return true;
+  }
+
+  /**
+   * Begins or ends the contact in a slot.
+   */
+  private boolean setTrackingId(int slot, int id) {
+    int previous = trackingIds[slot];
+    if (previous == id) {
+      return false;
+    }
+
+    long bit = 1L << slot;
+
+    if (previous != NO_TRACKING_ID) {
+      lastEndedIds[slot] = previous;
+      addEnded(previous);
+      endedMask |= bit;
+      activeMask &= ~bit;
+    }
+
+    if (id != NO_TRACKING_ID) {
+      beganMask |= bit;
+      activeMask |= bit;
+    }
+
+    trackingIds[slot] = id;
+    slotChangedMask |= bit;
+    dirty = true;
+
+    return true;
+  }
+
+  /**
+   * Records the tracking ID of a contact which ended.
+   */
+  private void addEnded(int id) {
+    if (numEnded == endedIds.length) {
+      endedIds = Arrays.copyOf(endedIds, numEnded * 2);
+    }
+
+    endedIds[numEnded++] = id;
+  }
+
+  /**
+   * Returns the number of slots.
+   * 
+   * @return slot capacity
+   */
+  public int getSlotCount() {
+    return numSlots;
+  }
+
+  /**
+   * Returns the slot selected by the last <code>ABS_MT_SLOT</code> event.
+   * 
+   * @return the current slot
+   */
+  public int getCurrentSlot() {
+    return currentSlot;
+  }
+
+  /**
+   * Returns a per-contact axis value of a slot.
+   * 
+   * @param slot
+   *          the slot
+   * @param axis
+   *          a per-contact axis code
+   * @return axis value
+   */
+  public int getSlotValue(int slot, int axis) {
+    if (axis == InputEventCodes.ABS_MT_TRACKING_ID) {
+      return trackingIds[slot];
+    }
+
+    return slotValues[slot * NUM_MT_AXES + axis - MT_FIRST];
+  }
+
+  /**
+   * Returns the X position of a slot's contact.
+   */
+  public int getX(int slot) {
+    return slotValues[slot * NUM_MT_AXES + InputEventCodes.ABS_MT_POSITION_X - MT_FIRST];
+  }
+
+  /**
+   * Returns the Y position of a slot's contact.
+   */
+  public int getY(int slot) {
+    return slotValues[slot * NUM_MT_AXES + InputEventCodes.ABS_MT_POSITION_Y - MT_FIRST];
+  }
+
+  /**
+   * Returns the tracking ID of a slot's contact.
+   * 
+   * @param slot
+   *          the slot
+   * @return the tracking ID, or <code>NO_TRACKING_ID</code> if the slot is
+   *         empty
+   */
+  public int getTrackingId(int slot) {
+    return trackingIds[slot];
+  }
+
+  /**
+   * Returns the tracking ID of the contact which last ended in a slot.
+   * 
+   * @param slot
+   *          the slot
+   * @return the tracking ID, or <code>NO_TRACKING_ID</code>
+   */
+  public int getEndedTrackingId(int slot) {
+    return lastEndedIds[slot];
+  }
+
+  /**
+   * Returns the number of contacts which ended since the last clean. A slot
+   * which ended several contacts counts each of them.
+   * 
+   * @return ended contact count
+   */
+  public int getEndedCount() {
+    return numEnded;
+  }
+
+  /**
+   * Returns the tracking ID of a contact which ended since the last clean.
+   * 
+   * @param index
+   *          which ended contact, in the order they ended, from zero to
+   *          {@link #getEndedCount()} - 1
+   * @return the tracking ID
+   */
+  public int getEndedId(int index) {
+    if (index < 0 || index >= numEnded) {
+      throw new IndexOutOfBoundsException(String.format("No ended contact %d", index));
+    }
+
+    return endedIds[index];
+  }
+
+  /**
+   * Finds the slot of a contact.
+   * 
+   * @param trackingId
+   *          the contact's tracking ID
+   * @return the slot, or -1 if no slot has the contact
+   */
+  public int findSlot(int trackingId) {
+    long mask = activeMask;
+    while (mask != 0) {
+      int slot = Long.numberOfTrailingZeros(mask);
+      if (trackingIds[slot] == trackingId) {
+        return slot;
+      }
+      mask &= mask - 1;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the number of contacts.
+   * 
+   * @return active contact count
+   */
+  public int getTouchCount() {
+    return Long.bitCount(activeMask);
+  }
+
+  /**
+   * Returns the mask of slots with a contact.
+   * 
+   * @return bit <code>n</code> set for each active slot <code>n</code>
+   */
+  public long getActiveMask() {
+    return activeMask;
+  }
+
+  /**
+   * Returns the mask of slots where a contact began since the last clean.
+   * 
+   * @return bit <code>n</code> set for each slot <code>n</code>
+   */
+  public long getBeganMask() {
+    return beganMask;
+  }
+
+  /**
+   * Returns the mask of slots where a contact ended since the last clean. A
+   * slot may have both ended one contact and begun another.
+   * 
+   * @return bit <code>n</code> set for each slot <code>n</code>
+   */
+  public long getEndedMask() {
+    return endedMask;
+  }
+
+  /**
+   * Returns the mask of active slots which changed since the last clean,
+   * including new contacts.
+   * 
+   * @return bit <code>n</code> set for each slot <code>n</code>
+   */
+  public long getChangedSlotMask() {
+    return slotChangedMask & activeMask;
+  }
+
+  /**
+   * Serialize the current touches.
+   * 
+   * @return json representation of the touches
+   */
+  public JsonBuilder getTouchJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    serializeTouches(json);
+
+    return json;
+  }
+
+  /**
+   * Serialize the touches which began or changed since the last clean, and
+   * the tracking IDs of those which ended.
+   * 
+   * @return json representation of the touch delta
+   */
+  public JsonBuilder getTouchDeltaJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    serializeTouchDelta(json);
+
+    return json;
+  }
+
+  /**
+   * Write the current touches into an existing builder, at its current
+   * position.
+   * 
+   * @param json
+   *          the builder to write to
+   */
+  public void serializeTouches(JsonBuilder json) {
+    putTouches(json, activeMask);
+  }
+
+  /**
+   * Write the touch delta into an existing builder, at its current position.
+   * 
+   * @param json
+   *          the builder to write to
+   */
+  public void serializeTouchDelta(JsonBuilder json) {
+    putTouches(json, getChangedSlotMask());
+
+    json.newArray(FIELD_ENDED);
+
+    for (int i = 0; i < numEnded; i++) {
+      json.put(endedIds[i]);
+    }
+
+    json.up();
+  }
+
+  /**
+   * Writes the contacts in each slot of the mask.
+   */
+  private void putTouches(JsonBuilder json, long mask) {
+    json.newArray(FIELD_TOUCHES);
+
+    while (mask != 0) {
+      int slot = Long.numberOfTrailingZeros(mask);
+      json.put(trackingIds[slot]);
+      json.put(getX(slot));
+      json.put(getY(slot));
+      mask &= mask - 1;
+    }
+
+    json.up();
+  }
+
+  /**
+   * Applies serialized touches or a touch delta. Contacts are matched to
+   * slots by tracking ID, and new contacts take the first free slot. Full
+   * touches, which have no ended array, end every contact they leave out.
+   * 
+   * @param json
+   *          message with touches
+   */
+  public void mergeTouches(JsonNavigator json) {
+    int slot = currentSlot;
+    boolean full = !json.containsProperty(FIELD_ENDED);
+
+    if (!full) {
+      json.down(FIELD_ENDED);
+      for (int i = 0; i < json.getSize(); i++) {
+        int found = findSlot(json.getInteger(i));
+        if (found >= 0) {
+          setTrackingId(found, NO_TRACKING_ID);
+        }
+      }
+      json.up();
+    }
+
+    json.down(FIELD_TOUCHES);
+    if (full) {
+      endMissing(json);
+    }
+
+    for (int i = 0; i + 2 < json.getSize(); i += 3) {
+      int id = json.getInteger(i);
+
+      currentSlot = findSlot(id);
+      if (currentSlot < 0) {
+        currentSlot = Long.numberOfTrailingZeros(~activeMask);
+      }
+
+      setValue(InputEventCodes.ABS_MT_TRACKING_ID, id);
+      setValue(InputEventCodes.ABS_MT_POSITION_X, json.getInteger(i + 1));
+      setValue(InputEventCodes.ABS_MT_POSITION_Y, json.getInteger(i + 2));
+    }
+    json.up();
+
+    currentSlot = slot;
+  }
+
+  /**
+   * Ends every contact whose tracking ID is not in a touches array, before
+   * the array takes any free slots.
+   */
+  private void endMissing(JsonNavigator touches) {
+    long mask = activeMask;
+    while (mask != 0) {
+      int found = Long.numberOfTrailingZeros(mask);
+
+      boolean present = false;
+      for (int i = 0; i + 2 < touches.getSize() && !present; i += 3) {
+        present = touches.getInteger(i) == trackingIds[found];
+      }
+
+      if (!present) {
+        setTrackingId(found, NO_TRACKING_ID);
+      }
+      mask &= mask - 1;
+    }
+  }
+
+  /**
+   * Copies another state into this one, including its slots if it is also a
+   * multi-touch state with the same capacity.
+   * 
+   * @param other
+   *          a state with the same number of axes
+   */
+  @Override
+  public void copyFrom(InputAbsState other) {
+    super.copyFrom(other);
+
+    if (other instanceof InputMultitouchState) {
+      InputMultitouchState mt = (InputMultitouchState) other;
+      System.arraycopy(mt.slotValues, 0, slotValues, 0, slotValues.length);
+      System.arraycopy(mt.trackingIds, 0, trackingIds, 0, trackingIds.length);
+      System.arraycopy(mt.lastEndedIds, 0, lastEndedIds, 0, lastEndedIds.length);
+      if (endedIds.length < mt.numEnded) {
+        endedIds = new int[mt.endedIds.length];
+      }
+      System.arraycopy(mt.endedIds, 0, endedIds, 0, mt.numEnded);
+      numEnded = mt.numEnded;
+      currentSlot = mt.currentSlot;
+      activeMask = mt.activeMask;
+      beganMask = mt.beganMask;
+      endedMask = mt.endedMask;
+      slotChangedMask = mt.slotChangedMask;
+    }
+  }
+
+  /**
+   * Clear the state's dirtiness, including the slot lifecycle masks.
+   */
+  @Override
+  public void clean() {
+    super.clean();
+    beganMask = 0;
+    endedMask = 0;
+    slotChangedMask = 0;
+    numEnded = 0;
+  }
+
+  /**
+   * Zero the state and empty all slots.
+   */
+  @Override
+  public void zero() {
+    super.zero();
+
+    if (slotValues != null) {
+      Arrays.fill(slotValues, 0);
+      Arrays.fill(trackingIds, NO_TRACKING_ID);
+      Arrays.fill(lastEndedIds, NO_TRACKING_ID);
+      currentSlot = 0;
+      activeMask = 0;
+    }
+  }
+
+  /**
+   * Check for non-zero axes or contacts.
+   */
+  @Override
+  public boolean isNonZero() {
+    return super.isNonZero() || activeMask != 0;
+  }
+}
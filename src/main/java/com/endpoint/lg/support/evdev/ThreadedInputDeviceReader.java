@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import org.apache.commons.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+
+/**
+ * Reads input devices, FIFOs or files, each on a blocking thread, and
+ * dispatches their events to an {@link InputEventSink}, usually
+ * {@link InputEventHandlers}.
+ * 
+ * <p>
+ * This is not a multiplexer. Java cannot select() on device files, so every
+ * device node and FIFO gets its own thread blocked in <code>read()</code>,
+ * which wakes only when events arrive and adds no latency; a table with five
+ * devices uses five threads. Only regular files, which never block, share a
+ * thread: they are all followed like <code>tail -f</code> by one thread which
+ * waits for changes on a <code>WatchService</code> and reads every file to
+ * its end after each one.
+ * 
+ * <p>
+ * Each source reads into its own reusable direct buffer and dispatch is
+ * serialized, so handlers see one stream of events, on one thread at a time,
+ * however many sources there are.
+ * 
+ * <p>
+ * Opening a FIFO waits for a writer, as usual.
+ */
+public class ThreadedInputDeviceReader {
+  /**
+   * Number of events each source's buffer holds.
+   */
+  public static final int BUFFER_EVENTS = 64;
+
+  /**
+   * A source of raw events.
+   */
+  private class Device implements Runnable {
+    final File path;
+    final FileInputStream in;
+    final FileChannel channel;
+    final ByteBuffer buffer;
+
+    /**
+     * True for regular files, which are followed by the shared thread.
+     */
+    final boolean regular;
+
+    /**
+     * The dedicated thread, or null for regular files.
+     */
+    Thread thread;
+
+    volatile boolean open = true;
+
+    Device(File path) throws IOException {
+      this.path = path;
+      in = new FileInputStream(path);
+      channel = in.getChannel();
+      buffer = ByteBuffer.allocateDirect(BUFFER_EVENTS * decoder.getEventSize());
+      regular = path.isFile();
+    }
+
+    /**
+     * Reads from the source once and dispatches any complete events.
+     * 
+     * @return the number of bytes read, or -1 at the end of the stream
+     */
+    int read() throws IOException {
+      int count = channel.read(buffer);
+      if (count <= 0) {
+        return count;
+      }
+
+      buffer.flip();
+      synchronized (dispatchLock) {
+        while (true) {
+          try {
+            decoder.decode(buffer, sink);
+            break;
+          } catch (Exception e) {
+            log.error(String.format("Error handling events from %s", path), e);
+            buffer.position(buffer.position() + decoder.getEventSize());
+          }
+        }
+      }
+      buffer.compact();
+
+      return count;
+    }
+
+    /**
+     * Blocking read loop for device nodes and FIFOs.
+     */
+    @Override
+    public void run() {
+      try {
+        while (open && read() >= 0) {
+        }
+      } catch (IOException e) {
+        if (open) {
+          log.error(String.format("Error reading %s", path), e);
+        }
+      } finally {
+        remove(this);
+      }
+    }
+
+    void close() {
+      open = false;
+
+      if (thread != null) {
+        thread.interrupt();
+      }
+
+      try {
+        in.close();
+      } catch (IOException e) {
+        log.warn(String.format("Error closing %s", path), e);
+      }
+    }
+  }
+
+  private final InputEventSink sink;
+  private final Log log;
+  private final InputEventDecoder decoder;
+
+  /**
+   * Held while dispatching, so events from all sources are serialized.
+   */
+  private final Object dispatchLock = new Object();
+
+  /**
+   * All open sources. Replaced, never modified, on change.
+   */
+  private volatile Device[] devices = new Device[0];
+
+  /**
+   * Watches the directories of regular files. Created with the first one.
+   */
+  private WatchService watcher;
+
+  /**
+   * The thread following regular files, while running.
+   */
+  private Thread followThread;
+
+  /**
+   * Guards {@link #waiting} and {@link #rescan}, so the follower is only
+   * interrupted while it waits for changes and never during a read.
+   */
+  private final Object followLock = new Object();
+
+  /**
+   * True while the follower waits on the watch service.
+   */
+  private boolean waiting;
+
+  /**
+   * True when a regular file was added since the follower last read.
+   */
+  private boolean rescan;
+
+  private volatile boolean running;
+
+  /**
+   * Creates a reader for devices with the 64-bit event layout.
+   * 
+   * @param sink
+   *          receiver for all events
+   * @param log
+   *          the log to use
+   */
+  public ThreadedInputDeviceReader(InputEventSink sink, Log log) {
+    this(sink, log, new InputEventDecoder());
+  }
+
+  /**
+   * Creates a reader.
+   * 
+   * @param sink
+   *          receiver for all events
+   * @param log
+   *          the log to use
+   * @param decoder
+   *          decoder for the devices' event layout
+   */
+  public ThreadedInputDeviceReader(InputEventSink sink, Log log, InputEventDecoder decoder) {
+    this.sink = sink;
+    this.log = log;
+    this.decoder = decoder;
+  }
+
+  /**
+   * Opens a source and starts reading it.
+   * 
+   * @param path
+   *          a device node, FIFO or file of raw events
+   * @throws IOException
+   *           if the source cannot be opened
+   */
+  public void addDevice(File path) throws IOException {
+    Device device = new Device(path);
+
+    synchronized (this) {
+      if (device.regular) {
+        if (watcher == null) {
+          watcher = FileSystems.getDefault().newWatchService();
+        }
+        path.getAbsoluteFile().getParentFile().toPath()
+            .register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
+      } else {
+        device.thread = new Thread(device, "evdev " + path);
+        device.thread.setDaemon(true);
+      }
+
+      Device[] current = devices;
+      Device[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = device;
+      devices = updated;
+
+      if (running) {
+        if (device.regular) {
+          startFollower();
+          wakeFollower();
+        } else {
+          device.thread.start();
+        }
+      }
+    }
+
+    log.debug(String.format("Reading %s %s", path, device.regular ? "by following"
+        : "on its own thread"));
+  }
+
+  /**
+   * Stops reading a source and closes it.
+   * 
+   * @param path
+   *          the source, as it was added
+   * @return true if the source was open
+   */
+  public boolean removeDevice(File path) {
+    for (Device device : devices) {
+      if (device.path.equals(path)) {
+        device.close();
+        return remove(device);
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Removes a closed source.
+   */
+  private synchronized boolean remove(Device device) {
+    Device[] current = devices;
+
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == device) {
+        Device[] updated = new Device[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+        devices = updated;
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the number of open sources.
+   * 
+   * @return the source count
+   */
+  public int getDeviceCount() {
+    return devices.length;
+  }
+
+  /**
+   * Returns the number of threads reading sources: one for each device node
+   * or FIFO, plus one following all regular files.
+   * 
+   * @return the thread count
+   */
+  public synchronized int getThreadCount() {
+    int count = followThread != null ? 1 : 0;
+
+    for (Device device : devices) {
+      if (device.thread != null && device.thread.isAlive()) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Starts reading.
+   */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+
+    running = true;
+
+    for (Device device : devices) {
+      if (device.regular) {
+        startFollower();
+      } else if (!device.thread.isAlive()) {
+        device.thread.start();
+      }
+    }
+  }
+
+  /**
+   * Starts the thread following regular files, if it is not running. Must be
+   * called while synchronized.
+   */
+  private void startFollower() {
+    if (followThread != null) {
+      return;
+    }
+
+    final WatchService service = watcher;
+    followThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        follow(service);
+      }
+    }, "evdev follower");
+    followThread.setDaemon(true);
+    followThread.start();
+  }
+
+  /**
+   * Makes the follower read all regular files again, for a newly added one.
+   */
+  private void wakeFollower() {
+    synchronized (followLock) {
+      rescan = true;
+      if (waiting) {
+        followThread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * The follower loop: reads every regular file to its end, then waits for
+   * one of their directories to change.
+   */
+  private void follow(WatchService service) {
+    while (running) {
+      for (Device device : devices) {
+        if (device.regular && device.open) {
+          readToEnd(device);
+        }
+      }
+
+      synchronized (followLock) {
+        if (rescan) {
+          rescan = false;
+          continue;
+        }
+        waiting = true;
+      }
+
+      try {
+        WatchKey key = service.take();
+        key.pollEvents();
+        key.reset();
+      } catch (InterruptedException e) {
+        // woken for a new file, or to stop
+      } catch (ClosedWatchServiceException e) {
+        return;
+      } finally {
+        synchronized (followLock) {
+          waiting = false;
+          Thread.interrupted();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a regular file until no more data is available.
+   */
+  private void readToEnd(Device device) {
+    try {
+      while (device.read() > 0) {
+      }
+    } catch (IOException e) {
+      if (device.open) {
+        log.error(String.format("Error reading %s", device.path), e);
+        device.close();
+        remove(device);
+      }
+    }
+  }
+
+  /**
+   * Stops reading and closes all sources.
+   */
+  public void shutdown() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = followThread;
+      followThread = null;
+
+      if (watcher != null) {
+        try {
+          watcher.close();
+        } catch (IOException e) {
+          log.warn("Error closing the file watcher", e);
+        }
+        watcher = null;
+      }
+    }
+
+    for (Device device : devices) {
+      device.close();
+      remove(device);
+    }
+
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
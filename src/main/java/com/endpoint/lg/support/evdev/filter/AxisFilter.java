@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * A stateful filter applied to successive samples of one axis.
+ * 
+ * <p>
+ * Filters work on primitive values and must not allocate per sample, so they
+ * can run on the input reader thread.
+ * 
+ * @see AxisFilterChain
+ */
+public interface AxisFilter {
+  /**
+   * Filter a sample.
+   * 
+   * @param value
+   *          the input value
+   * @param time
+   *          timestamp of the sample, in microseconds
+   * @return the filtered value
+   */
+  public double filter(double value, long time);
+
+  /**
+   * Forget any history, so the next sample passes through as if it were the
+   * first.
+   */
+  public void reset();
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * Applies filters in sequence.
+ */
+public class AxisFilterChain implements AxisFilter {
+  private final AxisFilter[] filters;
+
+  /**
+   * Creates a chain.
+   * 
+   * @param filters
+   *          the filters, in the order they are applied
+   */
+  public AxisFilterChain(AxisFilter... filters) {
+    this.filters = filters.clone();
+  }
+
+  /**
+   * Returns the number of filters in the chain.
+   * 
+   * @return filter count
+   */
+  public int size() {
+    return filters.length;
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    for (int i = 0; i < filters.length; i++) {
+      value = filters[i].filter(value, time);
+    }
+
+    return value;
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < filters.length; i++) {
+      filters[i].reset();
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * Creates new instances of a filter, for callers which need one filter per
+ * axis of each of many tracked objects.
+ */
+public interface AxisFilterFactory {
+  /**
+   * Creates a filter with no history.
+   * 
+   * @return a new filter
+   */
+  public AxisFilter newFilter();
+}
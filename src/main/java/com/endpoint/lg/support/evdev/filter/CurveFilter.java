@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * A response curve: the magnitude of the input, as a fraction of its range,
+ * is raised to an exponent and scaled by a gain. Exponents above one give
+ * finer control near zero.
+ */
+public class CurveFilter implements AxisFilter {
+  private final double exponent;
+  private final double range;
+  private final double gain;
+
+  /**
+   * Creates a curve filter.
+   * 
+   * @param exponent
+   *          the curve exponent
+   * @param range
+   *          the full scale input magnitude
+   * @param gain
+   *          output multiplier; a full scale input yields
+   *          <code>range * gain</code>
+   */
+  public CurveFilter(double exponent, double range, double gain) {
+    if (range <= 0) {
+      throw new IllegalArgumentException(String.format("Curve range %f must be positive", range));
+    }
+
+    this.exponent = exponent;
+    this.range = range;
+    this.gain = gain;
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    double magnitude = range * gain * Math.pow(Math.abs(value) / range, exponent);
+
+    return value < 0 ? -magnitude : magnitude;
+  }
+
+  @Override
+  public void reset() {
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * Zeroes values within a distance of zero. Values outside the deadzone are
+ * shifted toward zero by its width, so the output is continuous.
+ */
+public class DeadzoneFilter implements AxisFilter {
+  private final double deadzone;
+
+  /**
+   * Creates a deadzone filter.
+   * 
+   * @param deadzone
+   *          the largest magnitude which is zeroed
+   */
+  public DeadzoneFilter(double deadzone) {
+    this.deadzone = Math.abs(deadzone);
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    if (value > deadzone) {
+      return value - deadzone;
+    } else if (value < -deadzone) {
+      return value + deadzone;
+    }
+
+    return 0;
+  }
+
+  @Override
+  public void reset() {
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * An exponential moving average: each output moves a fixed fraction of the
+ * way from the previous output toward the input.
+ */
+public class ExponentialSmoothingFilter implements AxisFilter {
+  private final double alpha;
+
+  private double previous;
+  private boolean primed;
+
+  /**
+   * Creates a smoothing filter.
+   * 
+   * @param alpha
+   *          weight of each new sample, between 0 (frozen) and 1 (no
+   *          smoothing)
+   */
+  public ExponentialSmoothingFilter(double alpha) {
+    if (alpha <= 0 || alpha > 1) {
+      throw new IllegalArgumentException(String.format("Smoothing alpha %f is not in (0, 1]",
+          alpha));
+    }
+
+    this.alpha = alpha;
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    if (primed) {
+      previous += alpha * (value - previous);
+    } else {
+      previous = value;
+      primed = true;
+    }
+
+    return previous;
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
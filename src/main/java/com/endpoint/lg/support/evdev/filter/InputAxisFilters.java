@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+import interactivespaces.configuration.Configuration;
+
+import com.endpoint.lg.support.evdev.InputEvent;
+import com.endpoint.lg.support.evdev.InputEventCodes;
+import com.endpoint.lg.support.evdev.InputEventSink;
+import com.endpoint.lg.support.evdev.InputEventTypes;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filters the axes of one event type before passing events on, so that
+ * deadzones, smoothing and response curves are applied once, on the reader
+ * thread, instead of by every consumer.
+ * 
+ * <p>
+ * Each axis code may have its own {@link AxisFilterChain}. Events of other
+ * types, and axes without a chain, pass through unchanged. Filtered values
+ * are rounded back to integers.
+ * 
+ * <p>
+ * Stateful filters only move when they are fed, but the kernel does not
+ * repeat an unchanged EV_ABS value and never sends a zero EV_REL delta. Call
+ * {@link #tick(long)} regularly, or use
+ * {@link #schedule(ScheduledExecutorService, long)}, so an axis which has gone
+ * quiet keeps being fed its last value (or zero, for EV_REL) until its output
+ * settles. Settling events are sent downstream followed by a
+ * <code>SYN_REPORT</code>, and never in the middle of a device frame.
+ * 
+ * <p>
+ * The downstream sink is called with a lock held, on the thread which
+ * delivered the event or called <code>tick()</code>. Calls are never
+ * concurrent, but settling events from scheduled ticks arrive on the
+ * scheduler's thread rather than the reader's.
+ * 
+ * <p>
+ * Chains can be built from activity configuration with
+ * {@link #fromConfiguration}. For a prefix of <code>lg.spacenav.filter</code>
+ * the following keys are read, first as <code>prefix.code.key</code> for a
+ * single axis and then as <code>prefix.key</code> for all axes, and applied
+ * in this order. The multitouch bookkeeping axes <code>ABS_MT_SLOT</code>,
+ * <code>ABS_MT_TRACKING_ID</code>, <code>ABS_MT_TOOL_TYPE</code> and
+ * <code>ABS_MT_BLOB_ID</code> carry identifiers rather than positions, so
+ * only their per-code keys apply:
+ * 
+ * <pre>
+ * deadzone          magnitude zeroed around the origin
+ * smoothing         exponential moving average weight, (0, 1]
+ * oneeuro.mincutoff 1 Euro filter cutoff at rest, in Hz
+ * oneeuro.beta      1 Euro filter speed coefficient (default 0)
+ * oneeuro.dcutoff   1 Euro filter speed cutoff, in Hz (default 1)
+ * curve.exponent    response curve exponent
+ * curve.range       response curve full scale input (default 1)
+ * curve.gain        response curve gain (default 1)
+ * ratelimit         largest change per second
+ * </pre>
+ */
+public class InputAxisFilters implements InputEventSink {
+  public static final String KEY_DEADZONE = "deadzone";
+  public static final String KEY_SMOOTHING = "smoothing";
+  public static final String KEY_ONEEURO_MIN_CUTOFF = "oneeuro.mincutoff";
+  public static final String KEY_ONEEURO_BETA = "oneeuro.beta";
+  public static final String KEY_ONEEURO_DERIVATIVE_CUTOFF = "oneeuro.dcutoff";
+  public static final String KEY_CURVE_EXPONENT = "curve.exponent";
+  public static final String KEY_CURVE_RANGE = "curve.range";
+  public static final String KEY_CURVE_GAIN = "curve.gain";
+  public static final String KEY_RATE_LIMIT = "ratelimit";
+
+  /**
+   * A filtered axis has settled when one tick moves its output less than
+   * this.
+   */
+  private static final double SETTLE_EPSILON = 0.01;
+
+  /**
+   * The type of events which are filtered.
+   */
+  private final int type;
+
+  /**
+   * Filter chains indexed by axis code; null for unfiltered axes.
+   */
+  private final AxisFilter[] filters;
+
+  /**
+   * Receiver of filtered events.
+   */
+  private final InputEventSink downstream;
+
+  /**
+   * The last raw value of each axis.
+   */
+  private final int[] targets;
+
+  /**
+   * The last filtered value of each axis, before rounding.
+   */
+  private final double[] filtered;
+
+  /**
+   * The last value sent downstream for each axis.
+   */
+  private final int[] outputs;
+
+  /**
+   * Axes whose output may still be moving toward their last raw value.
+   */
+  private final boolean[] settling;
+
+  /**
+   * Axes which had an event since the last tick.
+   */
+  private final boolean[] updated;
+
+  /**
+   * True between a filtered event and the next <code>SYN_REPORT</code>.
+   */
+  private boolean inFrame;
+
+  /**
+   * Creates an empty set of filters.
+   * 
+   * @param type
+   *          the type of events to filter, usually EV_ABS or EV_REL
+   * @param downstream
+   *          receiver of the filtered events
+   */
+  public InputAxisFilters(int type, InputEventSink downstream) {
+    this.type = type;
+    this.downstream = downstream;
+    filters = new AxisFilter[InputEventTypes.getCodeCount(type)];
+    targets = new int[filters.length];
+    filtered = new double[filters.length];
+    outputs = new int[filters.length];
+    settling = new boolean[filters.length];
+    updated = new boolean[filters.length];
+  }
+
+  /**
+   * Sets the filter for one axis.
+   * 
+   * @param axis
+   *          axis code
+   * @param filter
+   *          the filter, or null to pass the axis through
+   */
+  public synchronized void setFilter(int axis, AxisFilter filter) {
+    filters[axis] = filter;
+    settling[axis] = false;
+  }
+
+  /**
+   * Returns the filter for one axis.
+   * 
+   * @param axis
+   *          axis code
+   * @return the filter, or null if the axis is not filtered
+   */
+  public AxisFilter getFilter(int axis) {
+    return filters[axis];
+  }
+
+  /**
+   * Filters a single value.
+   * 
+   * @param axis
+   *          axis code
+   * @param value
+   *          raw axis value
+   * @param time
+   *          timestamp, in microseconds
+   * @return the filtered value
+   */
+  public synchronized int filter(int axis, int value, long time) {
+    AxisFilter filter = (axis >= 0 && axis < filters.length) ? filters[axis] : null;
+
+    if (filter == null) {
+      return value;
+    }
+
+    double result = filter.filter(value, time);
+    int rounded = (int) Math.round(result);
+
+    targets[axis] = value;
+    filtered[axis] = result;
+    outputs[axis] = rounded;
+    settling[axis] = true;
+    updated[axis] = true;
+
+    return rounded;
+  }
+
+  @Override
+  public synchronized void handleEvent(long time, int type, int code, int value) {
+    if (type == this.type) {
+      value = filter(code, value, time);
+      inFrame = true;
+    } else if (type == InputEventTypes.EV_SYN && code == InputEventCodes.SYN_REPORT) {
+      inFrame = false;
+    }
+
+    downstream.handleEvent(time, type, code, value);
+  }
+
+  /**
+   * Filters an event in place.
+   * 
+   * @param event
+   *          the event to filter
+   */
+  public void filter(InputEvent event) {
+    if (event.getType() == type) {
+      event.setValue(filter(event.getCode(), event.getValue(), event.getTime()));
+    }
+  }
+
+  /**
+   * Feeds each quiet axis which has not settled its last raw value, or zero
+   * for EV_REL, and sends any changed outputs downstream. Axes with an event
+   * since the previous tick are left alone, and nothing is done in the middle
+   * of a device frame.
+   * 
+   * @param time
+   *          timestamp for the fed samples and sent events, in microseconds
+   * @return true if any events were sent
+   */
+  public synchronized boolean tick(long time) {
+    if (inFrame) {
+      return false;
+    }
+
+    boolean relative = type == InputEventTypes.EV_REL;
+    boolean sent = false;
+
+    for (int axis = 0; axis < filters.length; axis++) {
+      if (!settling[axis]) {
+        continue;
+      }
+      if (updated[axis]) {
+        updated[axis] = false;
+        continue;
+      }
+
+      int target = relative ? 0 : targets[axis];
+      double result = filters[axis].filter(target, time);
+      int rounded = (int) Math.round(result);
+
+      if (rounded == target || Math.abs(result - filtered[axis]) < SETTLE_EPSILON) {
+        settling[axis] = false;
+      }
+      filtered[axis] = result;
+
+      if (relative ? rounded != 0 : rounded != outputs[axis]) {
+        outputs[axis] = rounded;
+        downstream.handleEvent(time, type, axis, rounded);
+        sent = true;
+      }
+    }
+
+    if (sent) {
+      downstream.handleEvent(time, InputEventTypes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+    }
+
+    return sent;
+  }
+
+  /**
+   * Ticks at an interval on an executor, timestamped with the wall clock. The
+   * downstream sink is then also called from the executor's thread.
+   * 
+   * @param executor
+   *          the executor
+   * @param interval
+   *          the tick interval, in microseconds
+   * @return the scheduled ticks, which may be cancelled
+   */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService executor, long interval) {
+    return executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        tick(System.currentTimeMillis() * 1000);
+      }
+    }, interval, interval, TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Resets the history of all filters, for example after the device has been
+   * reopened.
+   */
+  public synchronized void reset() {
+    for (AxisFilter filter : filters) {
+      if (filter != null) {
+        filter.reset();
+      }
+    }
+
+    Arrays.fill(settling, false);
+    inFrame = false;
+  }
+
+  /**
+   * Checks whether the settings for all axes apply to an axis.
+   */
+  private static boolean isGlobalAxis(int type, int axis) {
+    if (type != InputEventTypes.EV_ABS) {
+      return true;
+    }
+
+    switch (axis) {
+      case InputEventCodes.ABS_MT_SLOT:
+      case InputEventCodes.ABS_MT_TRACKING_ID:
+      case InputEventCodes.ABS_MT_TOOL_TYPE:
+      case InputEventCodes.ABS_MT_BLOB_ID:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Reads a numeric setting for an axis, falling back to the setting for all
+   * axes.
+   */
+  private static Double getSetting(Configuration config, String prefix, int type, int axis,
+      String key) {
+    String value = config.getPropertyString(String.format("%s.%d.%s", prefix, axis, key));
+
+    if (value == null && isGlobalAxis(type, axis)) {
+      value = config.getPropertyString(String.format("%s.%s", prefix, key));
+    }
+
+    return value != null ? Double.valueOf(value.trim()) : null;
+  }
+
+  /**
+   * Reads a numeric setting, or a default if it is not configured.
+   */
+  private static double getSetting(Configuration config, String prefix, int type, int axis,
+      String key, double defaultValue) {
+    Double value = getSetting(config, prefix, type, axis, key);
+
+    return value != null ? value : defaultValue;
+  }
+
+  /**
+   * Builds the filter chain for one axis from configuration.
+   * 
+   * @param config
+   *          the activity configuration
+   * @param prefix
+   *          configuration key prefix
+   * @param type
+   *          the type of events to filter
+   * @param axis
+   *          axis code
+   * @return the chain, or null if no filters are configured for the axis
+   */
+  public static AxisFilter chainFromConfiguration(Configuration config, String prefix, int type,
+      int axis) {
+    List<AxisFilter> chain = Lists.newArrayList();
+
+    Double deadzone = getSetting(config, prefix, type, axis, KEY_DEADZONE);
+    if (deadzone != null) {
+      chain.add(new DeadzoneFilter(deadzone));
+    }
+
+    Double alpha = getSetting(config, prefix, type, axis, KEY_SMOOTHING);
+    if (alpha != null) {
+      chain.add(new ExponentialSmoothingFilter(alpha));
+    }
+
+    Double minCutoff = getSetting(config, prefix, type, axis, KEY_ONEEURO_MIN_CUTOFF);
+    if (minCutoff != null) {
+      chain.add(new OneEuroFilter(minCutoff,
+          getSetting(config, prefix, type, axis, KEY_ONEEURO_BETA, 0),
+          getSetting(config, prefix, type, axis, KEY_ONEEURO_DERIVATIVE_CUTOFF, 1)));
+    }
+
+    Double exponent = getSetting(config, prefix, type, axis, KEY_CURVE_EXPONENT);
+    if (exponent != null) {
+      chain.add(new CurveFilter(exponent,
+          getSetting(config, prefix, type, axis, KEY_CURVE_RANGE, 1),
+          getSetting(config, prefix, type, axis, KEY_CURVE_GAIN, 1)));
+    }
+
+    Double rateLimit = getSetting(config, prefix, type, axis, KEY_RATE_LIMIT);
+    if (rateLimit != null) {
+      chain.add(new RateLimitFilter(rateLimit));
+    }
+
+    if (chain.isEmpty()) {
+      return null;
+    }
+
+    return new AxisFilterChain(chain.toArray(new AxisFilter[chain.size()]));
+  }
+
+  /**
+   * Builds filters for every axis of a type from configuration.
+   * 
+   * @param config
+   *          the activity configuration
+   * @param prefix
+   *          configuration key prefix
+   * @param type
+   *          the type of events to filter
+   * @param downstream
+   *          receiver of the filtered events
+   * @return the configured filters
+   */
+  public static InputAxisFilters fromConfiguration(Configuration config, String prefix, int type,
+      InputEventSink downstream) {
+    InputAxisFilters axisFilters = new InputAxisFilters(type, downstream);
+
+    for (int axis = 0; axis < axisFilters.filters.length; axis++) {
+      axisFilters.setFilter(axis, chainFromConfiguration(config, prefix, type, axis));
+    }
+
+    return axisFilters;
+  }
+}
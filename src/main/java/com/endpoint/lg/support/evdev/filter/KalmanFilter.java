@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * A Kalman filter with a constant velocity model: the axis is assumed to move
+ * at a steady speed, disturbed by random acceleration, and to be measured
+ * with random noise. Compared to a moving average, it follows steady motion
+ * without lag.
+ */
+public class KalmanFilter implements AxisFilter {
+  /**
+   * Sample interval assumed when timestamps do not advance, in seconds.
+   */
+  private static final double DEFAULT_INTERVAL = 0.001;
+
+  /**
+   * Variance of the velocity estimate before the second sample; large, as
+   * nothing is known about it yet.
+   */
+  private static final double INITIAL_VELOCITY_VARIANCE = 1e9;
+
+  private final double processNoise;
+  private final double measurementNoise;
+
+  private double position;
+  private double velocity;
+  private double p00;
+  private double p01;
+  private double p11;
+  private long previousTime;
+  private boolean primed;
+
+  /**
+   * Creates a Kalman filter.
+   * 
+   * @param processNoise
+   *          variance of the acceleration, in units per second squared,
+   *          squared; higher means less lag
+   * @param measurementNoise
+   *          variance of the measurements, in units squared; higher means
+   *          smoother
+   */
+  public KalmanFilter(double processNoise, double measurementNoise) {
+    if (processNoise <= 0 || measurementNoise <= 0) {
+      throw new IllegalArgumentException(String.format(
+          "Kalman noise must be positive: process %f, measurement %f", processNoise,
+          measurementNoise));
+    }
+
+    this.processNoise = processNoise;
+    this.measurementNoise = measurementNoise;
+  }
+
+  /**
+   * Filters a value. A <code>NaN</code> is returned as it is and leaves the
+   * estimate unchanged, so a missing measurement does not poison the filter.
+   */
+  @Override
+  public double filter(double value, long time) {
+    if (Double.isNaN(value)) {
+      return value;
+    }
+
+    if (!primed) {
+      position = value;
+      velocity = 0;
+      p00 = measurementNoise;
+      p01 = 0;
+      p11 = INITIAL_VELOCITY_VARIANCE;
+      previousTime = time;
+      primed = true;
+      return value;
+    }
+
+    double dt = (time - previousTime) / 1000000.0;
+    if (dt <= 0) {
+      dt = DEFAULT_INTERVAL;
+    }
+    previousTime = time;
+
+    // predict
+    double dt2 = dt * dt;
+    position += velocity * dt;
+    p00 += dt * 2 * p01 + dt2 * p11 + processNoise * dt2 * dt2 / 4;
+    p01 += dt * p11 + processNoise * dt2 * dt / 2;
+    p11 += processNoise * dt2;
+
+    // update
+    double s = p00 + measurementNoise;
+    double k0 = p00 / s;
+    double k1 = p01 / s;
+    double residual = value - position;
+
+    position += k0 * residual;
+    velocity += k1 * residual;
+    p11 -= k1 * p01;
+    p01 -= k0 * p01;
+    p00 -= k0 * p00;
+
+    return position;
+  }
+
+  /**
+   * Returns the current velocity estimate.
+   * 
+   * @return the velocity, in units per second
+   */
+  public double getVelocity() {
+    return velocity;
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
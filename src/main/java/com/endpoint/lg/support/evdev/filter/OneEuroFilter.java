@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * The 1 Euro filter of Casiez, Roussel and Vogel: a low-pass filter whose
+ * cutoff frequency rises with the speed of the signal, so slow movements are
+ * smoothed heavily while fast movements keep little lag.
+ */
+public class OneEuroFilter implements AxisFilter {
+  /**
+   * Sample interval assumed when timestamps do not advance, in seconds.
+   */
+  private static final double DEFAULT_INTERVAL = 0.001;
+
+  private final double minCutoff;
+  private final double beta;
+  private final double derivativeCutoff;
+
+  private double previousValue;
+  private double previousDerivative;
+  private long previousTime;
+  private boolean primed;
+
+  /**
+   * Creates a 1 Euro filter.
+   * 
+   * @param minCutoff
+   *          cutoff frequency at rest, in Hz; lower means smoother
+   * @param beta
+   *          increase in cutoff per unit of speed; higher means less lag
+   * @param derivativeCutoff
+   *          cutoff frequency for the speed estimate, in Hz
+   */
+  public OneEuroFilter(double minCutoff, double beta, double derivativeCutoff) {
+    this.minCutoff = minCutoff;
+    this.beta = beta;
+    this.derivativeCutoff = derivativeCutoff;
+  }
+
+  /**
+   * Smoothing factor for a cutoff frequency and sample interval.
+   */
+  private static double alpha(double cutoff, double interval) {
+    double tau = 1.0 / (2 * Math.PI * cutoff);
+    return 1.0 / (1.0 + tau / interval);
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    if (!primed) {
+      previousValue = value;
+      previousDerivative = 0;
+      previousTime = time;
+      primed = true;
+      return value;
+    }
+
+    double interval = (time - previousTime) / 1000000.0;
+    if (interval <= 0) {
+      interval = DEFAULT_INTERVAL;
+    }
+    previousTime = time;
+
+    double derivative = (value - previousValue) / interval;
+    previousDerivative += alpha(derivativeCutoff, interval) * (derivative - previousDerivative);
+
+    double cutoff = minCutoff + beta * Math.abs(previousDerivative);
+    previousValue += alpha(cutoff, interval) * (value - previousValue);
+
+    return previousValue;
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+/**
+ * Limits how fast the output can change, in units per second.
+ */
+public class RateLimitFilter implements AxisFilter {
+  /**
+   * Sample interval assumed when timestamps do not advance, in seconds.
+   */
+  private static final double DEFAULT_INTERVAL = 0.001;
+
+  private final double maxRate;
+
+  private double previous;
+  private long previousTime;
+  private boolean primed;
+
+  /**
+   * Creates a rate limiter.
+   * 
+   * @param maxRate
+   *          the largest change per second
+   */
+  public RateLimitFilter(double maxRate) {
+    this.maxRate = Math.abs(maxRate);
+  }
+
+  @Override
+  public double filter(double value, long time) {
+    if (!primed) {
+      previous = value;
+      previousTime = time;
+      primed = true;
+      return value;
+    }
+
+    double interval = (time - previousTime) / 1000000.0;
+    if (interval <= 0) {
+      interval = DEFAULT_INTERVAL;
+    }
+    previousTime = time;
+
+    double maxDelta = maxRate * interval;
+
+    double delta = Math.max(-maxDelta, Math.min(maxDelta, value - previous));
+    previous += delta;
+
+    return previous;
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+/**
+ * A hand gesture recognized by {@link HandGestureRecognizer}.
+ * 
+ * <p>
+ * The meaning of the direction, speed and radius depends on the type:
+ * <ul>
+ * <li><b>swipe</b>: the unit direction of travel, the average speed over the
+ * swipe and no radius</li>
+ * <li><b>circle</b>: the unit normal of the circle, following the right hand
+ * rule, the current palm speed and the estimated radius</li>
+ * <li><b>grab</b> and <b>release</b>: no direction or speed, and the sphere
+ * radius of the hand</li>
+ * </ul>
+ * Distances are in millimeters and speeds in millimeters per second, as
+ * reported by the Leap Motion.
+ */
+public class HandGestureEvent {
+  /**
+   * Event field for the gesture type.
+   */
+  public static final String FIELD_TYPE = "type";
+
+  /**
+   * Event field for the hand id.
+   */
+  public static final String FIELD_HAND = "hand";
+
+  /**
+   * Event field for the frame timestamp.
+   */
+  public static final String FIELD_TIME = "time";
+
+  /**
+   * Event field for the palm position.
+   */
+  public static final String FIELD_POSITION = "position";
+
+  /**
+   * Event field for the direction or normal.
+   */
+  public static final String FIELD_DIRECTION = "direction";
+
+  /**
+   * Event field for the speed.
+   */
+  public static final String FIELD_SPEED = "speed";
+
+  /**
+   * Event field for the radius.
+   */
+  public static final String FIELD_RADIUS = "radius";
+
+  private HandGestureType type;
+  private String handId;
+  private long time;
+  private final double[] position = new double[3];
+  private final double[] direction = new double[3];
+  private double speed;
+  private double radius;
+
+  /**
+   * Fills in the event.
+   */
+  void set(HandGestureType type, String handId, long time, double[] position, int offset) {
+    this.type = type;
+    this.handId = handId;
+    this.time = time;
+    System.arraycopy(position, offset, this.position, 0, 3);
+    direction[0] = direction[1] = direction[2] = 0;
+    speed = 0;
+    radius = 0;
+  }
+
+  /**
+   * Sets the direction or normal.
+   */
+  void setDirection(double x, double y, double z) {
+    direction[0] = x;
+    direction[1] = y;
+    direction[2] = z;
+  }
+
+  /**
+   * Sets the speed.
+   */
+  void setSpeed(double speed) {
+    this.speed = speed;
+  }
+
+  /**
+   * Sets the radius.
+   */
+  void setRadius(double radius) {
+    this.radius = radius;
+  }
+
+  /**
+   * Returns the gesture type.
+   * 
+   * @return the type
+   */
+  public HandGestureType getType() {
+    return type;
+  }
+
+  /**
+   * Returns the id of the hand which made the gesture.
+   * 
+   * @return the hand id
+   */
+  public String getHandId() {
+    return handId;
+  }
+
+  /**
+   * Returns the timestamp of the frame which completed the gesture.
+   * 
+   * @return the time, in microseconds
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Returns one axis of the palm position when the gesture completed.
+   * 
+   * @param axis
+   *          0, 1 or 2 for x, y or z
+   * @return the position on the axis
+   */
+  public double getPosition(int axis) {
+    return position[axis];
+  }
+
+  /**
+   * Returns one axis of the unit direction or normal.
+   * 
+   * @param axis
+   *          0, 1 or 2 for x, y or z
+   * @return the direction on the axis
+   */
+  public double getDirection(int axis) {
+    return direction[axis];
+  }
+
+  /**
+   * Returns the speed.
+   * 
+   * @return the speed, in millimeters per second
+   */
+  public double getSpeed() {
+    return speed;
+  }
+
+  /**
+   * Returns the radius.
+   * 
+   * @return the radius, in millimeters
+   */
+  public double getRadius() {
+    return radius;
+  }
+
+  /**
+   * Takes a copy of the event.
+   * 
+   * @return a new event with the same values
+   */
+  public HandGestureEvent copy() {
+    HandGestureEvent copy = new HandGestureEvent();
+    copy.set(type, handId, time, position, 0);
+    copy.setDirection(direction[0], direction[1], direction[2]);
+    copy.speed = speed;
+    copy.radius = radius;
+    return copy;
+  }
+
+  /**
+   * Serialize the event.
+   * 
+   * @return json representation of the gesture
+   */
+  public JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    json.put(FIELD_TYPE, type.getValue());
+    json.put(FIELD_HAND, handId);
+    json.put(FIELD_TIME, time);
+    putVector(json, FIELD_POSITION, position);
+    putVector(json, FIELD_DIRECTION, direction);
+    json.put(FIELD_SPEED, speed);
+    json.put(FIELD_RADIUS, radius);
+
+    return json;
+  }
+
+  /**
+   * Writes a vector as an array of three numbers.
+   */
+  private static void putVector(JsonBuilder json, String field, double[] vector) {
+    json.newArray(field);
+    json.put(vector[0]);
+    json.put(vector[1]);
+    json.put(vector[2]);
+    json.up();
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+/**
+ * A handler for recognized hand gestures.
+ * 
+ * @see HandGestureRecognizer
+ */
+public interface HandGestureHandler {
+  /**
+   * Handle a gesture. The event is reused by the recognizer and is only valid
+   * until this method returns; use {@link HandGestureEvent#copy()} to keep it.
+   * 
+   * @param event
+   *          the recognized gesture
+   */
+  public void handleGesture(HandGestureEvent event);
+}
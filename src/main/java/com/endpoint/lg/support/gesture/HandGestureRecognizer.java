@@ -0,0 +1,628 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+import com.endpoint.lg.support.message.GestureFrame;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes swipe, circle, grab and release gestures from a stream of
+ * <code>GestureFrame</code>s, one frame at a time.
+ * 
+ * <p>
+ * Each hand is tracked by its id. A track keeps a fixed-size ring buffer of
+ * recent palm positions, along with running totals over a sliding window, so
+ * each frame costs constant time and nothing is allocated after
+ * construction. Tracks are dropped as soon as their hand leaves the frame.
+ * 
+ * <ul>
+ * <li>A <b>swipe</b> is reported when the palm covers the minimum distance
+ * within the swipe window, fast enough and in a nearly straight line. Further
+ * swipes by the same hand are held back until its palm speed falls below the
+ * release speed.</li>
+ * <li>A <b>circle</b> is reported for each full turn of the palm velocity
+ * around a consistent axis while the palm keeps above the minimum speed.</li>
+ * <li>A <b>grab</b> is reported when the sphere radius of the hand falls
+ * below the grab radius, and a <b>release</b> when it rises above the larger
+ * release radius, or when a closed hand is lost.</li>
+ * </ul>
+ * 
+ * <p>
+ * Gestures are recognized from the palm and sphere of each hand only, as
+ * <code>GestureFrame</code> does not record which hand holds each pointable.
+ * 
+ * <p>
+ * The recognizer is not thread safe; feed it from a single thread.
+ */
+public class HandGestureRecognizer {
+  /**
+   * The default number of palm positions kept per hand.
+   */
+  public static final int DEFAULT_HISTORY = 32;
+
+  /**
+   * The default swipe window, in microseconds.
+   */
+  public static final long DEFAULT_SWIPE_WINDOW = 250000;
+
+  /**
+   * The default minimum swipe distance, in millimeters.
+   */
+  public static final double DEFAULT_SWIPE_DISTANCE = 100;
+
+  /**
+   * The default minimum average swipe speed, in millimeters per second.
+   */
+  public static final double DEFAULT_SWIPE_SPEED = 600;
+
+  /**
+   * The default palm speed below which another swipe may start, in
+   * millimeters per second.
+   */
+  public static final double DEFAULT_SWIPE_RELEASE_SPEED = 200;
+
+  /**
+   * The default minimum ratio of swipe distance to path length.
+   */
+  public static final double DEFAULT_SWIPE_STRAIGHTNESS = 0.8;
+
+  /**
+   * The default minimum palm speed while circling, in millimeters per second.
+   */
+  public static final double DEFAULT_CIRCLE_SPEED = 100;
+
+  /**
+   * The default minimum circle radius, in millimeters.
+   */
+  public static final double DEFAULT_CIRCLE_RADIUS = 15;
+
+  /**
+   * The default sphere radius below which a hand is closed, in millimeters.
+   */
+  public static final double DEFAULT_GRAB_RADIUS = 50;
+
+  /**
+   * The default sphere radius above which a closed hand opens, in
+   * millimeters.
+   */
+  public static final double DEFAULT_RELEASE_RADIUS = 65;
+
+  /**
+   * The largest turn of the palm velocity in one frame which still counts
+   * towards a circle. Sharper turns are reversals, not circles.
+   */
+  private static final double MAX_TURN = Math.PI / 2;
+
+  private static final double FULL_TURN = 2 * Math.PI;
+
+  private static final HandGestureHandler[] NO_HANDLERS = new HandGestureHandler[0];
+
+  /**
+   * Tracking state for one hand.
+   */
+  private static class HandTrack {
+    private String id;
+    private boolean seen;
+
+    private final long[] times;
+    private final double[] positions;
+
+    /**
+     * The distance from the previous sample to each sample.
+     */
+    private final double[] segments;
+
+    /**
+     * The number of samples ever pushed. Sample <code>n</code> is at
+     * <code>n % times.length</code>.
+     */
+    private long count;
+
+    /**
+     * The first sample in the swipe window.
+     */
+    private long start;
+
+    /**
+     * The path length from the first sample in the window to the newest.
+     */
+    private double path;
+
+    private boolean swiping;
+
+    private boolean turning;
+    private final double[] previousVelocity = new double[3];
+    private long previousTime;
+    private double angle;
+    private final double[] normal = new double[3];
+    private double radiusSum;
+    private int radiusCount;
+
+    private boolean grabbed;
+    private double sphereRadius;
+
+    private HandTrack(int history) {
+      times = new long[history];
+      positions = new double[history * 3];
+      segments = new double[history];
+    }
+
+    /**
+     * Starts tracking a new hand.
+     */
+    private void reset(String id) {
+      this.id = id;
+      count = 0;
+      start = 0;
+      path = 0;
+      swiping = false;
+      turning = false;
+      grabbed = false;
+      resetCircle();
+    }
+
+    private void resetCircle() {
+      angle = 0;
+      normal[0] = normal[1] = normal[2] = 0;
+      radiusSum = 0;
+      radiusCount = 0;
+    }
+
+    /**
+     * Finds the ring buffer slot of a sample.
+     */
+    private int slot(long sample) {
+      return (int) (sample % times.length);
+    }
+
+    /**
+     * Drops the first sample of the swipe window.
+     */
+    private void advance() {
+      start++;
+      path -= segments[slot(start)];
+    }
+
+    /**
+     * Adds a palm position, evicting the oldest sample when the buffer is full.
+     */
+    private void push(long time, double x, double y, double z) {
+      if (count - start == times.length) {
+        advance();
+      }
+
+      int s = slot(count);
+      double segment = 0;
+      if (count > start) {
+        int p = slot(count - 1) * 3;
+        double dx = x - positions[p];
+        double dy = y - positions[p + 1];
+        double dz = z - positions[p + 2];
+        segment = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      }
+
+      times[s] = time;
+      positions[s * 3] = x;
+      positions[s * 3 + 1] = y;
+      positions[s * 3 + 2] = z;
+      segments[s] = segment;
+      path += segment;
+      count++;
+    }
+
+    /**
+     * Empties the swipe window, keeping only the newest sample.
+     */
+    private void restartWindow() {
+      start = count - 1;
+      path = 0;
+    }
+  }
+
+  private final HandTrack[] tracks;
+
+  private final HandGestureEvent event = new HandGestureEvent();
+
+  /**
+   * Handlers, replaced on registration.
+   */
+  private volatile HandGestureHandler[] handlers = NO_HANDLERS;
+
+  private long swipeWindow = DEFAULT_SWIPE_WINDOW;
+  private double swipeDistance = DEFAULT_SWIPE_DISTANCE;
+  private double swipeSpeed = DEFAULT_SWIPE_SPEED;
+  private double swipeReleaseSpeed = DEFAULT_SWIPE_RELEASE_SPEED;
+  private double swipeStraightness = DEFAULT_SWIPE_STRAIGHTNESS;
+  private double circleSpeed = DEFAULT_CIRCLE_SPEED;
+  private double circleRadius = DEFAULT_CIRCLE_RADIUS;
+  private double grabRadius = DEFAULT_GRAB_RADIUS;
+  private double releaseRadius = DEFAULT_RELEASE_RADIUS;
+
+  /**
+   * Creates a recognizer for up to the default number of hands, with the
+   * default history.
+   */
+  public HandGestureRecognizer() {
+    this(GestureFrame.DEFAULT_MAX_HANDS, DEFAULT_HISTORY);
+  }
+
+  /**
+   * Creates a recognizer.
+   * 
+   * @param maxHands
+   *          the number of hands which can be tracked at once; further hands
+   *          are ignored
+   * @param history
+   *          the number of palm positions kept per hand, which bounds the
+   *          swipe window in frames
+   */
+  public HandGestureRecognizer(int maxHands, int history) {
+    if (history < 2) {
+      throw new IllegalArgumentException(String.format("History too short: %d", history));
+    }
+
+    tracks = new HandTrack[maxHands];
+    for (int i = 0; i < maxHands; i++) {
+      tracks[i] = new HandTrack(history);
+    }
+  }
+
+  /**
+   * Registers a handler for recognized gestures.
+   * 
+   * @param handler
+   *          the handler
+   */
+  public synchronized void registerHandler(HandGestureHandler handler) {
+    HandGestureHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+    newHandlers[handlers.length] = handler;
+    handlers = newHandlers;
+  }
+
+  /**
+   * Configures swipe recognition.
+   * 
+   * @param window
+   *          the longest a swipe may take, in microseconds
+   * @param distance
+   *          the minimum distance covered, in millimeters
+   * @param speed
+   *          the minimum average speed, in millimeters per second
+   * @param releaseSpeed
+   *          the palm speed below which another swipe may start, in
+   *          millimeters per second
+   * @param straightness
+   *          the minimum ratio of distance covered to path length, between 0
+   *          and 1
+   */
+  public void setSwipe(long window, double distance, double speed, double releaseSpeed,
+      double straightness) {
+    if (releaseSpeed > speed) {
+      throw new IllegalArgumentException(String.format(
+          "Swipe release speed %f above swipe speed %f", releaseSpeed, speed));
+    }
+
+    swipeWindow = window;
+    swipeDistance = distance;
+    swipeSpeed = speed;
+    swipeReleaseSpeed = releaseSpeed;
+    swipeStraightness = straightness;
+  }
+
+  /**
+   * Configures circle recognition.
+   * 
+   * @param speed
+   *          the minimum palm speed while circling, in millimeters per second
+   * @param radius
+   *          the minimum circle radius, in millimeters
+   */
+  public void setCircle(double speed, double radius) {
+    circleSpeed = speed;
+    circleRadius = radius;
+  }
+
+  /**
+   * Configures grab recognition. The gap between the radii keeps a hand near
+   * the threshold from flickering between grab and release.
+   * 
+   * @param grabRadius
+   *          the sphere radius below which a hand is closed, in millimeters
+   * @param releaseRadius
+   *          the sphere radius above which a closed hand opens, in millimeters
+   */
+  public void setGrab(double grabRadius, double releaseRadius) {
+    if (grabRadius > releaseRadius) {
+      throw new IllegalArgumentException(String.format(
+          "Grab radius %f above release radius %f", grabRadius, releaseRadius));
+    }
+
+    this.grabRadius = grabRadius;
+    this.releaseRadius = releaseRadius;
+  }
+
+  /**
+   * Returns the number of hands being tracked.
+   * 
+   * @return the count
+   */
+  public int getTrackedCount() {
+    int tracked = 0;
+    for (int i = 0; i < tracks.length; i++) {
+      if (tracks[i].id != null) {
+        tracked++;
+      }
+    }
+
+    return tracked;
+  }
+
+  /**
+   * Checks whether a hand is closed.
+   * 
+   * @param handId
+   *          the hand id
+   * @return true if the hand is tracked and closed
+   */
+  public boolean isGrabbed(String handId) {
+    HandTrack track = findTrack(handId);
+
+    return track != null && track.grabbed;
+  }
+
+  /**
+   * Finds the track for a hand.
+   */
+  private HandTrack findTrack(String handId) {
+    for (int i = 0; i < tracks.length; i++) {
+      if (handId.equals(tracks[i].id)) {
+        return tracks[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds a free track.
+   */
+  private HandTrack freeTrack() {
+    for (int i = 0; i < tracks.length; i++) {
+      if (tracks[i].id == null) {
+        return tracks[i];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Updates the recognizer with the next frame, delivering any gestures it
+   * completes.
+   * 
+   * @param frame
+   *          the frame
+   * @param time
+   *          timestamp of the frame, in microseconds
+   */
+  public void update(GestureFrame frame, long time) {
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i].seen = false;
+    }
+
+    int handCount = frame.getHandCount();
+    for (int slot = 0; slot < handCount; slot++) {
+      HandTrack track = findTrack(frame.getHandId(slot));
+      if (track != null) {
+        track.seen = true;
+      }
+    }
+
+    for (int i = 0; i < tracks.length; i++) {
+      HandTrack track = tracks[i];
+      if (track.id != null && !track.seen) {
+        if (track.grabbed) {
+          HandGestureEvent release = begin(HandGestureType.RELEASE, track);
+          release.setRadius(track.sphereRadius);
+          dispatch();
+        }
+        track.id = null;
+      }
+    }
+
+    double[] positions = frame.getHandVectors(GestureFrame.HAND_PALM_POSITION);
+    double[] velocities = frame.getHandVectors(GestureFrame.HAND_PALM_VELOCITY);
+
+    for (int slot = 0; slot < handCount; slot++) {
+      String id = frame.getHandId(slot);
+
+      HandTrack track = findTrack(id);
+      if (track == null) {
+        track = freeTrack();
+        if (track == null) {
+          continue;
+        }
+        track.reset(id);
+      }
+
+      int v = slot * 3;
+      track.push(time, positions[v], positions[v + 1], positions[v + 2]);
+
+      double vx = velocities[v];
+      double vy = velocities[v + 1];
+      double vz = velocities[v + 2];
+      double speed = Math.sqrt(vx * vx + vy * vy + vz * vz);
+
+      updateSwipe(track, speed);
+      updateCircle(track, time, vx, vy, vz, speed);
+      updateGrab(track, frame.getSphereRadius(slot));
+    }
+  }
+
+  /**
+   * Checks the swipe window of a track.
+   */
+  private void updateSwipe(HandTrack track, double speed) {
+    long newest = track.count - 1;
+    long newestTime = track.times[track.slot(newest)];
+    long oldest = newestTime - swipeWindow;
+    while (track.start < newest && track.times[track.slot(track.start)] < oldest) {
+      track.advance();
+    }
+
+    if (track.swiping) {
+      if (speed < swipeReleaseSpeed) {
+        track.swiping = false;
+        track.restartWindow();
+      }
+      return;
+    }
+
+    long elapsed = newestTime - track.times[track.slot(track.start)];
+    if (elapsed <= 0) {
+      return;
+    }
+
+    int a = track.slot(track.start) * 3;
+    int b = track.slot(newest) * 3;
+    double dx = track.positions[b] - track.positions[a];
+    double dy = track.positions[b + 1] - track.positions[a + 1];
+    double dz = track.positions[b + 2] - track.positions[a + 2];
+    double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+    double average = distance / (elapsed / 1000000.0);
+
+    if (distance >= swipeDistance && average >= swipeSpeed
+        && distance >= swipeStraightness * track.path) {
+      HandGestureEvent swipe = begin(HandGestureType.SWIPE, track);
+      swipe.setDirection(dx / distance, dy / distance, dz / distance);
+      swipe.setSpeed(average);
+      dispatch();
+
+      track.swiping = true;
+      track.restartWindow();
+    }
+  }
+
+  /**
+   * Accumulates the turning of the palm velocity of a track.
+   */
+  private void updateCircle(HandTrack track, long time, double vx, double vy, double vz,
+      double speed) {
+    double[] previous = track.previousVelocity;
+    double px = previous[0];
+    double py = previous[1];
+    double pz = previous[2];
+    double interval = (time - track.previousTime) / 1000000.0;
+    boolean wasTurning = track.turning;
+
+    previous[0] = vx;
+    previous[1] = vy;
+    previous[2] = vz;
+    track.previousTime = time;
+    track.turning = speed >= circleSpeed;
+
+    if (!track.turning || !wasTurning) {
+      track.resetCircle();
+      return;
+    }
+
+    double cx = py * vz - pz * vy;
+    double cy = pz * vx - px * vz;
+    double cz = px * vy - py * vx;
+    double cross = Math.sqrt(cx * cx + cy * cy + cz * cz);
+    if (cross == 0) {
+      return;
+    }
+
+    double turn = Math.atan2(cross, px * vx + py * vy + pz * vz);
+    double[] normal = track.normal;
+    if (turn > MAX_TURN || normal[0] * cx + normal[1] * cy + normal[2] * cz < 0) {
+      track.resetCircle();
+      if (turn > MAX_TURN) {
+        return;
+      }
+    }
+
+    normal[0] += cx / cross * turn;
+    normal[1] += cy / cross * turn;
+    normal[2] += cz / cross * turn;
+    track.angle += turn;
+    if (interval > 0) {
+      track.radiusSum += speed * interval / turn;
+      track.radiusCount++;
+    }
+
+    if (track.angle < FULL_TURN) {
+      return;
+    }
+
+    double radius = track.radiusCount == 0 ? 0 : track.radiusSum / track.radiusCount;
+    if (radius >= circleRadius) {
+      double n = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+      HandGestureEvent circle = begin(HandGestureType.CIRCLE, track);
+      circle.setDirection(normal[0] / n, normal[1] / n, normal[2] / n);
+      circle.setSpeed(speed);
+      circle.setRadius(radius);
+      dispatch();
+    }
+
+    track.angle -= FULL_TURN;
+    track.radiusSum = 0;
+    track.radiusCount = 0;
+  }
+
+  /**
+   * Checks the sphere radius of a track.
+   */
+  private void updateGrab(HandTrack track, double sphereRadius) {
+    track.sphereRadius = sphereRadius;
+
+    if (!track.grabbed && sphereRadius < grabRadius) {
+      track.grabbed = true;
+      HandGestureEvent grab = begin(HandGestureType.GRAB, track);
+      grab.setRadius(sphereRadius);
+      dispatch();
+    } else if (track.grabbed && sphereRadius > releaseRadius) {
+      track.grabbed = false;
+      HandGestureEvent release = begin(HandGestureType.RELEASE, track);
+      release.setRadius(sphereRadius);
+      dispatch();
+    }
+  }
+
+  /**
+   * Fills in the shared event for a track at its newest position.
+   */
+  private HandGestureEvent begin(HandGestureType type, HandTrack track) {
+    long newest = track.count - 1;
+    int s = track.slot(newest);
+    event.set(type, track.id, track.times[s], track.positions, s * 3);
+
+    return event;
+  }
+
+  /**
+   * Delivers the shared event to the handlers.
+   */
+  private void dispatch() {
+    HandGestureHandler[] current = handlers;
+    for (int i = 0; i < current.length; i++) {
+      current[i].handleGesture(event);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+/**
+ * High-level hand gestures reported by {@link HandGestureRecognizer}.
+ */
+public enum HandGestureType {
+  /**
+   * The palm moved quickly in a straight line.
+   */
+  SWIPE("swipe"),
+
+  /**
+   * The palm completed a circle.
+   */
+  CIRCLE("circle"),
+
+  /**
+   * The hand closed.
+   */
+  GRAB("grab"),
+
+  /**
+   * The hand opened, or was lost while closed.
+   */
+  RELEASE("release");
+
+  /**
+   * The serialized name of the gesture.
+   */
+  private String value;
+
+  private HandGestureType(String value) {
+    this.value = value;
+  }
+
+  /**
+   * Returns the serialized name of the gesture.
+   * 
+   * @return the value
+   */
+  public String getValue() {
+    return value;
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+import com.endpoint.lg.support.evdev.filter.AxisFilter;
+import com.endpoint.lg.support.evdev.filter.AxisFilterFactory;
+import com.endpoint.lg.support.message.GestureFrame;
+
+/**
+ * Smooths the hand vectors and sphere radius of a <code>GestureFrame</code>
+ * in place, keeping separate filter history for each hand id.
+ * 
+ * <p>
+ * Each hand vector field, such as <code>HAND_PALM_POSITION</code> or
+ * <code>HAND_PALM_VELOCITY</code>, may have its own filter, applied to each
+ * axis. Fields without a filter pass through unchanged. Filters are created
+ * from their factories when the field is configured, one per axis of each
+ * trackable hand, so filtering a frame does not allocate.
+ * 
+ * <p>
+ * When a hand id leaves the frame its filters are reset, so a new hand in the
+ * same slot starts without the old hand's history. Hands beyond the capacity
+ * pass through unfiltered. <code>NaN</code> values, which the decoders give
+ * for missing data, pass through without reaching the filters, so a hand's
+ * history survives a gap.
+ * 
+ * <p>
+ * Instances are not thread safe; configure and feed them from a single
+ * thread.
+ * 
+ * @see com.endpoint.lg.support.evdev.filter.OneEuroFilter
+ * @see com.endpoint.lg.support.evdev.filter.KalmanFilter
+ */
+public class HandVectorFilters {
+  /**
+   * The id of the hand using each track, or null for free tracks.
+   */
+  private final String[] ids;
+
+  /**
+   * Whether each track's hand is in the current frame.
+   */
+  private final boolean[] seen;
+
+  /**
+   * Filters for each vector field, indexed by <code>track * 3 + axis</code>;
+   * null for unfiltered fields.
+   */
+  private final AxisFilter[][] vectorFilters = new AxisFilter[GestureFrame.HAND_VECTORS][];
+
+  /**
+   * Filters for the sphere radius, indexed by track; null if unfiltered.
+   */
+  private AxisFilter[] sphereRadiusFilters;
+
+  /**
+   * Creates filters for up to the default number of hands.
+   */
+  public HandVectorFilters() {
+    this(GestureFrame.DEFAULT_MAX_HANDS);
+  }
+
+  /**
+   * Creates filters.
+   * 
+   * @param maxHands
+   *          the number of hands which can be filtered at once
+   */
+  public HandVectorFilters(int maxHands) {
+    ids = new String[maxHands];
+    seen = new boolean[maxHands];
+  }
+
+  /**
+   * Creates one filter per entry.
+   */
+  private static AxisFilter[] newFilters(AxisFilterFactory factory, int count) {
+    if (factory == null) {
+      return null;
+    }
+
+    AxisFilter[] filters = new AxisFilter[count];
+    for (int i = 0; i < count; i++) {
+      filters[i] = factory.newFilter();
+    }
+
+    return filters;
+  }
+
+  /**
+   * Sets the filter for a hand vector field. History of the field is lost.
+   * 
+   * @param field
+   *          a <code>GestureFrame</code> hand vector field
+   * @param factory
+   *          creates the filter for each axis, or null to pass the field
+   *          through
+   */
+  public void setFilter(int field, AxisFilterFactory factory) {
+    vectorFilters[field] = newFilters(factory, ids.length * 3);
+  }
+
+  /**
+   * Sets the filter for the sphere radius. History of the radius is lost.
+   * 
+   * @param factory
+   *          creates the filter, or null to pass the radius through
+   */
+  public void setSphereRadiusFilter(AxisFilterFactory factory) {
+    sphereRadiusFilters = newFilters(factory, ids.length);
+  }
+
+  /**
+   * Returns the number of hands being tracked.
+   * 
+   * @return the count
+   */
+  public int getTrackedCount() {
+    int tracked = 0;
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != null) {
+        tracked++;
+      }
+    }
+
+    return tracked;
+  }
+
+  /**
+   * Finds the track for a hand.
+   */
+  private int findTrack(String id) {
+    for (int i = 0; i < ids.length; i++) {
+      if (id.equals(ids[i])) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Finds a free track.
+   */
+  private int freeTrack() {
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] == null) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Forgets the hand using a track.
+   */
+  private void releaseTrack(int track) {
+    ids[track] = null;
+
+    for (int field = 0; field < vectorFilters.length; field++) {
+      AxisFilter[] filters = vectorFilters[field];
+      if (filters != null) {
+        for (int axis = 0; axis < 3; axis++) {
+          filters[track * 3 + axis].reset();
+        }
+      }
+    }
+
+    if (sphereRadiusFilters != null) {
+      sphereRadiusFilters[track].reset();
+    }
+  }
+
+  /**
+   * Filters the hands of a frame in place.
+   * 
+   * @param frame
+   *          the frame
+   * @param time
+   *          timestamp of the frame, in microseconds
+   */
+  public void filter(GestureFrame frame, long time) {
+    int handCount = frame.getHandCount();
+
+    for (int i = 0; i < ids.length; i++) {
+      seen[i] = false;
+    }
+    for (int slot = 0; slot < handCount; slot++) {
+      int track = findTrack(frame.getHandId(slot));
+      if (track >= 0) {
+        seen[track] = true;
+      }
+    }
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != null && !seen[i]) {
+        releaseTrack(i);
+      }
+    }
+
+    for (int slot = 0; slot < handCount; slot++) {
+      String id = frame.getHandId(slot);
+
+      int track = findTrack(id);
+      if (track < 0) {
+        track = freeTrack();
+        if (track < 0) {
+          continue;
+        }
+        ids[track] = id;
+      }
+
+      for (int field = 0; field < vectorFilters.length; field++) {
+        AxisFilter[] filters = vectorFilters[field];
+        if (filters == null) {
+          continue;
+        }
+
+        double[] vectors = frame.getHandVectors(field);
+        for (int axis = 0; axis < 3; axis++) {
+          int v = slot * 3 + axis;
+          vectors[v] = apply(filters[track * 3 + axis], vectors[v], time);
+        }
+      }
+
+      if (sphereRadiusFilters != null) {
+        frame.setSphereRadius(slot,
+            apply(sphereRadiusFilters[track], frame.getSphereRadius(slot), time));
+      }
+    }
+  }
+
+  /**
+   * Filters a value, passing <code>NaN</code> through without touching the
+   * filter's state.
+   */
+  private static double apply(AxisFilter filter, double value, long time) {
+    return Double.isNaN(value) ? value : filter.filter(value, time);
+  }
+}
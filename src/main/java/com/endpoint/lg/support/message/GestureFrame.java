@@ -0,0 +1,827 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import interactivespaces.service.image.gesture.Gesture;
+import interactivespaces.service.image.gesture.leapmotion.LeapMotionGestureEndpoint;
+
+/**
+ * A reusable Leap Motion frame, with hands, pointables and gestures stored in
+ * primitive arrays instead of <code>GestureHand</code>,
+ * <code>GesturePointable</code> and <code>Gesture</code> objects.
+ * 
+ * <p>
+ * Each collection has a fixed capacity, set at construction. Entries occupy
+ * slots <code>0</code> to <code>count - 1</code>. Vectors are stored three
+ * doubles per slot, in one array per vector field, so vector <code>f</code>
+ * of hand <code>slot</code> is at
+ * <code>getHandVectors(f)[slot * 3]</code> to
+ * <code>getHandVectors(f)[slot * 3 + 2]</code>.
+ * 
+ * <p>
+ * Each collection keeps a hash index from ID to slot, so entries can be looked
+ * up by ID in constant time, for example to match hands between frames.
+ * Frames are meant to be reused, through {@link #clear()} or a
+ * {@link GestureFramePool}; filling a cleared frame does not allocate.
+ * 
+ * <p>
+ * Frames are not thread safe.
+ * 
+ * @see GestureFrameDecoder
+ * @see GestureMessages#deserializeGestureFrame
+ */
+public class GestureFrame {
+  /**
+   * The default hand capacity.
+   */
+  public static final int DEFAULT_MAX_HANDS = 4;
+
+  /**
+   * The default pointable capacity.
+   */
+  public static final int DEFAULT_MAX_POINTABLES = 20;
+
+  /**
+   * The default gesture capacity.
+   */
+  public static final int DEFAULT_MAX_GESTURES = 8;
+
+  /**
+   * Hand vector field for the palm position.
+   */
+  public static final int HAND_PALM_POSITION = 0;
+
+  /**
+   * Hand vector field for the palm velocity.
+   */
+  public static final int HAND_PALM_VELOCITY = 1;
+
+  /**
+   * Hand vector field for the palm normal.
+   */
+  public static final int HAND_PALM_NORMAL = 2;
+
+  /**
+   * Hand vector field for the hand direction.
+   */
+  public static final int HAND_DIRECTION = 3;
+
+  /**
+   * Hand vector field for the center of the hand's sphere.
+   */
+  public static final int HAND_SPHERE_CENTER = 4;
+
+  /**
+   * The number of hand vector fields.
+   */
+  public static final int HAND_VECTORS = 5;
+
+  /**
+   * Pointable vector field for the tip position.
+   */
+  public static final int POINTABLE_TIP_POSITION = 0;
+
+  /**
+   * Pointable vector field for the direction.
+   */
+  public static final int POINTABLE_DIRECTION = 1;
+
+  /**
+   * Pointable vector field for the tip velocity.
+   */
+  public static final int POINTABLE_TIP_VELOCITY = 2;
+
+  /**
+   * The number of pointable vector fields.
+   */
+  public static final int POINTABLE_VECTORS = 3;
+
+  /**
+   * Message field names of the hand vector fields.
+   */
+  static final String[] HAND_VECTOR_NAMES = {
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_PALM_POSITION,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_PALM_VELOCITY,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_PALM_NORMAL,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_DIRECTION,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_CENTER };
+
+  /**
+   * Message field names of the pointable vector fields.
+   */
+  static final String[] POINTABLE_VECTOR_NAMES = {
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TIP_POSITION,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_DIRECTION,
+      LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TIP_VELOCITY };
+
+  /**
+   * Open addressing hash table from the IDs of a collection to their slots.
+   */
+  private static class SlotIndex {
+    private final String[] ids;
+    private final int[] table;
+    private final int[] positions;
+    private final int mask;
+
+    SlotIndex(String[] ids) {
+      this.ids = ids;
+      table = new int[Integer.highestOneBit(Math.max(1, ids.length) * 2 - 1) << 1];
+      positions = new int[ids.length];
+      mask = table.length - 1;
+    }
+
+    /**
+     * Finds the table position to start probing for an ID.
+     */
+    private int start(String id) {
+      int h = id.hashCode();
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Finds the slot of an ID, or -1.
+     */
+    int find(String id) {
+      int entry;
+      for (int i = start(id); (entry = table[i]) != 0; i = (i + 1) & mask) {
+        if (ids[entry - 1].equals(id)) {
+          return entry - 1;
+        }
+      }
+
+      return -1;
+    }
+
+    /**
+     * Indexes a slot by its ID.
+     */
+    void put(int slot) {
+      int i = start(ids[slot]);
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+
+      table[i] = slot + 1;
+      positions[slot] = i;
+    }
+
+    /**
+     * Removes the first <code>count</code> slots from the index.
+     */
+    void clear(int count) {
+      for (int slot = 0; slot < count; slot++) {
+        table[positions[slot]] = 0;
+      }
+    }
+
+    /**
+     * Rebuilds the index after slots have moved.
+     */
+    void reindex(int oldCount, int newCount) {
+      clear(oldCount);
+      for (int slot = 0; slot < newCount; slot++) {
+        put(slot);
+      }
+    }
+  }
+
+  private final String[] handIds;
+  private final double[][] handVectors;
+  private final double[] sphereRadius;
+  private final SlotIndex handIndex;
+  private int handCount;
+
+  private final String[] pointableIds;
+  private final double[][] pointableVectors;
+  private final double[] length;
+  private final boolean[] tool;
+  private final SlotIndex pointableIndex;
+  private int pointableCount;
+
+  private final String[] gestureIds;
+  private final String[] gestureTypes;
+  private final Gesture.GestureState[] gestureStates;
+  private final double[] gestureDurations;
+  private final SlotIndex gestureIndex;
+  private int gestureCount;
+
+  /**
+   * Creates a frame with the default capacities.
+   */
+  public GestureFrame() {
+    this(DEFAULT_MAX_HANDS, DEFAULT_MAX_POINTABLES, DEFAULT_MAX_GESTURES);
+  }
+
+  /**
+   * Creates a frame.
+   * 
+   * @param maxHands
+   *          the most hands the frame can hold
+   * @param maxPointables
+   *          the most pointables the frame can hold
+   * @param maxGestures
+   *          the most gestures the frame can hold
+   */
+  public GestureFrame(int maxHands, int maxPointables, int maxGestures) {
+    handIds = new String[maxHands];
+    handVectors = new double[HAND_VECTORS][maxHands * 3];
+    sphereRadius = new double[maxHands];
+    handIndex = new SlotIndex(handIds);
+
+    pointableIds = new String[maxPointables];
+    pointableVectors = new double[POINTABLE_VECTORS][maxPointables * 3];
+    length = new double[maxPointables];
+    tool = new boolean[maxPointables];
+    pointableIndex = new SlotIndex(pointableIds);
+
+    gestureIds = new String[maxGestures];
+    gestureTypes = new String[maxGestures];
+    gestureStates = new Gesture.GestureState[maxGestures];
+    gestureDurations = new double[maxGestures];
+    gestureIndex = new SlotIndex(gestureIds);
+  }
+
+  /**
+   * Removes all hands, pointables and gestures.
+   */
+  public void clear() {
+    handIndex.clear(handCount);
+    pointableIndex.clear(pointableCount);
+    gestureIndex.clear(gestureCount);
+
+    handCount = 0;
+    pointableCount = 0;
+    gestureCount = 0;
+  }
+
+  /**
+   * Returns the number of hands.
+   * 
+   * @return the hand count
+   */
+  public int getHandCount() {
+    return handCount;
+  }
+
+  /**
+   * Returns the most hands the frame can hold.
+   * 
+   * @return the hand capacity
+   */
+  public int getMaxHands() {
+    return handIds.length;
+  }
+
+  /**
+   * Adds a hand, with zeroed fields. A hand which is already in the frame
+   * keeps its slot and has its fields zeroed.
+   * 
+   * @param id
+   *          the hand ID
+   * @return the slot of the hand, or -1 if the frame is full
+   */
+  public int addHand(String id) {
+    int slot = handIndex.find(id);
+
+    if (slot < 0) {
+      if (handCount == handIds.length) {
+        return -1;
+      }
+
+      slot = handCount++;
+      handIds[slot] = id;
+      handIndex.put(slot);
+    }
+
+    for (int f = 0; f < HAND_VECTORS; f++) {
+      handVectors[f][slot * 3] = 0;
+      handVectors[f][slot * 3 + 1] = 0;
+      handVectors[f][slot * 3 + 2] = 0;
+    }
+    sphereRadius[slot] = 0;
+
+    return slot;
+  }
+
+  /**
+   * Removes a hand. The last hand moves into its slot.
+   * 
+   * @param slot
+   *          the slot of the hand
+   */
+  public void removeHand(int slot) {
+    int last = handCount - 1;
+
+    if (slot != last) {
+      handIds[slot] = handIds[last];
+      for (int f = 0; f < HAND_VECTORS; f++) {
+        System.arraycopy(handVectors[f], last * 3, handVectors[f], slot * 3, 3);
+      }
+      sphereRadius[slot] = sphereRadius[last];
+    }
+
+    handIndex.reindex(handCount, last);
+    handCount = last;
+  }
+
+  /**
+   * Finds a hand by ID.
+   * 
+   * @param id
+   *          the hand ID
+   * @return the slot of the hand, or -1 if it is not in the frame
+   */
+  public int findHand(String id) {
+    return handIndex.find(id);
+  }
+
+  /**
+   * Returns the ID of a hand.
+   * 
+   * @param slot
+   *          the slot of the hand
+   * @return the hand ID
+   */
+  public String getHandId(int slot) {
+    return handIds[slot];
+  }
+
+  /**
+   * Returns the storage of a hand vector field. Changes to the array change
+   * the frame.
+   * 
+   * @param field
+   *          the vector field, such as {@link #HAND_PALM_POSITION}
+   * @return three doubles per hand slot
+   */
+  public double[] getHandVectors(int field) {
+    return handVectors[field];
+  }
+
+  /**
+   * Returns one component of a hand vector.
+   * 
+   * @param slot
+   *          the slot of the hand
+   * @param field
+   *          the vector field, such as {@link #HAND_PALM_POSITION}
+   * @param axis
+   *          0, 1 or 2
+   * @return the vector component
+   */
+  public double getHandVector(int slot, int field, int axis) {
+    return handVectors[field][slot * 3 + axis];
+  }
+
+  /**
+   * Sets a hand vector.
+   * 
+   * @param slot
+   *          the slot of the hand
+   * @param field
+   *          the vector field, such as {@link #HAND_PALM_POSITION}
+   * @param v0
+   *          first component
+   * @param v1
+   *          second component
+   * @param v2
+   *          third component
+   */
+  public void setHandVector(int slot, int field, double v0, double v1, double v2) {
+    double[] v = handVectors[field];
+    v[slot * 3] = v0;
+    v[slot * 3 + 1] = v1;
+    v[slot * 3 + 2] = v2;
+  }
+
+  /**
+   * Returns the sphere radius of a hand.
+   * 
+   * @param slot
+   *          the slot of the hand
+   * @return the radius
+   */
+  public double getSphereRadius(int slot) {
+    return sphereRadius[slot];
+  }
+
+  /**
+   * Sets the sphere radius of a hand.
+   * 
+   * @param slot
+   *          the slot of the hand
+   * @param radius
+   *          the radius
+   */
+  public void setSphereRadius(int slot, double radius) {
+    sphereRadius[slot] = radius;
+  }
+
+  /**
+   * Returns the number of pointables.
+   * 
+   * @return the pointable count
+   */
+  public int getPointableCount() {
+    return pointableCount;
+  }
+
+  /**
+   * Returns the most pointables the frame can hold.
+   * 
+   * @return the pointable capacity
+   */
+  public int getMaxPointables() {
+    return pointableIds.length;
+  }
+
+  /**
+   * Adds a pointable, with zeroed fields. A pointable which is already in the
+   * frame keeps its slot and has its fields zeroed.
+   * 
+   * @param id
+   *          the pointable ID
+   * @return the slot of the pointable, or -1 if the frame is full
+   */
+  public int addPointable(String id) {
+    int slot = pointableIndex.find(id);
+
+    if (slot < 0) {
+      if (pointableCount == pointableIds.length) {
+        return -1;
+      }
+
+      slot = pointableCount++;
+      pointableIds[slot] = id;
+      pointableIndex.put(slot);
+    }
+
+    for (int f = 0; f < POINTABLE_VECTORS; f++) {
+      pointableVectors[f][slot * 3] = 0;
+      pointableVectors[f][slot * 3 + 1] = 0;
+      pointableVectors[f][slot * 3 + 2] = 0;
+    }
+    length[slot] = 0;
+    tool[slot] = false;
+
+    return slot;
+  }
+
+  /**
+   * Removes a pointable. The last pointable moves into its slot.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   */
+  public void removePointable(int slot) {
+    int last = pointableCount - 1;
+
+    if (slot != last) {
+      pointableIds[slot] = pointableIds[last];
+      for (int f = 0; f < POINTABLE_VECTORS; f++) {
+        System.arraycopy(pointableVectors[f], last * 3, pointableVectors[f], slot * 3, 3);
+      }
+      length[slot] = length[last];
+      tool[slot] = tool[last];
+    }
+
+    pointableIndex.reindex(pointableCount, last);
+    pointableCount = last;
+  }
+
+  /**
+   * Finds a pointable by ID.
+   * 
+   * @param id
+   *          the pointable ID
+   * @return the slot of the pointable, or -1 if it is not in the frame
+   */
+  public int findPointable(String id) {
+    return pointableIndex.find(id);
+  }
+
+  /**
+   * Returns the ID of a pointable.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @return the pointable ID
+   */
+  public String getPointableId(int slot) {
+    return pointableIds[slot];
+  }
+
+  /**
+   * Returns the storage of a pointable vector field. Changes to the array
+   * change the frame.
+   * 
+   * @param field
+   *          the vector field, such as {@link #POINTABLE_TIP_POSITION}
+   * @return three doubles per pointable slot
+   */
+  public double[] getPointableVectors(int field) {
+    return pointableVectors[field];
+  }
+
+  /**
+   * Returns one component of a pointable vector.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @param field
+   *          the vector field, such as {@link #POINTABLE_TIP_POSITION}
+   * @param axis
+   *          0, 1 or 2
+   * @return the vector component
+   */
+  public double getPointableVector(int slot, int field, int axis) {
+    return pointableVectors[field][slot * 3 + axis];
+  }
+
+  /**
+   * Sets a pointable vector.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @param field
+   *          the vector field, such as {@link #POINTABLE_TIP_POSITION}
+   * @param v0
+   *          first component
+   * @param v1
+   *          second component
+   * @param v2
+   *          third component
+   */
+  public void setPointableVector(int slot, int field, double v0, double v1, double v2) {
+    double[] v = pointableVectors[field];
+    v[slot * 3] = v0;
+    v[slot * 3 + 1] = v1;
+    v[slot * 3 + 2] = v2;
+  }
+
+  /**
+   * Returns the length of a pointable.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @return the length
+   */
+  public double getLength(int slot) {
+    return length[slot];
+  }
+
+  /**
+   * Sets the length of a pointable.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @param value
+   *          the length
+   */
+  public void setLength(int slot, double value) {
+    length[slot] = value;
+  }
+
+  /**
+   * Checks whether a pointable is a tool rather than a finger.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @return true for a tool
+   */
+  public boolean isTool(int slot) {
+    return tool[slot];
+  }
+
+  /**
+   * Sets whether a pointable is a tool rather than a finger.
+   * 
+   * @param slot
+   *          the slot of the pointable
+   * @param value
+   *          true for a tool
+   */
+  public void setTool(int slot, boolean value) {
+    tool[slot] = value;
+  }
+
+  /**
+   * Returns the number of gestures.
+   * 
+   * @return the gesture count
+   */
+  public int getGestureCount() {
+    return gestureCount;
+  }
+
+  /**
+   * Returns the most gestures the frame can hold.
+   * 
+   * @return the gesture capacity
+   */
+  public int getMaxGestures() {
+    return gestureIds.length;
+  }
+
+  /**
+   * Adds a gesture, with no type or state and zero duration. A gesture which
+   * is already in the frame keeps its slot and is reset.
+   * 
+   * @param id
+   *          the gesture ID
+   * @return the slot of the gesture, or -1 if the frame is full
+   */
+  public int addGesture(String id) {
+    int slot = gestureIndex.find(id);
+
+    if (slot < 0) {
+      if (gestureCount == gestureIds.length) {
+        return -1;
+      }
+
+      slot = gestureCount++;
+      gestureIds[slot] = id;
+      gestureIndex.put(slot);
+    }
+
+    gestureTypes[slot] = null;
+    gestureStates[slot] = null;
+    gestureDurations[slot] = 0;
+
+    return slot;
+  }
+
+  /**
+   * Removes a gesture. The last gesture moves into its slot.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   */
+  public void removeGesture(int slot) {
+    int last = gestureCount - 1;
+
+    if (slot != last) {
+      gestureIds[slot] = gestureIds[last];
+      gestureTypes[slot] = gestureTypes[last];
+      gestureStates[slot] = gestureStates[last];
+      gestureDurations[slot] = gestureDurations[last];
+    }
+
+    gestureIndex.reindex(gestureCount, last);
+    gestureCount = last;
+  }
+
+  /**
+   * Finds a gesture by ID.
+   * 
+   * @param id
+   *          the gesture ID
+   * @return the slot of the gesture, or -1 if it is not in the frame
+   */
+  public int findGesture(String id) {
+    return gestureIndex.find(id);
+  }
+
+  /**
+   * Returns the ID of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @return the gesture ID
+   */
+  public String getGestureId(int slot) {
+    return gestureIds[slot];
+  }
+
+  /**
+   * Returns the type of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @return the gesture type, such as <code>"swipe"</code>
+   */
+  public String getGestureType(int slot) {
+    return gestureTypes[slot];
+  }
+
+  /**
+   * Sets the type of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @param type
+   *          the gesture type
+   */
+  public void setGestureType(int slot, String type) {
+    gestureTypes[slot] = type;
+  }
+
+  /**
+   * Returns the state of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @return the gesture state
+   */
+  public Gesture.GestureState getGestureState(int slot) {
+    return gestureStates[slot];
+  }
+
+  /**
+   * Sets the state of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @param state
+   *          the gesture state
+   */
+  public void setGestureState(int slot, Gesture.GestureState state) {
+    gestureStates[slot] = state;
+  }
+
+  /**
+   * Returns the duration of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @return the duration
+   */
+  public double getGestureDuration(int slot) {
+    return gestureDurations[slot];
+  }
+
+  /**
+   * Sets the duration of a gesture.
+   * 
+   * @param slot
+   *          the slot of the gesture
+   * @param duration
+   *          the duration
+   */
+  public void setGestureDuration(int slot, double duration) {
+    gestureDurations[slot] = duration;
+  }
+
+  /**
+   * Copies another frame into this one.
+   * 
+   * @param other
+   *          the frame to copy
+   * @throws IllegalArgumentException
+   *           if the other frame has more entries than this one can hold
+   */
+  public void copyFrom(GestureFrame other) {
+    if (other.handCount > getMaxHands() || other.pointableCount > getMaxPointables()
+        || other.gestureCount > getMaxGestures()) {
+      throw new IllegalArgumentException("Frame is too small for the copy");
+    }
+
+    clear();
+
+    System.arraycopy(other.handIds, 0, handIds, 0, other.handCount);
+    for (int f = 0; f < HAND_VECTORS; f++) {
+      System.arraycopy(other.handVectors[f], 0, handVectors[f], 0, other.handCount * 3);
+    }
+    System.arraycopy(other.sphereRadius, 0, sphereRadius, 0, other.handCount);
+    handCount = other.handCount;
+
+    System.arraycopy(other.pointableIds, 0, pointableIds, 0, other.pointableCount);
+    for (int f = 0; f < POINTABLE_VECTORS; f++) {
+      System.arraycopy(other.pointableVectors[f], 0, pointableVectors[f], 0,
+          other.pointableCount * 3);
+    }
+    System.arraycopy(other.length, 0, length, 0, other.pointableCount);
+    System.arraycopy(other.tool, 0, tool, 0, other.pointableCount);
+    pointableCount = other.pointableCount;
+
+    System.arraycopy(other.gestureIds, 0, gestureIds, 0, other.gestureCount);
+    System.arraycopy(other.gestureTypes, 0, gestureTypes, 0, other.gestureCount);
+    System.arraycopy(other.gestureStates, 0, gestureStates, 0, other.gestureCount);
+    System.arraycopy(other.gestureDurations, 0, gestureDurations, 0, other.gestureCount);
+    gestureCount = other.gestureCount;
+
+    for (int slot = 0; slot < handCount; slot++) {
+      handIndex.put(slot);
+    }
+    for (int slot = 0; slot < pointableCount; slot++) {
+      pointableIndex.put(slot);
+    }
+    for (int slot = 0; slot < gestureCount; slot++) {
+      gestureIndex.put(slot);
+    }
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import interactivespaces.service.image.gesture.Gesture;
+import interactivespaces.service.image.gesture.leapmotion.LeapMotionGestureEndpoint;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Decodes Leap Motion frames, as written by the <code>GestureMessages</code>
+ * serializers, straight from JSON text into a {@link GestureFrame}.
+ * 
+ * <p>
+ * Unlike the <code>GestureMessages</code> deserializers, no intermediate map
+ * tree is built and no numbers are boxed. Field names and IDs come from the
+ * parser's symbol table, gesture types and states are matched against known
+ * values, and short decimals are converted straight from the parser's
+ * characters, so decoding a stream of frames with recurring IDs does not
+ * allocate beyond the parser itself.
+ * 
+ * <p>
+ * Entries which do not fit in the frame are skipped and counted. Unknown
+ * fields are ignored, and null numbers and vectors are read as
+ * <code>NaN</code>, as <code>GestureMessages</code> reads them.
+ * 
+ * <p>
+ * Decoders are not thread safe.
+ */
+public class GestureFrameDecoder {
+  /**
+   * The most distinct gesture type strings which are kept for reuse.
+   */
+  private static final int MAX_GESTURE_TYPES = 16;
+
+  /**
+   * The most significant digits of a decimal which can be converted exactly
+   * without <code>Double.parseDouble()</code>.
+   */
+  private static final int MAX_FAST_DIGITS = 15;
+
+  /**
+   * Powers of ten which are exact doubles.
+   */
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private static final Gesture.GestureState[] STATES = Gesture.GestureState.values();
+
+  private final JsonFactory factory = new JsonFactory();
+
+  /**
+   * Gesture types seen so far.
+   */
+  private final String[] gestureTypes = new String[MAX_GESTURE_TYPES];
+  private int gestureTypeCount;
+
+  /**
+   * Entries skipped because the frame was full.
+   */
+  private long droppedCount;
+
+  /**
+   * Decodes a frame from JSON text.
+   * 
+   * @param text
+   *          the frame object
+   * @param frame
+   *          the frame to fill, after clearing it
+   * @throws IOException
+   *           if the text is not a valid frame
+   */
+  public void decode(String text, GestureFrame frame) throws IOException {
+    JsonParser parser = factory.createJsonParser(text);
+    try {
+      decode(parser, frame);
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Decodes a frame from UTF-8 JSON.
+   * 
+   * @param data
+   *          buffer holding the frame object
+   * @param offset
+   *          start of the frame in the buffer
+   * @param length
+   *          length of the frame in bytes
+   * @param frame
+   *          the frame to fill, after clearing it
+   * @throws IOException
+   *           if the data is not a valid frame
+   */
+  public void decode(byte[] data, int offset, int length, GestureFrame frame) throws IOException {
+    JsonParser parser = factory.createJsonParser(data, offset, length);
+    try {
+      decode(parser, frame);
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Decodes a frame object from a parser. The parser is left on the end of
+   * the frame object, so frames embedded in larger documents can be decoded.
+   * 
+   * @param parser
+   *          a parser before or on the start of the frame object
+   * @param frame
+   *          the frame to fill, after clearing it
+   * @throws IOException
+   *           if the parser is not on a valid frame
+   */
+  public void decode(JsonParser parser, GestureFrame frame) throws IOException {
+    frame.clear();
+
+    JsonToken token = parser.getCurrentToken();
+    if (token == null) {
+      token = parser.nextToken();
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new JsonParseException("Expected a frame object", parser.getCurrentLocation());
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      token = parser.nextToken();
+
+      if (token != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+      } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS.equals(name)) {
+        decodeHands(parser, frame);
+      } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES.equals(name)) {
+        decodePointables(parser, frame);
+      } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES.equals(name)) {
+        decodeGestures(parser, frame);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of entries skipped because a frame was full.
+   * 
+   * @return the dropped entry count
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Decodes the object of hands, keyed by ID.
+   */
+  private void decodeHands(JsonParser parser, GestureFrame frame) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String id = parser.getCurrentName();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+
+      int slot = frame.addHand(id);
+      if (slot < 0) {
+        droppedCount++;
+        parser.skipChildren();
+        continue;
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+
+        int field = indexOf(GestureFrame.HAND_VECTOR_NAMES, name);
+        if (field >= 0) {
+          decodeVector(parser, frame.getHandVectors(field), slot * 3);
+        } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS.equals(name)) {
+          frame.setSphereRadius(slot, readDouble(parser));
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the object of pointables, keyed by ID.
+   */
+  private void decodePointables(JsonParser parser, GestureFrame frame) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String id = parser.getCurrentName();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+
+      int slot = frame.addPointable(id);
+      if (slot < 0) {
+        droppedCount++;
+        parser.skipChildren();
+        continue;
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+
+        int field = indexOf(GestureFrame.POINTABLE_VECTOR_NAMES, name);
+        if (field >= 0) {
+          decodeVector(parser, frame.getPointableVectors(field), slot * 3);
+        } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH.equals(name)) {
+          frame.setLength(slot, readDouble(parser));
+        } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL.equals(name)) {
+          frame.setTool(slot, token == JsonToken.VALUE_TRUE);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the object of gestures, keyed by ID.
+   */
+  private void decodeGestures(JsonParser parser, GestureFrame frame) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String id = parser.getCurrentName();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+
+      int slot = frame.addGesture(id);
+      if (slot < 0) {
+        droppedCount++;
+        parser.skipChildren();
+        continue;
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+
+        if (token == JsonToken.VALUE_STRING
+            && LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE.equals(name)) {
+          frame.setGestureType(slot, decodeGestureType(parser));
+        } else if (token == JsonToken.VALUE_STRING
+            && LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_STATE.equals(name)) {
+          frame.setGestureState(slot, decodeGestureState(parser));
+        } else if (LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION.equals(name)) {
+          frame.setGestureDuration(slot, readDouble(parser));
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a three element array of numbers into a vector array.
+   */
+  private static void decodeVector(JsonParser parser, double[] dest, int offset)
+      throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      dest[offset] = Double.NaN;
+      dest[offset + 1] = Double.NaN;
+      dest[offset + 2] = Double.NaN;
+      return;
+    }
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException("Expected a vector array", parser.getCurrentLocation());
+    }
+
+    int i = 0;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (i < 3) {
+        dest[offset + i] = readDouble(parser);
+      } else {
+        parser.skipChildren();
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Reads the current number as a double, or <code>NaN</code> for a null.
+   * 
+   * <p>
+   * Jackson converts decimals through a string. A decimal with at most
+   * {@link #MAX_FAST_DIGITS} digits and a small exponent is instead a
+   * product or quotient of two exact doubles, which is correctly rounded, so
+   * it is converted here with no allocation. Anything else is left to the
+   * parser.
+   */
+  static double readDouble(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return Double.NaN;
+    }
+    if (parser.getCurrentToken() != JsonToken.VALUE_NUMBER_FLOAT) {
+      return parser.getDoubleValue();
+    }
+
+    char[] text = parser.getTextCharacters();
+    int i = parser.getTextOffset();
+    int end = i + parser.getTextLength();
+
+    boolean negative = text[i] == '-';
+    if (negative) {
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean fraction = false;
+
+    for (; i < end; i++) {
+      char c = text[i];
+      if (c >= '0' && c <= '9') {
+        if (mantissa != 0 || c != '0') {
+          digits++;
+        }
+        mantissa = mantissa * 10 + (c - '0');
+        if (fraction) {
+          scale--;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+
+    if (i < end) {
+      if (text[i] != 'e' && text[i] != 'E') {
+        return parser.getDoubleValue();
+      }
+      i++;
+
+      boolean negativeExponent = false;
+      if (i < end && (text[i] == '-' || text[i] == '+')) {
+        negativeExponent = text[i] == '-';
+        i++;
+      }
+
+      int exponent = 0;
+      for (; i < end; i++) {
+        char c = text[i];
+        if (c < '0' || c > '9' || exponent > POWERS_OF_TEN.length) {
+          return parser.getDoubleValue();
+        }
+        exponent = exponent * 10 + (c - '0');
+      }
+
+      scale += negativeExponent ? -exponent : exponent;
+    }
+
+    if (digits > MAX_FAST_DIGITS || scale < -(POWERS_OF_TEN.length - 1)
+        || scale > POWERS_OF_TEN.length - 1) {
+      return parser.getDoubleValue();
+    }
+
+    double value =
+        scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+
+    return negative ? -value : value;
+  }
+
+  /**
+   * Returns a gesture type string, reusing one seen before where possible.
+   */
+  private String decodeGestureType(JsonParser parser) throws IOException {
+    int i = matchText(parser, gestureTypes, gestureTypeCount);
+    if (i >= 0) {
+      return gestureTypes[i];
+    }
+
+    String type = parser.getText();
+    if (gestureTypeCount < MAX_GESTURE_TYPES) {
+      gestureTypes[gestureTypeCount++] = type;
+    }
+
+    return type;
+  }
+
+  /**
+   * Returns the gesture state named by the current string.
+   */
+  private static Gesture.GestureState decodeGestureState(JsonParser parser) throws IOException {
+    for (int i = 0; i < STATES.length; i++) {
+      if (textEquals(parser, STATES[i].name())) {
+        return STATES[i];
+      }
+    }
+
+    throw new JsonParseException(String.format("Unknown gesture state %s", parser.getText()),
+        parser.getCurrentLocation());
+  }
+
+  /**
+   * Finds the current string among candidates, without building a string.
+   */
+  private static int matchText(JsonParser parser, String[] candidates, int count)
+      throws IOException {
+    for (int i = 0; i < count; i++) {
+      if (textEquals(parser, candidates[i])) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Compares the current string with a value, without building a string.
+   */
+  private static boolean textEquals(JsonParser parser, String value) throws IOException {
+    int length = parser.getTextLength();
+    if (length != value.length()) {
+      return false;
+    }
+
+    char[] text = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    for (int i = 0; i < length; i++) {
+      if (text[offset + i] != value.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Finds a field name among names.
+   */
+  private static int indexOf(String[] names, String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
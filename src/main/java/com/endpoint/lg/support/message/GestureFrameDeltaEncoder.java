@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import interactivespaces.service.image.gesture.leapmotion.LeapMotionGestureEndpoint;
+import interactivespaces.util.data.json.JsonBuilder;
+
+/**
+ * Serializes successive {@link GestureFrame}s as deltas, in the layout of
+ * {@link GestureMessages#serializeGestureFrame} but with only what changed.
+ * 
+ * <p>
+ * A delta holds the entries which appeared, with all their fields; for
+ * entries which were already there, only the fields which moved by more than
+ * the epsilon; and the IDs of entries which went away, under
+ * {@link #FIELD_REMOVED_HANDS}, {@link #FIELD_REMOVED_POINTABLES} and
+ * {@link #FIELD_REMOVED_GESTURES}. A vector is sent whole if any of its
+ * components moved. Apply deltas on the receiving side with
+ * {@link GestureMessages#mergeGestureFrameDelta}.
+ * 
+ * <p>
+ * Changes are measured against what has been sent, not against the previous
+ * frame, so slow drift below the epsilon is still sent once it adds up.
+ * Every {@link #setKeyframeInterval(int) keyframe interval}, or after
+ * {@link #requestKeyframe()}, a full frame marked with {@link #FIELD_FULL} is
+ * sent, so receivers which join late or miss a delta catch up. The first
+ * delta is always a full frame. Entries which do not fit in the encoder's
+ * state frame are skipped and counted.
+ * 
+ * <p>
+ * Encoders are not thread safe.
+ */
+public class GestureFrameDeltaEncoder {
+  /**
+   * Delta field which is true when the delta is a full frame, replacing the
+   * receiver's state.
+   */
+  public static final String FIELD_FULL = "full";
+
+  /**
+   * Delta field for the IDs of removed hands.
+   */
+  public static final String FIELD_REMOVED_HANDS = "removedHands";
+
+  /**
+   * Delta field for the IDs of removed pointables.
+   */
+  public static final String FIELD_REMOVED_POINTABLES = "removedPointables";
+
+  /**
+   * Delta field for the IDs of removed gestures.
+   */
+  public static final String FIELD_REMOVED_GESTURES = "removedGestures";
+
+  /**
+   * The default epsilon.
+   */
+  public static final double DEFAULT_EPSILON = 0.01;
+
+  /**
+   * Change bit for the hand sphere radius, after the vector bits.
+   */
+  private static final int HAND_RADIUS_BIT = 1 << GestureFrame.HAND_VECTORS;
+
+  /**
+   * Change bits for the pointable length and tool flag, after the vector
+   * bits.
+   */
+  private static final int POINTABLE_LENGTH_BIT = 1 << GestureFrame.POINTABLE_VECTORS;
+  private static final int POINTABLE_TOOL_BIT = POINTABLE_LENGTH_BIT << 1;
+
+  /**
+   * Change bits for the gesture fields.
+   */
+  private static final int GESTURE_TYPE_BIT = 1;
+  private static final int GESTURE_STATE_BIT = 2;
+  private static final int GESTURE_DURATION_BIT = 4;
+
+  private static final int ALL_BITS = -1;
+
+  /**
+   * The state the receiver has.
+   */
+  private final GestureFrame sent;
+
+  private final double epsilon;
+
+  /**
+   * Number of entries skipped because they did not fit in the sent state.
+   */
+  private long droppedCount;
+
+  private int keyframeInterval;
+  private int framesSinceKeyframe;
+  private boolean keyframeRequested = true;
+
+  /**
+   * Creates an encoder with the default epsilon, for frames of the default
+   * capacities.
+   */
+  public GestureFrameDeltaEncoder() {
+    this(DEFAULT_EPSILON);
+  }
+
+  /**
+   * Creates an encoder for frames of the default capacities.
+   * 
+   * @param epsilon
+   *          the largest change of a value, in its own units, which is not
+   *          sent
+   */
+  public GestureFrameDeltaEncoder(double epsilon) {
+    this(epsilon, new GestureFrame());
+  }
+
+  /**
+   * Creates an encoder.
+   * 
+   * @param epsilon
+   *          the largest change of a value, in its own units, which is not
+   *          sent
+   * @param state
+   *          a frame at least as large as the frames to encode, which the
+   *          encoder uses to track what has been sent
+   */
+  public GestureFrameDeltaEncoder(double epsilon, GestureFrame state) {
+    this.epsilon = epsilon;
+    this.sent = state;
+    state.clear();
+  }
+
+  /**
+   * Sets how often a full frame is sent.
+   * 
+   * @param frames
+   *          the number of deltas between full frames, or 0 to send a full
+   *          frame only first and when requested
+   */
+  public void setKeyframeInterval(int frames) {
+    keyframeInterval = frames;
+  }
+
+  /**
+   * Returns the number of entries skipped because they did not fit in the
+   * encoder's state frame. An entry is counted in every delta it misses.
+   * 
+   * @return the dropped entry count
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Makes the next delta a full frame.
+   */
+  public void requestKeyframe() {
+    keyframeRequested = true;
+  }
+
+  /**
+   * Writes the delta from what has been sent to a frame.
+   * 
+   * @param frame
+   *          the current frame
+   * @param data
+   *          the data to write to
+   * @return true if anything was written; an empty delta need not be sent
+   */
+  public boolean serialize(GestureFrame frame, JsonBuilder data) {
+    boolean full =
+        keyframeRequested || (keyframeInterval > 0 && framesSinceKeyframe >= keyframeInterval);
+
+    if (full) {
+      keyframeRequested = false;
+      framesSinceKeyframe = 0;
+      sent.clear();
+      data.put(FIELD_FULL, true);
+    } else {
+      framesSinceKeyframe++;
+    }
+
+    boolean changed = full;
+    changed |= serializeRemovedHands(frame, data);
+    changed |= serializeRemovedPointables(frame, data);
+    changed |= serializeRemovedGestures(frame, data);
+    changed |= serializeHands(frame, data);
+    changed |= serializePointables(frame, data);
+    changed |= serializeGestures(frame, data);
+
+    return changed;
+  }
+
+  /**
+   * Checks whether two values differ by more than the epsilon. A value
+   * becoming or ceasing to be <code>NaN</code> is always a change.
+   */
+  private boolean changed(double a, double b) {
+    return Double.isNaN(a) != Double.isNaN(b) || Math.abs(a - b) > epsilon;
+  }
+
+  /**
+   * Checks whether a vector moved by more than the epsilon.
+   */
+  private boolean vectorChanged(double[] a, int aOffset, double[] b, int bOffset) {
+    return changed(a[aOffset], b[bOffset]) || changed(a[aOffset + 1], b[bOffset + 1])
+        || changed(a[aOffset + 2], b[bOffset + 2]);
+  }
+
+  /**
+   * Writes the IDs of sent hands which are not in the frame, and forgets
+   * them.
+   */
+  private boolean serializeRemovedHands(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = sent.getHandCount() - 1; slot >= 0; slot--) {
+      String id = sent.getHandId(slot);
+      if (frame.findHand(id) < 0) {
+        if (!open) {
+          data.newArray(FIELD_REMOVED_HANDS);
+          open = true;
+        }
+        data.put(id);
+        sent.removeHand(slot);
+      }
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+
+  /**
+   * Writes the IDs of sent pointables which are not in the frame, and
+   * forgets them.
+   */
+  private boolean serializeRemovedPointables(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = sent.getPointableCount() - 1; slot >= 0; slot--) {
+      String id = sent.getPointableId(slot);
+      if (frame.findPointable(id) < 0) {
+        if (!open) {
+          data.newArray(FIELD_REMOVED_POINTABLES);
+          open = true;
+        }
+        data.put(id);
+        sent.removePointable(slot);
+      }
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+
+  /**
+   * Writes the IDs of sent gestures which are not in the frame, and forgets
+   * them.
+   */
+  private boolean serializeRemovedGestures(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = sent.getGestureCount() - 1; slot >= 0; slot--) {
+      String id = sent.getGestureId(slot);
+      if (frame.findGesture(id) < 0) {
+        if (!open) {
+          data.newArray(FIELD_REMOVED_GESTURES);
+          open = true;
+        }
+        data.put(id);
+        sent.removeGesture(slot);
+      }
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+
+  /**
+   * Writes new hands and changed hand fields.
+   */
+  private boolean serializeHands(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = 0; slot < frame.getHandCount(); slot++) {
+      String id = frame.getHandId(slot);
+      int sentSlot = sent.findHand(id);
+      int changes = 0;
+
+      if (sentSlot < 0) {
+        sentSlot = sent.addHand(id);
+        if (sentSlot < 0) {
+          droppedCount++;
+          continue;
+        }
+        changes = ALL_BITS;
+      } else {
+        for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+          if (vectorChanged(frame.getHandVectors(f), slot * 3, sent.getHandVectors(f),
+              sentSlot * 3)) {
+            changes |= 1 << f;
+          }
+        }
+        if (changed(frame.getSphereRadius(slot), sent.getSphereRadius(sentSlot))) {
+          changes |= HAND_RADIUS_BIT;
+        }
+      }
+
+      if (changes == 0) {
+        continue;
+      }
+
+      if (!open) {
+        data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS);
+        open = true;
+      }
+
+      data.newObject(id);
+      for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+        if ((changes & (1 << f)) != 0) {
+          double[] vectors = frame.getHandVectors(f);
+          GestureMessages.serializeVector(vectors, slot * 3, GestureFrame.HAND_VECTOR_NAMES[f],
+              data);
+          System.arraycopy(vectors, slot * 3, sent.getHandVectors(f), sentSlot * 3, 3);
+        }
+      }
+      if ((changes & HAND_RADIUS_BIT) != 0) {
+        data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS,
+            frame.getSphereRadius(slot));
+        sent.setSphereRadius(sentSlot, frame.getSphereRadius(slot));
+      }
+      data.up();
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+
+  /**
+   * Writes new pointables and changed pointable fields.
+   */
+  private boolean serializePointables(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = 0; slot < frame.getPointableCount(); slot++) {
+      String id = frame.getPointableId(slot);
+      int sentSlot = sent.findPointable(id);
+      int changes = 0;
+
+      if (sentSlot < 0) {
+        sentSlot = sent.addPointable(id);
+        if (sentSlot < 0) {
+          droppedCount++;
+          continue;
+        }
+        changes = ALL_BITS;
+      } else {
+        for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+          if (vectorChanged(frame.getPointableVectors(f), slot * 3, sent.getPointableVectors(f),
+              sentSlot * 3)) {
+            changes |= 1 << f;
+          }
+        }
+        if (changed(frame.getLength(slot), sent.getLength(sentSlot))) {
+          changes |= POINTABLE_LENGTH_BIT;
+        }
+        if (frame.isTool(slot) != sent.isTool(sentSlot)) {
+          changes |= POINTABLE_TOOL_BIT;
+        }
+      }
+
+      if (changes == 0) {
+        continue;
+      }
+
+      if (!open) {
+        data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES);
+        open = true;
+      }
+
+      data.newObject(id);
+      for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+        if ((changes & (1 << f)) != 0) {
+          double[] vectors = frame.getPointableVectors(f);
+          GestureMessages.serializeVector(vectors, slot * 3,
+              GestureFrame.POINTABLE_VECTOR_NAMES[f], data);
+          System.arraycopy(vectors, slot * 3, sent.getPointableVectors(f), sentSlot * 3, 3);
+        }
+      }
+      if ((changes & POINTABLE_LENGTH_BIT) != 0) {
+        data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH,
+            frame.getLength(slot));
+        sent.setLength(sentSlot, frame.getLength(slot));
+      }
+      if ((changes & POINTABLE_TOOL_BIT) != 0) {
+        data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL, frame.isTool(slot));
+        sent.setTool(sentSlot, frame.isTool(slot));
+      }
+      data.up();
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+
+  /**
+   * Writes new gestures and changed gesture fields.
+   */
+  private boolean serializeGestures(GestureFrame frame, JsonBuilder data) {
+    boolean open = false;
+
+    for (int slot = 0; slot < frame.getGestureCount(); slot++) {
+      String id = frame.getGestureId(slot);
+      int sentSlot = sent.findGesture(id);
+      int changes = 0;
+
+      if (sentSlot < 0) {
+        sentSlot = sent.addGesture(id);
+        if (sentSlot < 0) {
+          droppedCount++;
+          continue;
+        }
+        changes = ALL_BITS;
+      } else {
+        String type = frame.getGestureType(slot);
+        if (type == null ? sent.getGestureType(sentSlot) != null : !type.equals(sent
+            .getGestureType(sentSlot))) {
+          changes |= GESTURE_TYPE_BIT;
+        }
+        if (frame.getGestureState(slot) != sent.getGestureState(sentSlot)) {
+          changes |= GESTURE_STATE_BIT;
+        }
+        if (changed(frame.getGestureDuration(slot), sent.getGestureDuration(sentSlot))) {
+          changes |= GESTURE_DURATION_BIT;
+        }
+      }
+
+      if (changes == 0) {
+        continue;
+      }
+
+      if (!open) {
+        data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES);
+        open = true;
+      }
+
+      data.newObject(id);
+      if ((changes & GESTURE_TYPE_BIT) != 0 && frame.getGestureType(slot) != null) {
+        data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE,
+            frame.getGestureType(slot));
+      }
+      sent.setGestureType(sentSlot, frame.getGestureType(slot));
+      if ((changes & GESTURE_STATE_BIT) != 0 && frame.getGestureState(slot) != null) {
+        GestureMessages.serializeGestureState(frame.getGestureState(slot), data);
+      }
+      sent.setGestureState(sentSlot, frame.getGestureState(slot));
+      if ((changes & GESTURE_DURATION_BIT) != 0) {
+        data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION,
+            frame.getGestureDuration(slot));
+        sent.setGestureDuration(sentSlot, frame.getGestureDuration(slot));
+      }
+      data.up();
+    }
+
+    if (open) {
+      data.up();
+    }
+
+    return open;
+  }
+}
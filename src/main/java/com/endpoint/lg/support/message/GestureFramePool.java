@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link GestureFrame}s of the same capacity, for handing frames
+ * between threads without allocating one per update.
+ * 
+ * <p>
+ * The producer acquires a frame, fills it and passes it on; the consumer
+ * releases it when done. Frames are created up front. If the pool runs dry,
+ * a new frame is created and counted, and it joins the pool when released
+ * as long as there is room.
+ */
+public class GestureFramePool {
+  private final ArrayBlockingQueue<GestureFrame> free;
+  private final int maxHands;
+  private final int maxPointables;
+  private final int maxGestures;
+
+  /**
+   * Frames created because the pool was empty.
+   */
+  private final AtomicLong createdCount = new AtomicLong();
+
+  /**
+   * Creates a pool of frames with the default capacities.
+   * 
+   * @param size
+   *          the number of frames to keep
+   */
+  public GestureFramePool(int size) {
+    this(size, GestureFrame.DEFAULT_MAX_HANDS, GestureFrame.DEFAULT_MAX_POINTABLES,
+        GestureFrame.DEFAULT_MAX_GESTURES);
+  }
+
+  /**
+   * Creates a pool.
+   * 
+   * @param size
+   *          the number of frames to keep
+   * @param maxHands
+   *          the hand capacity of each frame
+   * @param maxPointables
+   *          the pointable capacity of each frame
+   * @param maxGestures
+   *          the gesture capacity of each frame
+   */
+  public GestureFramePool(int size, int maxHands, int maxPointables, int maxGestures) {
+    this.maxHands = maxHands;
+    this.maxPointables = maxPointables;
+    this.maxGestures = maxGestures;
+
+    free = new ArrayBlockingQueue<GestureFrame>(size);
+    for (int i = 0; i < size; i++) {
+      free.offer(new GestureFrame(maxHands, maxPointables, maxGestures));
+    }
+  }
+
+  /**
+   * Takes an empty frame from the pool.
+   * 
+   * @return a cleared frame
+   */
+  public GestureFrame acquire() {
+    GestureFrame frame = free.poll();
+
+    if (frame == null) {
+      createdCount.incrementAndGet();
+      frame = new GestureFrame(maxHands, maxPointables, maxGestures);
+    }
+
+    return frame;
+  }
+
+  /**
+   * Returns a frame to the pool. The frame must not be used afterwards.
+   * 
+   * @param frame
+   *          a frame from {@link #acquire()}
+   */
+  public void release(GestureFrame frame) {
+    frame.clear();
+    free.offer(frame);
+  }
+
+  /**
+   * Returns the number of frames waiting in the pool.
+   * 
+   * @return the available frame count
+   */
+  public int getAvailable() {
+    return free.size();
+  }
+
+  /**
+   * Returns the number of frames created because the pool was empty. A
+   * growing count means the pool is too small, or frames are not released.
+   * 
+   * @return the created frame count
+   */
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+}
@@ -35,6 +35,11 @@ import static com.endpoint.lg.support.message.DomainMessages.serializeVector3;
 /**
  * Methods for serialization of gesture events.
  * 
+ * <p>
+ * Besides the object based methods, whole frames can be written from and read
+ * into a reusable {@link GestureFrame}, which creates no hand, pointable,
+ * gesture or vector objects.
+ * 
  * @author Matt Vollrath <matt@endpoint.com>
  */
 public class GestureMessages {
@@ -339,4 +344,327 @@ public class GestureMessages {
 
     data.up();
   }
+
+  /**
+   * Deserializes hands, pointables and gestures into a frame, replacing its
+   * contents. Missing collections are left empty, entries beyond the frame's
+   * capacity are skipped, and null or missing numbers are read as
+   * <code>NaN</code>.
+   * 
+   * @param data
+   *          frame data, with any of the hands, pointables and gestures
+   *          objects
+   * @param frame
+   *          the frame to fill
+   */
+  public static void deserializeGestureFrame(JsonNavigator data, GestureFrame frame) {
+    frame.clear();
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.addHand(id);
+        if (slot < 0) {
+          break;
+        }
+
+        data.down(id);
+        for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+          deserializeVector(data, GestureFrame.HAND_VECTOR_NAMES[f], frame.getHandVectors(f),
+              slot * 3);
+        }
+        frame.setSphereRadius(slot,
+            readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS));
+        data.up();
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.addPointable(id);
+        if (slot < 0) {
+          break;
+        }
+
+        data.down(id);
+        for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+          deserializeVector(data, GestureFrame.POINTABLE_VECTOR_NAMES[f],
+              frame.getPointableVectors(f), slot * 3);
+        }
+        frame.setLength(slot,
+            readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH));
+        frame.setTool(slot, Boolean.TRUE.equals(
+            data.getBoolean(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL)));
+        data.up();
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.addGesture(id);
+        if (slot < 0) {
+          break;
+        }
+
+        data.down(id);
+        frame.setGestureType(slot,
+            data.getString(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE));
+        frame.setGestureState(slot, deserializeGestureState(data));
+        frame.setGestureDuration(slot,
+            readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION));
+        data.up();
+      }
+      data.up();
+    }
+  }
+
+  /**
+   * Applies a delta from a {@link GestureFrameDeltaEncoder} to a frame. A full
+   * frame replaces the frame's contents. New entries beyond the frame's
+   * capacity are skipped.
+   * 
+   * @param data
+   *          delta data
+   * @param frame
+   *          the frame to update, holding the previous state
+   */
+  public static void mergeGestureFrameDelta(JsonNavigator data, GestureFrame frame) {
+    if (data.containsProperty(GestureFrameDeltaEncoder.FIELD_FULL)
+        && Boolean.TRUE.equals(data.getBoolean(GestureFrameDeltaEncoder.FIELD_FULL))) {
+      frame.clear();
+    }
+
+    if (data.containsProperty(GestureFrameDeltaEncoder.FIELD_REMOVED_HANDS)) {
+      data.down(GestureFrameDeltaEncoder.FIELD_REMOVED_HANDS);
+      for (int i = 0; i < data.getSize(); i++) {
+        int slot = frame.findHand(data.getString(i));
+        if (slot >= 0) {
+          frame.removeHand(slot);
+        }
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(GestureFrameDeltaEncoder.FIELD_REMOVED_POINTABLES)) {
+      data.down(GestureFrameDeltaEncoder.FIELD_REMOVED_POINTABLES);
+      for (int i = 0; i < data.getSize(); i++) {
+        int slot = frame.findPointable(data.getString(i));
+        if (slot >= 0) {
+          frame.removePointable(slot);
+        }
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(GestureFrameDeltaEncoder.FIELD_REMOVED_GESTURES)) {
+      data.down(GestureFrameDeltaEncoder.FIELD_REMOVED_GESTURES);
+      for (int i = 0; i < data.getSize(); i++) {
+        int slot = frame.findGesture(data.getString(i));
+        if (slot >= 0) {
+          frame.removeGesture(slot);
+        }
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.findHand(id);
+        if (slot < 0) {
+          slot = frame.addHand(id);
+          if (slot < 0) {
+            continue;
+          }
+        }
+
+        data.down(id);
+        for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+          if (data.containsProperty(GestureFrame.HAND_VECTOR_NAMES[f])) {
+            deserializeVector(data, GestureFrame.HAND_VECTOR_NAMES[f], frame.getHandVectors(f),
+                slot * 3);
+          }
+        }
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS)) {
+          frame.setSphereRadius(slot,
+              readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS));
+        }
+        data.up();
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.findPointable(id);
+        if (slot < 0) {
+          slot = frame.addPointable(id);
+          if (slot < 0) {
+            continue;
+          }
+        }
+
+        data.down(id);
+        for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+          if (data.containsProperty(GestureFrame.POINTABLE_VECTOR_NAMES[f])) {
+            deserializeVector(data, GestureFrame.POINTABLE_VECTOR_NAMES[f],
+                frame.getPointableVectors(f), slot * 3);
+          }
+        }
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH)) {
+          frame.setLength(slot,
+              readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH));
+        }
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL)) {
+          frame.setTool(slot, Boolean.TRUE.equals(
+              data.getBoolean(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL)));
+        }
+        data.up();
+      }
+      data.up();
+    }
+
+    if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES)) {
+      data.down(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES);
+      for (String id : data.getCurrentItem().keySet()) {
+        int slot = frame.findGesture(id);
+        if (slot < 0) {
+          slot = frame.addGesture(id);
+          if (slot < 0) {
+            continue;
+          }
+        }
+
+        data.down(id);
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE)) {
+          frame.setGestureType(slot,
+              data.getString(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE));
+        }
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_STATE)) {
+          frame.setGestureState(slot, deserializeGestureState(data));
+        }
+        if (data.containsProperty(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION)) {
+          frame.setGestureDuration(slot,
+              readDouble(data, LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION));
+        }
+        data.up();
+      }
+      data.up();
+    }
+  }
+
+  /**
+   * Reads a 3d vector field into a vector array. A null vector or element is
+   * read as <code>NaN</code>.
+   */
+  static void deserializeVector(JsonNavigator data, String field, double[] dest,
+      int offset) {
+    if (data.getItem(field) == null) {
+      dest[offset] = Double.NaN;
+      dest[offset + 1] = Double.NaN;
+      dest[offset + 2] = Double.NaN;
+      return;
+    }
+
+    data.down(field);
+
+    dest[offset] = readDouble(data, 0);
+    dest[offset + 1] = readDouble(data, 1);
+    dest[offset + 2] = readDouble(data, 2);
+
+    data.up();
+  }
+
+  /**
+   * Reads a number field of a frame, reading a null as <code>NaN</code>.
+   */
+  static double readDouble(JsonNavigator data, String field) {
+    Double value = data.getDouble(field);
+    return value != null ? value : Double.NaN;
+  }
+
+  /**
+   * Reads a number element of a frame vector, reading a null as
+   * <code>NaN</code>.
+   */
+  static double readDouble(JsonNavigator data, int index) {
+    Double value = data.getDouble(index);
+    return value != null ? value : Double.NaN;
+  }
+
+  /**
+   * Serializes all hands, pointables and gestures of a frame, in the same
+   * form as {@link #serializeGestureHands}, {@link #serializeGesturePointables}
+   * and {@link #serializeGestures}.
+   * 
+   * @param frame
+   *          the frame to serialize
+   * @param data
+   *          the data to write to
+   */
+  public static void serializeGestureFrame(GestureFrame frame, JsonBuilder data) {
+    data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS);
+    for (int slot = 0; slot < frame.getHandCount(); slot++) {
+      String id = frame.getHandId(slot);
+
+      data.newObject(id);
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_ID, id);
+      for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+        serializeVector(frame.getHandVectors(f), slot * 3, GestureFrame.HAND_VECTOR_NAMES[f],
+            data);
+      }
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS,
+          frame.getSphereRadius(slot));
+      data.up();
+    }
+    data.up();
+
+    data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES);
+    for (int slot = 0; slot < frame.getPointableCount(); slot++) {
+      String id = frame.getPointableId(slot);
+
+      data.newObject(id);
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_ID, id);
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH, frame.getLength(slot));
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL, frame.isTool(slot));
+      for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+        serializeVector(frame.getPointableVectors(f), slot * 3,
+            GestureFrame.POINTABLE_VECTOR_NAMES[f], data);
+      }
+      data.up();
+    }
+    data.up();
+
+    data.newObject(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURES);
+    for (int slot = 0; slot < frame.getGestureCount(); slot++) {
+      String id = frame.getGestureId(slot);
+
+      data.newObject(id);
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_ID, id);
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_TYPE, frame.getGestureType(slot));
+      data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_GESTURE_DURATION,
+          frame.getGestureDuration(slot));
+      serializeGestureState(frame.getGestureState(slot), data);
+      data.up();
+    }
+    data.up();
+  }
+
+  /**
+   * Writes a 3d vector from a vector array.
+   */
+  static void serializeVector(double[] source, int offset, String field, JsonBuilder data) {
+    data.newArray(field);
+
+    data.put(source[offset]);
+    data.put(source[offset + 1]);
+    data.put(source[offset + 2]);
+
+    data.up();
+  }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import interactivespaces.util.data.json.JsonNavigator;
+
+/**
+ * Decodes message payloads into a typed object, so handlers registered with
+ * the same decoder share one decoded instance per message.
+ * 
+ * <p>
+ * Decoded objects are shared between handlers and should not be modified by
+ * them.
+ * 
+ * @see RosMessageHandlers
+ * @see WebsocketMessageHandlers
+ */
+public interface MessageDecoder<T> {
+  /**
+   * Decode a message payload.
+   * 
+   * @param json
+   *          message payload
+   * @return the decoded message
+   */
+  public T decode(JsonNavigator json);
+}
@@ -20,9 +20,17 @@ package com.endpoint.lg.support.message;
 import interactivespaces.util.data.json.JsonNavigator;
 import interactivespaces.util.data.json.StandardJsonNavigator; // Added by Abhay
 
+import com.endpoint.lg.support.metrics.DispatchMetrics;
+
 import org.apache.commons.logging.Log;
 import com.google.common.collect.Maps;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A collection of {@link RosMessageHandler} instances keyed by their message
@@ -42,13 +50,171 @@ import java.util.Map;
  * </code>
  * </pre>
  * 
+ * <p>
+ * Any number of handlers can be registered for a channel. One navigator is
+ * built for each message and shared by its handlers and decoders, so a handler
+ * which moves the navigator with {@code down()} must move it back with
+ * {@code up()} before returning. Handlers registered with a
+ * {@link MessageDecoder} get the decoded object instead; a message is decoded
+ * once for each distinct decoder on its channel, however many handlers share
+ * that decoder.
+ * 
+ * <pre>
+ * <code>
+ * handlers.registerHandler("/viewsync", EarthViewSyncState.DECODER,
+ *     new TypedRosMessageHandler&lt;EarthViewSyncState&gt;() {
+ *   {@literal @}Override
+ *   public void handleMessage(EarthViewSyncState state) {
+ *     // Do something with state
+ *   }
+ * });
+ * </code>
+ * </pre>
+ * 
+ * <p>
+ * The channel is looked up before anything else is done with a message, so
+ * messages on channels without a handler cost one map lookup and a counter.
+ * Those channels are counted and warned about at most once per
+ * {@link #UNKNOWN_WARNING_INTERVAL} each. Handled channels count their
+ * messages and the time spent in their handler. For error counts and latency
+ * percentiles, set a {@link DispatchMetrics} hook.
+ * 
+ * <p>
+ * By default handlers run on the thread which delivers the message. After
+ * {@link #setExecutor(Executor)}, handlers registered from then on run on the
+ * given pool instead, each channel in its own {@link SerialMessageQueue} so
+ * per-channel ordering is kept and a slow channel does not delay the others.
+ * Whether a channel is queued is decided when its first handler is
+ * registered.
+ * 
  * @author Matt Vollrath <matt@endpoint.com>
  */
 public class RosMessageHandlers {
+  /**
+   * Least time between warnings about the same unknown channel, in
+   * milliseconds.
+   */
+  public static final long UNKNOWN_WARNING_INTERVAL = 60000;
+
+  /**
+   * Least time between warnings about rejected messages on the same channel,
+   * in milliseconds.
+   */
+  public static final long REJECTED_WARNING_INTERVAL = 10000;
+
+  /**
+   * The default queue capacity of a channel.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+  private static final RosMessageHandler[] NO_HANDLERS = new RosMessageHandler[0];
+  private static final DecodedHandlers<?>[] NO_DECODED = new DecodedHandlers<?>[0];
+
+  /**
+   * A registered channel, its handlers and its counters. The handler arrays
+   * are replaced on registration and never modified.
+   */
+  private static class Channel {
+    final SerialMessageQueue queue;
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong handlerNanos = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong lastRejectedWarning = new AtomicLong();
+    volatile RosMessageHandler[] handlers = NO_HANDLERS;
+    volatile DecodedHandlers<?>[] decoded = NO_DECODED;
+
+    Channel(SerialMessageQueue queue) {
+      this.queue = queue;
+    }
+  }
+
+  /**
+   * The handlers sharing one decoder on a channel.
+   */
+  private static class DecodedHandlers<T> {
+    final MessageDecoder<T> decoder;
+    final TypedRosMessageHandler<? super T>[] handlers;
+
+    DecodedHandlers(MessageDecoder<T> decoder, TypedRosMessageHandler<? super T>[] handlers) {
+      this.decoder = decoder;
+      this.handlers = handlers;
+    }
+
+    /**
+     * Creates the handlers of a decoder with their first handler.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DecodedHandlers<T> of(MessageDecoder<T> decoder,
+        TypedRosMessageHandler<? super T> handler) {
+      return new DecodedHandlers<T>(decoder,
+          (TypedRosMessageHandler<? super T>[]) new TypedRosMessageHandler<?>[] { handler });
+    }
+
+    /**
+     * Returns a copy with another handler.
+     */
+    DecodedHandlers<T> with(TypedRosMessageHandler<? super T> handler) {
+      TypedRosMessageHandler<? super T>[] newHandlers =
+          Arrays.copyOf(handlers, handlers.length + 1);
+      newHandlers[handlers.length] = handler;
+      return new DecodedHandlers<T>(decoder, newHandlers);
+    }
+
+    /**
+     * Decodes a message and calls each handler with it.
+     * 
+     * @return the number of errors
+     */
+    int dispatch(String channel, JsonNavigator message, Log log) {
+      T decoded;
+      try {
+        decoded = decoder.decode(message);
+      } catch (Exception e) {
+        log.error(String.format("Error decoding message on channel %s", channel), e);
+        return 1;
+      }
+
+      int errors = 0;
+      for (int i = 0; i < handlers.length; i++) {
+        try {
+          handlers[i].handleMessage(decoded);
+        } catch (Exception e) {
+          log.error(String.format("Error for message on channel %s", channel), e);
+          errors++;
+        }
+      }
+
+      return errors;
+    }
+  }
+
+  /**
+   * Counters for a channel without a handler.
+   */
+  private static class UnknownChannel {
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong lastWarning = new AtomicLong();
+  }
+
   /**
    * The handlers for each channel.
    */
-  private final Map<String, RosMessageHandler> handlers = Maps.newHashMap();
+  private final ConcurrentMap<String, Channel> handlers = Maps.newConcurrentMap();
+
+  /**
+   * Counters for messages on channels without a handler.
+   */
+  private final ConcurrentMap<String, UnknownChannel> unknownChannels = Maps.newConcurrentMap();
+
+  /**
+   * The pool for channel queues, or null to handle messages inline.
+   */
+  private volatile Executor executor;
+
+  /**
+   * Metrics hook, or null if metrics are disabled.
+   */
+  private volatile DispatchMetrics metrics;
 
   /**
    * The logger for this handler.
@@ -70,15 +236,145 @@ public class RosMessageHandlers {
   }
 
   /**
-   * Register a handler.
+   * Register a handler. Handlers already registered for the channel are kept.
+   * 
+   * @param channel
+   *          the channel to be handled
+   * @param handler
+   *          the handler
+   */
+  public synchronized void registerHandler(String channel, RosMessageHandler handler) {
+    Channel entry = getOrAddChannel(channel);
+
+    RosMessageHandler[] current = entry.handlers;
+    RosMessageHandler[] newHandlers = Arrays.copyOf(current, current.length + 1);
+    newHandlers[current.length] = handler;
+    entry.handlers = newHandlers;
+  }
+
+  /**
+   * Register the first handler of a channel, to run on the executor with its
+   * own queue settings. A channel's queue is fixed by its first registration,
+   * so this cannot be used on a channel which already has handlers; register
+   * further handlers with {@link #registerHandler(String, RosMessageHandler)}
+   * and they share the queue.
+   * 
+   * @param channel
+   *          the channel to be handled
+   * @param handler
+   *          the handler
+   * @param capacity
+   *          most messages waiting for the channel's handlers
+   * @param policy
+   *          what to do with a message when the queue is full
+   * @throws IllegalStateException
+   *           if no executor has been set, or the channel already has a
+   *           handler
+   */
+  public synchronized void registerHandler(String channel, RosMessageHandler handler,
+      int capacity, SerialMessageQueue.OverflowPolicy policy) {
+    Executor pool = executor;
+
+    if (pool == null) {
+      throw new IllegalStateException("Queued handlers need an executor");
+    }
+    if (handlers.containsKey(channel)) {
+      throw new IllegalStateException(String.format("Channel %s already has a handler", channel));
+    }
+
+    handlers.put(channel, new Channel(new SerialMessageQueue(pool, capacity, policy)));
+    registerHandler(channel, handler);
+  }
+
+  /**
+   * Register a handler for decoded messages. Handlers registered with the
+   * same decoder instance share one decoded object per message.
    * 
    * @param channel
    *          the channel to be handled
+   * @param decoder
+   *          the decoder for the channel's messages
    * @param handler
    *          the handler
    */
-  public void registerHandler(String channel, RosMessageHandler handler) {
-    handlers.put(channel, handler);
+  @SuppressWarnings("unchecked")
+  public synchronized <T> void registerHandler(String channel, MessageDecoder<T> decoder,
+      TypedRosMessageHandler<? super T> handler) {
+    Channel entry = getOrAddChannel(channel);
+
+    DecodedHandlers<?>[] current = entry.decoded;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].decoder == decoder) {
+        DecodedHandlers<?>[] newDecoded = current.clone();
+        newDecoded[i] = ((DecodedHandlers<T>) current[i]).with(handler);
+        entry.decoded = newDecoded;
+        return;
+      }
+    }
+
+    DecodedHandlers<?>[] newDecoded = Arrays.copyOf(current, current.length + 1);
+    newDecoded[current.length] = DecodedHandlers.of(decoder, handler);
+    entry.decoded = newDecoded;
+  }
+
+  /**
+   * Finds a channel, adding it if it has no handlers yet.
+   */
+  private Channel getOrAddChannel(String channel) {
+    Channel entry = handlers.get(channel);
+
+    if (entry == null) {
+      Executor pool = executor;
+      entry =
+          new Channel(pool != null ? new SerialMessageQueue(pool, DEFAULT_QUEUE_CAPACITY,
+              SerialMessageQueue.OverflowPolicy.BLOCK) : null);
+      handlers.put(channel, entry);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Sets the pool which runs handlers registered after this call.
+   * 
+   * @param executor
+   *          a shared, usually bounded, pool, or null to run handlers inline
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Sets the hook which receives the counts and handler time of every
+   * message.
+   * 
+   * @param metrics
+   *          the hook, or null to disable metrics
+   */
+  public void setDispatchMetrics(DispatchMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the metrics hook.
+   * 
+   * @return the hook, or null if metrics are disabled
+   */
+  public DispatchMetrics getDispatchMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the queue of a channel, for its depth and drop counters.
+   * 
+   * @param channel
+   *          the channel
+   * @return the queue, or null if the channel is handled inline or has no
+   *         handler
+   */
+  public SerialMessageQueue getQueue(String channel) {
+    Channel entry = handlers.get(channel);
+    return entry != null ? entry.queue : null;
   }
 
   /**
@@ -89,18 +385,167 @@ public class RosMessageHandlers {
    * @param message
    *          the message which came in
    */
-  public void handleMessage(String channel, Map<String, Object> message) {
-    JsonNavigator m = new StandardJsonNavigator(message); // Changed by Abhay
+  public void handleMessage(final String channel, final Map<String, Object> message) {
+    final Channel entry = handlers.get(channel);
+    if (entry == null) {
+      handleUnknown(channel);
+      return;
+    }
 
-    RosMessageHandler handler = handlers.get(channel);
-    if (handler != null) {
-      try {
-        handler.handleMessage(m);
-      } catch (Exception e) {
-        log.error(String.format("Error for message on channel %s", channel), e);
+    if (entry.queue == null) {
+      dispatch(channel, entry, message);
+      return;
+    }
+
+    try {
+      entry.queue.execute(new Runnable() {
+        @Override
+        public void run() {
+          dispatch(channel, entry, message);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      long count = entry.rejected.incrementAndGet();
+
+      long now = System.currentTimeMillis();
+      long last = entry.lastRejectedWarning.get();
+      if (now - last >= REJECTED_WARNING_INTERVAL
+          && entry.lastRejectedWarning.compareAndSet(last, now)) {
+        log.warn(String.format("Message on channel %s rejected (%d so far): %s", channel, count,
+            e.getMessage()));
+      }
+    }
+  }
+
+  /**
+   * Calls a channel's handlers.
+   */
+  private void dispatch(String channel, Channel entry, Map<String, Object> message) {
+    long start = System.nanoTime();
+    int errors = 0;
+    try {
+      JsonNavigator json = new StandardJsonNavigator(message); // Changed by Abhay
+
+      RosMessageHandler[] current = entry.handlers;
+      for (int i = 0; i < current.length; i++) {
+        try {
+          current[i].handleMessage(json);
+        } catch (Exception e) {
+          log.error(String.format("Error for message on channel %s", channel), e);
+          errors++;
+        }
+      }
+
+      DecodedHandlers<?>[] decoded = entry.decoded;
+      for (int i = 0; i < decoded.length; i++) {
+        errors += decoded[i].dispatch(channel, json, log);
+      }
+    } finally {
+      long nanos = System.nanoTime() - start;
+      entry.handlerNanos.addAndGet(nanos);
+      entry.messages.incrementAndGet();
+
+      DispatchMetrics hook = metrics;
+      if (hook != null) {
+        hook.recordDispatch(channel, nanos, errors);
       }
-    } else {
-      log.warn(String.format("Message from unknown channel %s", channel));
     }
   }
+
+  /**
+   * Counts a message on a channel without a handler, and warns if the
+   * channel has not been warned about recently.
+   */
+  private void handleUnknown(String channel) {
+    DispatchMetrics hook = metrics;
+    if (hook != null) {
+      hook.recordUnknown(channel);
+    }
+
+    UnknownChannel unknown = unknownChannels.get(channel);
+    if (unknown == null) {
+      unknownChannels.putIfAbsent(channel, new UnknownChannel());
+      unknown = unknownChannels.get(channel);
+    }
+
+    long count = unknown.messages.incrementAndGet();
+
+    long now = System.currentTimeMillis();
+    long last = unknown.lastWarning.get();
+    if (now - last >= UNKNOWN_WARNING_INTERVAL && unknown.lastWarning.compareAndSet(last, now)) {
+      log.warn(String.format("Message from unknown channel %s (%d so far)", channel, count));
+    }
+  }
+
+  /**
+   * Returns the number of handlers registered for a channel, typed or not.
+   * 
+   * @param channel
+   *          the channel
+   * @return the handler count
+   */
+  public int getHandlerCount(String channel) {
+    Channel entry = handlers.get(channel);
+    if (entry == null) {
+      return 0;
+    }
+
+    int count = entry.handlers.length;
+    DecodedHandlers<?>[] decoded = entry.decoded;
+    for (int i = 0; i < decoded.length; i++) {
+      count += decoded[i].handlers.length;
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the number of messages handled on a channel.
+   * 
+   * @param channel
+   *          the channel
+   * @return the message count, or zero if the channel has no handler
+   */
+  public long getMessageCount(String channel) {
+    Channel entry = handlers.get(channel);
+    return entry != null ? entry.messages.get() : 0;
+  }
+
+  /**
+   * Returns the total time spent in a channel's handler.
+   * 
+   * @param channel
+   *          the channel
+   * @return handler time in microseconds, or zero if the channel has no
+   *         handler
+   */
+  public long getHandlerTime(String channel) {
+    Channel entry = handlers.get(channel);
+    return entry != null ? TimeUnit.NANOSECONDS.toMicros(entry.handlerNanos.get()) : 0;
+  }
+
+  /**
+   * Returns the number of messages on a channel which its queue or pool
+   * rejected.
+   * 
+   * @param channel
+   *          the channel
+   * @return the rejected count, or zero if the channel has no handler
+   */
+  public long getRejectedCount(String channel) {
+    Channel entry = handlers.get(channel);
+    return entry != null ? entry.rejected.get() : 0;
+  }
+
+  /**
+   * Returns the number of messages received on a channel without a handler.
+   * 
+   * @param channel
+   *          the channel
+   * @return the message count
+   */
+  public long getUnknownCount(String channel) {
+    UnknownChannel unknown = unknownChannels.get(channel);
+    return unknown != null ? unknown.messages.get() : 0;
+  }
 }
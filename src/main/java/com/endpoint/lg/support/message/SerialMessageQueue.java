@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared
+ * {@link Executor}. Many queues can share one bounded pool while each keeps
+ * its own ordering, so one slow channel does not hold up the others.
+ * 
+ * <p>
+ * Each queue holds at most a fixed number of waiting tasks. When it is full,
+ * the {@link OverflowPolicy} decides whether the oldest waiting task is
+ * dropped, the submitter waits, or the new task is rejected. A queue with
+ * capacity 1 and <code>DROP_OLDEST</code> keeps only the latest value.
+ * 
+ * <p>
+ * A queue runs at most {@link #BATCH_SIZE} tasks before giving its pool
+ * thread to other queues, and hands the thread back early after a task
+ * throws. If the pool rejects that handoff, for example because it is
+ * saturated or shutting down, the queue keeps draining on the thread it
+ * already has. The first exception a task threw is rethrown once the drain
+ * has been handed off or the queue is empty.
+ * 
+ * <p>
+ * If the pool rejects the drain when a task is submitted to an idle queue,
+ * that task is removed again and the submitter gets the
+ * <code>RejectedExecutionException</code>. Tasks queued by others in the
+ * meantime are run on the submitter's thread first, and anything they throw
+ * goes to that thread's uncaught exception handler.
+ */
+public class SerialMessageQueue implements Executor {
+  /**
+   * What to do with a task submitted to a full queue.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Drop the oldest waiting task, for latest-value-wins messages.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Wait for room. Must not be used from a thread of the shared pool.
+     */
+    BLOCK,
+
+    /**
+     * Throw a <code>RejectedExecutionException</code>.
+     */
+    REJECT
+  }
+
+  /**
+   * Most tasks run before the pool thread is handed back.
+   */
+  public static final int BATCH_SIZE = 16;
+
+  private final Executor executor;
+  private final int capacity;
+  private final OverflowPolicy policy;
+
+  /**
+   * Waiting tasks. Guarded by this.
+   */
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+  /**
+   * True while a drain is submitted to or running on the pool. Guarded by
+   * this.
+   */
+  private boolean scheduled;
+
+  /**
+   * The first exception thrown by a task in the current batch. Only used by
+   * the draining thread.
+   */
+  private Throwable failure;
+
+  private long executed;
+  private long dropped;
+  private long rejected;
+  private int maxDepth;
+
+  /**
+   * Runs waiting tasks in order.
+   */
+  private final Runnable drainer = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  /**
+   * Creates a queue.
+   * 
+   * @param executor
+   *          the shared pool
+   * @param capacity
+   *          most waiting tasks
+   * @param policy
+   *          what to do when the queue is full
+   */
+  public SerialMessageQueue(Executor executor, int capacity, OverflowPolicy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException(String.format("Invalid queue capacity %d", capacity));
+    }
+
+    this.executor = executor;
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  /**
+   * Queues a task.
+   * 
+   * @param task
+   *          the task
+   * @throws RejectedExecutionException
+   *           if the queue is full and rejects, the wait for room was
+   *           interrupted, or the pool rejected the queue
+   */
+  @Override
+  public void execute(Runnable task) {
+    boolean schedule = false;
+
+    synchronized (this) {
+      while (tasks.size() >= capacity) {
+        switch (policy) {
+          case DROP_OLDEST:
+            tasks.poll();
+            dropped++;
+            break;
+          case REJECT:
+            rejected++;
+            throw new RejectedExecutionException("Queue is full");
+          default:
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new RejectedExecutionException("Interrupted waiting for queue", e);
+            }
+        }
+      }
+
+      tasks.add(task);
+      maxDepth = Math.max(maxDepth, tasks.size());
+
+      if (!scheduled) {
+        scheduled = true;
+        schedule = true;
+      }
+    }
+
+    if (schedule) {
+      try {
+        executor.execute(drainer);
+      } catch (RejectedExecutionException e) {
+        boolean others;
+
+        synchronized (this) {
+          tasks.removeLastOccurrence(task);
+          rejected++;
+          others = !tasks.isEmpty();
+          if (!others) {
+            unschedule();
+          }
+        }
+
+        if (others) {
+          // Tasks queued meanwhile were accepted, so they must still run.
+          Throwable thrown = drainTasks();
+          if (thrown != null) {
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, thrown);
+          }
+        }
+
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Marks the queue as not draining, and wakes submitters waiting for room.
+   * Must be called while synchronized.
+   */
+  private void unschedule() {
+    scheduled = false;
+    notifyAll();
+  }
+
+  /**
+   * Drains the queue on a pool thread, then rethrows the first exception a
+   * task threw.
+   */
+  private void drain() {
+    Throwable thrown = drainTasks();
+    if (thrown != null) {
+      throw Throwables.propagate(thrown);
+    }
+  }
+
+  /**
+   * Runs batches of tasks, handing the thread back between batches while
+   * the pool accepts the handoff.
+   * 
+   * @return the first exception a task threw, or null if none did
+   */
+  private Throwable drainTasks() {
+    Throwable thrown = null;
+
+    while (true) {
+      boolean more = runBatch();
+      if (thrown == null) {
+        thrown = failure;
+      }
+      failure = null;
+
+      if (!more) {
+        return thrown;
+      }
+
+      try {
+        executor.execute(drainer);
+        return thrown;
+      } catch (RejectedExecutionException e) {
+        // Keep draining here rather than strand the waiting tasks.
+      }
+    }
+  }
+
+  /**
+   * Runs up to a batch of tasks, stopping early if one throws. The exception
+   * is kept in {@link #failure}.
+   * 
+   * @return true if the batch was full or a task threw, so more tasks may be
+   *         waiting
+   */
+  private boolean runBatch() {
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      Runnable task;
+
+      synchronized (this) {
+        task = tasks.poll();
+        if (task == null) {
+          unschedule();
+          return false;
+        }
+        notifyAll();
+      }
+
+      try {
+        task.run();
+      } catch (Throwable t) {
+        failure = t;
+        return true;
+      } finally {
+        synchronized (this) {
+          executed++;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the number of waiting tasks.
+   * 
+   * @return queue depth
+   */
+  public synchronized int getDepth() {
+    return tasks.size();
+  }
+
+  /**
+   * Returns the largest number of tasks waiting at once.
+   * 
+   * @return high water mark of the queue depth
+   */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Returns the number of tasks run.
+   * 
+   * @return executed task count
+   */
+  public synchronized long getExecutedCount() {
+    return executed;
+  }
+
+  /**
+   * Returns the number of tasks dropped to make room.
+   * 
+   * @return dropped task count
+   */
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+  /**
+   * Returns the number of tasks rejected because the queue was full or the
+   * pool would not run it.
+   * 
+   * @return rejected task count
+   */
+  public synchronized long getRejectedCount() {
+    return rejected;
+  }
+
+  /**
+   * Returns the queue's capacity.
+   * 
+   * @return most waiting tasks
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the queue's overflow policy.
+   * 
+   * @return the policy
+   */
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+/**
+ * A handler for Ros messages decoded by a {@link MessageDecoder}.
+ * 
+ * @see RosMessageHandlers
+ */
+public interface TypedRosMessageHandler<T> {
+  /**
+   * Handle a decoded message which has come in over a ROS route.
+   * 
+   * @param message
+   *          the decoded message, shared with other handlers
+   */
+  public void handleMessage(T message);
+}
@@ -20,11 +20,20 @@ package com.endpoint.lg.support.message;
 import interactivespaces.util.data.json.JsonNavigator;
 import interactivespaces.util.data.json.StandardJsonNavigator; // Added by Abhay
 
+import com.endpoint.lg.support.metrics.DispatchMetrics;
+
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.commons.logging.Log;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A collection of {@link JsonMessageHandler} instances keyed by their message
@@ -54,14 +63,169 @@ import java.util.Map;
  * </code>
  * </pre>
  * 
+ * <p>
+ * Any number of handlers can be registered for a type. One navigator over the
+ * data is built for each message and shared by its handlers and decoders, so a
+ * handler which moves the navigator with {@code down()} must move it back with
+ * {@code up()} before returning. Handlers registered with a
+ * {@link MessageDecoder} get the decoded data instead; a message is decoded
+ * once for each distinct decoder on its type, however many handlers share
+ * that decoder.
+ * 
+ * <p>
+ * Message types which are flooded by clients, such as a POV being dragged,
+ * can be coalesced with {@link #setCoalesced(String, boolean)}. Messages of
+ * those types are handled on the executor, and only the newest message of
+ * each type waiting from each connection is handled; older ones are dropped
+ * and counted. Other types are handled in arrival order on the calling
+ * thread. Coalesced handlers therefore run on pool threads at the same time
+ * as the handlers of other types and of other connections, and are not
+ * ordered with them; only messages of one coalesced type from one connection
+ * are handled one at a time. Handlers shared between coalesced and inline
+ * types must be thread safe.
+ * 
+ * <p>
+ * A connection's latest-value queue is freed as soon as it has no message
+ * waiting, so closed connections leave nothing behind even if
+ * {@link #removeConnection(String)} is never called.
+ * 
+ * <p>
+ * Messages of types without a handler, and messages without a type, are
+ * counted and warned about at most once per {@link #UNKNOWN_WARNING_INTERVAL}
+ * for each type.
+ * 
  * @author Keith M. Hughes
  */
 public class WebsocketMessageHandlers {
+  /**
+   * Least time between warnings about the same unknown message type, in
+   * milliseconds.
+   */
+  public static final long UNKNOWN_WARNING_INTERVAL = 60000;
+
+  private static final WebsocketMessageHandler[] NO_HANDLERS = new WebsocketMessageHandler[0];
+  private static final DecodedHandlers<?>[] NO_DECODED = new DecodedHandlers<?>[0];
+
+  /**
+   * The handlers of a message type. The arrays are replaced on registration
+   * and never modified.
+   */
+  private static class TypeHandlers {
+    volatile WebsocketMessageHandler[] handlers = NO_HANDLERS;
+    volatile DecodedHandlers<?>[] decoded = NO_DECODED;
+  }
+
+  /**
+   * The handlers sharing one decoder on a message type.
+   */
+  private static class DecodedHandlers<T> {
+    final MessageDecoder<T> decoder;
+    final TypedWebsocketMessageHandler<? super T>[] handlers;
+
+    DecodedHandlers(MessageDecoder<T> decoder, TypedWebsocketMessageHandler<? super T>[] handlers) {
+      this.decoder = decoder;
+      this.handlers = handlers;
+    }
+
+    /**
+     * Creates the handlers of a decoder with their first handler.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DecodedHandlers<T> of(MessageDecoder<T> decoder,
+        TypedWebsocketMessageHandler<? super T> handler) {
+      return new DecodedHandlers<T>(decoder,
+          (TypedWebsocketMessageHandler<? super T>[]) new TypedWebsocketMessageHandler<?>[] {
+            handler });
+    }
+
+    /**
+     * Returns a copy with another handler.
+     */
+    DecodedHandlers<T> with(TypedWebsocketMessageHandler<? super T> handler) {
+      TypedWebsocketMessageHandler<? super T>[] newHandlers =
+          Arrays.copyOf(handlers, handlers.length + 1);
+      newHandlers[handlers.length] = handler;
+      return new DecodedHandlers<T>(decoder, newHandlers);
+    }
+
+    /**
+     * Decodes a message and calls each handler with it.
+     * 
+     * @return the number of errors
+     */
+    int dispatch(String connectionId, String messageType, JsonNavigator data, Log log) {
+      T decoded;
+      try {
+        decoded = decoder.decode(data);
+      } catch (Exception e) {
+        log.error(String.format("Error decoding message with type %s from connection %s",
+            messageType, connectionId), e);
+        return 1;
+      }
+
+      int errors = 0;
+      for (int i = 0; i < handlers.length; i++) {
+        try {
+          handlers[i].handleMessage(connectionId, decoded);
+        } catch (Exception e) {
+          log.error(String.format("Error for message with type %s from connection %s",
+              messageType, connectionId), e);
+          errors++;
+        }
+      }
+
+      return errors;
+    }
+  }
+
+  /**
+   * Counters for a message type without a handler.
+   */
+  private static class UnknownType {
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong lastWarning = new AtomicLong();
+  }
 
   /**
    * The handlers for each message type.
    */
-  private final Map<String, WebsocketMessageHandler> handlers = Maps.newHashMap();
+  private final ConcurrentMap<String, TypeHandlers> handlers = Maps.newConcurrentMap();
+
+  /**
+   * Counters for messages of types without a handler.
+   */
+  private final ConcurrentMap<String, UnknownType> unknownTypes = Maps.newConcurrentMap();
+
+  /**
+   * Counters for messages without a type.
+   */
+  private final UnknownType untyped = new UnknownType();
+
+  /**
+   * Message types which are coalesced.
+   */
+  private final Set<String> coalescedTypes = Sets.newCopyOnWriteArraySet();
+
+  /**
+   * Latest-value queues, by connection and then message type.
+   */
+  private final ConcurrentMap<String, ConcurrentMap<String, SerialMessageQueue>> queues = Maps
+      .newConcurrentMap();
+
+  /**
+   * Dropped counts of freed queues, by message type.
+   */
+  private final ConcurrentMap<String, AtomicLong> closedDropped = Maps.newConcurrentMap();
+
+  /**
+   * The pool which handles coalesced messages.
+   */
+  private volatile Executor executor;
+
+  /**
+   * Metrics hook, or null if metrics are disabled.
+   */
+  private volatile DispatchMetrics metrics;
 
   /**
    * The logger for this handler.
@@ -83,15 +247,295 @@ public class WebsocketMessageHandlers {
   }
 
   /**
-   * Register a handler.
+   * Register a handler. Handlers already registered for the type are kept.
    * 
    * @param messageType
    *          the type of message to be handled
    * @param handler
    *          the handler
    */
-  public void registerHandler(String messageType, WebsocketMessageHandler handler) {
-    handlers.put(messageType, handler);
+  public synchronized void registerHandler(String messageType, WebsocketMessageHandler handler) {
+    TypeHandlers entry = getOrAddType(messageType);
+
+    WebsocketMessageHandler[] current = entry.handlers;
+    WebsocketMessageHandler[] newHandlers = Arrays.copyOf(current, current.length + 1);
+    newHandlers[current.length] = handler;
+    entry.handlers = newHandlers;
+  }
+
+  /**
+   * Register a handler for decoded message data. Handlers registered with the
+   * same decoder instance share one decoded object per message.
+   * 
+   * @param messageType
+   *          the type of message to be handled
+   * @param decoder
+   *          the decoder for the data of the type's messages
+   * @param handler
+   *          the handler
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T> void registerHandler(String messageType, MessageDecoder<T> decoder,
+      TypedWebsocketMessageHandler<? super T> handler) {
+    TypeHandlers entry = getOrAddType(messageType);
+
+    DecodedHandlers<?>[] current = entry.decoded;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].decoder == decoder) {
+        DecodedHandlers<?>[] newDecoded = current.clone();
+        newDecoded[i] = ((DecodedHandlers<T>) current[i]).with(handler);
+        entry.decoded = newDecoded;
+        return;
+      }
+    }
+
+    DecodedHandlers<?>[] newDecoded = Arrays.copyOf(current, current.length + 1);
+    newDecoded[current.length] = DecodedHandlers.of(decoder, handler);
+    entry.decoded = newDecoded;
+  }
+
+  /**
+   * Finds the handlers of a message type, adding the type if it has none yet.
+   */
+  private TypeHandlers getOrAddType(String messageType) {
+    TypeHandlers entry = handlers.get(messageType);
+
+    if (entry == null) {
+      entry = new TypeHandlers();
+      handlers.put(messageType, entry);
+    }
+
+    return entry;
+  }
+
+  /**
+   * Returns the number of handlers registered for a message type, typed or
+   * not.
+   * 
+   * @param messageType
+   *          the type of message
+   * @return the handler count
+   */
+  public int getHandlerCount(String messageType) {
+    TypeHandlers entry = handlers.get(messageType);
+    if (entry == null) {
+      return 0;
+    }
+
+    int count = entry.handlers.length;
+    DecodedHandlers<?>[] decoded = entry.decoded;
+    for (int i = 0; i < decoded.length; i++) {
+      count += decoded[i].handlers.length;
+    }
+
+    return count;
+  }
+
+  /**
+   * Sets the pool which handles coalesced message types.
+   * 
+   * @param executor
+   *          the pool
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Sets the hook which receives the counts and handler time of every
+   * message, keyed by message type.
+   * 
+   * @param metrics
+   *          the hook, or null to disable metrics
+   */
+  public void setDispatchMetrics(DispatchMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the metrics hook.
+   * 
+   * @return the hook, or null if metrics are disabled
+   */
+  public DispatchMetrics getDispatchMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Sets whether a message type is coalesced, so only the newest waiting
+   * message of the type from each connection is handled.
+   * 
+   * @param messageType
+   *          the type of message
+   * @param coalesced
+   *          true to coalesce the type
+   * @throws IllegalStateException
+   *           if no executor has been set
+   */
+  public void setCoalesced(String messageType, boolean coalesced) {
+    if (coalesced) {
+      if (executor == null) {
+        throw new IllegalStateException("Coalesced message types need an executor");
+      }
+      coalescedTypes.add(messageType);
+    } else {
+      coalescedTypes.remove(messageType);
+    }
+  }
+
+  /**
+   * Checks whether a message type is coalesced.
+   * 
+   * @param messageType
+   *          the type of message
+   * @return true if the type is coalesced
+   */
+  public boolean isCoalesced(String messageType) {
+    return coalescedTypes.contains(messageType);
+  }
+
+  /**
+   * Forgets the queues of a closed connection. Idle queues are freed without
+   * this, so it is only needed to free the queues of a connection which
+   * closed with messages still waiting.
+   * 
+   * @param connectionId
+   *          ID of the connection
+   */
+  public void removeConnection(String connectionId) {
+    ConcurrentMap<String, SerialMessageQueue> connectionQueues = queues.remove(connectionId);
+
+    if (connectionQueues != null) {
+      synchronized (connectionQueues) {
+        for (Map.Entry<String, SerialMessageQueue> entry : connectionQueues.entrySet()) {
+          getClosedDropped(entry.getKey()).addAndGet(entry.getValue().getDroppedCount());
+        }
+        connectionQueues.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of connections with a latest-value queue.
+   * 
+   * @return the connection count
+   */
+  public int getConnectionCount() {
+    return queues.size();
+  }
+
+  /**
+   * Returns the number of messages of a type dropped in favor of newer ones.
+   * 
+   * @param messageType
+   *          the type of message
+   * @return the dropped message count, over all connections
+   */
+  public long getDroppedCount(String messageType) {
+    AtomicLong closed = closedDropped.get(messageType);
+    long count = closed != null ? closed.get() : 0;
+
+    for (ConcurrentMap<String, SerialMessageQueue> connectionQueues : queues.values()) {
+      SerialMessageQueue queue = connectionQueues.get(messageType);
+      if (queue != null) {
+        count += queue.getDroppedCount();
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Fetches the dropped counter of a message type for closed connections.
+   */
+  private AtomicLong getClosedDropped(String messageType) {
+    AtomicLong counter = closedDropped.get(messageType);
+
+    if (counter == null) {
+      closedDropped.putIfAbsent(messageType, new AtomicLong());
+      counter = closedDropped.get(messageType);
+    }
+
+    return counter;
+  }
+
+  /**
+   * Queues a coalesced message on the latest-value queue of its connection
+   * and type, creating the queue if needed. Queues are created, fed and freed
+   * while holding their connection's map, so a message is never given to a
+   * queue which has been freed.
+   */
+  private void enqueue(final TypeHandlers entry, final String connectionId,
+      final String messageType, final Object message) {
+    while (true) {
+      ConcurrentMap<String, SerialMessageQueue> connectionQueues = queues.get(connectionId);
+      if (connectionQueues == null) {
+        queues.putIfAbsent(connectionId, Maps.<String, SerialMessageQueue> newConcurrentMap());
+        continue;
+      }
+
+      synchronized (connectionQueues) {
+        if (queues.get(connectionId) != connectionQueues) {
+          // Freed since it was fetched.
+          continue;
+        }
+
+        SerialMessageQueue queue = connectionQueues.get(messageType);
+        if (queue == null) {
+          queue =
+              new SerialMessageQueue(executor, 1, SerialMessageQueue.OverflowPolicy.DROP_OLDEST);
+          connectionQueues.put(messageType, queue);
+        }
+
+        final SerialMessageQueue target = queue;
+        try {
+          target.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                dispatch(entry, connectionId, messageType, new StandardJsonNavigator(message));
+              } finally {
+                release(connectionId, messageType, target);
+              }
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          free(connectionQueues, connectionId, messageType, target);
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Frees a latest-value queue if no message is waiting in it, and the
+   * connection's map if that was its last queue.
+   */
+  private void release(String connectionId, String messageType, SerialMessageQueue queue) {
+    ConcurrentMap<String, SerialMessageQueue> connectionQueues = queues.get(connectionId);
+    if (connectionQueues == null) {
+      return;
+    }
+
+    synchronized (connectionQueues) {
+      free(connectionQueues, connectionId, messageType, queue);
+    }
+  }
+
+  /**
+   * Frees a queue if it is idle. Must be called holding the connection's map.
+   */
+  private void free(ConcurrentMap<String, SerialMessageQueue> connectionQueues,
+      String connectionId, String messageType, SerialMessageQueue queue) {
+    if (queue.getDepth() != 0 || !connectionQueues.remove(messageType, queue)) {
+      return;
+    }
+
+    getClosedDropped(messageType).addAndGet(queue.getDroppedCount());
+    if (connectionQueues.isEmpty()) {
+      queues.remove(connectionId, connectionQueues);
+    }
   }
 
   /**
@@ -107,20 +551,126 @@ public class WebsocketMessageHandlers {
 
     String messageType = m.getString(MessageWrapper.MESSAGE_FIELD_TYPE);
     if (messageType != null) {
-      WebsocketMessageHandler handler = handlers.get(messageType);
-      if (handler != null) {
-        try {
-          handler.handleMessage(connectionId, m.down(MessageWrapper.MESSAGE_FIELD_DATA));
-        } catch (Exception e) {
-          log.error(String.format("Error for message with type %s from connection %s", messageType,
-              connectionId), e);
+      TypeHandlers entry = handlers.get(messageType);
+      if (entry != null) {
+        if (coalescedTypes.contains(messageType)) {
+          enqueue(entry, connectionId, messageType, message);
+        } else {
+          dispatch(entry, connectionId, messageType, m);
         }
       } else {
-        log.warn(String.format("Message with unknown type %s came from connection %s", messageType,
-            connectionId));
+        handleUnknown(connectionId, messageType);
       }
     } else {
-      log.warn(String.format("Message without a type came from connection %s", connectionId));
+      long count = untyped.messages.incrementAndGet();
+      if (shouldWarn(untyped)) {
+        log.warn(String.format("Message without a type came from connection %s (%d so far)",
+            connectionId, count));
+      }
+    }
+  }
+
+  /**
+   * Counts a message of a type without a handler, and warns if the type has
+   * not been warned about recently.
+   */
+  private void handleUnknown(String connectionId, String messageType) {
+    DispatchMetrics hook = metrics;
+    if (hook != null) {
+      hook.recordUnknown(messageType);
+    }
+
+    UnknownType unknown = unknownTypes.get(messageType);
+    if (unknown == null) {
+      unknownTypes.putIfAbsent(messageType, new UnknownType());
+      unknown = unknownTypes.get(messageType);
+    }
+
+    long count = unknown.messages.incrementAndGet();
+    if (shouldWarn(unknown)) {
+      log.warn(String.format("Message with unknown type %s came from connection %s (%d so far)",
+          messageType, connectionId, count));
+    }
+  }
+
+  /**
+   * Checks whether a warning is due for unknown messages, and if so claims it.
+   */
+  private static boolean shouldWarn(UnknownType unknown) {
+    long now = System.currentTimeMillis();
+    long last = unknown.lastWarning.get();
+    return now - last >= UNKNOWN_WARNING_INTERVAL && unknown.lastWarning.compareAndSet(last, now);
+  }
+
+  /**
+   * Returns the number of messages of a type without a handler.
+   * 
+   * @param messageType
+   *          the type of message
+   * @return the message count, or zero if the type has a handler
+   */
+  public long getUnknownCount(String messageType) {
+    UnknownType unknown = unknownTypes.get(messageType);
+    return unknown != null ? unknown.messages.get() : 0;
+  }
+
+  /**
+   * Returns the number of messages without a type.
+   * 
+   * @return the message count
+   */
+  public long getUntypedCount() {
+    return untyped.messages.get();
+  }
+
+  /**
+   * Calls the handlers of a message type with the data of a message.
+   */
+  private void dispatch(TypeHandlers entry, String connectionId, String messageType,
+      JsonNavigator m) {
+    JsonNavigator data = null;
+    try {
+      data = m.down(MessageWrapper.MESSAGE_FIELD_DATA);
+    } catch (Exception e) {
+      log.error(String.format("Message with type %s from connection %s has no data", messageType,
+          connectionId), e);
+    }
+
+    dispatchData(entry, connectionId, messageType, data);
+  }
+
+  /**
+   * Calls the handlers of a message type with the data of a message, or
+   * counts a failure if the message had no data.
+   */
+  private void dispatchData(TypeHandlers entry, String connectionId, String messageType,
+      JsonNavigator data) {
+    DispatchMetrics hook = metrics;
+    long start = hook != null ? System.nanoTime() : 0;
+    int errors = 0;
+
+    if (data == null) {
+      errors++;
+    } else {
+      WebsocketMessageHandler[] current = entry.handlers;
+      for (int i = 0; i < current.length; i++) {
+        try {
+          current[i].handleMessage(connectionId, data);
+        } catch (Exception e) {
+          log.error(String.format("Error for message with type %s from connection %s",
+              messageType, connectionId), e);
+          errors++;
+        }
+      }
+
+      DecodedHandlers<?>[] decoded = entry.decoded;
+      for (int i = 0; i < decoded.length; i++) {
+        errors += decoded[i].dispatch(connectionId, messageType, data, log);
+      }
+    }
+
+    if (hook != null) {
+      hook.recordDispatch(messageType, System.nanoTime() - start, errors);
     }
   }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.metrics;
+
+/**
+ * Receives measurements from message dispatchers, keyed by channel or message
+ * type.
+ * 
+ * <p>
+ * Implementations are called on dispatch threads, often concurrently, and
+ * should be lock-free and cheap. Dispatchers keep their own lifetime message
+ * counts, so a hook only needs what those do not cover, such as latency
+ * distributions, errors and per-interval rates.
+ * 
+ * @see StandardDispatchMetrics
+ */
+public interface DispatchMetrics {
+  /**
+   * Records a message which was given to the handlers of its key.
+   * 
+   * @param key
+   *          the channel or message type
+   * @param nanos
+   *          time spent in the handlers, in nanoseconds
+   * @param errors
+   *          the number of handlers or decoders which failed
+   */
+  public void recordDispatch(String key, long nanos, int errors);
+
+  /**
+   * Records a message for a key without handlers.
+   * 
+   * @param key
+   *          the channel or message type
+   */
+  public void recordUnknown(String key);
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.metrics;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative <code>long</code> values, such as
+ * latencies in microseconds.
+ * 
+ * <p>
+ * Values are counted in log-linear buckets, in the style of HdrHistogram:
+ * each power of two is split into <code>SUB_BUCKETS / 2</code> linear
+ * sub-buckets, so any recorded value is reported within about 6% of its true
+ * value. Recording is a handful of atomic increments and never allocates, so
+ * it is safe to call from input and message dispatch threads while other
+ * threads read percentiles.
+ */
+public class LatencyHistogram {
+  /**
+   * Histogram field for the number of recorded values.
+   */
+  public static final String FIELD_COUNT = "count";
+
+  /**
+   * Histogram field for the mean of recorded values.
+   */
+  public static final String FIELD_MEAN = "mean";
+
+  /**
+   * Histogram field for the median.
+   */
+  public static final String FIELD_P50 = "p50";
+
+  /**
+   * Histogram field for the 90th percentile.
+   */
+  public static final String FIELD_P90 = "p90";
+
+  /**
+   * Histogram field for the 99th percentile.
+   */
+  public static final String FIELD_P99 = "p99";
+
+  /**
+   * Histogram field for the largest recorded value.
+   */
+  public static final String FIELD_MAX = "max";
+
+  /**
+   * Bits of precision within each power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 5;
+
+  /**
+   * The number of linear buckets below the first power of two bucket.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * The number of sub-buckets in each power of two bucket.
+   */
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+  /**
+   * The total number of buckets needed to cover all positive longs.
+   */
+  private static final int NUM_BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalSum = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Finds the bucket for a value.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    int top = (int) (value >>> shift);
+
+    return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (top - HALF_SUB_BUCKETS);
+  }
+
+  /**
+   * Finds the largest value which would be counted in a bucket.
+   */
+  static long bucketHighestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int k = index - SUB_BUCKETS;
+    int shift = k / HALF_SUB_BUCKETS + 1;
+    long top = HALF_SUB_BUCKETS + k % HALF_SUB_BUCKETS;
+
+    return ((top + 1) << shift) - 1;
+  }
+
+  /**
+   * Records a value. Negative values are counted as zero.
+   * 
+   * @param value
+   *          the value to record
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    totalSum.addAndGet(value);
+
+    long max = maxValue.get();
+    while (value > max && !maxValue.compareAndSet(max, value)) {
+      max = maxValue.get();
+    }
+  }
+
+  /**
+   * Returns the number of recorded values.
+   * 
+   * @return the count
+   */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values.
+   * 
+   * @return the mean, or zero if nothing has been recorded
+   */
+  public double getMean() {
+    long count = totalCount.get();
+
+    return count == 0 ? 0 : (double) totalSum.get() / count;
+  }
+
+  /**
+   * Returns the largest recorded value.
+   * 
+   * @return the maximum, or zero if nothing has been recorded
+   */
+  public long getMax() {
+    return maxValue.get();
+  }
+
+  /**
+   * Returns the value at a percentile. The result is the highest value
+   * equivalent to the bucket containing the percentile, capped at the
+   * recorded maximum.
+   * 
+   * @param percentile
+   *          percentile between 0 and 100
+   * @return the value at the percentile, or zero if nothing has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+    if (rank < 1) {
+      rank = 1;
+    }
+
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketHighestValue(i), maxValue.get());
+      }
+    }
+
+    return maxValue.get();
+  }
+
+  /**
+   * Adds all values recorded by another histogram to this one.
+   * 
+   * @param other
+   *          the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long c = other.counts.get(i);
+      if (c != 0) {
+        counts.addAndGet(i, c);
+      }
+    }
+
+    totalCount.addAndGet(other.totalCount.get());
+    totalSum.addAndGet(other.totalSum.get());
+
+    long otherMax = other.maxValue.get();
+    long max = maxValue.get();
+    while (otherMax > max && !maxValue.compareAndSet(max, otherMax)) {
+      max = maxValue.get();
+    }
+  }
+
+  /**
+   * Takes a copy of the histogram. Values recorded while the copy is being
+   * made may or may not be included.
+   * 
+   * @return a new histogram with the current counts
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.add(this);
+    return copy;
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+
+    totalCount.set(0);
+    totalSum.set(0);
+    maxValue.set(0);
+  }
+
+  /**
+   * Serialize a summary of the histogram.
+   * 
+   * @return json representation of the count, mean, percentiles and maximum
+   */
+  public JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+
+    json.put(FIELD_COUNT, getCount());
+    json.put(FIELD_MEAN, getMean());
+    json.put(FIELD_P50, getValueAtPercentile(50));
+    json.put(FIELD_P90, getValueAtPercentile(90));
+    json.put(FIELD_P99, getValueAtPercentile(99));
+    json.put(FIELD_MAX, getMax());
+
+    return json;
+  }
+}
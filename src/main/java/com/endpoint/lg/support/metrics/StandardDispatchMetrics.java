@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.metrics;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.StandardJsonBuilder;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free <code>DispatchMetrics</code> which keeps a handler latency
+ * histogram, in microseconds, and an error count for each key. Message counts
+ * are taken from the histograms rather than counted again.
+ * 
+ * <p>
+ * These are interval metrics. The dispatchers keep their own lifetime totals,
+ * such as {@code RosMessageHandlers.getMessageCount()}, which are not reset
+ * with these.
+ * 
+ * <p>
+ * Counters are created the first time a key is seen. Rates are averaged since
+ * the metrics were created or last reset, so an activity which logs a
+ * snapshot periodically can call {@link #reset()} after each one to get
+ * per-interval rates.
+ */
+public class StandardDispatchMetrics implements DispatchMetrics {
+  /**
+   * Snapshot field for the time covered, in seconds.
+   */
+  public static final String FIELD_INTERVAL = "interval";
+
+  /**
+   * Snapshot field for the metrics of each handled key.
+   */
+  public static final String FIELD_KEYS = "keys";
+
+  /**
+   * Snapshot field for message counts of each unknown key.
+   */
+  public static final String FIELD_UNKNOWN = "unknown";
+
+  /**
+   * Key field for the number of messages.
+   */
+  public static final String FIELD_MESSAGES = "messages";
+
+  /**
+   * Key field for the message rate, per second.
+   */
+  public static final String FIELD_RATE = "rate";
+
+  /**
+   * Key field for the number of errors.
+   */
+  public static final String FIELD_ERRORS = "errors";
+
+  /**
+   * Key field for the handler latency histogram.
+   */
+  public static final String FIELD_LATENCY = "latency";
+
+  /**
+   * Counters for a handled key.
+   */
+  private static class KeyMetrics {
+    final AtomicLong errors = new AtomicLong();
+    final LatencyHistogram latency = new LatencyHistogram();
+  }
+
+  private final ConcurrentMap<String, KeyMetrics> keys = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, AtomicLong> unknown = Maps.newConcurrentMap();
+
+  /**
+   * <code>System.nanoTime()</code> when counting started.
+   */
+  private volatile long startTime = System.nanoTime();
+
+  /**
+   * Fetches the counters of a key, creating them if needed.
+   */
+  private KeyMetrics fetch(String key) {
+    KeyMetrics metrics = keys.get(key);
+
+    if (metrics == null) {
+      keys.putIfAbsent(key, new KeyMetrics());
+      metrics = keys.get(key);
+    }
+
+    return metrics;
+  }
+
+  @Override
+  public void recordDispatch(String key, long nanos, int errors) {
+    KeyMetrics metrics = fetch(key);
+
+    if (errors != 0) {
+      metrics.errors.addAndGet(errors);
+    }
+    metrics.latency.record(nanos / 1000L);
+  }
+
+  @Override
+  public void recordUnknown(String key) {
+    AtomicLong counter = unknown.get(key);
+
+    if (counter == null) {
+      unknown.putIfAbsent(key, new AtomicLong());
+      counter = unknown.get(key);
+    }
+
+    counter.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of messages handled for a key.
+   * 
+   * @param key
+   *          the channel or message type
+   * @return the message count
+   */
+  public long getMessageCount(String key) {
+    KeyMetrics metrics = keys.get(key);
+    return metrics != null ? metrics.latency.getCount() : 0;
+  }
+
+  /**
+   * Returns the number of handler errors for a key.
+   * 
+   * @param key
+   *          the channel or message type
+   * @return the error count
+   */
+  public long getErrorCount(String key) {
+    KeyMetrics metrics = keys.get(key);
+    return metrics != null ? metrics.errors.get() : 0;
+  }
+
+  /**
+   * Returns the handler latency histogram of a key.
+   * 
+   * @param key
+   *          the channel or message type
+   * @return latencies in microseconds, or null if the key has not been
+   *         handled
+   */
+  public LatencyHistogram getLatency(String key) {
+    KeyMetrics metrics = keys.get(key);
+    return metrics != null ? metrics.latency : null;
+  }
+
+  /**
+   * Returns the number of messages for a key without handlers.
+   * 
+   * @param key
+   *          the channel or message type
+   * @return the message count
+   */
+  public long getUnknownCount(String key) {
+    AtomicLong counter = unknown.get(key);
+    return counter != null ? counter.get() : 0;
+  }
+
+  /**
+   * Returns the time covered by the counters.
+   * 
+   * @return seconds since the metrics were created or last reset
+   */
+  public double getInterval() {
+    return (System.nanoTime() - startTime) / 1e9;
+  }
+
+  /**
+   * Clears all counters and starts a new interval. Keys already seen are
+   * kept, with zero counts.
+   */
+  public void reset() {
+    startTime = System.nanoTime();
+
+    for (KeyMetrics metrics : keys.values()) {
+      metrics.errors.set(0);
+      metrics.latency.reset();
+    }
+    for (AtomicLong counter : unknown.values()) {
+      counter.set(0);
+    }
+  }
+
+  /**
+   * Serialize a snapshot of all counters. Counts recorded while the snapshot
+   * is taken may or may not be included.
+   * 
+   * @return json representation of the interval, the metrics of each handled
+   *         key and the count of each unknown key
+   */
+  public JsonBuilder getJsonBuilder() {
+    JsonBuilder json = new StandardJsonBuilder();
+    double interval = getInterval();
+
+    json.put(FIELD_INTERVAL, interval);
+
+    json.newObject(FIELD_KEYS);
+    for (Map.Entry<String, KeyMetrics> entry : keys.entrySet()) {
+      KeyMetrics metrics = entry.getValue();
+      long messages = metrics.latency.getCount();
+
+      json.newObject(entry.getKey());
+      json.put(FIELD_MESSAGES, messages);
+      json.put(FIELD_RATE, interval > 0 ? messages / interval : 0.0);
+      json.put(FIELD_ERRORS, metrics.errors.get());
+      json.put(FIELD_LATENCY, metrics.latency.getJsonBuilder().build());
+      json.up();
+    }
+    json.up();
+
+    json.newObject(FIELD_UNKNOWN);
+    for (Map.Entry<String, AtomicLong> entry : unknown.entrySet()) {
+      json.put(entry.getKey(), entry.getValue().get());
+    }
+    json.up();
+
+    return json;
+  }
+}
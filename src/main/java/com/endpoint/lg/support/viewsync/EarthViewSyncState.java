@@ -25,6 +25,7 @@ import java.util.Map;
 
 import com.endpoint.lg.support.domain.Location;
 import com.endpoint.lg.support.domain.Orientation;
+import com.endpoint.lg.support.message.MessageDecoder;
 import com.endpoint.lg.support.message.MessageFields;
 
 /**
@@ -40,6 +41,17 @@ public class EarthViewSyncState {
    */
   public static final String DEFAULT_PLANET = "earth";
 
+  /**
+   * Decodes viewsync states, for typed message handlers.
+   */
+  public static final MessageDecoder<EarthViewSyncState> DECODER =
+      new MessageDecoder<EarthViewSyncState>() {
+        @Override
+        public EarthViewSyncState decode(JsonNavigator json) {
+          return new EarthViewSyncState(json);
+        }
+      };
+
   /**
    * The orientation: heading, tilt, roll, (range)
    */
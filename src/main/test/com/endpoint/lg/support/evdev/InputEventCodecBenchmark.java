@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonNavigator;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Compares the size and the encode and decode cost of
+ * <code>InputEventCodec</code> with the JSON path, serialized with Jackson as
+ * it is on the wire. Run with <code>main()</code>; not part of the unit tests.
+ */
+public class InputEventCodecBenchmark {
+  private static final int MESSAGES = 500000;
+  private static final int ROUNDS = 5;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * A SpaceNav-like axis state, with all six axes moving.
+   */
+  private static InputRelState axes() {
+    InputRelState state = new InputRelState();
+    int[] codes = { REL_X, REL_Y, REL_Z, REL_RX, REL_RY, REL_RZ };
+
+    for (int i = 0; i < codes.length; i++) {
+      state.setValue(codes[i], (i % 2 == 0 ? 1 : -1) * (20 + i * 70));
+    }
+
+    return state;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) throws Exception {
+    InputEvent event = new InputEvent(EV_REL, REL_RZ, -350);
+    InputRelState state = axes();
+    ByteBuffer buffer = ByteBuffer.allocate(InputEventCodec.MAX_AXES_SZ);
+
+    byte[] eventJson = MAPPER.writeValueAsBytes(event.getMap());
+    byte[] stateJson = MAPPER.writeValueAsBytes(state.getJsonBuilder().build());
+
+    InputEventCodec.encodeAxes(buffer, state);
+    System.out.println(String.format("event: json %d bytes, binary %d bytes", eventJson.length,
+        InputEventCodec.EVENT_SZ));
+    System.out.println(String.format("axes: json %d bytes, binary %d bytes", stateJson.length,
+        buffer.position()));
+
+    long sink = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < MESSAGES; i++) {
+        byte[] bytes = MAPPER.writeValueAsBytes(state.getJsonBuilder().build());
+        InputRelState decoded =
+            new InputRelState(new JsonNavigator(MAPPER.readValue(bytes, Map.class)));
+        sink += decoded.getValue(REL_RZ);
+      }
+      double jsonNs = (double) (System.nanoTime() - start) / MESSAGES;
+
+      InputRelState decoded = new InputRelState();
+      start = System.nanoTime();
+      for (int i = 0; i < MESSAGES; i++) {
+        buffer.clear();
+        InputEventCodec.encodeAxes(buffer, state);
+        buffer.flip();
+        InputEventCodec.decodeAxes(buffer, decoded);
+        sink += decoded.getValue(REL_RZ);
+      }
+      double binaryNs = (double) (System.nanoTime() - start) / MESSAGES;
+
+      System.out.println(String.format(
+          "round %d: axes round trip json %.0f ns, binary %.0f ns", round, jsonNs, binaryNs));
+    }
+
+    System.out.println(sink);
+  }
+}
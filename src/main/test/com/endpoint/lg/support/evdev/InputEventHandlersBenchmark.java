@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Compares the cost per event of <code>InputEventHandlers</code> dispatch with
+ * the nested <code>HashMap</code> dispatch it replaced. Run with
+ * <code>main()</code>; not part of the unit tests.
+ */
+public class InputEventHandlersBenchmark {
+  private static final int EVENTS = 5000000;
+  private static final int ROUNDS = 5;
+
+  /**
+   * The previous map based dispatch, kept for comparison.
+   */
+  private static class MapHandlers {
+    private final Map<Integer, Map<Integer, InputEventHandler>> handlers = Maps.newHashMap();
+
+    public void registerHandler(int type, int code, InputEventHandler handler) {
+      Map<Integer, InputEventHandler> codeHandlers = handlers.get(type);
+      if (codeHandlers == null) {
+        codeHandlers = Maps.newHashMap();
+        handlers.put(type, codeHandlers);
+      }
+
+      codeHandlers.put(code, handler);
+    }
+
+    private InputEventHandler fetchHandler(int type, int code) {
+      Map<Integer, InputEventHandler> codeHandlers = handlers.get(type);
+      return codeHandlers != null ? codeHandlers.get(code) : null;
+    }
+
+    public void handleEvent(InputEvent event) {
+      InputEventHandler handler = fetchHandler(event.getType(), InputEventHandlers.ALL_CODES);
+      if (handler != null)
+        handler.handleEvent(event);
+
+      handler = fetchHandler(event.getType(), event.getCode());
+      if (handler != null)
+        handler.handleEvent(event);
+    }
+  }
+
+  /**
+   * A handler which does just enough work not to be optimized away.
+   */
+  private static class SummingHandler implements InputEventHandler {
+    long sum;
+
+    public void handleEvent(InputEvent event) {
+      sum += event.getValue();
+    }
+  }
+
+  private static InputEvent[] events() {
+    int[] codes = { REL_X, REL_Y, REL_Z, REL_RX, REL_RY, REL_RZ };
+    InputEvent[] events = new InputEvent[codes.length * 200 + 1];
+
+    for (int i = 0; i < events.length - 1; i++) {
+      // include codes above the Integer cache to show the boxing cost
+      events[i] = new InputEvent(i % 2 == 0 ? EV_REL : EV_KEY, i % 2 == 0 ? codes[i % codes.length]
+          : BTN_0 + i % 8, i);
+    }
+    events[events.length - 1] = new InputEvent(EV_SYN, SYN_REPORT, 0);
+
+    return events;
+  }
+
+  public static void main(String[] args) {
+    InputEvent[] events = events();
+    SummingHandler handler = new SummingHandler();
+
+    MapHandlers before = new MapHandlers();
+    InputEventHandlers after = new InputEventHandlers();
+
+    before.registerHandler(EV_REL, InputEventHandlers.ALL_CODES, handler);
+    after.registerHandler(EV_REL, InputEventHandlers.ALL_CODES, handler);
+    for (int code = BTN_0; code < BTN_0 + 8; code++) {
+      before.registerHandler(EV_KEY, code, handler);
+      after.registerHandler(EV_KEY, code, handler);
+    }
+    before.registerHandler(EV_SYN, SYN_REPORT, handler);
+    after.registerHandler(EV_SYN, SYN_REPORT, handler);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < EVENTS; i++) {
+        before.handleEvent(events[i % events.length]);
+      }
+      double mapNs = (double) (System.nanoTime() - start) / EVENTS;
+
+      start = System.nanoTime();
+      for (int i = 0; i < EVENTS; i++) {
+        after.handleEvent(events[i % events.length]);
+      }
+      double tableNs = (double) (System.nanoTime() - start) / EVENTS;
+
+      System.out.println(String.format("round %d: map %.1f ns/event, table %.1f ns/event", round,
+          mapNs, tableNs));
+    }
+
+    System.out.println(handler.sum);
+  }
+}
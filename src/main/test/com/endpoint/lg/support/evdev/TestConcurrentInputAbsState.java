@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>ConcurrentInputAbsState</code>.
+ */
+public class TestConcurrentInputAbsState {
+  private static final int NUM_READERS = 4;
+  private static final int NUM_FRAMES = 200000;
+
+  /**
+   * Verify publishing and snapshotting on a single thread.
+   */
+  @Test
+  public void testSnapshot() {
+    InputAbsState writer = new InputAbsState();
+    InputAbsState reader = new InputAbsState();
+    ConcurrentInputAbsState shared = new ConcurrentInputAbsState();
+
+    long version = shared.getVersion();
+
+    writer.setValue(ABS_X, 3);
+    writer.setValue(ABS_RZ, -4);
+    shared.publish(writer);
+
+    assertTrue(shared.getVersion() > version);
+    assertEquals(-4, shared.getValue(ABS_RZ));
+
+    assertTrue(shared.snapshot(reader));
+    assertEquals(3, reader.getValue(ABS_X));
+    assertEquals(-4, reader.getValue(ABS_RZ));
+    assertTrue(reader.isDirty());
+
+    reader.clean();
+    assertFalse(shared.snapshot(reader));
+    assertFalse(reader.isDirty());
+  }
+
+  /**
+   * Verify that states with different numbers of axes only exchange the axes
+   * they have in common.
+   */
+  @Test
+  public void testMismatchedAxes() {
+    InputRelState rel = new InputRelState();
+    InputAbsState abs = new InputAbsState();
+    ConcurrentInputAbsState shared = new ConcurrentInputAbsState();
+
+    rel.setValue(REL_Y, 5);
+    shared.setValue(ABS_MT_SLOT, 7);
+    shared.publish(rel);
+
+    assertEquals(5, shared.getValue(REL_Y));
+    assertEquals(7, shared.getValue(ABS_MT_SLOT));
+
+    ConcurrentInputAbsState sharedRel = new ConcurrentInputAbsState(InputRelState.NUM_AXES);
+    abs.setValue(REL_Y, 6);
+    abs.setValue(ABS_MT_SLOT, 2);
+    sharedRel.publish(abs);
+    rel.clean();
+
+    assertTrue(sharedRel.snapshot(rel));
+    assertEquals(6, rel.getValue(REL_Y));
+
+    abs.setValue(REL_Y, 0);
+    assertTrue(sharedRel.snapshot(abs));
+    assertEquals(6, abs.getValue(REL_Y));
+    assertEquals(2, abs.getValue(ABS_MT_SLOT));
+  }
+
+  /**
+   * Hammer the state from several reader threads while the writer publishes
+   * frames in which every axis has the same value. A torn snapshot would mix
+   * values from two frames.
+   */
+  @Test
+  public void testStress() throws Exception {
+    final ConcurrentInputAbsState shared = new ConcurrentInputAbsState();
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final CountDownLatch started = new CountDownLatch(NUM_READERS);
+
+    Thread[] readers = new Thread[NUM_READERS];
+    for (int r = 0; r < NUM_READERS; r++) {
+      readers[r] = new Thread(new Runnable() {
+        public void run() {
+          InputAbsState state = new InputAbsState();
+          int last = 0;
+
+          started.countDown();
+
+          while (!done.get() && failure.get() == null) {
+            shared.snapshot(state);
+
+            int first = state.getValue(0);
+            for (int i = 1; i < ABS_CNT; i++) {
+              if (state.getValue(i) != first) {
+                failure.set(String.format("torn snapshot: axis 0 = %d, axis %d = %d", first, i,
+                    state.getValue(i)));
+                return;
+              }
+            }
+
+            if (first < last) {
+              failure.set(String.format("went backwards from %d to %d", last, first));
+              return;
+            }
+            last = first;
+          }
+        }
+      });
+      readers[r].start();
+    }
+
+    started.await();
+
+    InputAbsState writer = new InputAbsState();
+    for (int frame = 1; frame <= NUM_FRAMES && failure.get() == null; frame++) {
+      for (int i = 0; i < ABS_CNT; i++) {
+        writer.setValue(i, frame);
+      }
+      shared.publish(writer);
+    }
+
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(NUM_FRAMES, shared.getValue(ABS_MAX));
+  }
+}
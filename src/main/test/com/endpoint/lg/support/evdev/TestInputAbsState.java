@@ -29,6 +29,8 @@ import static org.junit.Assert.*;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.Map;
+
 /**
  * Test <code>InputAbsState</code>.
  * 
@@ -166,4 +168,55 @@ public class TestInputAbsState {
     assertTrue(reconstructed.isDirty());
     assertTrue(reconstructed.isNonZero());
   }
+
+  /**
+   * Verify that a delta contains only axes changed since the last clean,
+   * including axes which returned to zero, and can be merged.
+   */
+  @Test
+  public void testDeltaSerialization() {
+    InputAbsState absState = new InputAbsState();
+    absState.setValue(ABS_X, 5);
+    absState.setValue(ABS_Y, 6);
+
+    InputAbsState remote = new InputAbsState(new JsonNavigator(absState.getJsonBuilder().build()));
+
+    absState.clean();
+    absState.setValue(ABS_X, 0);
+    absState.setValue(ABS_RZ, 9);
+
+    Map<String, Object> delta = absState.getDeltaJsonBuilder().build();
+
+    assertEquals(2, delta.size());
+    assertEquals(0, delta.get(Integer.toString(ABS_X)));
+    assertEquals(9, delta.get(Integer.toString(ABS_RZ)));
+
+    remote.merge(new JsonNavigator(delta));
+
+    for (int i = 0; i < ABS_CNT; i++) {
+      assertEquals(absState.getValue(i), remote.getValue(i));
+    }
+  }
+
+  /**
+   * Verify the non-zero and changed masks.
+   */
+  @Test
+  public void testMasks() {
+    InputAbsState absState = new InputAbsState();
+
+    absState.setValue(ABS_MAX, 1);
+    absState.setValue(ABS_X, 1);
+    absState.setValue(ABS_X, 0);
+
+    assertEquals(1L << ABS_MAX, absState.getNonZeroMask());
+    assertEquals((1L << ABS_MAX) | (1L << ABS_X), absState.getChangedMask());
+
+    absState.clean();
+    assertEquals(0, absState.getChangedMask());
+    assertTrue(absState.isNonZero());
+
+    absState.zero();
+    assertEquals(0, absState.getNonZeroMask());
+  }
 }
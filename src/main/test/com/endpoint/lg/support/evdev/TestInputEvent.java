@@ -25,6 +25,7 @@ import interactivespaces.util.data.json.JsonBuilder;
 import interactivespaces.util.data.json.JsonNavigator;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 
 import com.endpoint.lg.support.evdev.InputEvent;
@@ -45,13 +46,25 @@ public class TestInputEvent {
   private static final int TEST_ABS_CODE = InputEventCodes.ABS_RZ;
   private static final int TEST_ABS_VALUE = 32;
 
+  private static final long TEST_TIME_SEC = 1424217600L;
+  private static final long TEST_TIME_USEC = 123456L;
+
   private static ByteBuffer synBuffer;
+  private static ByteBuffer timedBuffer;
 
   @BeforeClass
   public static void setup() throws Exception {
     synBuffer = ByteBuffer.allocate(InputEvent.EVENT_SZ);
     // A buffer full of zeroes should result in a SYN event.
     synBuffer.put(new byte[InputEvent.EVENT_SZ]);
+
+    timedBuffer = ByteBuffer.allocate(InputEvent.EVENT_SZ);
+    timedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    timedBuffer.putLong(InputEvent.OFFSET_TIME_SEC, TEST_TIME_SEC);
+    timedBuffer.putLong(InputEvent.OFFSET_TIME_USEC, TEST_TIME_USEC);
+    timedBuffer.putShort(InputEvent.OFFSET_TYPE, (short) TEST_ABS_TYPE);
+    timedBuffer.putShort(InputEvent.OFFSET_CODE, (short) TEST_ABS_CODE);
+    timedBuffer.putInt(InputEvent.OFFSET_VALUE, TEST_ABS_VALUE);
   }
 
   /**
@@ -93,6 +106,20 @@ public class TestInputEvent {
     assertEquals(TEST_SYN_TYPE, refined.getType());
     assertEquals(TEST_SYN_CODE, refined.getCode());
     assertEquals(TEST_SYN_VALUE, refined.getValue());
+    assertEquals(0, refined.getTime());
+  }
+
+  /**
+   * Test reading the kernel timestamp from a buffer.
+   */
+  @Test
+  public void testRawTime() {
+    InputEvent refined = new InputEvent(timedBuffer);
+
+    assertEquals(TEST_ABS_TYPE, refined.getType());
+    assertEquals(TEST_ABS_CODE, refined.getCode());
+    assertEquals(TEST_ABS_VALUE, refined.getValue());
+    assertEquals(TEST_TIME_SEC * 1000000L + TEST_TIME_USEC, refined.getTime());
   }
 
   /**
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Test <code>InputEventCodec</code>.
+ */
+public class TestInputEventCodec {
+  /**
+   * Test event round trips, with and without timestamps.
+   */
+  @Test
+  public void testEvents() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    InputEventCodec.encodeEvent(buffer, new InputEvent(EV_REL, REL_RZ, -350));
+    InputEventCodec
+        .encodeTimedEvent(buffer, new InputEvent(EV_KEY, KEY_MAX, 1, 1424217600000001L));
+    assertEquals(InputEventCodec.EVENT_SZ + InputEventCodec.TIMED_EVENT_SZ, buffer.position());
+
+    buffer.flip();
+
+    InputEvent event = InputEventCodec.decodeEvent(buffer);
+    assertEquals(EV_REL, event.getType());
+    assertEquals(REL_RZ, event.getCode());
+    assertEquals(-350, event.getValue());
+
+    event = InputEventCodec.decodeTimedEvent(buffer);
+    assertEquals(KEY_MAX, event.getCode());
+    assertEquals(1424217600000001L, event.getTime());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  /**
+   * Test that the varint primitives round trip at their limits.
+   */
+  @Test
+  public void testVarints() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    int[] values = { 0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    for (int value : values) {
+      InputEventCodec.putVarInt(buffer, InputEventCodec.zigzag(value));
+    }
+    InputEventCodec.putVarLong(buffer, -1L);
+    buffer.flip();
+
+    for (int value : values) {
+      assertEquals(value, InputEventCodec.unzigzag(InputEventCodec.getVarInt(buffer)));
+    }
+    assertEquals(-1L, InputEventCodec.getVarLong(buffer));
+  }
+
+  /**
+   * Test that full and delta axis states apply to a remote copy, and that small
+   * values stay small.
+   */
+  @Test
+  public void testAxes() {
+    InputAbsState state = new InputAbsState();
+    state.setValue(ABS_X, 12);
+    state.setValue(ABS_RZ, -350);
+    state.setValue(ABS_MT_DISTANCE, 1);
+
+    ByteBuffer buffer = ByteBuffer.allocate(InputEventCodec.MAX_AXES_SZ);
+    InputEventCodec.encodeAxes(buffer, state);
+    assertTrue(buffer.position() < 16);
+    buffer.flip();
+
+    InputAbsState remote = new InputAbsState();
+    InputEventCodec.decodeAxes(buffer, remote);
+    assertEquals(12, remote.getValue(ABS_X));
+    assertEquals(-350, remote.getValue(ABS_RZ));
+    assertEquals(1, remote.getValue(ABS_MT_DISTANCE));
+
+    state.clean();
+    state.setValue(ABS_X, 0);
+    state.setValue(ABS_Y, 5);
+
+    buffer.clear();
+    InputEventCodec.encodeAxesDelta(buffer, state);
+    buffer.flip();
+    InputEventCodec.decodeAxes(buffer, remote);
+
+    assertEquals(0, remote.getValue(ABS_X));
+    assertEquals(5, remote.getValue(ABS_Y));
+    assertEquals(-350, remote.getValue(ABS_RZ));
+  }
+
+  /**
+   * Test that an axis mask wider than the state is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testAxesOutOfRange() {
+    InputAbsState state = new InputAbsState();
+    state.setValue(ABS_MISC, 1);
+
+    ByteBuffer buffer = ByteBuffer.allocate(InputEventCodec.MAX_AXES_SZ);
+    InputEventCodec.encodeAxes(buffer, state);
+    buffer.flip();
+
+    InputEventCodec.decodeAxes(buffer, new InputRelState());
+  }
+
+  /**
+   * Test key state round trips, including releases.
+   */
+  @Test
+  public void testKeys() {
+    InputKeyState state = new InputKeyState();
+    state.setPressed(KEY_A, true);
+    state.setPressed(BTN_0, true);
+    state.setPressed(KEY_MAX, true);
+
+    ByteBuffer buffer = ByteBuffer.allocate(InputEventCodec.MAX_KEYS_SZ);
+    InputEventCodec.encodeKeys(buffer, state);
+    buffer.flip();
+
+    InputKeyState remote = new InputKeyState();
+    remote.setPressed(KEY_B, true);
+    InputEventCodec.decodeKeys(buffer, remote);
+
+    assertTrue(remote.isPressed(KEY_A));
+    assertTrue(remote.isPressed(BTN_0));
+    assertTrue(remote.isPressed(KEY_MAX));
+    assertFalse(remote.isPressed(KEY_B));
+    assertEquals(3, remote.getPressedCount());
+  }
+
+  /**
+   * Test that a truncated message is detected.
+   */
+  @Test(expected = BufferUnderflowException.class)
+  public void testTruncated() {
+    ByteBuffer buffer = ByteBuffer.allocate(InputEventCodec.EVENT_SZ - 1);
+
+    InputEventCodec.decodeEvent(buffer);
+  }
+}
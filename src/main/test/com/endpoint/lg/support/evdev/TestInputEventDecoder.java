@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>InputEventDecoder</code>.
+ */
+public class TestInputEventDecoder {
+  private static final int[] TEST_TYPES = { EV_REL, EV_REL, EV_KEY, EV_SYN };
+  private static final int[] TEST_CODES = { REL_X, REL_RZ, BTN_1, SYN_REPORT };
+  private static final int[] TEST_VALUES = { -350, 12, 1, 0 };
+  private static final long TEST_SEC = 1424217600L;
+  private static final long TEST_USEC = 999999L;
+
+  /**
+   * Builds a buffer of raw structs with the given size, in big-endian order to
+   * verify that the decoder does not depend on the buffer's byte order.
+   */
+  private static ByteBuffer rawEvents(int eventSize, int count) {
+    ByteBuffer buffer = ByteBuffer.allocate(eventSize * count + 3);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (int i = 0; i < count; i++) {
+      if (eventSize == InputEventDecoder.EVENT_SZ_64) {
+        buffer.putLong(i * eventSize, TEST_SEC);
+        buffer.putLong(i * eventSize + 8, TEST_USEC - i);
+      } else {
+        buffer.putInt(i * eventSize, (int) TEST_SEC);
+        buffer.putInt(i * eventSize + 4, (int) (TEST_USEC - i));
+      }
+
+      int base = i * eventSize + eventSize - 8;
+      buffer.putShort(base, (short) TEST_TYPES[i]);
+      buffer.putShort(base + 2, (short) TEST_CODES[i]);
+      buffer.putInt(base + 4, TEST_VALUES[i]);
+    }
+
+    buffer.order(ByteOrder.BIG_ENDIAN);
+
+    return buffer;
+  }
+
+  /**
+   * Collects decoded events for verification.
+   */
+  private static class CollectingSink implements InputEventSink {
+    int count;
+    long[] times = new long[TEST_TYPES.length];
+    int[] types = new int[TEST_TYPES.length];
+    int[] codes = new int[TEST_TYPES.length];
+    int[] values = new int[TEST_TYPES.length];
+
+    public void handleEvent(long time, int type, int code, int value) {
+      times[count] = time;
+      types[count] = type;
+      codes[count] = code;
+      values[count] = value;
+      count++;
+    }
+  }
+
+  private static void verifySink(int eventSize) {
+    ByteBuffer buffer = rawEvents(eventSize, TEST_TYPES.length);
+    CollectingSink sink = new CollectingSink();
+
+    assertEquals(TEST_TYPES.length, new InputEventDecoder(eventSize).decode(buffer, sink));
+
+    assertArrayEquals(TEST_TYPES, sink.types);
+    assertArrayEquals(TEST_CODES, sink.codes);
+    assertArrayEquals(TEST_VALUES, sink.values);
+
+    for (int i = 0; i < TEST_TYPES.length; i++) {
+      assertEquals(TEST_SEC * 1000000L + TEST_USEC - i, sink.times[i]);
+    }
+
+    // the trailing partial struct is left in the buffer
+    assertEquals(3, buffer.remaining());
+    assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+  }
+
+  /**
+   * Test decoding 64-bit structs into a sink.
+   */
+  @Test
+  public void testSink64() {
+    verifySink(InputEventDecoder.EVENT_SZ_64);
+  }
+
+  /**
+   * Test decoding 32-bit structs into a sink.
+   */
+  @Test
+  public void testSink32() {
+    verifySink(InputEventDecoder.EVENT_SZ_32);
+  }
+
+  /**
+   * Test decoding into arrays which are smaller than the buffer.
+   */
+  @Test
+  public void testArrays() {
+    ByteBuffer buffer = rawEvents(InputEvent.EVENT_SZ, TEST_TYPES.length);
+    InputEventDecoder decoder = new InputEventDecoder();
+
+    int[] types = new int[3];
+    int[] codes = new int[3];
+    int[] values = new int[3];
+    long[] times = new long[3];
+
+    assertEquals(3, decoder.decode(buffer, times, types, codes, values));
+    assertEquals(TEST_CODES[2], codes[2]);
+    assertEquals(TEST_SEC * 1000000L + TEST_USEC - 1, times[1]);
+    assertEquals(TEST_VALUES[0], values[0]);
+
+    assertEquals(1, decoder.decode(buffer, types, codes, values));
+    assertEquals(TEST_TYPES[3], types[0]);
+
+    assertEquals(0, decoder.available(buffer));
+  }
+
+  /**
+   * Verify that the decoder agrees with the single event constructor.
+   */
+  @Test
+  public void testMatchesInputEvent() {
+    ByteBuffer buffer = rawEvents(InputEvent.EVENT_SZ, TEST_TYPES.length);
+    CollectingSink sink = new CollectingSink();
+
+    new InputEventDecoder().decode(buffer.duplicate(), sink);
+
+    InputEvent event = new InputEvent(buffer);
+    assertEquals(event.getType(), sink.types[0]);
+    assertEquals(event.getCode(), sink.codes[0]);
+    assertEquals(event.getValue(), sink.values[0]);
+    assertEquals(event.getTime(), sink.times[0]);
+  }
+
+  /**
+   * Verify that unsupported struct sizes are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadSize() {
+    new InputEventDecoder(20);
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>InputEventHandlers</code>.
+ */
+public class TestInputEventHandlers {
+  /**
+   * A handler which logs its name when called.
+   */
+  private static class LoggingHandler implements InputEventHandler {
+    private final String name;
+    private final List<String> log;
+
+    LoggingHandler(String name, List<String> log) {
+      this.name = name;
+      this.log = log;
+    }
+
+    public void handleEvent(InputEvent event) {
+      log.add(name);
+    }
+  }
+
+  /**
+   * Verify that all registered handlers are called, ALL_CODES first, in
+   * registration order.
+   */
+  @Test
+  public void testOrder() {
+    List<String> log = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+
+    handlers.registerHandler(EV_REL, REL_X, new LoggingHandler("x1", log));
+    handlers.registerHandler(EV_REL, InputEventHandlers.ALL_CODES, new LoggingHandler("all", log));
+    handlers.registerHandler(EV_REL, REL_X, new LoggingHandler("x2", log));
+    handlers.registerHandler(EV_REL, REL_Y, new LoggingHandler("y", log));
+
+    handlers.handleEvent(new InputEvent(EV_REL, REL_X, 1));
+
+    assertEquals(Lists.newArrayList("all", "x1", "x2"), log);
+  }
+
+  /**
+   * Verify that unregistered and out of range events are ignored.
+   */
+  @Test
+  public void testUnhandled() {
+    List<String> log = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+
+    handlers.registerHandler(EV_ABS, ABS_X, new LoggingHandler("x", log));
+
+    handlers.handleEvent(new InputEvent(EV_KEY, BTN_0, 1));
+    handlers.handleEvent(new InputEvent(EV_ABS, ABS_Y, 1));
+    handlers.handleEvent(new InputEvent(EV_ABS, ABS_CNT + 5, 1));
+    handlers.handleEvent(new InputEvent(EV_CNT + 1, 0, 1));
+
+    assertTrue(log.isEmpty());
+  }
+
+  /**
+   * Verify that handlers can be removed.
+   */
+  @Test
+  public void testUnregister() {
+    List<String> log = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+    InputEventHandler first = new LoggingHandler("first", log);
+    InputEventHandler second = new LoggingHandler("second", log);
+
+    handlers.registerHandler(EV_KEY, BTN_0, first);
+    handlers.registerHandler(EV_KEY, BTN_0, second);
+
+    assertTrue(handlers.unregisterHandler(EV_KEY, BTN_0, first));
+    assertFalse(handlers.unregisterHandler(EV_KEY, BTN_0, first));
+
+    handlers.handleEvent(new InputEvent(EV_KEY, BTN_0, 1));
+
+    assertEquals(Lists.newArrayList("second"), log);
+  }
+
+  /**
+   * Verify that the type mask follows registration.
+   */
+  @Test
+  public void testTypeMask() {
+    InputEventHandlers handlers = new InputEventHandlers();
+    InputEventHandler handler = new LoggingHandler("x", null);
+
+    assertFalse(handlers.isHandled(EV_REL));
+    handlers.registerHandler(EV_REL, REL_X, handler);
+    assertTrue(handlers.isHandled(EV_REL));
+    assertFalse(handlers.isHandled(EV_MSC));
+    assertFalse(handlers.isHandled(-1));
+    assertEquals(1 << EV_REL, handlers.getTypeMask());
+
+    handlers.unregisterHandler(EV_REL, REL_X, handler);
+    assertFalse(handlers.isHandled(EV_REL));
+    assertEquals(0, handlers.getTypeMask());
+  }
+
+  /**
+   * Verify that routed types are handled on their executor, and others on the
+   * caller's thread.
+   */
+  @Test
+  public void testExecutor() {
+    List<String> log = Lists.newArrayList();
+    final List<Runnable> queue = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+
+    handlers.registerHandler(EV_KEY, BTN_0, new LoggingHandler("key", log));
+    handlers.registerHandler(EV_REL, REL_X, new LoggingHandler("rel", log));
+    handlers.setExecutor(EV_KEY, new Executor() {
+      public void execute(Runnable command) {
+        queue.add(command);
+      }
+    });
+
+    handlers.handleEvent(new InputEvent(EV_KEY, BTN_0, 1));
+    handlers.handleEvent(0, EV_REL, REL_X, 1);
+    handlers.handleEvent(0, EV_MSC, MSC_SCAN, 1);
+
+    assertEquals(Lists.newArrayList("rel"), log);
+    assertEquals(0, queue.size());
+
+    handlers.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+    assertEquals(1, queue.size());
+
+    queue.get(0).run();
+    assertEquals(Lists.newArrayList("rel", "key"), log);
+
+    handlers.setExecutor(EV_KEY, null);
+    handlers.handleEvent(new InputEvent(EV_KEY, BTN_0, 0));
+    assertEquals(3, log.size());
+  }
+
+  /**
+   * Verify that routed events are copied and handed over a frame at a time,
+   * with a routed <code>SYN_REPORT</code> after the frame's events.
+   */
+  @Test
+  public void testExecutorFrames() {
+    final List<Integer> values = Lists.newArrayList();
+    final List<Runnable> queue = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+    Executor executor = new Executor() {
+      public void execute(Runnable command) {
+        queue.add(command);
+      }
+    };
+
+    handlers.registerHandler(EV_ABS, InputEventHandlers.ALL_CODES, new InputEventHandler() {
+      public void handleEvent(InputEvent event) {
+        values.add(event.getValue());
+      }
+    });
+    handlers.registerHandler(EV_SYN, SYN_REPORT, new InputEventHandler() {
+      public void handleEvent(InputEvent event) {
+        values.add(-1);
+      }
+    });
+    handlers.setExecutor(EV_ABS, executor);
+    handlers.setExecutor(EV_SYN, executor);
+
+    InputEvent event = new InputEvent(EV_ABS, ABS_X, 1);
+    handlers.handleEvent(event);
+    event.setValue(2);
+    handlers.handleEvent(event);
+    handlers.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+    handlers.handleEvent(0, EV_ABS, ABS_Y, 3);
+    handlers.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+
+    assertTrue(values.isEmpty());
+    assertEquals(2, queue.size());
+
+    queue.get(0).run();
+    assertEquals(Lists.newArrayList(1, 2, -1), values);
+    queue.get(1).run();
+    assertEquals(Lists.newArrayList(1, 2, -1, 3, -1), values);
+  }
+
+  /**
+   * Verify that registering outside of the code range is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadCode() {
+    new InputEventHandlers().registerHandler(EV_REL, REL_CNT, new LoggingHandler("bad", null));
+  }
+
+  /**
+   * Verify that dispatch latency is recorded for handled events when a
+   * monitor is attached, and not for unhandled types.
+   */
+  @Test
+  public void testLatencyMonitor() {
+    InputEventHandlers handlers = new InputEventHandlers();
+    InputLatencyMonitor monitor = new InputLatencyMonitor();
+    handlers.setLatencyMonitor(monitor);
+    handlers.registerHandler(EV_REL, REL_X, new LoggingHandler("x", Lists.<String> newArrayList()));
+
+    handlers.handleEvent(new InputEvent(EV_REL, REL_X, 1, monitor.currentTimeMicros()));
+    handlers.handleEvent(new InputEvent(EV_REL, REL_X, 1));
+    handlers.handleEvent(monitor.currentTimeMicros(), EV_MSC, MSC_SCAN, 1);
+
+    assertEquals(1, monitor.getKernelToDispatch(EV_REL, REL_X).getCount());
+    assertEquals(2, monitor.getDispatchToReturn(EV_REL, REL_X).getCount());
+    assertNull(monitor.getDispatchToReturn(EV_REL, REL_Y));
+    assertNull(monitor.getKernelToDispatch(EV_MSC, MSC_SCAN));
+    assertNull(monitor.getDispatchToReturn(EV_MSC, MSC_SCAN));
+  }
+}
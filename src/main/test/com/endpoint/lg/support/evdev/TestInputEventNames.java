@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test <code>InputEventNames</code>.
+ */
+public class TestInputEventNames {
+  /**
+   * Test type names in both directions.
+   */
+  @Test
+  public void testTypes() {
+    assertEquals("EV_REL", InputEventNames.getTypeName(EV_REL));
+    assertEquals("EV_FF_STATUS", InputEventNames.getTypeName(EV_FF_STATUS));
+    assertNull(InputEventNames.getTypeName(EV_MAX));
+    assertNull(InputEventNames.getTypeName(-1));
+
+    assertEquals(EV_ABS, InputEventNames.getType("EV_ABS"));
+    assertEquals(-1, InputEventNames.getType("EV_CNT"));
+  }
+
+  /**
+   * Test code names in both directions, including codes shared between
+   * prefixes and aliases.
+   */
+  @Test
+  public void testCodes() {
+    assertEquals("REL_X", InputEventNames.getCodeName(EV_REL, REL_X));
+    assertEquals("ABS_MT_POSITION_Y", InputEventNames.getCodeName(EV_ABS, ABS_MT_POSITION_Y));
+    assertEquals("SYN_REPORT", InputEventNames.getCodeName(EV_SYN, SYN_REPORT));
+    assertEquals("KEY_A", InputEventNames.getCodeName(EV_KEY, KEY_A));
+    assertEquals("BTN_LEFT", InputEventNames.getCodeName(EV_KEY, BTN_LEFT));
+    assertEquals("BTN_0", InputEventNames.getCodeName(EV_KEY, BTN_MISC));
+    assertEquals("KEY_HANGEUL", InputEventNames.getCodeName(EV_KEY, KEY_HANGUEL));
+    assertEquals("KEY_COFFEE", InputEventNames.getCodeName(EV_KEY, KEY_SCREENLOCK));
+    assertEquals("BTN_TOOL_PEN", InputEventNames.getCodeName(EV_KEY, BTN_DIGI));
+    assertEquals("BTN_TRIGGER_HAPPY1", InputEventNames.getCodeName(EV_KEY, BTN_TRIGGER_HAPPY));
+    assertEquals("SW_RFKILL_ALL", InputEventNames.getCodeName(EV_SW, SW_RADIO));
+    assertNull(InputEventNames.getCodeName(EV_REL, REL_MAX));
+    assertNull(InputEventNames.getCodeName(EV_KEY, KEY_CNT));
+
+    assertEquals(BTN_0, InputEventNames.getCode("BTN_0"));
+    assertEquals(EV_KEY, InputEventNames.getCodeType("BTN_0"));
+    assertEquals(ABS_X, InputEventNames.getCode("ABS_X"));
+    assertEquals(EV_ABS, InputEventNames.getCodeType("ABS_X"));
+    assertEquals(-1, InputEventNames.getCode("KEY_MAX"));
+    assertEquals(-1, InputEventNames.getCodeType("BUS_USB"));
+  }
+
+  /**
+   * Test that events describe themselves by name.
+   */
+  @Test
+  public void testToString() {
+    assertEquals("EV_REL REL_RZ -350", new InputEvent(EV_REL, REL_RZ, -350).toString());
+    assertEquals("EV_REL 14 1", new InputEvent(EV_REL, 14, 1).toString());
+  }
+}
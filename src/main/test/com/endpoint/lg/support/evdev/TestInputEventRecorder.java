@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>InputEventRecorder</code> and <code>InputEventReplayer</code>.
+ */
+public class TestInputEventRecorder {
+  private static final long TEST_TIME = 1424217600000000L;
+
+  private File log;
+
+  /**
+   * Collects replayed events.
+   */
+  private static class CollectingSink implements InputEventSink {
+    List<InputEvent> events = Lists.newArrayList();
+
+    public void handleEvent(long time, int type, int code, int value) {
+      events.add(new InputEvent(type, code, value, time));
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    log = File.createTempFile("evdev", ".log");
+  }
+
+  @After
+  public void tearDown() {
+    log.delete();
+  }
+
+  /**
+   * Records a short gesture, 10ms per frame.
+   */
+  private static void recordFrames(InputEventRecorder recorder, int frames) {
+    for (int i = 0; i < frames; i++) {
+      long time = TEST_TIME + i * 10000;
+      recorder.handleEvent(time, EV_REL, REL_X, i);
+      recorder.handleEvent(new InputEvent(EV_REL, REL_Y, -i, time));
+      recorder.handleEvent(time, EV_SYN, SYN_REPORT, 0);
+    }
+  }
+
+  /**
+   * Test that recorded events replay with their timestamps.
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    InputEventRecorder recorder = new InputEventRecorder(log);
+    recordFrames(recorder, 5);
+    assertEquals(15, recorder.getEventCount());
+    recorder.close();
+
+    assertEquals(InputEventRecorder.HEADER_SZ + 15 * InputEvent.EVENT_SZ, log.length());
+
+    InputEventReplayer replayer = new InputEventReplayer(log);
+    assertEquals(15, replayer.getEventCount());
+    assertEquals(40000, replayer.getDuration());
+
+    CollectingSink sink = new CollectingSink();
+    assertEquals(15, replayer.replay(sink));
+    replayer.close();
+
+    InputEvent event = sink.events.get(4);
+    assertEquals(TEST_TIME + 10000, event.getTime());
+    assertEquals(EV_REL, event.getType());
+    assertEquals(REL_Y, event.getCode());
+    assertEquals(-1, event.getValue());
+  }
+
+  /**
+   * Test that reopening a log appends to it, and that a log which grows past
+   * one mapped region is intact.
+   */
+  @Test
+  public void testAppend() throws Exception {
+    int frames = InputEventRecorder.CHUNK_SZ / InputEvent.EVENT_SZ / 3 + 10;
+
+    InputEventRecorder recorder = new InputEventRecorder(log);
+    recordFrames(recorder, frames);
+    recorder.close();
+
+    recorder = new InputEventRecorder(log);
+    recorder.handleEvent(TEST_TIME, EV_KEY, BTN_0, 1);
+    assertEquals(frames * 3 + 1, recorder.getEventCount());
+    recorder.close();
+
+    CollectingSink sink = new CollectingSink();
+    InputEventReplayer replayer = new InputEventReplayer(log);
+    replayer.replay(sink);
+    replayer.close();
+
+    assertEquals(frames * 3 + 1, sink.events.size());
+    assertEquals(frames - 1, sink.events.get(frames * 3 - 3).getValue());
+    assertEquals(BTN_0, sink.events.get(frames * 3).getCode());
+  }
+
+  /**
+   * Test recording raw structs as read from a device.
+   */
+  @Test
+  public void testRecordRaw() throws Exception {
+    ByteBuffer raw = ByteBuffer.allocate(InputEvent.EVENT_SZ * 2 + 5);
+    raw.order(ByteOrder.LITTLE_ENDIAN);
+    raw.putLong(0, 1424217600L);
+    raw.putLong(8, 5);
+    raw.putShort(16, (short) EV_ABS);
+    raw.putShort(18, (short) ABS_Z);
+    raw.putInt(20, 300);
+    raw.putShort(InputEvent.EVENT_SZ + 16, (short) EV_SYN);
+
+    InputEventRecorder recorder = new InputEventRecorder(log);
+    assertEquals(2, recorder.record(raw));
+    assertEquals(0, raw.position());
+    recorder.close();
+
+    CollectingSink sink = new CollectingSink();
+    InputEventReplayer replayer = new InputEventReplayer(log);
+    replayer.replay(sink);
+    replayer.close();
+
+    assertEquals(2, sink.events.size());
+    assertEquals(TEST_TIME + 5, sink.events.get(0).getTime());
+    assertEquals(ABS_Z, sink.events.get(0).getCode());
+    assertEquals(300, sink.events.get(0).getValue());
+  }
+
+  /**
+   * Test that paced replay takes about as long as the recording, scaled by
+   * the speed factor, and that events can be replayed into handlers.
+   */
+  @Test
+  public void testPacedReplay() throws Exception {
+    InputEventRecorder recorder = new InputEventRecorder(log);
+    recordFrames(recorder, 11);
+    recorder.close();
+
+    final List<InputEvent> handled = Lists.newArrayList();
+    InputEventHandlers handlers = new InputEventHandlers();
+    handlers.registerHandler(EV_REL, REL_X, new InputEventHandler() {
+      public void handleEvent(InputEvent event) {
+        handled.add(event);
+      }
+    });
+
+    InputEventReplayer replayer = new InputEventReplayer(log);
+    replayer.setRestamp(true);
+
+    long start = System.nanoTime();
+    assertEquals(33, replayer.replay(handlers, 2.0));
+    long elapsed = (System.nanoTime() - start) / 1000;
+    replayer.close();
+
+    assertTrue(elapsed >= 50000);
+    assertTrue(elapsed < 1000000);
+
+    assertEquals(11, handled.size());
+    assertTrue(handled.get(0).getTime() > TEST_TIME);
+  }
+
+  /**
+   * Test that a file which is not a log is rejected.
+   */
+  @Test(expected = IOException.class)
+  public void testBadHeader() throws Exception {
+    FileOutputStream out = new FileOutputStream(log);
+    out.write(new byte[InputEventRecorder.HEADER_SZ]);
+    out.close();
+
+    new InputEventReplayer(log);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>InputFrameAssembler</code>.
+ */
+public class TestInputFrameAssembler {
+  private InputFrameAssembler assembler;
+  private List<InputFrame> frames;
+
+  @Before
+  public void setup() {
+    assembler = new InputFrameAssembler();
+    frames = Lists.newArrayList();
+
+    assembler.registerHandler(new InputFrameHandler() {
+      public void handleFrame(InputFrame frame) {
+        frames.add(frame.copy());
+      }
+    });
+  }
+
+  /**
+   * Verify that all changes between sync reports arrive in one frame.
+   */
+  @Test
+  public void testFrame() {
+    assembler.handleEvent(new InputEvent(EV_REL, REL_X, 5));
+    assembler.handleEvent(new InputEvent(EV_REL, REL_X, 3));
+    assembler.handleEvent(new InputEvent(EV_REL, REL_RZ, -2));
+    assembler.handleEvent(new InputEvent(EV_ABS, ABS_Y, 100));
+    assembler.handleEvent(new InputEvent(EV_KEY, BTN_0, 1));
+
+    assertTrue(frames.isEmpty());
+
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0, 42));
+
+    assertEquals(1, frames.size());
+    InputFrame frame = frames.get(0);
+
+    assertEquals(42, frame.getTime());
+    assertEquals(8, frame.getRelState().getValue(REL_X));
+    assertEquals(-2, frame.getRelState().getValue(REL_RZ));
+    assertEquals((1L << REL_X) | (1L << REL_RZ), frame.getRelChangedMask());
+    assertEquals(100, frame.getAbsState().getValue(ABS_Y));
+    assertTrue(frame.isAbsChanged(ABS_Y));
+    assertFalse(frame.isAbsChanged(ABS_X));
+    assertTrue(frame.getKeyState().isPressed(BTN_0));
+    assertTrue(frame.isKeyChanged(BTN_0));
+  }
+
+  /**
+   * Verify that relative deltas reset and absolute values latch between
+   * frames, and that empty frames are not delivered.
+   */
+  @Test
+  public void testLatching() {
+    assembler.handleEvent(new InputEvent(EV_REL, REL_X, 5));
+    assembler.handleEvent(new InputEvent(EV_ABS, ABS_X, 7));
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0));
+
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0));
+    assertEquals(1, frames.size());
+
+    assembler.handleEvent(new InputEvent(EV_ABS, ABS_X, 7));
+    assembler.handleEvent(new InputEvent(EV_REL, REL_Y, 1));
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0));
+
+    assertEquals(2, frames.size());
+    InputFrame frame = frames.get(1);
+
+    assertEquals(0, frame.getRelState().getValue(REL_X));
+    assertEquals(1, frame.getRelState().getValue(REL_Y));
+    assertEquals(7, frame.getAbsState().getValue(ABS_X));
+    assertEquals(0, frame.getAbsChangedMask());
+    assertFalse(frame.isAnyKeyChanged());
+  }
+
+  /**
+   * Verify that events are discarded after SYN_DROPPED.
+   */
+  @Test
+  public void testDropped() {
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_DROPPED, 0));
+    assembler.handleEvent(new InputEvent(EV_REL, REL_X, 5));
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0));
+
+    assertTrue(frames.isEmpty());
+
+    assembler.handleEvent(new InputEvent(EV_REL, REL_X, 5));
+    assembler.handleEvent(new InputEvent(EV_SYN, SYN_REPORT, 0));
+
+    assertEquals(1, frames.size());
+    assertEquals(5, frames.get(0).getRelState().getValue(REL_X));
+  }
+}
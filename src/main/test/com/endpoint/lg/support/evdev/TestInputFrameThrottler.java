@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Test <code>InputFrameThrottler</code>.
+ */
+public class TestInputFrameThrottler {
+  private InputFrameAssembler assembler;
+  private List<InputFrame> frames;
+
+  @Before
+  public void setUp() {
+    assembler = new InputFrameAssembler();
+    frames = Lists.newArrayList();
+  }
+
+  /**
+   * Connects a throttler between the assembler and the collected frames.
+   */
+  private InputFrameThrottler throttler(long interval) {
+    InputFrameThrottler throttler = new InputFrameThrottler(interval);
+
+    assembler.registerHandler(throttler);
+    throttler.registerHandler(new InputFrameHandler() {
+      public void handleFrame(InputFrame frame) {
+        frames.add(frame.copy());
+      }
+    });
+
+    return throttler;
+  }
+
+  private void report(int type, int code, int value) {
+    assembler.handleEvent(0, type, code, value);
+    assembler.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+  }
+
+  /**
+   * Test that ticks emit summed REL deltas and latched ABS values.
+   */
+  @Test
+  public void testTick() {
+    InputFrameThrottler throttler = throttler(0);
+
+    for (int i = 1; i <= 10; i++) {
+      report(EV_REL, REL_X, 3);
+      report(EV_ABS, ABS_Y, i);
+    }
+    assertTrue(frames.isEmpty());
+
+    assertTrue(throttler.tick());
+    assertFalse(throttler.tick());
+
+    assertEquals(1, frames.size());
+    assertEquals(30, frames.get(0).getRelState().getValue(REL_X));
+    assertEquals(10, frames.get(0).getAbsState().getValue(ABS_Y));
+    assertTrue(frames.get(0).isAbsChanged(ABS_Y));
+
+    assertEquals(20, throttler.getFramesIn());
+    assertEquals(1, throttler.getFramesOut());
+    assertEquals(20.0, throttler.getCoalescingRatio(), 0.001);
+
+    // an unchanged ABS value is not reported as changed
+    report(EV_ABS, ABS_Y, 10);
+    report(EV_REL, REL_Y, 1);
+    throttler.tick();
+    assertFalse(frames.get(1).isAbsChanged(ABS_Y));
+  }
+
+  /**
+   * Test that key changes are emitted immediately with pending motion.
+   */
+  @Test
+  public void testKeys() {
+    throttler(0);
+
+    report(EV_REL, REL_X, 5);
+    report(EV_KEY, BTN_0, 1);
+    report(EV_KEY, BTN_0, 0);
+
+    assertEquals(2, frames.size());
+    assertEquals(5, frames.get(0).getRelState().getValue(REL_X));
+    assertTrue(frames.get(0).getKeyState().isPressed(BTN_0));
+    assertFalse(frames.get(1).getKeyState().isPressed(BTN_0));
+    assertTrue(frames.get(1).isKeyChanged(BTN_0));
+  }
+
+  /**
+   * Test that the interval limits emitted frames without losing displacement.
+   */
+  @Test
+  public void testInterval() {
+    InputFrameThrottler throttler = throttler(3600000000L);
+    Random random = new Random(7);
+    int total = 0;
+
+    for (int i = 0; i < 1000; i++) {
+      int delta = random.nextInt(201) - 100;
+      total += delta;
+      report(EV_REL, REL_RZ, delta);
+    }
+
+    assertEquals(1, frames.size());
+    throttler.tick();
+    assertEquals(2, frames.size());
+
+    int sum = 0;
+    for (InputFrame frame : frames) {
+      sum += frame.getRelState().getValue(REL_RZ);
+    }
+    assertEquals(total, sum);
+  }
+}
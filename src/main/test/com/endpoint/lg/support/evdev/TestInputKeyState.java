@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.JsonNavigator;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test <code>InputKeyState</code>.
+ */
+public class TestInputKeyState {
+  /**
+   * Verify that dirtiness and changed keys are tracked.
+   */
+  @Test
+  public void testDirtiness() {
+    InputKeyState keyState = new InputKeyState();
+
+    assertFalse(keyState.isDirty());
+    assertFalse(keyState.isNonZero());
+
+    assertTrue(keyState.update(new InputEvent(EV_KEY, BTN_1, 1)));
+    assertFalse(keyState.update(new InputEvent(EV_KEY, BTN_1, 2)));
+
+    assertTrue(keyState.isDirty());
+    assertTrue(keyState.isPressed(BTN_1));
+    assertTrue(keyState.isChanged(BTN_1));
+    assertFalse(keyState.isChanged(BTN_0));
+
+    keyState.clean();
+
+    assertFalse(keyState.isDirty());
+    assertFalse(keyState.isChanged(BTN_1));
+    assertTrue(keyState.isNonZero());
+
+    assertTrue(keyState.update(new InputEvent(EV_KEY, BTN_1, 0)));
+    assertTrue(keyState.isChanged(BTN_1));
+    assertFalse(keyState.isNonZero());
+  }
+
+  /**
+   * Verify that events of other types are ignored.
+   */
+  @Test
+  public void testOtherType() {
+    InputKeyState keyState = new InputKeyState();
+
+    assertFalse(keyState.update(new InputEvent(EV_REL, REL_X, 1)));
+    assertFalse(keyState.isDirty());
+  }
+
+  /**
+   * Verify chord detection.
+   */
+  @Test
+  public void testChord() {
+    InputKeyState keyState = new InputKeyState();
+    long[] chord = InputKeyState.chord(KEY_LEFTCTRL, KEY_MAX);
+
+    keyState.setPressed(KEY_LEFTCTRL, true);
+    assertFalse(keyState.isChordPressed(chord));
+
+    keyState.setPressed(KEY_MAX, true);
+    assertTrue(keyState.isChordPressed(chord));
+    assertTrue(keyState.isChordExact(chord));
+
+    keyState.setPressed(KEY_A, true);
+    assertTrue(keyState.isChordPressed(chord));
+    assertFalse(keyState.isChordExact(chord));
+
+    assertEquals(3, keyState.getPressedCount());
+  }
+
+  /**
+   * Verify that the state serializes only pressed keys and can be
+   * reconstructed.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSerialization() {
+    InputKeyState keyState = new InputKeyState();
+    keyState.setPressed(BTN_0, true);
+    keyState.setPressed(KEY_ESC, true);
+
+    JsonBuilder serialized = keyState.getJsonBuilder();
+    Map<String, Object> data = serialized.build();
+
+    List<Object> pressed = (List<Object>) data.get(InputKeyState.FIELD_PRESSED);
+    assertEquals(2, pressed.size());
+
+    InputKeyState reconstructed = new InputKeyState(new JsonNavigator(data));
+
+    assertTrue(reconstructed.isPressed(BTN_0));
+    assertTrue(reconstructed.isPressed(KEY_ESC));
+    assertEquals(2, reconstructed.getPressedCount());
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import interactivespaces.util.data.json.JsonNavigator;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test <code>InputMultitouchState</code>.
+ */
+public class TestInputMultitouchState {
+  private InputMultitouchState state;
+
+  @Before
+  public void setUp() {
+    state = new InputMultitouchState(4);
+  }
+
+  /**
+   * Feeds a contact into a slot.
+   */
+  private void touch(int slot, int id, int x, int y) {
+    state.update(new InputEvent(EV_ABS, ABS_MT_SLOT, slot));
+    state.update(new InputEvent(EV_ABS, ABS_MT_TRACKING_ID, id));
+    state.update(new InputEvent(EV_ABS, ABS_MT_POSITION_X, x));
+    state.update(new InputEvent(EV_ABS, ABS_MT_POSITION_Y, y));
+  }
+
+  /**
+   * Ends the contact in a slot.
+   */
+  private void release(int slot) {
+    state.update(new InputEvent(EV_ABS, ABS_MT_SLOT, slot));
+    state.update(new InputEvent(EV_ABS, ABS_MT_TRACKING_ID, -1));
+  }
+
+  /**
+   * Test that contacts in different slots do not overwrite each other.
+   */
+  @Test
+  public void testSlots() {
+    touch(0, 10, 100, 200);
+    touch(1, 11, 300, 400);
+    state.update(new InputEvent(EV_ABS, ABS_X, 100));
+
+    assertEquals(2, state.getTouchCount());
+    assertEquals(100, state.getX(0));
+    assertEquals(400, state.getY(1));
+    assertEquals(11, state.getTrackingId(1));
+    assertEquals(300, state.getSlotValue(1, ABS_MT_POSITION_X));
+    assertEquals(1, state.findSlot(11));
+    assertEquals(100, state.getValue(ABS_X));
+    assertEquals(1, state.getCurrentSlot());
+    assertEquals(400, state.getValue(ABS_MT_POSITION_Y));
+
+    // slots beyond the capacity are ignored
+    touch(7, 12, 1, 1);
+    assertEquals(2, state.getTouchCount());
+  }
+
+  /**
+   * Test contact lifecycles across frames.
+   */
+  @Test
+  public void testLifecycle() {
+    touch(0, 10, 100, 200);
+    touch(1, 11, 300, 400);
+    assertEquals(0x3, state.getBeganMask());
+    assertEquals(0x3, state.getChangedSlotMask());
+    assertTrue(state.isDirty());
+    state.clean();
+
+    state.update(new InputEvent(EV_ABS, ABS_MT_SLOT, 1));
+    state.update(new InputEvent(EV_ABS, ABS_MT_POSITION_X, 310));
+    release(0);
+
+    assertEquals(0, state.getBeganMask());
+    assertEquals(0x1, state.getEndedMask());
+    assertEquals(0x2, state.getChangedSlotMask());
+    assertEquals(10, state.getEndedTrackingId(0));
+    assertEquals(InputMultitouchState.NO_TRACKING_ID, state.getTrackingId(0));
+    assertEquals(1, state.getTouchCount());
+    state.clean();
+
+    // a new tracking ID implicitly ends the previous contact
+    touch(1, 12, 50, 50);
+    assertEquals(0x2, state.getBeganMask());
+    assertEquals(0x2, state.getEndedMask());
+    assertEquals(11, state.getEndedTrackingId(1));
+    assertTrue(state.isNonZero());
+
+    state.zero();
+    assertFalse(state.isNonZero());
+    assertEquals(0, state.getTouchCount());
+  }
+
+  /**
+   * Verify that every contact ended in a frame is kept, even several in one
+   * slot, and that tool positions are kept per slot.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEndedInOneSlot() {
+    touch(0, 10, 100, 200);
+    state.clean();
+
+    touch(0, 11, 110, 210);
+    touch(0, 12, 120, 220);
+    release(0);
+    state.update(new InputEvent(EV_ABS, ABS_MT_SLOT, 1));
+    state.update(new InputEvent(EV_ABS, ABS_MT_TOOL_X, 7));
+
+    assertEquals(3, state.getEndedCount());
+    assertEquals(10, state.getEndedId(0));
+    assertEquals(12, state.getEndedId(2));
+    assertEquals(12, state.getEndedTrackingId(0));
+    assertEquals(7, state.getSlotValue(1, ABS_MT_TOOL_X));
+    assertEquals(0, state.getSlotValue(0, ABS_MT_TOOL_X));
+
+    Map<String, Object> delta = state.getTouchDeltaJsonBuilder().build();
+    List<Object> ended = (List<Object>) delta.get(InputMultitouchState.FIELD_ENDED);
+    assertEquals(3, ended.size());
+    assertEquals(11, ((Number) ended.get(1)).intValue());
+
+    state.clean();
+    assertEquals(0, state.getEndedCount());
+  }
+
+  /**
+   * Test full and delta serialization, applied to a remote copy.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSerialization() {
+    touch(0, 10, 100, 200);
+    touch(2, 11, 300, 400);
+
+    Map<String, Object> full = state.getTouchJsonBuilder().build();
+    List<Object> touches = (List<Object>) full.get(InputMultitouchState.FIELD_TOUCHES);
+    assertEquals(6, touches.size());
+    assertEquals(11, ((Number) touches.get(3)).intValue());
+
+    InputMultitouchState remote = new InputMultitouchState(4);
+    remote.mergeTouches(new JsonNavigator(full));
+    assertEquals(2, remote.getTouchCount());
+    assertEquals(400, remote.getY(remote.findSlot(11)));
+    state.clean();
+    remote.clean();
+
+    state.update(new InputEvent(EV_ABS, ABS_MT_SLOT, 2));
+    state.update(new InputEvent(EV_ABS, ABS_MT_POSITION_Y, 410));
+    release(0);
+
+    Map<String, Object> delta = state.getTouchDeltaJsonBuilder().build();
+    touches = (List<Object>) delta.get(InputMultitouchState.FIELD_TOUCHES);
+    List<Object> ended = (List<Object>) delta.get(InputMultitouchState.FIELD_ENDED);
+    assertEquals(3, touches.size());
+    assertEquals(1, ended.size());
+    assertEquals(10, ((Number) ended.get(0)).intValue());
+
+    remote.mergeTouches(new JsonNavigator(delta));
+    assertEquals(1, remote.getTouchCount());
+    assertEquals(-1, remote.findSlot(10));
+    assertEquals(410, remote.getY(remote.findSlot(11)));
+  }
+
+  /**
+   * Test that full touches end the contacts they leave out.
+   */
+  @Test
+  public void testFullSnapshotEnds() {
+    touch(0, 10, 100, 200);
+    touch(1, 11, 300, 400);
+
+    InputMultitouchState remote = new InputMultitouchState(4);
+    remote.mergeTouches(new JsonNavigator(state.getTouchJsonBuilder().build()));
+    remote.clean();
+
+    release(0);
+    touch(2, 12, 500, 600);
+    remote.mergeTouches(new JsonNavigator(state.getTouchJsonBuilder().build()));
+
+    assertEquals(2, remote.getTouchCount());
+    assertEquals(-1, remote.findSlot(10));
+    assertEquals(1, remote.getEndedCount());
+    assertEquals(10, remote.getEndedId(0));
+    assertEquals(600, remote.getY(remote.findSlot(12)));
+    assertEquals(400, remote.getY(remote.findSlot(11)));
+  }
+
+  /**
+   * Test copying multi-touch state.
+   */
+  @Test
+  public void testCopy() {
+    touch(3, 10, 100, 200);
+
+    InputMultitouchState copy = new InputMultitouchState(4);
+    copy.copyFrom(state);
+
+    assertEquals(10, copy.getTrackingId(3));
+    assertEquals(200, copy.getY(3));
+    assertEquals(0x8, copy.getBeganMask());
+  }
+}
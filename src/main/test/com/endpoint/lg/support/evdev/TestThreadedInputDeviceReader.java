@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.commons.logging.impl.SimpleLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>ThreadedInputDeviceReader</code> against regular files and FIFOs.
+ */
+public class TestThreadedInputDeviceReader {
+  private static final long TIMEOUT = 5000;
+
+  private List<File> files = Lists.newArrayList();
+  private ThreadedInputDeviceReader reader;
+  private CountingSink sink;
+
+  /**
+   * Counts events and sums their values.
+   */
+  private static class CountingSink implements InputEventSink {
+    int count;
+    long sum;
+
+    public synchronized void handleEvent(long time, int type, int code, int value) {
+      count++;
+      sum += value;
+    }
+
+    synchronized int getCount() {
+      return count;
+    }
+
+    synchronized long getSum() {
+      return sum;
+    }
+  }
+
+  /**
+   * Encodes raw REL_X events with the given values.
+   */
+  private static byte[] rawEvents(int... values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * InputEvent.EVENT_SZ);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+    for (int i = 0; i < values.length; i++) {
+      int pos = i * InputEvent.EVENT_SZ;
+      buffer.putShort(pos + InputEvent.OFFSET_TYPE, (short) EV_REL);
+      buffer.putShort(pos + InputEvent.OFFSET_CODE, (short) REL_X);
+      buffer.putInt(pos + InputEvent.OFFSET_VALUE, values[i]);
+    }
+
+    return buffer.array();
+  }
+
+  /**
+   * Waits for the sink to receive a number of events.
+   */
+  private void awaitCount(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+
+    while (sink.getCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+
+    assertEquals(count, sink.getCount());
+  }
+
+  private File newFile() throws IOException {
+    File file = File.createTempFile("evdev", ".raw");
+    files.add(file);
+    return file;
+  }
+
+  @Before
+  public void setUp() {
+    sink = new CountingSink();
+    reader = new ThreadedInputDeviceReader(sink, new SimpleLog("test"));
+  }
+
+  @After
+  public void tearDown() {
+    reader.shutdown();
+
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that many files are read by one thread, including data appended
+   * while reading and events split across writes.
+   */
+  @Test
+  public void testFiles() throws Exception {
+    OutputStream[] outs = new OutputStream[5];
+
+    for (int i = 0; i < outs.length; i++) {
+      File file = newFile();
+      outs[i] = new FileOutputStream(file);
+      outs[i].write(rawEvents(1, 2));
+      outs[i].flush();
+      reader.addDevice(file);
+    }
+
+    reader.start();
+    awaitCount(10);
+    assertEquals(5, reader.getDeviceCount());
+    assertEquals(1, reader.getThreadCount());
+
+    byte[] split = rawEvents(100);
+    outs[2].write(split, 0, 10);
+    outs[2].flush();
+    Thread.sleep(20);
+    outs[2].write(split, 10, split.length - 10);
+    outs[2].flush();
+
+    awaitCount(11);
+    assertEquals(115, sink.getSum());
+
+    for (OutputStream out : outs) {
+      out.close();
+    }
+
+    assertTrue(reader.removeDevice(files.get(0)));
+    assertFalse(reader.removeDevice(files.get(0)));
+    assertEquals(4, reader.getDeviceCount());
+  }
+
+  /**
+   * Test that an event which the sink fails on is skipped without losing the
+   * rest of the read.
+   */
+  @Test
+  public void testSinkError() throws Exception {
+    final CountingSink counting = new CountingSink();
+    sink = counting;
+    reader = new ThreadedInputDeviceReader(new InputEventSink() {
+      @Override
+      public void handleEvent(long time, int type, int code, int value) {
+        if (value < 0) {
+          throw new IllegalArgumentException("Negative value");
+        }
+        counting.handleEvent(time, type, code, value);
+      }
+    }, new SimpleLog("test"));
+
+    File file = newFile();
+    OutputStream out = new FileOutputStream(file);
+    out.write(rawEvents(1, -1, 2, -1, 3));
+    out.close();
+
+    reader.addDevice(file);
+    reader.start();
+    awaitCount(3);
+    assertEquals(6, sink.getSum());
+  }
+
+  /**
+   * Test that files added while reading are read, and followed afterwards.
+   */
+  @Test
+  public void testAddWhileRunning() throws Exception {
+    reader.start();
+    assertEquals(0, reader.getThreadCount());
+
+    for (int i = 0; i < 3; i++) {
+      File file = newFile();
+      OutputStream out = new FileOutputStream(file);
+      out.write(rawEvents(i));
+      out.flush();
+      reader.addDevice(file);
+      awaitCount(i * 2 + 1);
+
+      out.write(rawEvents(10));
+      out.close();
+      awaitCount(i * 2 + 2);
+    }
+
+    assertEquals(1, reader.getThreadCount());
+    assertEquals(33, sink.getSum());
+  }
+
+  /**
+   * Creates a named pipe, skipping the test where that is not possible.
+   */
+  private File newFifo() throws Exception {
+    File fifo = newFile();
+    fifo.delete();
+
+    int status;
+    try {
+      status = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor();
+    } catch (IOException e) {
+      status = -1;
+    }
+    assumeTrue(status == 0);
+
+    return fifo;
+  }
+
+  /**
+   * Adds a named pipe to the reader, opening its writing end alongside.
+   */
+  private OutputStream addFifo(final File fifo) throws Exception {
+    final OutputStream[] out = new OutputStream[1];
+    Thread writer = new Thread() {
+      public void run() {
+        try {
+          out[0] = new FileOutputStream(fifo);
+        } catch (IOException e) {
+          fail(e.getMessage());
+        }
+      }
+    };
+    writer.start();
+
+    reader.addDevice(fifo);
+    writer.join();
+
+    return out[0];
+  }
+
+  /**
+   * Test reading a named pipe, where available.
+   */
+  @Test
+  public void testFifo() throws Exception {
+    OutputStream out = addFifo(newFifo());
+    reader.start();
+
+    out.write(rawEvents(3, 4, 5));
+    out.flush();
+    awaitCount(3);
+    assertEquals(12, sink.getSum());
+    assertEquals(1, reader.getThreadCount());
+
+    out.close();
+  }
+
+  /**
+   * Test that each named pipe is read on its own thread, and that their
+   * events reach the one sink.
+   */
+  @Test
+  public void testFifos() throws Exception {
+    OutputStream first = addFifo(newFifo());
+    OutputStream second = addFifo(newFifo());
+    reader.start();
+
+    first.write(rawEvents(1, 2));
+    first.flush();
+    second.write(rawEvents(3));
+    second.flush();
+    awaitCount(3);
+    assertEquals(6, sink.getSum());
+    assertEquals(2, reader.getThreadCount());
+
+    first.close();
+    second.close();
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.evdev.filter;
+
+import static org.junit.Assert.*;
+
+import interactivespaces.configuration.Configuration;
+import interactivespaces.configuration.SimpleConfiguration;
+import interactivespaces.evaluation.ExpressionEvaluator;
+import interactivespaces.evaluation.SimpleEvaluationEnvironment;
+import interactivespaces.evaluation.SimpleExpressionEvaluator;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.endpoint.lg.support.evdev.InputEventSink;
+
+import static com.endpoint.lg.support.evdev.InputEventTypes.*;
+import static com.endpoint.lg.support.evdev.InputEventCodes.*;
+
+/**
+ * Test <code>InputAxisFilters</code> and the axis filters.
+ */
+public class TestInputAxisFilters {
+  private static final String PREFIX = "test.filter";
+  private static final double EPSILON = 0.0001;
+
+  /**
+   * Remembers the last event it received.
+   */
+  private static class LastEventSink implements InputEventSink {
+    int type = -1;
+    int code = -1;
+    int value;
+    int count;
+
+    @Override
+    public void handleEvent(long time, int type, int code, int value) {
+      this.type = type;
+      this.code = code;
+      this.value = value;
+      count++;
+    }
+  }
+
+  private static Configuration newConfiguration() {
+    ExpressionEvaluator evaluator = new SimpleExpressionEvaluator();
+    evaluator.setEvaluationEnvironment(new SimpleEvaluationEnvironment());
+
+    return new SimpleConfiguration(evaluator);
+  }
+
+  /**
+   * Test the deadzone shift.
+   */
+  @Test
+  public void testDeadzone() {
+    AxisFilter filter = new DeadzoneFilter(10);
+
+    assertEquals(0, filter.filter(5, 0), EPSILON);
+    assertEquals(0, filter.filter(-10, 0), EPSILON);
+    assertEquals(5, filter.filter(15, 0), EPSILON);
+    assertEquals(-5, filter.filter(-15, 0), EPSILON);
+  }
+
+  /**
+   * Test that smoothing converges on a constant input.
+   */
+  @Test
+  public void testSmoothing() {
+    AxisFilter filter = new ExponentialSmoothingFilter(0.5);
+
+    assertEquals(100, filter.filter(100, 0), EPSILON);
+    assertEquals(50, filter.filter(0, 1000), EPSILON);
+    assertEquals(25, filter.filter(0, 2000), EPSILON);
+
+    filter.reset();
+    assertEquals(0, filter.filter(0, 3000), EPSILON);
+  }
+
+  /**
+   * Test that the 1 Euro filter damps jitter at rest and follows fast motion
+   * closely.
+   */
+  @Test
+  public void testOneEuro() {
+    AxisFilter filter = new OneEuroFilter(1.0, 0.001, 1.0);
+
+    filter.filter(0, 0);
+    double jitter = filter.filter(10, 10000);
+    assertTrue(Math.abs(jitter) < 1);
+
+    filter.reset();
+    filter.filter(0, 0);
+    double tracked = 0;
+    for (int i = 1; i <= 20; i++) {
+      tracked = filter.filter(i * 1000, i * 10000);
+    }
+    assertTrue(tracked > 15000);
+  }
+
+  /**
+   * Test that the Kalman filter damps noise at rest and follows steady motion
+   * without lag.
+   */
+  @Test
+  public void testKalman() {
+    KalmanFilter filter = new KalmanFilter(1000, 100);
+
+    double rest = 0;
+    for (int i = 0; i < 100; i++) {
+      rest = filter.filter(i % 2 == 0 ? 10 : -10, i * 10000);
+    }
+    assertTrue(Math.abs(rest) < 5);
+
+    filter.reset();
+    double tracked = 0;
+    for (int i = 0; i <= 100; i++) {
+      tracked = filter.filter(i * 10, i * 10000);
+    }
+    assertEquals(1000, tracked, 1);
+    assertEquals(1000, filter.getVelocity(), 10);
+  }
+
+  /**
+   * Test that a smoothed EV_ABS axis settles to its released value once the
+   * device goes quiet, and that ticks do not split a device frame.
+   */
+  @Test
+  public void testAbsSettle() {
+    final int[] abs = new int[1];
+    final int[] syns = new int[1];
+    InputAxisFilters filters = new InputAxisFilters(EV_ABS, new InputEventSink() {
+      @Override
+      public void handleEvent(long time, int type, int code, int value) {
+        if (type == EV_ABS) {
+          abs[0] = value;
+        } else if (type == EV_SYN) {
+          syns[0]++;
+        }
+      }
+    });
+    filters.setFilter(ABS_X, new ExponentialSmoothingFilter(0.5));
+
+    filters.handleEvent(0, EV_ABS, ABS_X, 300);
+    filters.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+    filters.handleEvent(10000, EV_ABS, ABS_X, 0);
+    assertEquals(150, abs[0]);
+    assertFalse(filters.tick(15000));
+
+    filters.handleEvent(10000, EV_SYN, SYN_REPORT, 0);
+    assertFalse(filters.tick(20000));
+    assertEquals(150, abs[0]);
+
+    for (int i = 3; i < 100; i++) {
+      filters.tick(i * 10000);
+    }
+    assertEquals(0, abs[0]);
+    assertTrue(syns[0] > 2);
+    assertFalse(filters.tick(1000000));
+  }
+
+  /**
+   * Test that a smoothed EV_REL axis decays to zero once the device goes
+   * quiet, delivering the rest of its smoothed displacement.
+   */
+  @Test
+  public void testRelSettle() {
+    final int[] total = new int[1];
+    InputEventSink sink = new InputEventSink() {
+      @Override
+      public void handleEvent(long time, int type, int code, int value) {
+        if (type == EV_REL) {
+          total[0] += value;
+        }
+      }
+    };
+    InputAxisFilters filters = new InputAxisFilters(EV_REL, sink);
+    filters.setFilter(REL_X, new ExponentialSmoothingFilter(0.5));
+
+    filters.handleEvent(0, EV_REL, REL_X, 100);
+    filters.handleEvent(0, EV_SYN, SYN_REPORT, 0);
+    filters.handleEvent(10000, EV_REL, REL_X, 100);
+    filters.handleEvent(10000, EV_SYN, SYN_REPORT, 0);
+    assertEquals(200, total[0]);
+
+    int ticks = 0;
+    for (int i = 2; i < 100; i++) {
+      if (filters.tick(i * 10000)) {
+        ticks++;
+      }
+    }
+    assertTrue(ticks > 0);
+    assertTrue(total[0] > 200);
+    assertFalse(filters.tick(1000000));
+  }
+
+  /**
+   * Test that scheduled ticks and a reader thread never call the sink at the
+   * same time, and that ticks call it from the scheduler's thread.
+   */
+  @Test
+  public void testScheduledTicks() throws Exception {
+    final AtomicInteger inside = new AtomicInteger();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final Set<Thread> threads = Sets.newConcurrentHashSet();
+    InputEventSink sink = new InputEventSink() {
+      @Override
+      public void handleEvent(long time, int type, int code, int value) {
+        if (inside.incrementAndGet() > 1) {
+          overlapped.set(true);
+        }
+        threads.add(Thread.currentThread());
+        Thread.yield();
+        inside.decrementAndGet();
+      }
+    };
+    final InputAxisFilters filters = new InputAxisFilters(EV_REL, sink);
+    filters.setFilter(REL_X, new ExponentialSmoothingFilter(0.1));
+
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      filters.schedule(executor, 100);
+
+      long deadline = System.currentTimeMillis() + 200;
+      for (long time = 0; System.currentTimeMillis() < deadline; time += 1000) {
+        filters.handleEvent(time, EV_REL, REL_X, 1000);
+        filters.handleEvent(time, EV_SYN, SYN_REPORT, 0);
+        Thread.sleep(1);
+      }
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    assertFalse(overlapped.get());
+    assertTrue(threads.contains(Thread.currentThread()));
+    assertEquals(2, threads.size());
+  }
+
+  /**
+   * Test the response curve.
+   */
+  @Test
+  public void testCurve() {
+    AxisFilter filter = new CurveFilter(2, 100, 1);
+
+    assertEquals(25, filter.filter(50, 0), EPSILON);
+    assertEquals(-100, filter.filter(-100, 0), EPSILON);
+  }
+
+  /**
+   * Test that the rate limit bounds change per second.
+   */
+  @Test
+  public void testRateLimit() {
+    AxisFilter filter = new RateLimitFilter(100);
+
+    assertEquals(0, filter.filter(0, 0), EPSILON);
+    assertEquals(10, filter.filter(1000, 100000), EPSILON);
+    assertEquals(5, filter.filter(-1000, 150000), EPSILON);
+
+    filter.reset();
+    assertEquals(0, filter.filter(0, 0), EPSILON);
+    assertEquals(0.1, filter.filter(1000, 0), EPSILON);
+    assertEquals(0.2, filter.filter(1000, 0), EPSILON);
+  }
+
+  /**
+   * Test that chains are built from configuration, per axis and for all axes,
+   * and that other types and axes pass through.
+   */
+  @Test
+  public void testConfiguration() {
+    Configuration config = newConfiguration();
+    config.setValue(PREFIX + ".deadzone", "10");
+    config.setValue(PREFIX + "." + ABS_Z + ".deadzone", "50");
+    config.setValue(PREFIX + "." + ABS_Z + ".curve.exponent", "2");
+    config.setValue(PREFIX + "." + ABS_Z + ".curve.range", "100");
+
+    LastEventSink sink = new LastEventSink();
+    InputAxisFilters filters = InputAxisFilters.fromConfiguration(config, PREFIX, EV_ABS, sink);
+
+    assertNotNull(filters.getFilter(ABS_X));
+    assertEquals(2, ((AxisFilterChain) filters.getFilter(ABS_Z)).size());
+
+    filters.handleEvent(0, EV_ABS, ABS_X, 25);
+    assertEquals(ABS_X, sink.code);
+    assertEquals(15, sink.value);
+
+    filters.handleEvent(0, EV_ABS, ABS_Z, 100);
+    assertEquals(25, sink.value);
+
+    filters.handleEvent(0, EV_REL, REL_X, 5);
+    assertEquals(EV_REL, sink.type);
+    assertEquals(5, sink.value);
+    assertEquals(3, sink.count);
+  }
+
+  /**
+   * Test that settings for all axes leave the multitouch bookkeeping axes
+   * alone, so a contact lift is still -1.
+   */
+  @Test
+  public void testConfigurationBookkeepingAxes() {
+    Configuration config = newConfiguration();
+    config.setValue(PREFIX + ".deadzone", "10");
+    config.setValue(PREFIX + "." + ABS_MT_SLOT + ".smoothing", "0.5");
+
+    LastEventSink sink = new LastEventSink();
+    InputAxisFilters filters = InputAxisFilters.fromConfiguration(config, PREFIX, EV_ABS, sink);
+
+    assertNotNull(filters.getFilter(ABS_MT_POSITION_X));
+    assertNull(filters.getFilter(ABS_MT_TRACKING_ID));
+    assertNull(filters.getFilter(ABS_MT_TOOL_TYPE));
+    assertEquals(1, ((AxisFilterChain) filters.getFilter(ABS_MT_SLOT)).size());
+
+    filters.handleEvent(0, EV_ABS, ABS_MT_TRACKING_ID, -1);
+    assertEquals(-1, sink.value);
+  }
+
+  /**
+   * Test that an empty configuration filters nothing.
+   */
+  @Test
+  public void testEmptyConfiguration() {
+    LastEventSink sink = new LastEventSink();
+    InputAxisFilters filters =
+        InputAxisFilters.fromConfiguration(newConfiguration(), PREFIX, EV_REL, sink);
+
+    assertNull(filters.getFilter(REL_X));
+    assertEquals(-7, filters.filter(REL_X, -7, 0));
+  }
+}
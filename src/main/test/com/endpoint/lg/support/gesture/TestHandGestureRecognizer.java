@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+import static org.junit.Assert.*;
+
+import com.endpoint.lg.support.message.GestureFrame;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test <code>HandGestureRecognizer</code>.
+ */
+public class TestHandGestureRecognizer {
+  private static final long INTERVAL = 10000;
+
+  private HandGestureRecognizer recognizer;
+  private GestureFrame frame;
+  private List<HandGestureEvent> events;
+  private long time;
+
+  @Before
+  public void setUp() {
+    frame = new GestureFrame();
+    events = Lists.newArrayList();
+    time = 0;
+    setRecognizer(new HandGestureRecognizer());
+  }
+
+  private void setRecognizer(HandGestureRecognizer recognizer) {
+    this.recognizer = recognizer;
+    recognizer.registerHandler(new HandGestureHandler() {
+      @Override
+      public void handleGesture(HandGestureEvent event) {
+        events.add(event.copy());
+      }
+    });
+  }
+
+  /**
+   * Adds a hand to the frame.
+   */
+  private void hand(String id, double x, double y, double z, double vx, double vy, double vz,
+      double sphereRadius) {
+    int slot = frame.addHand(id);
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_POSITION, x, y, z);
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_VELOCITY, vx, vy, vz);
+    frame.setSphereRadius(slot, sphereRadius);
+  }
+
+  /**
+   * Feeds the frame to the recognizer and starts the next one.
+   */
+  private void step() {
+    recognizer.update(frame, time);
+    frame.clear();
+    time += INTERVAL;
+  }
+
+  /**
+   * Moves a hand in a straight line at a constant speed.
+   */
+  private void move(String id, double x, double vx, int frames) {
+    for (int i = 0; i < frames; i++) {
+      hand(id, x + vx * i * INTERVAL / 1000000.0, 200, 0, vx, 0, 0, 90);
+      step();
+    }
+  }
+
+  /**
+   * Verify that a fast straight movement is one swipe, and that another swipe
+   * is recognized after the hand slows down.
+   */
+  @Test
+  public void testSwipe() {
+    move("1", -100, 1000, 30);
+
+    assertEquals(1, events.size());
+    HandGestureEvent swipe = events.get(0);
+    assertEquals(HandGestureType.SWIPE, swipe.getType());
+    assertEquals("1", swipe.getHandId());
+    assertEquals(1, swipe.getDirection(0), 1e-9);
+    assertEquals(0, swipe.getDirection(1), 1e-9);
+    assertEquals(1000, swipe.getSpeed(), 1);
+
+    move("1", 200, 0, 5);
+    move("1", 200, -1000, 30);
+
+    assertEquals(2, events.size());
+    assertEquals(HandGestureType.SWIPE, events.get(1).getType());
+    assertEquals(-1, events.get(1).getDirection(0), 1e-9);
+  }
+
+  /**
+   * Verify that slow or short movements are not swipes.
+   */
+  @Test
+  public void testNoSwipe() {
+    move("1", -100, 200, 100);
+    move("1", 100, 1000, 5);
+
+    assertTrue(events.isEmpty());
+  }
+
+  /**
+   * Verify that the swipe window is bounded by the history.
+   */
+  @Test
+  public void testHistory() {
+    setRecognizer(new HandGestureRecognizer(1, 4));
+    move("1", 0, 1000, 30);
+    assertTrue(events.isEmpty());
+
+    recognizer.setSwipe(HandGestureRecognizer.DEFAULT_SWIPE_WINDOW, 25, 600, 200, 0.8);
+    move("1", 290, 0, 5);
+    move("1", 290, 1000, 30);
+    assertEquals(1, events.size());
+  }
+
+  /**
+   * Verify that circles are recognized once per turn, with their radius and
+   * normal.
+   */
+  @Test
+  public void testCircle() {
+    double radius = 50;
+    double rate = 2 * Math.PI;
+
+    for (int i = 0; i < 250; i++) {
+      double a = rate * i * INTERVAL / 1000000.0;
+      hand("1", radius * Math.cos(a), 200 + radius * Math.sin(a), 0,
+          -radius * rate * Math.sin(a), radius * rate * Math.cos(a), 0, 90);
+      step();
+    }
+
+    assertEquals(2, events.size());
+    for (HandGestureEvent circle : events) {
+      assertEquals(HandGestureType.CIRCLE, circle.getType());
+      assertEquals(radius, circle.getRadius(), 1);
+      assertEquals(1, circle.getDirection(2), 1e-9);
+    }
+  }
+
+  /**
+   * Verify grab and release hysteresis, and release of a lost hand.
+   */
+  @Test
+  public void testGrab() {
+    double[] radii = { 80, 55, 45, 49, 55, 64, 70, 60, 40 };
+    for (double r : radii) {
+      hand("1", 0, 200, 0, 0, 0, 0, r);
+      step();
+    }
+
+    assertEquals(3, events.size());
+    assertEquals(HandGestureType.GRAB, events.get(0).getType());
+    assertEquals(45, events.get(0).getRadius(), 0);
+    assertEquals(HandGestureType.RELEASE, events.get(1).getType());
+    assertEquals(70, events.get(1).getRadius(), 0);
+    assertEquals(HandGestureType.GRAB, events.get(2).getType());
+    assertTrue(recognizer.isGrabbed("1"));
+
+    step();
+
+    assertEquals(4, events.size());
+    assertEquals(HandGestureType.RELEASE, events.get(3).getType());
+    assertFalse(recognizer.isGrabbed("1"));
+    assertEquals(0, recognizer.getTrackedCount());
+  }
+
+  /**
+   * Verify that hands beyond the capacity are ignored until a track is free.
+   */
+  @Test
+  public void testTracks() {
+    setRecognizer(new HandGestureRecognizer(1, HandGestureRecognizer.DEFAULT_HISTORY));
+
+    hand("1", 0, 200, 0, 0, 0, 0, 90);
+    hand("2", 0, 200, 0, 0, 0, 0, 40);
+    step();
+    assertEquals(1, recognizer.getTrackedCount());
+    assertTrue(events.isEmpty());
+
+    hand("2", 0, 200, 0, 0, 0, 0, 40);
+    step();
+    assertEquals(1, recognizer.getTrackedCount());
+    assertTrue(recognizer.isGrabbed("2"));
+  }
+
+  /**
+   * Verify the threshold checks.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadGrab() {
+    recognizer.setGrab(60, 50);
+  }
+}
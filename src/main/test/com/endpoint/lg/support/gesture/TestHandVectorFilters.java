@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.gesture;
+
+import static org.junit.Assert.*;
+
+import com.endpoint.lg.support.evdev.filter.AxisFilter;
+import com.endpoint.lg.support.evdev.filter.AxisFilterFactory;
+import com.endpoint.lg.support.evdev.filter.ExponentialSmoothingFilter;
+import com.endpoint.lg.support.evdev.filter.KalmanFilter;
+import com.endpoint.lg.support.message.GestureFrame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test <code>HandVectorFilters</code>.
+ */
+public class TestHandVectorFilters {
+  private static final double EPSILON = 0.000001;
+
+  private static final AxisFilterFactory HALF = new AxisFilterFactory() {
+    @Override
+    public AxisFilter newFilter() {
+      return new ExponentialSmoothingFilter(0.5);
+    }
+  };
+
+  private HandVectorFilters filters;
+  private GestureFrame frame;
+  private long time;
+
+  @Before
+  public void setUp() {
+    filters = new HandVectorFilters(2);
+    filters.setFilter(GestureFrame.HAND_PALM_POSITION, HALF);
+    filters.setSphereRadiusFilter(HALF);
+    frame = new GestureFrame();
+    time = 0;
+  }
+
+  /**
+   * Adds a hand with the same value on every axis of its palm position and
+   * velocity, and as its sphere radius.
+   */
+  private void hand(String id, double value) {
+    int slot = frame.addHand(id);
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_POSITION, value, value, value);
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_VELOCITY, value, value, value);
+    frame.setSphereRadius(slot, value);
+  }
+
+  /**
+   * Filters the frame and starts the next one.
+   */
+  private void step() {
+    filters.filter(frame, time);
+    time += 10000;
+  }
+
+  /**
+   * Verify that configured fields are filtered in place and others pass
+   * through.
+   */
+  @Test
+  public void testFilter() {
+    hand("1", 0);
+    step();
+    frame.clear();
+    hand("1", 10);
+    step();
+
+    for (int axis = 0; axis < 3; axis++) {
+      assertEquals(5, frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, axis), EPSILON);
+      assertEquals(10, frame.getHandVector(0, GestureFrame.HAND_PALM_VELOCITY, axis), EPSILON);
+    }
+    assertEquals(5, frame.getSphereRadius(0), EPSILON);
+
+    filters.setFilter(GestureFrame.HAND_PALM_POSITION, null);
+    frame.clear();
+    hand("1", 20);
+    step();
+    assertEquals(20, frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+  }
+
+  /**
+   * Verify that a NaN passes through without resetting or poisoning a hand's
+   * filters.
+   */
+  @Test
+  public void testNaN() {
+    filters.setFilter(GestureFrame.HAND_PALM_POSITION, new AxisFilterFactory() {
+      @Override
+      public AxisFilter newFilter() {
+        return new KalmanFilter(1000, 100);
+      }
+    });
+
+    double[] inputs = { 1, Double.NaN, 2, 3, 4 };
+    for (double input : inputs) {
+      frame.clear();
+      hand("1", input);
+      step();
+
+      double position = frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0);
+      assertEquals(Double.isNaN(input), Double.isNaN(position));
+      assertEquals(Double.isNaN(input), Double.isNaN(frame.getSphereRadius(0)));
+    }
+
+    assertEquals(4, frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), 1);
+    assertEquals(3.125, frame.getSphereRadius(0), EPSILON);
+  }
+
+  /**
+   * Verify that each hand id has its own history, even when hands change
+   * slots, and that the history is dropped when the hand leaves.
+   */
+  @Test
+  public void testHands() {
+    hand("1", 0);
+    hand("2", 100);
+    step();
+
+    frame.clear();
+    hand("2", 200);
+    hand("1", 10);
+    step();
+    assertEquals(150, frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+    assertEquals(5, frame.getHandVector(1, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+
+    frame.clear();
+    hand("2", 200);
+    step();
+    assertEquals(1, filters.getTrackedCount());
+
+    frame.clear();
+    hand("2", 200);
+    hand("1", 10);
+    step();
+    assertEquals(10, frame.getHandVector(1, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+  }
+
+  /**
+   * Verify that hands beyond the capacity pass through.
+   */
+  @Test
+  public void testCapacity() {
+    hand("1", 0);
+    hand("2", 0);
+    hand("3", 0);
+    step();
+
+    frame.clear();
+    hand("1", 10);
+    hand("2", 10);
+    hand("3", 10);
+    step();
+
+    assertEquals(2, filters.getTrackedCount());
+    assertEquals(5, frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+    assertEquals(10, frame.getHandVector(2, GestureFrame.HAND_PALM_POSITION, 0), EPSILON);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import interactivespaces.service.image.gesture.Gesture;
+import interactivespaces.service.image.gesture.GestureHand;
+import interactivespaces.service.image.gesture.GesturePointable;
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.JsonNavigator;
+import interactivespaces.util.data.json.StandardJsonNavigator;
+import interactivespaces.util.geometry.Vector3;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Compares decoding a Leap frame from JSON text with
+ * <code>GestureFrameDecoder</code> against the map tree and
+ * <code>GestureMessages</code> path, in time and, on HotSpot, in bytes
+ * allocated per frame. Run with <code>main()</code>; not part of the unit
+ * tests.
+ */
+public class GestureFrameDecoderBenchmark {
+  private static final int FRAMES = 200000;
+  private static final int ROUNDS = 5;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * A frame with two hands, each with five fingers, and a gesture.
+   */
+  private static String frame() throws Exception {
+    Map<String, GestureHand> hands = Maps.newHashMap();
+    Map<String, GesturePointable> pointables = Maps.newHashMap();
+    Map<String, Gesture> gestures = Maps.newHashMap();
+
+    for (int h = 0; h < 2; h++) {
+      String id = Integer.toString(10 + h);
+      hands.put(id, new GestureHand(id, new Vector3(-80.5 + h * 160, 210.25, 12.125), new Vector3(
+          31.5, -4.75, 2.5), new Vector3(0.05, -0.99, 0.1), new Vector3(0.1, 0.2, -0.97),
+          new Vector3(-75.5 + h * 160, 240.5, -10.5), 92.5));
+
+      for (int p = 0; p < 5; p++) {
+        String pid = Integer.toString(100 + h * 10 + p);
+        pointables.put(pid, new GesturePointable(pid, new Vector3(-100.5 + h * 160 + p * 12,
+            260.75, -40.5), new Vector3(0.1, 0.3, -0.95), new Vector3(30.5, -5.25, 1.75),
+            55.5 + p, false));
+      }
+    }
+    gestures.put("7", new Gesture("7", "swipe", Gesture.GestureState.UPDATE, 125000));
+
+    JsonBuilder data = new JsonBuilder();
+    GestureMessages.serializeGestureHands(hands, data);
+    GestureMessages.serializeGesturePointables(pointables, data);
+    GestureMessages.serializeGestures(gestures, data);
+
+    return MAPPER.writeValueAsString(data.build());
+  }
+
+  /**
+   * Returns the bytes allocated by this thread so far, or zero if the JVM
+   * does not count them.
+   */
+  private static long allocatedBytes() {
+    Object bean = ManagementFactory.getThreadMXBean();
+
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+          .currentThread().getId());
+    }
+
+    return 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) throws Exception {
+    String text = frame();
+    GestureFrameDecoder decoder = new GestureFrameDecoder();
+    GestureFrame frame = new GestureFrame();
+
+    System.out.println(String.format("frame: %d bytes of json", text.length()));
+
+    double sink = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < FRAMES; i++) {
+        Map<String, Object> map = MAPPER.readValue(text, Map.class);
+        Map<String, GestureHand> hands =
+            GestureMessages.deserializeGestureHands(new StandardJsonNavigator(map));
+        Map<String, GesturePointable> pointables =
+            GestureMessages.deserializeGesturePointables(new StandardJsonNavigator(map));
+        Map<String, Gesture> gestures =
+            GestureMessages.deserializeGestures(new StandardJsonNavigator(map));
+        sink += hands.get("10").getPalmPosition().getV0() + pointables.size() + gestures.size();
+      }
+      double treeNs = (double) (System.nanoTime() - start) / FRAMES;
+      long treeBytes = (allocatedBytes() - allocated) / FRAMES;
+
+      allocated = allocatedBytes();
+      start = System.nanoTime();
+      for (int i = 0; i < FRAMES; i++) {
+        decoder.decode(text, frame);
+        sink +=
+            frame.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0)
+                + frame.getPointableCount() + frame.getGestureCount();
+      }
+      double streamNs = (double) (System.nanoTime() - start) / FRAMES;
+      long streamBytes = (allocatedBytes() - allocated) / FRAMES;
+
+      System.out.println(String.format(
+          "round %d: map tree %.0f ns %d B, streaming %.0f ns %d B", round, treeNs, treeBytes,
+          streamNs, streamBytes));
+    }
+
+    System.out.println(sink);
+  }
+}
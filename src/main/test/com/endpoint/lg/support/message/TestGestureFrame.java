@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import interactivespaces.service.image.gesture.Gesture.GestureState;
+
+/**
+ * Test <code>GestureFrame</code> and <code>GestureFramePool</code>.
+ */
+public class TestGestureFrame {
+  /**
+   * Verify that entries are found by ID, and that re-adding an ID reuses its
+   * slot.
+   */
+  @Test
+  public void testIndex() {
+    GestureFrame frame = new GestureFrame(2, 20, 1);
+
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, frame.addPointable(Integer.toString(100 + i)));
+    }
+    assertEquals(-1, frame.addPointable("999"));
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, frame.findPointable(Integer.toString(100 + i)));
+    }
+    assertEquals(-1, frame.findPointable("99"));
+
+    int slot = frame.addHand("7");
+    frame.setSphereRadius(slot, 3.5);
+    assertEquals(slot, frame.addHand(new String("7")));
+    assertEquals(0, frame.getSphereRadius(slot), 0);
+    assertEquals(1, frame.getHandCount());
+
+    frame.clear();
+    assertEquals(-1, frame.findHand("7"));
+    assertEquals(-1, frame.findPointable("100"));
+    assertEquals(0, frame.addPointable("119"));
+    assertEquals(0, frame.findPointable("119"));
+  }
+
+  /**
+   * Verify that a copy has the same entries and its own index.
+   */
+  @Test
+  public void testCopy() {
+    GestureFrame frame = new GestureFrame();
+    int hand = frame.addHand("1");
+    frame.setHandVector(hand, GestureFrame.HAND_PALM_POSITION, 1, 2, 3);
+    int pointable = frame.addPointable("2");
+    frame.setTool(pointable, true);
+    int gesture = frame.addGesture("3");
+    frame.setGestureState(gesture, GestureState.STOP);
+
+    GestureFrame copy = new GestureFrame();
+    copy.addHand("9");
+    copy.copyFrom(frame);
+
+    assertEquals(1, copy.getHandCount());
+    assertEquals(-1, copy.findHand("9"));
+    assertEquals(0, copy.findHand("1"));
+    assertEquals(2, copy.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 1), 0);
+    assertTrue(copy.isTool(copy.findPointable("2")));
+    assertEquals(GestureState.STOP, copy.getGestureState(copy.findGesture("3")));
+  }
+
+  /**
+   * Verify that a copy into a smaller frame is refused.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCopyTooSmall() {
+    GestureFrame frame = new GestureFrame();
+    frame.addHand("1");
+    frame.addHand("2");
+
+    new GestureFrame(1, 1, 1).copyFrom(frame);
+  }
+
+  /**
+   * Verify that the pool hands out cleared frames and counts extra frames.
+   */
+  @Test
+  public void testPool() {
+    GestureFramePool pool = new GestureFramePool(2);
+
+    GestureFrame a = pool.acquire();
+    GestureFrame b = pool.acquire();
+    assertEquals(0, pool.getAvailable());
+    assertEquals(0, pool.getCreatedCount());
+
+    a.addHand("1");
+    pool.release(a);
+    assertSame(a, pool.acquire());
+    assertEquals(0, a.getHandCount());
+
+    GestureFrame c = pool.acquire();
+    assertEquals(1, pool.getCreatedCount());
+
+    pool.release(a);
+    pool.release(b);
+    pool.release(c);
+    assertEquals(2, pool.getAvailable());
+  }
+}
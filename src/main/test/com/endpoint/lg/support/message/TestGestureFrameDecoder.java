@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import interactivespaces.service.image.gesture.Gesture;
+import interactivespaces.service.image.gesture.Gesture.GestureState;
+import interactivespaces.service.image.gesture.GestureHand;
+import interactivespaces.service.image.gesture.GesturePointable;
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.geometry.Vector3;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Test <code>GestureFrameDecoder</code>.
+ */
+public class TestGestureFrameDecoder {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final GestureHand TEST_HAND = new GestureHand("23", new Vector3(1.1, 2.2, 3.3),
+      new Vector3(4.4, 5.5, 6.6), new Vector3(7.7, 8.8, 9.9), new Vector3(10.01, 11.11, 12.21),
+      new Vector3(13.31, 14.41, 15.51), 16.61);
+
+  private static final GesturePointable TEST_POINTABLE = new GesturePointable("88", new Vector3(
+      1.1, 2.2, 3.3), new Vector3(4.4, 5.5, 6.6), new Vector3(7.7, 8.8, 9.9), 10.01, true);
+
+  private static final Gesture TEST_GESTURE = new Gesture("42", "swipe", GestureState.UPDATE, 4.2);
+
+  private GestureFrameDecoder decoder;
+  private GestureFrame frame;
+
+  @Before
+  public void setUp() {
+    decoder = new GestureFrameDecoder();
+    frame = new GestureFrame();
+  }
+
+  /**
+   * Serializes a frame the way the <code>GestureMessages</code> path does.
+   */
+  private static String serialize(Map<String, GestureHand> hands,
+      Map<String, GesturePointable> pointables, Map<String, Gesture> gestures) throws Exception {
+    JsonBuilder data = new JsonBuilder();
+
+    GestureMessages.serializeGestureHands(hands, data);
+    GestureMessages.serializeGesturePointables(pointables, data);
+    GestureMessages.serializeGestures(gestures, data);
+
+    return MAPPER.writeValueAsString(data.build());
+  }
+
+  private static void assertVectorEquals(Vector3 expected, double[] actual, int offset) {
+    assertEquals(expected.getV0(), actual[offset], 0);
+    assertEquals(expected.getV1(), actual[offset + 1], 0);
+    assertEquals(expected.getV2(), actual[offset + 2], 0);
+  }
+
+  /**
+   * Verify that serialized hands, pointables and gestures are decoded.
+   */
+  @Test
+  public void testDecode() throws Exception {
+    String text =
+        serialize(ImmutableMap.of("23", TEST_HAND), ImmutableMap.of("88", TEST_POINTABLE),
+            ImmutableMap.of("42", TEST_GESTURE));
+
+    decoder.decode(text, frame);
+
+    assertEquals(1, frame.getHandCount());
+    assertEquals("23", frame.getHandId(0));
+    assertVectorEquals(TEST_HAND.getPalmPosition(),
+        frame.getHandVectors(GestureFrame.HAND_PALM_POSITION), 0);
+    assertVectorEquals(TEST_HAND.getPalmVelocity(),
+        frame.getHandVectors(GestureFrame.HAND_PALM_VELOCITY), 0);
+    assertVectorEquals(TEST_HAND.getPalmNormal(),
+        frame.getHandVectors(GestureFrame.HAND_PALM_NORMAL), 0);
+    assertVectorEquals(TEST_HAND.getDirection(),
+        frame.getHandVectors(GestureFrame.HAND_DIRECTION), 0);
+    assertVectorEquals(TEST_HAND.getSphereCenter(),
+        frame.getHandVectors(GestureFrame.HAND_SPHERE_CENTER), 0);
+    assertEquals(TEST_HAND.getSphereRadius(), frame.getSphereRadius(0), 0);
+
+    assertEquals(1, frame.getPointableCount());
+    assertEquals("88", frame.getPointableId(0));
+    assertVectorEquals(TEST_POINTABLE.getTipPosition(),
+        frame.getPointableVectors(GestureFrame.POINTABLE_TIP_POSITION), 0);
+    assertVectorEquals(TEST_POINTABLE.getDirection(),
+        frame.getPointableVectors(GestureFrame.POINTABLE_DIRECTION), 0);
+    assertVectorEquals(TEST_POINTABLE.getTipVelocity(),
+        frame.getPointableVectors(GestureFrame.POINTABLE_TIP_VELOCITY), 0);
+    assertEquals(TEST_POINTABLE.getLength(), frame.getLength(0), 0);
+    assertTrue(frame.isTool(0));
+
+    assertEquals(1, frame.getGestureCount());
+    assertEquals("42", frame.getGestureId(0));
+    assertEquals("swipe", frame.getGestureType(0));
+    assertEquals(GestureState.UPDATE, frame.getGestureState(0));
+    assertEquals(4.2, frame.getGestureDuration(0), 0);
+  }
+
+  /**
+   * Verify that a frame is cleared on each decode and that gesture types are
+   * reused between frames.
+   */
+  @Test
+  public void testReuse() throws Exception {
+    String text =
+        serialize(ImmutableMap.of("23", TEST_HAND), ImmutableMap.<String, GesturePointable> of(),
+            ImmutableMap.of("42", TEST_GESTURE));
+
+    decoder.decode(text, frame);
+    String type = frame.getGestureType(0);
+    decoder.decode(text.getBytes("UTF-8"), 0, text.length(), frame);
+
+    assertEquals(1, frame.getHandCount());
+    assertEquals(0, frame.getPointableCount());
+    assertSame(type, frame.getGestureType(0));
+  }
+
+  /**
+   * Verify that decimals are converted exactly as
+   * <code>Double.parseDouble()</code> would, on and off the fast path.
+   */
+  @Test
+  public void testReadDouble() throws Exception {
+    String[] values =
+        { "0.0", "-0.0", "1.5", "-210.25", "0.05", "12.210000", "1.0E-5", "-1.5e10", "2.5E+3",
+            "0.30000000000000004", "123456789.123456789", "4.9E-324", "1.7976931348623157E308",
+            "1.0e22", "1.0e23", "42" };
+
+    JsonParser parser = new JsonFactory().createJsonParser(Arrays.toString(values));
+    parser.nextToken();
+
+    for (String value : values) {
+      parser.nextToken();
+      assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+          Double.doubleToLongBits(GestureFrameDecoder.readDouble(parser)));
+    }
+  }
+
+  /**
+   * Verify that null numbers and vectors decode as NaN.
+   */
+  @Test
+  public void testNulls() throws Exception {
+    String text =
+        "{\"hands\": {\"1\": {\"sphereRadius\": null, \"palmPosition\": [1.5, null, 3],"
+            + " \"direction\": null}}, \"pointables\": {\"2\": {\"length\": null,"
+            + " \"tool\": null}}, \"gestures\": {\"3\": {\"duration\": null}}}";
+
+    decoder.decode(text, frame);
+
+    double[] position = frame.getHandVectors(GestureFrame.HAND_PALM_POSITION);
+    double[] direction = frame.getHandVectors(GestureFrame.HAND_DIRECTION);
+    assertTrue(Double.isNaN(frame.getSphereRadius(0)));
+    assertEquals(1.5, position[0], 0);
+    assertTrue(Double.isNaN(position[1]));
+    assertEquals(3, position[2], 0);
+    assertTrue(Double.isNaN(direction[0]));
+    assertTrue(Double.isNaN(direction[2]));
+    assertTrue(Double.isNaN(frame.getLength(0)));
+    assertFalse(frame.isTool(0));
+    assertTrue(Double.isNaN(frame.getGestureDuration(0)));
+  }
+
+  /**
+   * Verify that entries beyond capacity and unknown fields are skipped.
+   */
+  @Test
+  public void testOverflow() throws Exception {
+    frame = new GestureFrame(1, 1, 1);
+    String text =
+        "{\"extra\": [1, {\"a\": 2}], \"hands\": {"
+            + "\"1\": {\"sphereRadius\": 1.5, \"fingers\": [3]},"
+            + " \"2\": {\"sphereRadius\": 2.5}}, \"pointables\": {}}";
+
+    decoder.decode(text, frame);
+
+    assertEquals(1, frame.getHandCount());
+    assertEquals("1", frame.getHandId(0));
+    assertEquals(1.5, frame.getSphereRadius(0), 0);
+    assertEquals(0, frame.getPointableCount());
+    assertEquals(1, decoder.getDroppedCount());
+  }
+}
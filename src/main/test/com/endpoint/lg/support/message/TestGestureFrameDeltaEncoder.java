@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import interactivespaces.service.image.gesture.Gesture.GestureState;
+import interactivespaces.util.data.json.JsonBuilder;
+import interactivespaces.util.data.json.JsonNavigator;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test <code>GestureFrameDeltaEncoder</code> and
+ * <code>GestureMessages.mergeGestureFrameDelta()</code>.
+ */
+public class TestGestureFrameDeltaEncoder {
+  private static final double EPSILON = 0.5;
+
+  private GestureFrameDeltaEncoder encoder;
+  private GestureFrame frame;
+  private GestureFrame received;
+
+  @Before
+  public void setUp() {
+    encoder = new GestureFrameDeltaEncoder(EPSILON);
+    frame = new GestureFrame();
+    received = new GestureFrame();
+  }
+
+  /**
+   * Encodes the current frame and merges it into the received frame.
+   * 
+   * @return the delta data
+   */
+  private Map<String, Object> send() {
+    JsonBuilder data = new JsonBuilder();
+
+    encoder.serialize(frame, data);
+    Map<String, Object> delta = data.build();
+    GestureMessages.mergeGestureFrameDelta(new JsonNavigator(delta), received);
+
+    return delta;
+  }
+
+  /**
+   * Fills the frame with a hand with fingers.
+   */
+  private void fill(String hand, int fingers) {
+    int slot = frame.addHand(hand);
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_POSITION, 10, 200, 30);
+    frame.setSphereRadius(slot, 80);
+
+    for (int i = 0; i < fingers; i++) {
+      slot = frame.addPointable(hand + "." + i);
+      frame.setPointableVector(slot, GestureFrame.POINTABLE_TIP_POSITION, i * 10, 250, 0);
+      frame.setLength(slot, 50);
+    }
+  }
+
+  /**
+   * Checks that the received frame matches the current frame within the
+   * epsilon.
+   */
+  private void assertReceived() {
+    assertEquals(frame.getHandCount(), received.getHandCount());
+    for (int slot = 0; slot < frame.getHandCount(); slot++) {
+      int r = received.findHand(frame.getHandId(slot));
+      assertTrue(r >= 0);
+      for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+        for (int axis = 0; axis < 3; axis++) {
+          assertEquals(frame.getHandVector(slot, f, axis), received.getHandVector(r, f, axis),
+              EPSILON);
+        }
+      }
+      assertEquals(frame.getSphereRadius(slot), received.getSphereRadius(r), EPSILON);
+    }
+
+    assertEquals(frame.getPointableCount(), received.getPointableCount());
+    for (int slot = 0; slot < frame.getPointableCount(); slot++) {
+      int r = received.findPointable(frame.getPointableId(slot));
+      assertTrue(r >= 0);
+      for (int f = 0; f < GestureFrame.POINTABLE_VECTORS; f++) {
+        for (int axis = 0; axis < 3; axis++) {
+          assertEquals(frame.getPointableVector(slot, f, axis),
+              received.getPointableVector(r, f, axis), EPSILON);
+        }
+      }
+      assertEquals(frame.getLength(slot), received.getLength(r), EPSILON);
+      assertEquals(frame.isTool(slot), received.isTool(r));
+    }
+
+    assertEquals(frame.getGestureCount(), received.getGestureCount());
+    for (int slot = 0; slot < frame.getGestureCount(); slot++) {
+      int r = received.findGesture(frame.getGestureId(slot));
+      assertTrue(r >= 0);
+      assertEquals(frame.getGestureType(slot), received.getGestureType(r));
+      assertEquals(frame.getGestureState(slot), received.getGestureState(r));
+      assertEquals(frame.getGestureDuration(slot), received.getGestureDuration(r), EPSILON);
+    }
+  }
+
+  /**
+   * Verify that a stream of moving, appearing and disappearing entries is
+   * reproduced by merging its deltas.
+   */
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(42);
+
+    for (int n = 0; n < 200; n++) {
+      frame.clear();
+
+      for (int h = 0; h < 2; h++) {
+        if (random.nextInt(10) == 0) {
+          continue;
+        }
+
+        String id = Integer.toString(h);
+        int slot = frame.addHand(id);
+        for (int f = 0; f < GestureFrame.HAND_VECTORS; f++) {
+          frame.setHandVector(slot, f, n + random.nextDouble(), h * 100, random.nextGaussian());
+        }
+        frame.setSphereRadius(slot, 80 + random.nextDouble());
+
+        for (int p = 0; p < 5; p++) {
+          if (random.nextInt(5) == 0) {
+            continue;
+          }
+
+          slot = frame.addPointable(id + "." + p);
+          frame.setPointableVector(slot, GestureFrame.POINTABLE_TIP_POSITION, p * 10,
+              n + random.nextDouble(), 0);
+          frame.setLength(slot, 50 + p);
+          frame.setTool(slot, p == 4);
+        }
+      }
+
+      if (n % 20 < 10) {
+        int slot = frame.addGesture(Integer.toString(n / 20));
+        frame.setGestureType(slot, "swipe");
+        frame.setGestureState(slot, n % 20 == 9 ? GestureState.STOP : GestureState.UPDATE);
+        frame.setGestureDuration(slot, (n % 20) * 10000);
+      }
+
+      send();
+      assertReceived();
+    }
+  }
+
+  /**
+   * Verify that an unchanged frame gives an empty delta, and that changes
+   * below the epsilon are held back until they add up.
+   */
+  @Test
+  public void testEpsilon() {
+    fill("1", 5);
+    send();
+
+    assertFalse(encoder.serialize(frame, new JsonBuilder()));
+
+    int slot = frame.findHand("1");
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_POSITION, 10.3, 200, 30);
+    assertTrue(send().isEmpty());
+    assertEquals(10, received.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), 0);
+
+    frame.setHandVector(slot, GestureFrame.HAND_PALM_POSITION, 10.6, 200, 30);
+    assertFalse(send().isEmpty());
+    assertEquals(10.6, received.getHandVector(0, GestureFrame.HAND_PALM_POSITION, 0), 0);
+  }
+
+  /**
+   * Verify that a value becoming or ceasing to be NaN is sent, so a field
+   * first sent as NaN does not stick.
+   */
+  @Test
+  public void testNaN() {
+    int slot = frame.addHand("1");
+    frame.setHandVector(slot, GestureFrame.HAND_SPHERE_CENTER, Double.NaN, Double.NaN,
+        Double.NaN);
+    frame.setSphereRadius(slot, Double.NaN);
+    send();
+
+    assertFalse(encoder.serialize(frame, new JsonBuilder()));
+
+    frame.setHandVector(slot, GestureFrame.HAND_SPHERE_CENTER, 10, 20, 30);
+    frame.setSphereRadius(slot, 50);
+    assertFalse(send().isEmpty());
+    assertEquals(20, received.getHandVector(0, GestureFrame.HAND_SPHERE_CENTER, 1), 0);
+    assertEquals(50, received.getSphereRadius(0), 0);
+
+    frame.setSphereRadius(slot, Double.NaN);
+    assertFalse(send().isEmpty());
+    assertTrue(Double.isNaN(received.getSphereRadius(0)));
+  }
+
+  /**
+   * Verify that entries which do not fit in the encoder's state are counted
+   * in each delta they miss.
+   */
+  @Test
+  public void testDropped() {
+    encoder = new GestureFrameDeltaEncoder(EPSILON, new GestureFrame(1, 1, 1));
+    fill("1", 0);
+    fill("2", 0);
+
+    encoder.serialize(frame, new JsonBuilder());
+    assertEquals(1, encoder.getDroppedCount());
+    encoder.serialize(frame, new JsonBuilder());
+    assertEquals(2, encoder.getDroppedCount());
+  }
+
+  /**
+   * Verify that a delta with one moving finger is much smaller than the full
+   * frame.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSize() throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+
+    fill("1", 5);
+    fill("2", 5);
+    int full = mapper.writeValueAsBytes(send()).length;
+
+    frame.setPointableVector(frame.findPointable("1.2"), GestureFrame.POINTABLE_TIP_POSITION, 25,
+        250, 0);
+    Map<String, Object> delta = send();
+    int size = mapper.writeValueAsBytes(delta).length;
+
+    Map<String, Object> pointables = (Map<String, Object>) delta.get("pointables");
+    assertEquals(1, pointables.size());
+    assertFalse(delta.containsKey("hands"));
+    assertTrue(String.format("delta %d bytes, full %d bytes", size, full), size * 10 < full);
+  }
+
+  /**
+   * Verify that removed entries are sent and removed from the receiver.
+   */
+  @Test
+  public void testRemoved() {
+    fill("1", 2);
+    fill("2", 2);
+    send();
+
+    frame.clear();
+    fill("2", 1);
+    Map<String, Object> delta = send();
+
+    assertTrue(delta.containsKey(GestureFrameDeltaEncoder.FIELD_REMOVED_HANDS));
+    assertTrue(delta.containsKey(GestureFrameDeltaEncoder.FIELD_REMOVED_POINTABLES));
+    assertEquals(-1, received.findHand("1"));
+    assertEquals(-1, received.findPointable("2.1"));
+    assertReceived();
+  }
+
+  /**
+   * Verify that full frames are sent on the keyframe interval and on request.
+   */
+  @Test
+  public void testKeyframes() {
+    encoder.setKeyframeInterval(2);
+    fill("1", 1);
+
+    assertTrue(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+    assertFalse(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+    assertFalse(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+    assertTrue(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+
+    encoder.setKeyframeInterval(0);
+    assertFalse(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+    encoder.requestKeyframe();
+    received.addHand("stale");
+    assertTrue(send().containsKey(GestureFrameDeltaEncoder.FIELD_FULL));
+    assertReceived();
+  }
+}
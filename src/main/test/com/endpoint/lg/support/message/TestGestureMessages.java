@@ -17,6 +17,7 @@
 
 package com.endpoint.lg.support.message;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import interactivespaces.service.image.gesture.Gesture;
@@ -33,6 +34,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 /**
  * Test <code>GestureMessages</code>.
@@ -525,4 +527,66 @@ public class TestGestureMessages {
 
     checkPointable(deserialized.get(TEST_POINTABLE_ID));
   }
+
+  /**
+   * Tests a frame round trip through the map form, and that the frame's data
+   * reads back with the object deserializers.
+   */
+  @Test
+  public void testGestureFrame() {
+    JsonBuilder data = new JsonBuilder();
+    GestureMessages.serializeGestureHands(TEST_HANDS, data);
+    GestureMessages.serializeGesturePointables(TEST_POINTABLES, data);
+    GestureMessages.serializeGestures(TEST_GESTURES, data);
+
+    GestureFrame frame = new GestureFrame();
+    GestureMessages.deserializeGestureFrame(new JsonNavigator(data.build()), frame);
+
+    assertEquals(1, frame.getHandCount());
+    assertEquals(1, frame.getPointableCount());
+    assertEquals(1, frame.getGestureCount());
+
+    JsonBuilder frameData = new JsonBuilder();
+    GestureMessages.serializeGestureFrame(frame, frameData);
+    JsonNavigator serialized = new JsonNavigator(frameData.build());
+
+    checkHand(GestureMessages.deserializeGestureHands(serialized).get(TEST_HAND_ID));
+    checkPointable(GestureMessages.deserializeGesturePointables(serialized).get(
+        TEST_POINTABLE_ID));
+    checkGesture(GestureMessages.deserializeGestures(serialized).get(TEST_GESTURE_ID));
+  }
+
+  /**
+   * Tests that null numbers and vectors in a frame read as NaN, as the
+   * streaming decoder reads them.
+   */
+  @Test
+  public void testGestureFrameNulls() {
+    Map<String, Object> hand = Maps.newHashMap();
+    hand.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_SPHERE_RADIUS, null);
+    hand.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_PALM_POSITION,
+        Arrays.asList(1.5, null, 3.0));
+    hand.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HAND_DIRECTION, null);
+
+    Map<String, Object> pointable = Maps.newHashMap();
+    pointable.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_LENGTH, null);
+    pointable.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLE_TOOL, null);
+
+    Map<String, Object> data = Maps.newHashMap();
+    data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_HANDS, ImmutableMap.of("1", hand));
+    data.put(LeapMotionGestureEndpoint.LEAPMOTION_NAME_POINTABLES,
+        ImmutableMap.of("2", pointable));
+
+    GestureFrame frame = new GestureFrame();
+    GestureMessages.deserializeGestureFrame(new JsonNavigator(data), frame);
+
+    double[] position = frame.getHandVectors(GestureFrame.HAND_PALM_POSITION);
+    assertTrue(Double.isNaN(frame.getSphereRadius(0)));
+    assertEquals(1.5, position[0], 0);
+    assertTrue(Double.isNaN(position[1]));
+    assertTrue(Double.isNaN(frame.getHandVectors(GestureFrame.HAND_DIRECTION)[0]));
+    assertTrue(Double.isNaN(frame.getHandVectors(GestureFrame.HAND_SPHERE_CENTER)[0]));
+    assertTrue(Double.isNaN(frame.getLength(0)));
+    assertFalse(frame.isTool(0));
+  }
 }
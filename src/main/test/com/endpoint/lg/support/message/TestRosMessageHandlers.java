@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import interactivespaces.util.data.json.JsonNavigator;
+
+import com.endpoint.lg.support.metrics.StandardDispatchMetrics;
+
+import org.apache.commons.logging.impl.SimpleLog;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Test <code>RosMessageHandlers</code>.
+ */
+public class TestRosMessageHandlers {
+  private static final String TEST_CHANNEL = "/test/channel";
+  private static final String UNKNOWN_CHANNEL = "/unknown/channel";
+
+  /**
+   * A log which counts warnings and errors.
+   */
+  private static class CountingLog extends SimpleLog {
+    private static final long serialVersionUID = 1L;
+
+    int warnings;
+    int errors;
+
+    CountingLog() {
+      super("test");
+      setLevel(LOG_LEVEL_ALL);
+    }
+
+    @Override
+    protected void log(int type, Object message, Throwable t) {
+      if (type == LOG_LEVEL_WARN) {
+        warnings++;
+      } else if (type == LOG_LEVEL_ERROR) {
+        errors++;
+      }
+    }
+  }
+
+  private CountingLog log;
+  private RosMessageHandlers handlers;
+  private Map<String, Object> message;
+
+  @Before
+  public void setUp() {
+    log = new CountingLog();
+    handlers = new RosMessageHandlers(log);
+    message = Maps.newHashMap();
+    message.put("value", 42);
+  }
+
+  /**
+   * Verify that messages reach their handler and are counted.
+   */
+  @Test
+  public void testDispatch() {
+    final int[] received = new int[1];
+
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        received[0] = json.getInteger("value");
+      }
+    });
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertEquals(42, received[0]);
+    assertEquals(2, handlers.getMessageCount(TEST_CHANNEL));
+    assertTrue(handlers.getHandlerTime(TEST_CHANNEL) >= 0);
+    assertEquals(0, handlers.getMessageCount(UNKNOWN_CHANNEL));
+  }
+
+  /**
+   * Verify that unknown channels are counted but only warned about once per
+   * interval.
+   */
+  @Test
+  public void testUnknownChannel() {
+    for (int i = 0; i < 100; i++) {
+      handlers.handleMessage(UNKNOWN_CHANNEL, message);
+    }
+
+    assertEquals(100, handlers.getUnknownCount(UNKNOWN_CHANNEL));
+    assertEquals(1, log.warnings);
+  }
+
+  /**
+   * Verify that handler errors are logged and still counted.
+   */
+  @Test
+  public void testHandlerError() {
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        throw new IllegalStateException("test");
+      }
+    });
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertEquals(1, log.errors);
+    assertEquals(1, handlers.getMessageCount(TEST_CHANNEL));
+  }
+
+  /**
+   * Verify that every handler of a channel gets the message through one shared
+   * navigator, and that a failing handler does not stop the others.
+   */
+  @Test
+  public void testFanOut() {
+    final int[] received = new int[3];
+    final List<JsonNavigator> navigators = Lists.newArrayList();
+
+    for (int i = 0; i < received.length; i++) {
+      final int index = i;
+      handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+        public void handleMessage(JsonNavigator json) {
+          navigators.add(json);
+          received[index] = json.getInteger("value");
+          if (index == 0) {
+            throw new IllegalStateException("test");
+          }
+        }
+      });
+    }
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertArrayEquals(new int[] { 42, 42, 42 }, received);
+    assertSame(navigators.get(0), navigators.get(2));
+    assertEquals(1, log.errors);
+    assertEquals(3, handlers.getHandlerCount(TEST_CHANNEL));
+    assertEquals(1, handlers.getMessageCount(TEST_CHANNEL));
+  }
+
+  /**
+   * Verify that typed handlers sharing a decoder get one decoded object.
+   */
+  @Test
+  public void testTypedHandlers() {
+    final int[] decodes = new int[1];
+    final List<Object> received = Lists.newArrayList();
+
+    MessageDecoder<Integer> decoder = new MessageDecoder<Integer>() {
+      public Integer decode(JsonNavigator json) {
+        decodes[0]++;
+        return Integer.valueOf(json.getInteger("value"));
+      }
+    };
+    TypedRosMessageHandler<Object> handler = new TypedRosMessageHandler<Object>() {
+      public void handleMessage(Object value) {
+        received.add(value);
+      }
+    };
+
+    handlers.registerHandler(TEST_CHANNEL, decoder, handler);
+    handlers.registerHandler(TEST_CHANNEL, decoder, handler);
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        received.add(json.getInteger("value"));
+      }
+    });
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertEquals(1, decodes[0]);
+    assertEquals(3, received.size());
+    assertEquals(42, received.get(0));
+    assertSame(received.get(1), received.get(2));
+    assertEquals(3, handlers.getHandlerCount(TEST_CHANNEL));
+  }
+
+  /**
+   * Verify that the metrics hook sees dispatches, errors and unknown
+   * channels.
+   */
+  @Test
+  public void testMetrics() {
+    StandardDispatchMetrics metrics = new StandardDispatchMetrics();
+    handlers.setDispatchMetrics(metrics);
+
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        throw new IllegalStateException("test");
+      }
+    });
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+      }
+    });
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+    handlers.handleMessage(TEST_CHANNEL, message);
+    handlers.handleMessage(UNKNOWN_CHANNEL, message);
+
+    assertEquals(2, metrics.getMessageCount(TEST_CHANNEL));
+    assertEquals(2, metrics.getErrorCount(TEST_CHANNEL));
+    assertEquals(2, metrics.getLatency(TEST_CHANNEL).getCount());
+    assertEquals(1, metrics.getUnknownCount(UNKNOWN_CHANNEL));
+  }
+
+  /**
+   * Verify that queued channels run on the executor, and that a stalled
+   * channel does not hold up another.
+   */
+  @Test
+  public void testExecutor() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    final CountDownLatch stall = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch handled = new CountDownLatch(1);
+
+    handlers.setExecutor(pool);
+    handlers.registerHandler("/slow", new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        started.countDown();
+        try {
+          stall.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, 1, SerialMessageQueue.OverflowPolicy.DROP_OLDEST);
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        handled.countDown();
+      }
+    });
+
+    handlers.handleMessage("/slow", message);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 4; i++) {
+      handlers.handleMessage("/slow", message);
+    }
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertTrue(handled.await(5, TimeUnit.SECONDS));
+    assertEquals(1, handlers.getQueue("/slow").getDepth());
+    assertEquals(3, handlers.getQueue("/slow").getDroppedCount());
+    assertEquals(SerialMessageQueue.OverflowPolicy.BLOCK, handlers.getQueue(TEST_CHANNEL)
+        .getPolicy());
+
+    stall.countDown();
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(2, handlers.getMessageCount("/slow"));
+  }
+
+  /**
+   * Verify that messages rejected by the pool are counted and warned about
+   * once.
+   */
+  @Test
+  public void testRejected() {
+    ExecutorService pool = Executors.newFixedThreadPool(1);
+    pool.shutdown();
+
+    handlers.setExecutor(pool);
+    handlers.registerHandler(TEST_CHANNEL, new RosMessageHandler() {
+      public void handleMessage(JsonNavigator json) {
+        fail("Rejected message was handled");
+      }
+    });
+
+    handlers.handleMessage(TEST_CHANNEL, message);
+    handlers.handleMessage(TEST_CHANNEL, message);
+
+    assertEquals(2, handlers.getRejectedCount(TEST_CHANNEL));
+    assertEquals(0, handlers.getQueue(TEST_CHANNEL).getDepth());
+    assertEquals(1, log.warnings);
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Lists;
+
+/**
+ * Test <code>SerialMessageQueue</code>.
+ */
+public class TestSerialMessageQueue {
+  private ExecutorService pool;
+
+  /**
+   * Released each time an <code>Await</code> task starts.
+   */
+  private Semaphore started;
+
+  /**
+   * A task which appends its number to a shared list.
+   */
+  private static class Append implements Runnable {
+    private final List<Integer> log;
+    private final int value;
+
+    Append(List<Integer> log, int value) {
+      this.log = log;
+      this.value = value;
+    }
+
+    public void run() {
+      synchronized (log) {
+        log.add(value);
+      }
+    }
+  }
+
+  /**
+   * A task which waits for a latch, to hold a queue busy.
+   */
+  private class Await implements Runnable {
+    private final CountDownLatch latch;
+
+    Await(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    public void run() {
+      started.release();
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(4);
+    started = new Semaphore(0);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private void awaitIdle(SerialMessageQueue queue, long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (queue.getExecutedCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    assertEquals(count, queue.getExecutedCount());
+  }
+
+  /**
+   * Verify that each queue keeps its order on a shared pool.
+   */
+  @Test
+  public void testOrder() throws Exception {
+    List<Integer> first = Lists.newArrayList();
+    List<Integer> second = Lists.newArrayList();
+    SerialMessageQueue a =
+        new SerialMessageQueue(pool, 1000, SerialMessageQueue.OverflowPolicy.BLOCK);
+    SerialMessageQueue b =
+        new SerialMessageQueue(pool, 1000, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    for (int i = 0; i < 500; i++) {
+      a.execute(new Append(first, i));
+      b.execute(new Append(second, i));
+    }
+
+    awaitIdle(a, 500);
+    awaitIdle(b, 500);
+
+    for (int i = 0; i < 500; i++) {
+      assertEquals(i, first.get(i).intValue());
+      assertEquals(i, second.get(i).intValue());
+    }
+  }
+
+  /**
+   * Verify that a full latest-value-wins queue keeps only the newest tasks.
+   */
+  @Test
+  public void testDropOldest() throws Exception {
+    List<Integer> log = Lists.newArrayList();
+    CountDownLatch latch = new CountDownLatch(1);
+    SerialMessageQueue queue =
+        new SerialMessageQueue(pool, 1, SerialMessageQueue.OverflowPolicy.DROP_OLDEST);
+
+    queue.execute(new Await(latch));
+    assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 10; i++) {
+      queue.execute(new Append(log, i));
+    }
+
+    assertEquals(1, queue.getDepth());
+    assertEquals(9, queue.getDroppedCount());
+    latch.countDown();
+
+    awaitIdle(queue, 2);
+    assertEquals(Lists.newArrayList(9), log);
+    assertEquals(1, queue.getMaxDepth());
+  }
+
+  /**
+   * Verify that a full rejecting queue throws.
+   */
+  @Test
+  public void testReject() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    SerialMessageQueue queue =
+        new SerialMessageQueue(pool, 1, SerialMessageQueue.OverflowPolicy.REJECT);
+
+    queue.execute(new Await(latch));
+    assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+    queue.execute(new Await(latch));
+
+    try {
+      queue.execute(new Await(latch));
+      fail("Full queue accepted a task");
+    } catch (RejectedExecutionException e) {
+      assertEquals(1, queue.getRejectedCount());
+    }
+
+    latch.countDown();
+    awaitIdle(queue, 2);
+  }
+
+  /**
+   * Verify that a full blocking queue waits for room.
+   */
+  @Test
+  public void testBlock() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final SerialMessageQueue queue =
+        new SerialMessageQueue(pool, 1, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    queue.execute(new Await(latch));
+    assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+    queue.execute(new Await(latch));
+
+    Thread submitter = new Thread() {
+      public void run() {
+        queue.execute(new Await(latch));
+      }
+    };
+    submitter.start();
+    submitter.join(50);
+    assertTrue(submitter.isAlive());
+
+    latch.countDown();
+    submitter.join(5000);
+    assertFalse(submitter.isAlive());
+    awaitIdle(queue, 3);
+  }
+
+  /**
+   * Verify that a task is not left queued when the pool rejects its drain.
+   */
+  @Test
+  public void testPoolRejected() {
+    pool.shutdown();
+    SerialMessageQueue queue =
+        new SerialMessageQueue(pool, 4, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    try {
+      queue.execute(new Await(new CountDownLatch(0)));
+      fail("Shut down pool accepted a task");
+    } catch (RejectedExecutionException e) {
+      assertEquals(0, queue.getDepth());
+      assertEquals(1, queue.getRejectedCount());
+    }
+  }
+
+  /**
+   * Verify that a queue keeps draining on its current thread when the pool
+   * rejects the handoff between batches.
+   */
+  @Test
+  public void testHandoffRejected() throws Exception {
+    final Thread[] drainThread = new Thread[1];
+    CountDownLatch latch = new CountDownLatch(1);
+    SerialMessageQueue queue = new SerialMessageQueue(new Executor() {
+      @Override
+      public synchronized void execute(Runnable command) {
+        if (drainThread[0] != null) {
+          throw new RejectedExecutionException("Only one thread");
+        }
+        drainThread[0] = new Thread(command);
+        drainThread[0].start();
+      }
+    }, 64, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    queue.execute(new Await(latch));
+    assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+
+    int count = SerialMessageQueue.BATCH_SIZE * 2 + 1;
+    List<Integer> log = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      queue.execute(new Append(log, i));
+    }
+
+    latch.countDown();
+    awaitIdle(queue, count + 1);
+    assertEquals(count, log.size());
+  }
+
+  /**
+   * Verify that tasks queued while a rejected drain was being scheduled still
+   * run.
+   */
+  @Test
+  public void testPoolRejectedWithOthers() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    final SerialMessageQueue queue = new SerialMessageQueue(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        entered.countDown();
+        try {
+          proceed.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new RejectedExecutionException("Saturated");
+      }
+    }, 4, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    final List<Integer> log = Lists.newArrayList();
+    final boolean[] threw = new boolean[1];
+    Thread submitter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          queue.execute(new Append(log, 1));
+        } catch (RejectedExecutionException e) {
+          threw[0] = true;
+        }
+      }
+    };
+    submitter.start();
+
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    queue.execute(new Append(log, 2));
+    proceed.countDown();
+    submitter.join(5000);
+
+    assertFalse(submitter.isAlive());
+    assertTrue(threw[0]);
+    assertEquals(Lists.newArrayList(2), log);
+    assertEquals(0, queue.getDepth());
+    assertEquals(1, queue.getRejectedCount());
+  }
+
+  /**
+   * Verify that a queue keeps draining on its current thread when a task
+   * throws and the pool then rejects the handoff, and that the exception
+   * still reaches the thread.
+   */
+  @Test
+  public void testThrowHandoffRejected() throws Exception {
+    final Thread[] drainThread = new Thread[1];
+    final List<Throwable> uncaught = Lists.newArrayList();
+    CountDownLatch latch = new CountDownLatch(1);
+    SerialMessageQueue queue = new SerialMessageQueue(new Executor() {
+      @Override
+      public synchronized void execute(Runnable command) {
+        if (drainThread[0] != null) {
+          throw new RejectedExecutionException("Only one thread");
+        }
+        drainThread[0] = new Thread(command);
+        drainThread[0].setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+          @Override
+          public void uncaughtException(Thread thread, Throwable e) {
+            synchronized (uncaught) {
+              uncaught.add(e);
+            }
+          }
+        });
+        drainThread[0].start();
+      }
+    }, 64, SerialMessageQueue.OverflowPolicy.BLOCK);
+
+    queue.execute(new Await(latch));
+    assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+
+    final IllegalStateException error = new IllegalStateException("Task failed");
+    queue.execute(new Runnable() {
+      @Override
+      public void run() {
+        throw error;
+      }
+    });
+
+    int count = 3;
+    List<Integer> log = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      queue.execute(new Append(log, i));
+    }
+
+    latch.countDown();
+    awaitIdle(queue, count + 2);
+    drainThread[0].join(5000);
+
+    assertEquals(count, log.size());
+    assertEquals(0, queue.getDepth());
+    synchronized (uncaught) {
+      assertEquals(Lists.<Throwable> newArrayList(error), uncaught);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.message;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import interactivespaces.util.data.json.JsonNavigator;
+
+import com.endpoint.lg.support.domain.streetview.StreetviewPov;
+
+import org.apache.commons.logging.impl.SimpleLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Test <code>WebsocketMessageHandlers</code>.
+ */
+public class TestWebsocketMessageHandlers {
+  private static final String POV_TYPE = "pov";
+  private static final String CHAT_TYPE = "chat";
+
+  private ExecutorService pool;
+  private WebsocketMessageHandlers handlers;
+
+  /**
+   * Records the values it handles, stalling on the first until released.
+   */
+  private static class StallingHandler implements WebsocketMessageHandler {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch stall = new CountDownLatch(1);
+    final List<Integer> values = Lists.newCopyOnWriteArrayList();
+
+    public void handleMessage(String connectionId, JsonNavigator data) {
+      values.add(data.getInteger("value"));
+      started.countDown();
+      try {
+        stall.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static Map<String, Object> buildMessage(String type, int value) {
+    Map<String, Object> data = Maps.newHashMap();
+    data.put("value", value);
+
+    Map<String, Object> message = Maps.newHashMap();
+    message.put(MessageWrapper.MESSAGE_FIELD_TYPE, type);
+    message.put(MessageWrapper.MESSAGE_FIELD_DATA, data);
+
+    return message;
+  }
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(2);
+    handlers = new WebsocketMessageHandlers(new SimpleLog("test"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.shutdownNow();
+    assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Verify that uncoalesced types are handled inline and in order.
+   */
+  @Test
+  public void testInline() {
+    final List<Integer> values = Lists.newArrayList();
+    handlers.registerHandler(CHAT_TYPE, new WebsocketMessageHandler() {
+      public void handleMessage(String connectionId, JsonNavigator data) {
+        values.add(data.getInteger("value"));
+      }
+    });
+
+    for (int i = 0; i < 3; i++) {
+      handlers.handleMessage("a", buildMessage(CHAT_TYPE, i));
+    }
+
+    assertEquals(Lists.newArrayList(0, 1, 2), values);
+    assertFalse(handlers.isCoalesced(CHAT_TYPE));
+    assertEquals(0, handlers.getDroppedCount(CHAT_TYPE));
+  }
+
+  /**
+   * Verify that a burst of a coalesced type only delivers the newest message.
+   */
+  @Test
+  public void testCoalesced() throws Exception {
+    StallingHandler handler = new StallingHandler();
+    handlers.setExecutor(pool);
+    handlers.registerHandler(POV_TYPE, handler);
+    handlers.setCoalesced(POV_TYPE, true);
+
+    handlers.handleMessage("a", buildMessage(POV_TYPE, 0));
+    assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 10; i++) {
+      handlers.handleMessage("a", buildMessage(POV_TYPE, i));
+    }
+
+    assertEquals(9, handlers.getDroppedCount(POV_TYPE));
+
+    handler.stall.countDown();
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(Lists.newArrayList(0, 10), handler.values);
+  }
+
+  /**
+   * Verify that connections are coalesced separately, that idle queues are
+   * freed without closing the connection, and that drop counts survive both.
+   */
+  @Test
+  public void testConnections() throws Exception {
+    StallingHandler handler = new StallingHandler();
+    handlers.setExecutor(pool);
+    handlers.registerHandler(POV_TYPE, handler);
+    handlers.setCoalesced(POV_TYPE, true);
+
+    handlers.handleMessage("a", buildMessage(POV_TYPE, 0));
+    assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+    handlers.handleMessage("a", buildMessage(POV_TYPE, 1));
+    handlers.handleMessage("a", buildMessage(POV_TYPE, 2));
+    handlers.handleMessage("b", buildMessage(POV_TYPE, 3));
+
+    handler.stall.countDown();
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(handler.values.contains(2));
+    assertTrue(handler.values.contains(3));
+    assertEquals(1, handlers.getDroppedCount(POV_TYPE));
+    assertEquals(0, handlers.getConnectionCount());
+
+    handlers.removeConnection("a");
+    assertEquals(1, handlers.getDroppedCount(POV_TYPE));
+  }
+
+  /**
+   * Verify that untyped and typed handlers of a type all get the data, and
+   * that the data is decoded once per decoder.
+   */
+  @Test
+  public void testFanOut() {
+    final List<Object> received = Lists.newArrayList();
+
+    TypedWebsocketMessageHandler<StreetviewPov> handler =
+        new TypedWebsocketMessageHandler<StreetviewPov>() {
+          public void handleMessage(String connectionId, StreetviewPov pov) {
+            received.add(pov);
+          }
+        };
+    handlers.registerHandler(POV_TYPE, StreetviewPov.DECODER, handler);
+    handlers.registerHandler(POV_TYPE, StreetviewPov.DECODER, handler);
+    handlers.registerHandler(POV_TYPE, new WebsocketMessageHandler() {
+      public void handleMessage(String connectionId, JsonNavigator data) {
+        received.add(data.getDouble(StreetviewPov.FIELD_HEADING));
+      }
+    });
+
+    Map<String, Object> data = Maps.newHashMap();
+    data.put(StreetviewPov.FIELD_HEADING, 90.0);
+    data.put(StreetviewPov.FIELD_PITCH, 10.0);
+    Map<String, Object> message = Maps.newHashMap();
+    message.put(MessageWrapper.MESSAGE_FIELD_TYPE, POV_TYPE);
+    message.put(MessageWrapper.MESSAGE_FIELD_DATA, data);
+
+    handlers.handleMessage("a", message);
+
+    assertEquals(3, received.size());
+    assertEquals(90.0, received.get(0));
+    assertSame(received.get(1), received.get(2));
+    assertEquals(90.0, ((StreetviewPov) received.get(1)).getHeading(), 0);
+    assertEquals(3, handlers.getHandlerCount(POV_TYPE));
+  }
+
+  /**
+   * Verify that coalescing needs an executor.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testNoExecutor() {
+    handlers.setCoalesced(POV_TYPE, true);
+  }
+
+  /**
+   * Verify that unknown and missing types are counted and warned about once
+   * per interval.
+   */
+  @Test
+  public void testUnknownType() {
+    final int[] warnings = new int[1];
+    handlers = new WebsocketMessageHandlers(new SimpleLog("test") {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void log(int type, Object message, Throwable t) {
+        if (type == LOG_LEVEL_WARN) {
+          warnings[0]++;
+        }
+      }
+    });
+
+    Map<String, Object> untyped = Maps.newHashMap();
+    for (int i = 0; i < 3; i++) {
+      handlers.handleMessage("a", buildMessage(CHAT_TYPE, i));
+      handlers.handleMessage("a", untyped);
+    }
+
+    assertEquals(3, handlers.getUnknownCount(CHAT_TYPE));
+    assertEquals(3, handlers.getUntypedCount());
+    assertEquals(0, handlers.getUnknownCount(POV_TYPE));
+    assertEquals(2, warnings[0]);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Test <code>LatencyHistogram</code>.
+ */
+public class TestLatencyHistogram {
+  /**
+   * Verify that every value falls in a bucket whose range contains it.
+   */
+  @Test
+  public void testBuckets() {
+    long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE };
+
+    for (long v : values) {
+      int index = LatencyHistogram.bucketIndex(v);
+      assertTrue(LatencyHistogram.bucketHighestValue(index) >= v);
+      if (index > 0) {
+        assertTrue(LatencyHistogram.bucketHighestValue(index - 1) < v);
+      }
+    }
+  }
+
+  /**
+   * Verify percentiles are within the histogram's precision.
+   */
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500.5, histogram.getMean(), 0.001);
+    assertEquals(1000, histogram.getMax());
+
+    long p50 = histogram.getValueAtPercentile(50);
+    assertTrue(p50 >= 500 && p50 <= 500 * 1.07);
+
+    long p99 = histogram.getValueAtPercentile(99);
+    assertTrue(p99 >= 990 && p99 <= 1000);
+
+    assertEquals(1, histogram.getValueAtPercentile(0));
+  }
+
+  /**
+   * Verify copying and resetting.
+   */
+  @Test
+  public void testCopyReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(40);
+
+    LatencyHistogram copy = histogram.copy();
+    histogram.reset();
+
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+
+    assertEquals(2, copy.getCount());
+    assertEquals(40, copy.getMax());
+    assertEquals(0, copy.getValueAtPercentile(50));
+  }
+
+  /**
+   * Verify the serialized summary.
+   */
+  @Test
+  public void testSerialization() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(7);
+
+    Map<String, Object> data = histogram.getJsonBuilder().build();
+
+    assertEquals(1L, data.get(LatencyHistogram.FIELD_COUNT));
+    assertEquals(7L, data.get(LatencyHistogram.FIELD_P99));
+    assertEquals(7L, data.get(LatencyHistogram.FIELD_MAX));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 End Point Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.endpoint.lg.support.metrics;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Test <code>StandardDispatchMetrics</code>.
+ */
+public class TestStandardDispatchMetrics {
+  /**
+   * Verify that dispatches and unknown keys are counted per key.
+   */
+  @Test
+  public void testCounters() {
+    StandardDispatchMetrics metrics = new StandardDispatchMetrics();
+
+    metrics.recordDispatch("a", 5000, 0);
+    metrics.recordDispatch("a", 15000, 2);
+    metrics.recordDispatch("b", 1000, 0);
+    metrics.recordUnknown("c");
+    metrics.recordUnknown("c");
+
+    assertEquals(2, metrics.getMessageCount("a"));
+    assertEquals(2, metrics.getErrorCount("a"));
+    assertEquals(15, metrics.getLatency("a").getMax());
+    assertEquals(1, metrics.getMessageCount("b"));
+    assertEquals(0, metrics.getErrorCount("b"));
+    assertEquals(2, metrics.getUnknownCount("c"));
+    assertEquals(0, metrics.getMessageCount("c"));
+    assertNull(metrics.getLatency("c"));
+  }
+
+  /**
+   * Verify the snapshot layout.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSnapshot() {
+    StandardDispatchMetrics metrics = new StandardDispatchMetrics();
+
+    metrics.recordDispatch("a", 5000, 1);
+    metrics.recordUnknown("c");
+
+    Map<String, Object> data = metrics.getJsonBuilder().build();
+    Map<String, Object> keys = (Map<String, Object>) data.get(StandardDispatchMetrics.FIELD_KEYS);
+    Map<String, Object> a = (Map<String, Object>) keys.get("a");
+    Map<String, Object> unknown =
+        (Map<String, Object>) data.get(StandardDispatchMetrics.FIELD_UNKNOWN);
+    Map<String, Object> latency =
+        (Map<String, Object>) a.get(StandardDispatchMetrics.FIELD_LATENCY);
+
+    assertTrue((Double) data.get(StandardDispatchMetrics.FIELD_INTERVAL) >= 0);
+    assertEquals(1L, a.get(StandardDispatchMetrics.FIELD_MESSAGES));
+    assertEquals(1L, a.get(StandardDispatchMetrics.FIELD_ERRORS));
+    assertTrue((Double) a.get(StandardDispatchMetrics.FIELD_RATE) > 0);
+    assertEquals(1L, latency.get(LatencyHistogram.FIELD_COUNT));
+    assertEquals(1L, unknown.get("c"));
+  }
+
+  /**
+   * Verify that reset clears the counters but keeps the keys.
+   */
+  @Test
+  public void testReset() {
+    StandardDispatchMetrics metrics = new StandardDispatchMetrics();
+
+    metrics.recordDispatch("a", 5000, 1);
+    metrics.recordUnknown("c");
+    metrics.reset();
+
+    assertEquals(0, metrics.getMessageCount("a"));
+    assertEquals(0, metrics.getErrorCount("a"));
+    assertEquals(0, metrics.getLatency("a").getCount());
+    assertEquals(0, metrics.getUnknownCount("c"));
+  }
+}